@@ -49,8 +49,15 @@ public class Environment {
 	public static final String PROP_BASE_PERSISTENCE_TYPE = "persistenceType";
 	public static final String PROP_BASE_SEARCH_ENGINE = "search-engine";
 	public static final String PROP_BASE_WIKI_VERSION = "wiki-version";
+	public static final String PROP_DB_CURSOR_FETCH_SIZE = "db-cursor-fetch-size";
 	public static final String PROP_DB_DRIVER = "driver";
 	public static final String PROP_DB_PASSWORD = "db-password";
+	public static final String PROP_DB_REPLICA_MAX_LAG = "db-replica-max-lag";
+	public static final String PROP_DB_REPLICA_PASSWORD = "db-replica-password";
+	public static final String PROP_DB_REPLICA_URL = "db-replica-url";
+	public static final String PROP_DB_REPLICA_USERNAME = "db-replica-user";
+	public static final String PROP_DB_SHARDS = "db-shards";
+	public static final String PROP_DB_SLOW_STATEMENT_LIMIT = "db-slow-statement-limit";
 	public static final String PROP_DB_TYPE = "database-type";
 	public static final String PROP_DB_URL = "url";
 	public static final String PROP_DB_USERNAME = "db-user";
@@ -83,6 +90,7 @@ public class Environment {
 	public static final String PROP_EXTERNAL_LINK_NEW_WINDOW = "external-link-new-window";
 	public static final String PROP_FILE_BLACKLIST = "file-blacklist";
 	public static final String PROP_FILE_BLACKLIST_TYPE = "file-blacklist-type";
+	public static final String PROP_FILE_CONTENT_ADDRESSED = "file-content-addressed";
 	public static final String PROP_FILE_DIR_FULL_PATH = "file-dir-full-path";
 	public static final String PROP_FILE_DIR_RELATIVE_PATH = "file-dir-relative-path";
 	public static final String PROP_FILE_MAX_FILE_SIZE = "max-file-size";
@@ -91,7 +99,9 @@ public class Environment {
 	public static final String PROP_FILE_WHITELIST = "file-whitelist";
 	public static final String PROP_HONEYPOT_ACCESS_KEY = "honeypot-access-key";
 	public static final String PROP_HONEYPOT_FILTER_ENABLED = "honeypot-enabled";
+	public static final String PROP_IMAGE_MAX_DECODES = "image-max-decodes";
 	public static final String PROP_IMAGE_RESIZE_INCREMENT = "image-resize-increment";
+	public static final String PROP_IMAGE_RESIZE_THREADS = "image-resize-threads";
 	public static final String PROP_MAX_RECENT_CHANGES = "max-recent-changes";
 	public static final String PROP_MAX_TOPIC_VERSION_EXPORT = "max-topic-version-export";
 	public static final String PROP_PARSER_ALLOW_CAPITALIZATION = "allow-capitalization";
@@ -128,10 +138,18 @@ public class Environment {
 	public static final String PROP_RECENT_CHANGES_NUM = "recent-changes-days";
 	public static final String PROP_RSS_ALLOWED = "rss-allowed";
 	public static final String PROP_RSS_TITLE = "rss-title";
+	public static final String PROP_SEARCH_COMMIT_INTERVAL = "search-commit-interval";
+	public static final String PROP_SEARCH_HIGHLIGHT_MAX_CHARS = "search-highlight-max-chars";
+	public static final String PROP_SEARCH_INDEX_RENDERED = "search-index-rendered";
+	public static final String PROP_SEARCH_REBUILD_RAM_BUFFER = "search-rebuild-ram-buffer";
+	public static final String PROP_SEARCH_REBUILD_THREADS = "search-rebuild-threads";
+	public static final String PROP_SEARCH_REFRESH_INTERVAL = "search-refresh-interval";
 	public static final String PROP_SERVER_URL = "server-url";
 	public static final String PROP_SHARED_UPLOAD_VIRTUAL_WIKI = "shared-upload-virtual-wiki";
 	public static final String PROP_SITE_NAME = "site-name";
+	public static final String PROP_TOPIC_CACHE_CONTROL = "topic-cache-control";
 	public static final String PROP_TOPIC_EDITOR = "default-editor";
+	public static final String PROP_TOPIC_PAGE_CACHE = "topic-page-cache";
 	public static final String PROP_TOPIC_SPAM_FILTER = "use-spam-filter";
 	public static final String PROP_TOPIC_USE_PREVIEW = "use-preview";
 	public static final String PROP_TOPIC_USE_SHOW_CHANGES = "use-show-changes";
@@ -223,8 +241,15 @@ public class Environment {
 		this.defaults.setProperty(PROP_BASE_PERSISTENCE_TYPE, WikiBase.PERSISTENCE_INTERNAL);
 		this.defaults.setProperty(PROP_BASE_SEARCH_ENGINE, SearchEngine.SEARCH_ENGINE_LUCENE);
 		this.defaults.setProperty(PROP_BASE_WIKI_VERSION, "0.0.0");
+		this.defaults.setProperty(PROP_DB_CURSOR_FETCH_SIZE, "500");
 		this.defaults.setProperty(PROP_DB_DRIVER, "");
 		this.defaults.setProperty(PROP_DB_PASSWORD, "");
+		this.defaults.setProperty(PROP_DB_REPLICA_MAX_LAG, "10");
+		this.defaults.setProperty(PROP_DB_REPLICA_PASSWORD, "");
+		this.defaults.setProperty(PROP_DB_REPLICA_URL, "");
+		this.defaults.setProperty(PROP_DB_REPLICA_USERNAME, "");
+		this.defaults.setProperty(PROP_DB_SHARDS, "");
+		this.defaults.setProperty(PROP_DB_SLOW_STATEMENT_LIMIT, "250");
 		this.defaults.setProperty(PROP_DB_TYPE, QueryHandler.QUERY_HANDLER_HSQL);
 		this.defaults.setProperty(PROP_DB_URL, "");
 		this.defaults.setProperty(PROP_DB_USERNAME, "");
@@ -257,6 +282,7 @@ public class Environment {
 		this.defaults.setProperty(PROP_EXTERNAL_LINK_NEW_WINDOW, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_FILE_BLACKLIST, "bat,bin,exe,htm,html,js,jsp,php,sh");
 		this.defaults.setProperty(PROP_FILE_BLACKLIST_TYPE, String.valueOf(WikiBase.UPLOAD_BLACKLIST));
+		this.defaults.setProperty(PROP_FILE_CONTENT_ADDRESSED, "false");
 		this.defaults.setProperty(PROP_FILE_DIR_FULL_PATH, "");
 		this.defaults.setProperty(PROP_FILE_DIR_RELATIVE_PATH, "");
 		// size is in bytes
@@ -266,7 +292,9 @@ public class Environment {
 		this.defaults.setProperty(PROP_FILE_WHITELIST, "bmp,gif,jpeg,jpg,pdf,png,properties,svg,txt,zip");
 		this.defaults.setProperty(PROP_HONEYPOT_ACCESS_KEY, "");
 		this.defaults.setProperty(PROP_HONEYPOT_FILTER_ENABLED, Boolean.FALSE.toString());
+		this.defaults.setProperty(PROP_IMAGE_MAX_DECODES, "2");
 		this.defaults.setProperty(PROP_IMAGE_RESIZE_INCREMENT, "100");
+		this.defaults.setProperty(PROP_IMAGE_RESIZE_THREADS, "2");
 		this.defaults.setProperty(PROP_MAX_RECENT_CHANGES, "10000");
 		this.defaults.setProperty(PROP_MAX_TOPIC_VERSION_EXPORT, "1000");
 		this.defaults.setProperty(PROP_PARSER_ALLOW_CAPITALIZATION, Boolean.TRUE.toString());
@@ -299,11 +327,19 @@ public class Environment {
 		this.defaults.setProperty(PROP_RECENT_CHANGES_NUM, "100");
 		this.defaults.setProperty(PROP_RSS_ALLOWED, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_RSS_TITLE, "Wiki Recent Changes");
+		this.defaults.setProperty(PROP_SEARCH_COMMIT_INTERVAL, "60");
+		this.defaults.setProperty(PROP_SEARCH_HIGHLIGHT_MAX_CHARS, "10000");
+		this.defaults.setProperty(PROP_SEARCH_INDEX_RENDERED, "false");
+		this.defaults.setProperty(PROP_SEARCH_REBUILD_RAM_BUFFER, "64");
+		this.defaults.setProperty(PROP_SEARCH_REBUILD_THREADS, "0");
+		this.defaults.setProperty(PROP_SEARCH_REFRESH_INTERVAL, "1000");
 		this.defaults.setProperty(PROP_SERVER_URL, "");
 		this.defaults.setProperty(PROP_SHARED_UPLOAD_VIRTUAL_WIKI, "");
 		this.defaults.setProperty(PROP_SITE_NAME, "JAMWiki");
+		this.defaults.setProperty(PROP_TOPIC_CACHE_CONTROL, "no-cache");
 		// FIXME - hard coding
 		this.defaults.setProperty(PROP_TOPIC_EDITOR, "toolbar");
+		this.defaults.setProperty(PROP_TOPIC_PAGE_CACHE, Boolean.FALSE.toString());
 		this.defaults.setProperty(PROP_TOPIC_SPAM_FILTER, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_PREVIEW, Boolean.TRUE.toString());
 		this.defaults.setProperty(PROP_TOPIC_USE_SHOW_CHANGES, Boolean.TRUE.toString());
@@ -16,9 +16,12 @@
  */
 package org.jamwiki;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import org.jamwiki.model.SearchRebuildStatus;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
 
 /**
@@ -41,6 +44,17 @@ public interface SearchEngine {
 	 */
 	void addToIndex(Topic topic);
 
+	/**
+	 * Copy a consistent snapshot of the search index for a virtual wiki to a
+	 * new backup directory without interrupting searches or index updates.
+	 *
+	 * @param virtualWiki The virtual wiki whose search index is being backed up.
+	 * @return The directory containing the backup, or <code>null</code> if the
+	 *  search engine does not support backups.
+	 * @throws IOException Thrown if the backup cannot be written.
+	 */
+	File backupIndex(String virtualWiki) throws IOException;
+
 	/**
 	 * Force a flush of any pending commits to the search index.
 	 *
@@ -70,20 +84,71 @@ public interface SearchEngine {
 	List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces);
 
 	/**
-	 * Refresh the current search index by re-visiting all topic pages.
+	 * Find a single page of documents that contain a specific search term,
+	 * ordered by relevance.  Only the documents on the requested page are
+	 * scored into the result and summarized, so callers that display results
+	 * a page at a time should use this method instead of
+	 * {@link #findResults(String, String, List)}.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched when
+	 *  retrieving results.  If this list is <code>null</code> or empty then all
+	 *  namespaces will be searched.
+	 * @param cursor The value of {@link SearchResultPage#getNextCursor()} from
+	 *  the previous page of results, or <code>null</code> to retrieve the first
+	 *  page.  If the cursor can no longer be used then the first page of
+	 *  results is returned and {@link SearchResultPage#isReset()} is
+	 *  <code>true</code>.
+	 * @param pageSize The maximum number of results to return.  Implementations
+	 *  may return fewer results per page if the value exceeds the maximum that
+	 *  they support.
+	 * @return A page of search results, including a cursor that can be used to
+	 *  retrieve the following page.
+	 */
+	SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, String cursor, int pageSize);
+
+	/**
+	 * Return progress information for the currently running or most recently
+	 * completed rebuild of the search index.
+	 *
+	 * @return Progress information for the current or most recent index
+	 *  rebuild, or <code>null</code> if no rebuild has been run or the search
+	 *  engine does not track rebuild progress.
+	 */
+	SearchRebuildStatus getRebuildStatus();
+
+	/**
+	 * Refresh the current search index by re-visiting all topic pages.  This
+	 * method blocks until the rebuild is complete; progress can be monitored
+	 * from other threads using {@link #getRebuildStatus()}.
 	 *
 	 * @throws Exception Thrown if any error occurs while re-indexing the Wiki.
 	 */
 	void refreshIndex() throws Exception;
 
 	/**
-	 * Set a flag indicating whether or not every update of the search index
-	 * should be immediately committed to the index.  This is useful mainly
-	 * during batch updates when for performance reasons it is advantageous
-	 * to commit only after the update is done.
+	 * Replace the search index for a virtual wiki with a backup created by
+	 * {@link #backupIndex(String)}.  Searches continue to use the existing
+	 * index until the restored index is swapped into place.
+	 *
+	 * @param virtualWiki The virtual wiki whose search index is being restored.
+	 * @param backupPath The backup directory to restore, or <code>null</code>
+	 *  to restore the most recent backup.
+	 * @throws IOException Thrown if no valid backup is available or the backup
+	 *  cannot be restored.
+	 */
+	void restoreIndex(String virtualWiki, File backupPath) throws IOException;
+
+	/**
+	 * Set a flag indicating whether or not updates of the search index should
+	 * be committed automatically.  When this flag is <code>false</code> updates
+	 * are only committed when {@link #commit(String)} is called.  This is useful
+	 * mainly during batch updates when for performance reasons it is
+	 * advantageous to commit only after the update is done.
 	 *
-	 * @param autoCommit A boolean indicating whether or not every update of
-	 *  the search index should be immediately committed to the index.
+	 * @param autoCommit A boolean indicating whether or not updates of the
+	 *  search index should be committed automatically.
 	 */
 	void setAutoCommit(boolean autoCommit);
 
@@ -93,7 +158,9 @@ public interface SearchEngine {
 	 * such as performing searches.  This is useful in cases such as bulk
 	 * loading of topic versions where the search engine only needs to be
 	 * updated after the last topic version is inserted since all intermediate
-	 * updates would have been overridden.
+	 * updates would have been overridden.  Note that topic saves update the
+	 * search engine through {@link SearchIndexQueue}, which provides its own
+	 * bulk mode for this purpose.
 	 *
 	 * @param disabled <code>true</code> to disable updates to the search engine
 	 *  index.
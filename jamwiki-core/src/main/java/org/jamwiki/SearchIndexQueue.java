@@ -0,0 +1,332 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.model.Topic;
+import org.jamwiki.parser.WikiLink;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Queue of pending search index updates.  Rather than updating the search
+ * index while a topic is being saved, the topic is added to this queue and
+ * the index is updated shortly afterwards by a background thread.  Saving a
+ * topic therefore does not wait for the search engine.
+ * <p>
+ * The queue records only the names of topics that have changed.  When an
+ * update is applied the current version of the topic is retrieved, so if a
+ * topic is saved several times before the queue is processed the index is
+ * updated only once.  Updates are applied in batches, with a single commit
+ * per virtual wiki for each batch.
+ * <p>
+ * Pending topic names are also recorded in a small journal file so that
+ * updates which have not yet been applied when the wiki is stopped are
+ * applied after it is restarted.
+ */
+public class SearchIndexQueue {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(SearchIndexQueue.class.getName());
+	/** Name of the journal file, relative to the search directory. */
+	private static final String JOURNAL_FILE_NAME = "index-queue.journal";
+	/** Maximum number of updates to apply before committing. */
+	private static final int MAX_BATCH_SIZE = 500;
+	/** Separator between the virtual wiki and topic name in queue keys. */
+	private static final char SEPARATOR = '\t';
+	/** Number of active bulk operations.  The queue is not processed while this value is positive. */
+	private int bulkModeCount = 0;
+	/** Updates removed from the pending set that are currently being applied. */
+	private List<String> inProgress = Collections.emptyList();
+	/** The journal file, or <code>null</code> if updates are not journaled. */
+	private final File journalFile;
+	/** Pending updates in the order they were first queued. */
+	private final Set<String> pending = new LinkedHashSet<String>();
+	private final SearchEngine searchEngine;
+	private boolean shutdown = false;
+	private boolean started = false;
+	private Thread worker = null;
+
+	/**
+	 * Create a new queue.  Any updates recorded in the journal file are loaded
+	 * into the queue, and will be applied once {@link #start()} is called.
+	 *
+	 * @param searchEngine The search engine to which updates are applied.
+	 * @param journalFile The file used to record pending updates, or
+	 *  <code>null</code> if pending updates should not be journaled.
+	 */
+	public SearchIndexQueue(SearchEngine searchEngine, File journalFile) {
+		this.searchEngine = searchEngine;
+		this.journalFile = journalFile;
+		if (journalFile != null && journalFile.exists()) {
+			try {
+				for (String line : FileUtils.readLines(journalFile, "UTF-8")) {
+					if (!StringUtils.isBlank(line) && line.indexOf(SEPARATOR) != -1) {
+						this.pending.add(line);
+					}
+				}
+				if (!this.pending.isEmpty()) {
+					logger.info("Recovered " + this.pending.size() + " pending search index updates from " + journalFile.getAbsolutePath());
+				}
+			} catch (IOException e) {
+				logger.error("Unable to read search index journal " + journalFile.getAbsolutePath(), e);
+			}
+		}
+	}
+
+	/**
+	 * Return the default journal file location, or <code>null</code> if the
+	 * wiki's file directory has not yet been configured.
+	 */
+	public static File defaultJournalFile() {
+		String baseDir = Environment.getValue(Environment.PROP_BASE_FILE_DIR);
+		if (StringUtils.isBlank(baseDir)) {
+			return null;
+		}
+		return new File(new File(baseDir, "search"), JOURNAL_FILE_NAME);
+	}
+
+	/**
+	 * Apply a batch of updates to the search engine, then commit once for
+	 * each virtual wiki that was updated.
+	 */
+	private void applyUpdates(List<String> updates) {
+		Set<String> virtualWikis = new TreeSet<String>();
+		for (String update : updates) {
+			int pos = update.indexOf(SEPARATOR);
+			String virtualWiki = update.substring(0, pos);
+			String topicName = update.substring(pos + 1);
+			try {
+				Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, true);
+				if (topic == null || topic.getDeleteDate() != null) {
+					if (topic == null) {
+						WikiLink wikiLink = new WikiLink(null, virtualWiki, topicName);
+						topic = new Topic(virtualWiki, wikiLink.getNamespace(), wikiLink.getArticle());
+					}
+					this.searchEngine.deleteFromIndex(topic);
+				} else {
+					this.searchEngine.updateInIndex(topic);
+				}
+				virtualWikis.add(virtualWiki);
+			} catch (Exception e) {
+				logger.error("Unable to update search index for topic " + virtualWiki + " / " + topicName, e);
+			}
+		}
+		for (String virtualWiki : virtualWikis) {
+			this.searchEngine.commit(virtualWiki);
+		}
+	}
+
+	/**
+	 * Stop suspending queue processing for a bulk operation started with
+	 * {@link #startBulkMode()}.  Once all bulk operations have ended the
+	 * queued updates are applied.
+	 */
+	public synchronized void endBulkMode() {
+		if (this.bulkModeCount > 0) {
+			this.bulkModeCount--;
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Queue a search index update for a topic.  If called during a database
+	 * transaction the update is queued only once the transaction commits, so
+	 * that the index is never updated with changes that are later rolled back.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param topicName The full name (including namespace) of the topic.
+	 */
+	public void enqueue(final String virtualWiki, final String topicName) {
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				public void afterCommit() {
+					addPending(virtualWiki, topicName);
+				}
+			});
+		} else {
+			this.addPending(virtualWiki, topicName);
+		}
+	}
+
+	/**
+	 * Add an update to the pending set and record it in the journal.
+	 */
+	private synchronized void addPending(String virtualWiki, String topicName) {
+		String update = virtualWiki + SEPARATOR + topicName;
+		if (!this.pending.add(update)) {
+			// an update for this topic is already queued
+			return;
+		}
+		if (this.journalFile != null) {
+			try {
+				FileUtils.writeLines(this.journalFile, "UTF-8", Collections.singletonList(update), true);
+			} catch (IOException e) {
+				logger.warn("Unable to write to search index journal " + this.journalFile.getAbsolutePath() + ": " + e.toString());
+			}
+		}
+		this.notifyAll();
+	}
+
+	/**
+	 * Wait until all queued updates have been applied.  If bulk mode is active
+	 * or the queue has not been started then this method returns without
+	 * waiting.
+	 */
+	public synchronized void flush() throws InterruptedException {
+		while (this.started && !this.shutdown && this.bulkModeCount == 0 && (!this.pending.isEmpty() || !this.inProgress.isEmpty())) {
+			this.wait();
+		}
+	}
+
+	/**
+	 * Return the number of updates that have been queued but not yet applied.
+	 */
+	public synchronized int getPendingCount() {
+		return this.pending.size() + this.inProgress.size();
+	}
+
+	/**
+	 * Main loop for the background thread.
+	 */
+	private void processQueue() {
+		while (true) {
+			List<String> batch;
+			synchronized (this) {
+				while (!this.shutdown && (this.pending.isEmpty() || this.bulkModeCount > 0)) {
+					try {
+						this.wait();
+					} catch (InterruptedException e) {
+						// check the shutdown flag
+					}
+				}
+				if (this.shutdown) {
+					return;
+				}
+				batch = new ArrayList<String>(Math.min(this.pending.size(), MAX_BATCH_SIZE));
+				Iterator<String> iterator = this.pending.iterator();
+				while (iterator.hasNext() && batch.size() < MAX_BATCH_SIZE) {
+					batch.add(iterator.next());
+					iterator.remove();
+				}
+				this.inProgress = batch;
+			}
+			long start = System.currentTimeMillis();
+			try {
+				this.applyUpdates(batch);
+			} catch (Throwable t) {
+				logger.error("Failure while applying search index updates", t);
+			}
+			if (logger.isDebugEnabled()) {
+				logger.debug("Applied " + batch.size() + " search index updates in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+			}
+			synchronized (this) {
+				this.inProgress = Collections.emptyList();
+				this.writeJournal();
+				this.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Stop the background thread.  An update that is currently being applied
+	 * is allowed to complete, but any updates remaining in the queue are left
+	 * in the journal to be applied when the wiki is restarted.
+	 */
+	public void shutdown() {
+		Thread thread;
+		synchronized (this) {
+			this.shutdown = true;
+			this.notifyAll();
+			thread = this.worker;
+		}
+		if (thread != null) {
+			try {
+				thread.join(10000);
+			} catch (InterruptedException e) {
+				// ignore, the thread is a daemon thread
+			}
+		}
+	}
+
+	/**
+	 * Start the background thread that applies queued updates.  This method
+	 * is called after the wiki has been initialized since updates cannot be
+	 * applied until the database is available.  Calling this method more than
+	 * once has no effect.
+	 */
+	public synchronized void start() {
+		if (this.started || this.shutdown) {
+			return;
+		}
+		this.started = true;
+		this.worker = new Thread(new Runnable() {
+			public void run() {
+				processQueue();
+			}
+		}, "JAMWiki search index queue");
+		this.worker.setDaemon(true);
+		this.worker.start();
+	}
+
+	/**
+	 * Suspend processing of the queue during a bulk operation such as a topic
+	 * import.  Updates continue to be queued, and since repeated updates of a
+	 * topic are combined each topic is indexed only once after the bulk
+	 * operation ends.  Every call to this method MUST be matched by a call to
+	 * {@link #endBulkMode()}.
+	 */
+	public synchronized void startBulkMode() {
+		this.bulkModeCount++;
+	}
+
+	/**
+	 * Rewrite the journal so that it contains only the updates that have not
+	 * yet been applied.  Must be called while holding the queue lock.
+	 */
+	private void writeJournal() {
+		if (this.journalFile == null) {
+			return;
+		}
+		try {
+			if (this.pending.isEmpty()) {
+				if (this.journalFile.exists() && !this.journalFile.delete()) {
+					FileUtils.writeStringToFile(this.journalFile, "", "UTF-8");
+				}
+				return;
+			}
+			File tempFile = new File(this.journalFile.getParentFile(), this.journalFile.getName() + ".tmp");
+			FileUtils.writeLines(tempFile, "UTF-8", this.pending, false);
+			if (!this.journalFile.delete() || !tempFile.renameTo(this.journalFile)) {
+				FileUtils.copyFile(tempFile, this.journalFile);
+				tempFile.delete();
+			}
+		} catch (IOException e) {
+			logger.warn("Unable to update search index journal " + this.journalFile.getAbsolutePath() + ": " + e.toString());
+		}
+	}
+}
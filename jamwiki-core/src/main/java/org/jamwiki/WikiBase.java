@@ -42,6 +42,8 @@ public class WikiBase {
 	private static AnsiDataHandler dataHandler = null;
 	/** The search engine instance. */
 	private static SearchEngine searchEngine = null;
+	/** The queue of pending search engine updates. */
+	private static SearchIndexQueue searchIndexQueue = null;
 	/** An instance of the current parser. */
 	private static JAMWikiParser parserInstance = null;
 
@@ -142,6 +144,15 @@ public class WikiBase {
 		return WikiBase.searchEngine;
 	}
 
+	/**
+	 * Get the queue used to apply search index updates in the background.
+	 *
+	 * @return The current search index update queue.
+	 */
+	public static SearchIndexQueue getSearchIndexQueue() {
+		return WikiBase.searchIndexQueue;
+	}
+
 	/**
 	 * Reload the data handler, user handler, and other basic wiki
 	 * data structures.
@@ -149,11 +160,31 @@ public class WikiBase {
 	public static void reload() throws IOException {
 		WikiConfiguration.reset();
 		WikiBase.dataHandler = new AnsiDataHandler();
+		WikiBase.shutdown();
+		WikiBase.searchEngine = WikiUtil.searchEngineInstance();
+		WikiBase.searchIndexQueue = new SearchIndexQueue(WikiBase.searchEngine, SearchIndexQueue.defaultJournalFile());
+		if (!WikiUtil.isFirstUse() && !WikiUtil.isUpgrade()) {
+			// updates cannot be applied until setup or upgrade is complete
+			WikiBase.searchIndexQueue.start();
+		}
+		WikiBase.parserInstance = WikiUtil.parserInstance();
+	}
+
+	/**
+	 * Stop the search index update queue and shut down the search engine,
+	 * stopping their background threads and committing pending search index
+	 * changes.  This method must be called when the web application is
+	 * stopped.
+	 *
+	 * @throws IOException Thrown if the search engine cannot be shut down.
+	 */
+	public static void shutdown() throws IOException {
+		if (WikiBase.searchIndexQueue != null) {
+			WikiBase.searchIndexQueue.shutdown();
+		}
 		if (WikiBase.searchEngine != null) {
 			WikiBase.searchEngine.shutdown();
 		}
-		WikiBase.searchEngine = WikiUtil.searchEngineInstance();
-		WikiBase.parserInstance = WikiUtil.parserInstance();
 	}
 
 	/**
@@ -19,12 +19,14 @@ package org.jamwiki.db;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
@@ -71,6 +73,8 @@ import org.springframework.transaction.support.TransactionCallbackWithoutResult;
  */
 public class AnsiDataHandler {
 
+	/** Suggested maximum number of topics to request from a single call to {@link #lookupTopics}. */
+	public static final int BULK_LOOKUP_SIZE = 100;
 	/** Any topic lookup that takes longer than the specified time (in ms) will trigger a log message. */
 	private static final int TIME_LIMIT_TOPIC_LOOKUP = 20;
 	private static final WikiCache<String, List<Interwiki>> CACHE_INTERWIKI_LIST = new WikiCache<String, List<Interwiki>>("org.jamwiki.db.AnsiDataHandler.CACHE_INTERWIKI_LIST");
@@ -110,6 +114,8 @@ public class AnsiDataHandler {
 
 	protected final QueryHandler queryHandler;
 	protected AnsiDataValidator dataValidator = new AnsiDataValidator();
+	/** In-memory index of topic names, used for name suggestions and prefix listings. */
+	private final TitleIndex titleIndex = new TitleIndex(this);
 
 	/**
 	 *
@@ -280,26 +286,31 @@ public class AnsiDataHandler {
 	 * @throws WikiException Thrown if the topic information is invalid.
 	 */
 	public void deleteTopic(final Topic topic, final TopicVersion topicVersion) throws WikiException {
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						if (topicVersion != null) {
-							// delete old recent changes
-							queryHandler().deleteRecentChanges(topic.getTopicId());
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							if (topicVersion != null) {
+								// delete old recent changes
+								queryHandler().deleteRecentChanges(topic.getTopicId());
+							}
+							// update topic to indicate deleted, add delete topic version.  parser output
+							// should be empty since no links or categories to update.
+							ParserOutput parserOutput = new ParserOutput();
+							topic.setDeleteDate(new Timestamp(System.currentTimeMillis()));
+							writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
 						}
-						// update topic to indicate deleted, add delete topic version.  parser output
-						// should be empty since no links or categories to update.
-						ParserOutput parserOutput = new ParserOutput();
-						topic.setDeleteDate(new Timestamp(System.currentTimeMillis()));
-						writeTopic(topic, topicVersion, parserOutput.getCategories(), parserOutput.getLinks());
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -324,7 +335,12 @@ public class AnsiDataHandler {
 	 */
 	public List<Category> getAllCategories(String virtualWiki, Pagination pagination) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().getCategories(virtualWikiId, virtualWiki, pagination);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getCategories(virtualWikiId, virtualWiki, pagination);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -381,7 +397,12 @@ public class AnsiDataHandler {
 	 */
 	public List<String> getAllTopicNames(String virtualWiki, boolean includeDeleted) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return new ArrayList<String>(this.queryHandler().lookupTopicNames(virtualWikiId, includeDeleted).values());
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return new ArrayList<String>(this.queryHandler().lookupTopicNames(virtualWikiId, includeDeleted).values());
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -401,7 +422,12 @@ public class AnsiDataHandler {
 		if (wikiFile == null) {
 			throw new InvalidDataAccessApiUsageException("No topic exists for " + virtualWiki + " / " + topicName);
 		}
-		return this.queryHandler().getAllWikiFileVersions(wikiFile, descending);
+		String previous = DatabaseConnection.bindVirtualWiki(wikiFile.getVirtualWiki());
+		try {
+			return this.queryHandler().getAllWikiFileVersions(wikiFile, descending);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -432,7 +458,12 @@ public class AnsiDataHandler {
 	 */
 	public List<LogItem> getLogItems(String virtualWiki, int logType, Pagination pagination, boolean descending) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().getLogItems(virtualWikiId, virtualWiki, logType, pagination, descending);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getLogItems(virtualWikiId, virtualWiki, logType, pagination, descending);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -450,7 +481,12 @@ public class AnsiDataHandler {
 	 *  wiki, sorted chronologically.
 	 */
 	public List<RecentChange> getRecentChanges(String virtualWiki, Pagination pagination, boolean descending) {
-		return this.queryHandler().getRecentChanges(virtualWiki, pagination, descending);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getRecentChanges(virtualWiki, pagination, descending);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -560,7 +596,12 @@ public class AnsiDataHandler {
 		if (topic == null) {
 			return new ArrayList<RecentChange>();
 		}
-		return this.queryHandler().getTopicHistory(topic.getTopicId(), pagination, descending, topic.getDeleted());
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			return this.queryHandler().getTopicHistory(topic.getTopicId(), pagination, descending, topic.getDeleted());
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -576,7 +617,12 @@ public class AnsiDataHandler {
 	 */
 	public List<String> getTopicsAdmin(String virtualWiki, Pagination pagination) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().getTopicsAdmin(virtualWikiId, pagination);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getTopicsAdmin(virtualWikiId, pagination);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -632,10 +678,15 @@ public class AnsiDataHandler {
 	 *  changes made by a particular user.
 	 */
 	public List<RecentChange> getUserContributions(String virtualWiki, String userString, Pagination pagination, boolean descending) {
-		if (this.lookupWikiUser(userString) != null) {
-			return this.queryHandler().getUserContributionsByLogin(virtualWiki, userString, pagination, descending);
-		} else {
-			return this.queryHandler().getUserContributionsByUserDisplay(virtualWiki, userString, pagination, descending);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			if (this.lookupWikiUser(userString) != null) {
+				return this.queryHandler().getUserContributionsByLogin(virtualWiki, userString, pagination, descending);
+			} else {
+				return this.queryHandler().getUserContributionsByUserDisplay(virtualWiki, userString, pagination, descending);
+			}
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
 		}
 	}
 
@@ -650,9 +701,14 @@ public class AnsiDataHandler {
 		if (virtualWikis != null || CACHE_VIRTUAL_WIKI_LIST.isKeyInCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName())) {
 			return virtualWikis;
 		}
-		virtualWikis = this.queryHandler().getVirtualWikis();
-		CACHE_VIRTUAL_WIKI_LIST.addToCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), virtualWikis);
-		return virtualWikis;
+		String previous = DatabaseConnection.bindVirtualWiki(null);
+		try {
+			virtualWikis = this.queryHandler().getVirtualWikis();
+			CACHE_VIRTUAL_WIKI_LIST.addToCache(CACHE_VIRTUAL_WIKI_LIST.getCacheName(), virtualWikis);
+			return virtualWikis;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -665,8 +721,13 @@ public class AnsiDataHandler {
 	 */
 	public Watchlist getWatchlist(String virtualWiki, int userId) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		List<String> watchedTopicNames = this.queryHandler().getWatchlist(virtualWikiId, userId);
-		return new Watchlist(virtualWiki, watchedTopicNames);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			List<String> watchedTopicNames = this.queryHandler().getWatchlist(virtualWikiId, userId);
+			return new Watchlist(virtualWiki, watchedTopicNames);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -684,7 +745,26 @@ public class AnsiDataHandler {
 	 */
 	public List<RecentChange> getWatchlist(String virtualWiki, int userId, Pagination pagination) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().getWatchlist(virtualWikiId, userId, pagination);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getWatchlist(virtualWikiId, userId, pagination);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Stream the names, types and link counts of all non-deleted topics in a
+	 * virtual wiki to the title index loader.
+	 */
+	void loadTopicTitles(String virtualWiki, TitleIndex.Loader loader) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			this.queryHandler().lookupTopicTitles(virtualWikiId, loader);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -700,7 +780,12 @@ public class AnsiDataHandler {
 	 */
 	public List<Category> lookupCategoryTopics(String virtualWiki, String categoryName) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().lookupCategoryTopics(virtualWikiId, virtualWiki, categoryName);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupCategoryTopics(virtualWikiId, virtualWiki, categoryName);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -808,9 +893,14 @@ public class AnsiDataHandler {
 			return namespaces;
 		}
 		// if not in the cache, go to the database
-		namespaces = this.queryHandler().lookupNamespaces();
-		CACHE_NAMESPACE_LIST.addToCache(CACHE_NAMESPACE_LIST.getCacheName(), namespaces);
-		return namespaces;
+		String previous = DatabaseConnection.bindVirtualWiki(null);
+		try {
+			namespaces = this.queryHandler().lookupNamespaces();
+			CACHE_NAMESPACE_LIST.addToCache(CACHE_NAMESPACE_LIST.getCacheName(), namespaces);
+			return namespaces;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -850,6 +940,123 @@ public class AnsiDataHandler {
 		return this.lookupTopic(virtualWiki, namespace, pageName, deleteOK, true);
 	}
 
+	/**
+	 * Retrieve Topic objects for a group of topic names.  The result is the same
+	 * as calling {@link #lookupTopic(String, String, boolean)} for each topic name
+	 * with <code>deleteOK</code> set to <code>false</code>, but topics that are not
+	 * already cached are retrieved using a small number of queries rather than one
+	 * query per topic, and the topic caches are populated with the results.  Topic
+	 * names that do not match a topic are cached as missing, so pages with many
+	 * links to non-existent topics do not query for them again.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being queried.
+	 * @param topicNames The names of the topics being queried.
+	 * @return A list of Topic objects in the same order as the topic names.  The
+	 *  list contains a <code>null</code> entry for any topic name that does not
+	 *  match an existing, non-deleted topic.
+	 */
+	public List<Topic> lookupTopics(String virtualWiki, Collection<String> topicNames) {
+		// group the topics that are not already cached by namespace
+		Map<Integer, List<String>> uncachedPageNames = new LinkedHashMap<Integer, List<String>>();
+		for (String topicName : topicNames) {
+			if (StringUtils.isBlank(virtualWiki) || StringUtils.isBlank(topicName)) {
+				continue;
+			}
+			Namespace namespace = LinkUtil.retrieveTopicNamespace(virtualWiki, topicName);
+			String pageName = LinkUtil.retrieveTopicPageName(namespace, virtualWiki, topicName);
+			if (CACHE_TOPIC_IDS_BY_NAME.isKeyInCache(this.cacheTopicKey(virtualWiki, namespace, pageName))) {
+				continue;
+			}
+			List<String> pageNames = uncachedPageNames.get(namespace.getId());
+			if (pageNames == null) {
+				pageNames = new ArrayList<String>();
+				uncachedPageNames.put(namespace.getId(), pageNames);
+			}
+			pageNames.add(pageName);
+		}
+		String sharedVirtualWiki = Environment.getValue(Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
+		for (Map.Entry<Integer, List<String>> entry : uncachedPageNames.entrySet()) {
+			Namespace namespace = Namespace.namespace(entry.getKey());
+			List<String> pageNames = entry.getValue();
+			Map<String, Topic> topics = this.lookupTopics(virtualWiki, namespace, pageNames);
+			if (this.useSharedVirtualWiki(virtualWiki, namespace)) {
+				List<String> sharedPageNames = new ArrayList<String>();
+				for (String pageName : pageNames) {
+					if (!topics.containsKey(pageName)) {
+						sharedPageNames.add(pageName);
+					}
+				}
+				if (!sharedPageNames.isEmpty()) {
+					topics.putAll(this.lookupTopics(sharedVirtualWiki, namespace, sharedPageNames));
+				}
+			}
+			// cache misses as well as matches, exactly as lookupTopic() does
+			for (String pageName : pageNames) {
+				String key = this.cacheTopicKey(virtualWiki, namespace, pageName);
+				Topic topic = topics.get(pageName);
+				if (topic == null) {
+					CACHE_TOPIC_IDS_BY_NAME.addToCache(key, null);
+					CACHE_TOPIC_NAMES_BY_NAME.addToCache(key, null);
+				} else {
+					this.cacheTopicRefresh(topic, false, key);
+				}
+			}
+		}
+		// every topic is now cached, so the standard lookup does not query the database
+		List<Topic> results = new ArrayList<Topic>(topicNames.size());
+		for (String topicName : topicNames) {
+			results.add(this.lookupTopic(virtualWiki, topicName, false, true));
+		}
+		return results;
+	}
+
+	/**
+	 * Retrieve the topics in a single virtual wiki and namespace for a group of
+	 * page names, matching page names in the same way as
+	 * {@link #lookupTopic(String, Namespace, String, boolean, boolean)} but
+	 * without checking the shared virtual wiki or the cache.
+	 *
+	 * @return A map of requested page name and topic for every page name that
+	 *  matches a topic, including deleted topics.
+	 */
+	private Map<String, Topic> lookupTopics(String virtualWiki, Namespace namespace, List<String> pageNames) {
+		boolean allowCapitalization = Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION);
+		List<String> queryPageNames = new ArrayList<String>(pageNames);
+		if (allowCapitalization) {
+			for (String pageName : pageNames) {
+				queryPageNames.add(this.alternativePageName(pageName));
+			}
+		}
+		Map<String, Topic> matches;
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			matches = this.queryHandler().lookupTopics(virtualWikiId, namespace, queryPageNames);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+		Map<String, Topic> topics = new HashMap<String, Topic>();
+		for (String pageName : pageNames) {
+			Topic topic = matches.get(pageName);
+			if (topic == null && allowCapitalization) {
+				topic = matches.get(this.alternativePageName(pageName));
+			}
+			if (topic != null) {
+				topics.put(pageName, topic);
+			}
+		}
+		return topics;
+	}
+
+	/**
+	 * Return the page name with the capitalization of its first letter
+	 * changed, as used when {@link Environment#PROP_PARSER_ALLOW_CAPITALIZATION}
+	 * is enabled.
+	 */
+	private String alternativePageName(String pageName) {
+		return (StringUtils.equals(pageName, StringUtils.capitalize(pageName))) ? StringUtils.lowerCase(pageName) : StringUtils.capitalize(pageName);
+	}
+
 	/**
 	 *
 	 */
@@ -890,10 +1097,14 @@ public class AnsiDataHandler {
 		}
 		Topic topic = null;
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, pageName);
-		if (topic == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
-			String alternativePageName = (StringUtils.equals(pageName, StringUtils.capitalize(pageName))) ? StringUtils.lowerCase(pageName) : StringUtils.capitalize(pageName);
-			topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, alternativePageName);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, pageName);
+			if (topic == null && Environment.getBooleanValue(Environment.PROP_PARSER_ALLOW_CAPITALIZATION)) {
+				topic = this.queryHandler().lookupTopic(virtualWikiId, namespace, this.alternativePageName(pageName));
+			}
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
 		}
 		if (topic == null && checkSharedVirtualWiki) {
 			topic = this.lookupTopic(sharedVirtualWiki, namespace, pageName, deleteOK, useCache);
@@ -925,13 +1136,18 @@ public class AnsiDataHandler {
 		if (result != null || CACHE_TOPICS_BY_ID.isKeyInCache(topicId)) {
 			return (result == null) ? null : new Topic(result);
 		}
-		result = this.queryHandler().lookupTopicById(topicId);
-		if (result == null) {
-			logger.info("Attempt to look up topic with non-existent ID: " + topicId + ".  This may indicate a code error");
-		} else {
-			this.cacheTopicRefresh(result, false, null);
+		String previous = DatabaseConnection.bindVirtualWikiForId(topicId);
+		try {
+			result = this.queryHandler().lookupTopicById(topicId);
+			if (result == null) {
+				logger.info("Attempt to look up topic with non-existent ID: " + topicId + ".  This may indicate a code error");
+			} else {
+				this.cacheTopicRefresh(result, false, null);
+			}
+			return result;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
 		}
-		return result;
 	}
 
 	/**
@@ -952,7 +1168,36 @@ public class AnsiDataHandler {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
 		int namespaceStart = (namespaceId != null) ? namespaceId : 0;
 		int namespaceEnd = (namespaceId != null) ? namespaceId : this.findMaxNamespaceId();
-		return this.queryHandler().lookupTopicCount(virtualWikiId, namespaceStart, namespaceEnd);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopicCount(virtualWikiId, namespaceStart, namespaceEnd);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Open a cursor over all non-deleted topics in a virtual wiki, ordered by
+	 * topic ID.  Topics are streamed from the database and bypass the topic
+	 * caches, so this method should be used instead of {@link #getAllTopicNames}
+	 * and {@link #lookupTopic} by maintenance jobs that must visit every topic.
+	 * The returned cursor MUST be closed by the caller.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics being retrieved.
+	 * @param startTopicId Only topics with an ID greater than this value will be
+	 *  returned.  Use zero to retrieve all topics, or the value of
+	 *  {@link TopicCursor#getLastTopicId()} from an earlier cursor to resume
+	 *  an interrupted job.
+	 * @return An open cursor over the virtual wiki's topics.
+	 */
+	public TopicCursor lookupTopicCursor(String virtualWiki, int startTopicId) {
+		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopicCursor(virtualWikiId, startTopicId);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -975,7 +1220,12 @@ public class AnsiDataHandler {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
 		int namespaceStart = (namespaceId != null) ? namespaceId : 0;
 		int namespaceEnd = (namespaceId != null) ? namespaceId : this.findMaxNamespaceId();
-		return this.queryHandler().lookupTopicByType(virtualWikiId, topicType1, topicType2, namespaceStart, namespaceEnd, pagination);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopicByType(virtualWikiId, topicType1, topicType2, namespaceStart, namespaceEnd, pagination);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1012,7 +1262,12 @@ public class AnsiDataHandler {
 			}
 		}
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		topicName = this.queryHandler().lookupTopicName(virtualWikiId, virtualWiki, namespace, pageName);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			topicName = this.queryHandler().lookupTopicName(virtualWikiId, virtualWiki, namespace, pageName);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 		if (topicName == null && checkSharedVirtualWiki) {
 			topicName = this.lookupTopicName(sharedVirtualWiki, namespace, pageName);
 		}
@@ -1043,7 +1298,12 @@ public class AnsiDataHandler {
 		// rare case of two topics such as "eBay" and "EBay".
 		pageName = StringUtils.capitalize(pageName);
 		Topic topic = new Topic(virtualWiki, namespace, pageName);
-		return this.queryHandler().lookupTopicLinks(virtualWikiId, topic);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopicLinks(virtualWikiId, topic);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1057,7 +1317,48 @@ public class AnsiDataHandler {
 	public List<String> lookupTopicLinkOrphans(String virtualWiki, int namespaceId) {
 		// FIXME - caching needed
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().lookupTopicLinkOrphans(virtualWikiId, namespaceId);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupTopicLinkOrphans(virtualWikiId, namespaceId);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Return the names of topics in a namespace whose page names start with the
+	 * given prefix, ignoring case, ordered by popularity.  This method uses an
+	 * in-memory index and is suitable for use on every keystroke of a search
+	 * box.
+	 *
+	 * @param virtualWiki The virtual wiki to query against.
+	 * @param namespace The namespace of the topics being retrieved.
+	 * @param prefix The page name prefix, not including the namespace.
+	 * @param limit The maximum number of topic names to return.
+	 * @return A list of topic names, most popular first.
+	 */
+	public List<String> lookupTopicSuggestions(String virtualWiki, Namespace namespace, String prefix, int limit) {
+		return this.titleIndex.findSuggestions(virtualWiki, namespace, prefix, limit);
+	}
+
+	/**
+	 * Return the names of topics of the given types in a namespace whose page
+	 * names start with the given prefix, ignoring case, in alphabetical order.
+	 * This method uses an in-memory index rather than querying the database.
+	 *
+	 * @param virtualWiki The virtual wiki to query against.
+	 * @param namespace The namespace of the topics being retrieved.
+	 * @param topicType1 The first topic type to return.
+	 * @param topicType2 The second topic type to return.  May be the same as
+	 *  the first type.
+	 * @param prefix The page name prefix, not including the namespace.  An
+	 *  empty prefix returns all matching topics in the namespace.
+	 * @param pagination A Pagination object that specifies the number of
+	 *  results and starting result offset for the result set to be retrieved.
+	 * @return A list of topic names in alphabetical order.
+	 */
+	public List<String> lookupTopicTitles(String virtualWiki, Namespace namespace, TopicType topicType1, TopicType topicType2, String prefix, Pagination pagination) {
+		return this.titleIndex.findTitles(virtualWiki, namespace, topicType1, topicType2, prefix, pagination);
 	}
 
 	/**
@@ -1072,9 +1373,64 @@ public class AnsiDataHandler {
 		if (topicVersion != null || CACHE_TOPIC_VERSIONS.isKeyInCache(topicVersionId)) {
 			return topicVersion;
 		}
-		topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
-		CACHE_TOPIC_VERSIONS.addToCache(topicVersionId, topicVersion);
-		return topicVersion;
+		String previous = DatabaseConnection.bindVirtualWikiForId(topicVersionId);
+		try {
+			topicVersion = this.queryHandler().lookupTopicVersion(topicVersionId);
+			CACHE_TOPIC_VERSIONS.addToCache(topicVersionId, topicVersion);
+			return topicVersion;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Retrieve a group of TopicVersion objects.  The result is the same as calling
+	 * {@link #lookupTopicVersion(int)} for each topic version ID, but topic versions
+	 * that are not already cached are retrieved using a small number of queries
+	 * rather than one query per topic version.
+	 *
+	 * @param topicVersionIds The IDs of the topic versions being retrieved.
+	 * @return A list of TopicVersion objects in the same order as the topic version
+	 *  IDs.  The list contains a <code>null</code> entry for any ID that does not
+	 *  match an existing topic version.
+	 */
+	public List<TopicVersion> lookupTopicVersions(Collection<Integer> topicVersionIds) {
+		Map<Integer, TopicVersion> topicVersions = new HashMap<Integer, TopicVersion>();
+		// group uncached IDs by ID range, since each range may be stored in a
+		// different database
+		Map<Integer, List<Integer>> uncachedIds = new LinkedHashMap<Integer, List<Integer>>();
+		for (Integer topicVersionId : topicVersionIds) {
+			TopicVersion topicVersion = CACHE_TOPIC_VERSIONS.retrieveFromCache(topicVersionId);
+			if (topicVersion != null || CACHE_TOPIC_VERSIONS.isKeyInCache(topicVersionId)) {
+				topicVersions.put(topicVersionId, topicVersion);
+				continue;
+			}
+			int idRange = topicVersionId / DatabaseConnection.SHARD_ID_RANGE;
+			List<Integer> ids = uncachedIds.get(idRange);
+			if (ids == null) {
+				ids = new ArrayList<Integer>();
+				uncachedIds.put(idRange, ids);
+			}
+			ids.add(topicVersionId);
+		}
+		for (List<Integer> ids : uncachedIds.values()) {
+			String previous = DatabaseConnection.bindVirtualWikiForId(ids.get(0));
+			try {
+				Map<Integer, TopicVersion> results = this.queryHandler().lookupTopicVersions(ids);
+				for (Integer topicVersionId : ids) {
+					TopicVersion topicVersion = results.get(topicVersionId);
+					CACHE_TOPIC_VERSIONS.addToCache(topicVersionId, topicVersion);
+					topicVersions.put(topicVersionId, topicVersion);
+				}
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
+		List<TopicVersion> results = new ArrayList<TopicVersion>(topicVersionIds.size());
+		for (Integer topicVersionId : topicVersionIds) {
+			results.add(topicVersions.get(topicVersionId));
+		}
+		return results;
 	}
 
 	/**
@@ -1087,7 +1443,12 @@ public class AnsiDataHandler {
 	 * version, or <code>null</code> if there is no next topic version ID.
 	 */
 	public Integer lookupTopicVersionNextId(int topicVersionId) {
-		return this.queryHandler().lookupTopicVersionNextId(topicVersionId);
+		String previous = DatabaseConnection.bindVirtualWikiForId(topicVersionId);
+		try {
+			return this.queryHandler().lookupTopicVersionNextId(topicVersionId);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1168,7 +1529,13 @@ public class AnsiDataHandler {
 			return null;
 		}
 		int virtualWikiId = this.lookupVirtualWikiId(topic.getVirtualWiki());
-		WikiFile wikiFile = this.queryHandler().lookupWikiFile(virtualWikiId, topic.getVirtualWiki(), topic.getTopicId());
+		WikiFile wikiFile = null;
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			wikiFile = this.queryHandler().lookupWikiFile(virtualWikiId, topic.getVirtualWiki(), topic.getTopicId());
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 		if (wikiFile == null && this.useSharedVirtualWiki(topic.getVirtualWiki(), topic.getNamespace())) {
 			// this is a weird corner case.  if there is a shared virtual wiki
 			// then someone might have uploaded the image to the shared virtual
@@ -1180,6 +1547,62 @@ public class AnsiDataHandler {
 		return wikiFile;
 	}
 
+	/**
+	 * Retrieve WikiFile objects for a group of topic names.  The result is the
+	 * same as calling {@link #lookupWikiFile(String, String)} for each topic name,
+	 * but files are retrieved using one query per virtual wiki rather than one
+	 * query per file.
+	 *
+	 * @param virtualWiki The virtual wiki for the files being queried.
+	 * @param topicNames The topic names for the files being queried.
+	 * @return A list of WikiFile objects in the same order as the topic names.
+	 *  The list contains a <code>null</code> entry for any topic name that does
+	 *  not match an existing file.
+	 */
+	public List<WikiFile> lookupWikiFiles(String virtualWiki, Collection<String> topicNames) {
+		List<Topic> topics = this.lookupTopics(virtualWiki, topicNames);
+		// group topic ids by the virtual wiki of the topic, which may differ from
+		// the requested virtual wiki when a shared virtual wiki is in use
+		Map<String, List<Integer>> topicIds = new LinkedHashMap<String, List<Integer>>();
+		for (Topic topic : topics) {
+			if (topic == null) {
+				continue;
+			}
+			List<Integer> virtualWikiTopicIds = topicIds.get(topic.getVirtualWiki());
+			if (virtualWikiTopicIds == null) {
+				virtualWikiTopicIds = new ArrayList<Integer>();
+				topicIds.put(topic.getVirtualWiki(), virtualWikiTopicIds);
+			}
+			virtualWikiTopicIds.add(topic.getTopicId());
+		}
+		Map<String, Map<Integer, WikiFile>> wikiFiles = new HashMap<String, Map<Integer, WikiFile>>();
+		for (Map.Entry<String, List<Integer>> entry : topicIds.entrySet()) {
+			int virtualWikiId = this.lookupVirtualWikiId(entry.getKey());
+			String previous = DatabaseConnection.bindVirtualWiki(entry.getKey());
+			try {
+				wikiFiles.put(entry.getKey(), this.queryHandler().lookupWikiFiles(virtualWikiId, entry.getKey(), entry.getValue()));
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
+		List<WikiFile> results = new ArrayList<WikiFile>(topics.size());
+		int i = 0;
+		for (String topicName : topicNames) {
+			Topic topic = topics.get(i++);
+			WikiFile wikiFile = null;
+			if (topic != null) {
+				wikiFile = wikiFiles.get(topic.getVirtualWiki()).get(topic.getTopicId());
+				if (wikiFile == null && this.useSharedVirtualWiki(topic.getVirtualWiki(), topic.getNamespace())) {
+					// image description page without a file, so fall back to the standard
+					// lookup to check the shared virtual wiki
+					wikiFile = this.lookupWikiFile(virtualWiki, topicName);
+				}
+			}
+			results.add(wikiFile);
+		}
+		return results;
+	}
+
 	/**
 	 * Return a count of all wiki files for the given virtual wiki.  Deleted
 	 * files are not included in the count.
@@ -1191,7 +1614,37 @@ public class AnsiDataHandler {
 	 */
 	public int lookupWikiFileCount(String virtualWiki) {
 		int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		return this.queryHandler().lookupWikiFileCount(virtualWikiId);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().lookupWikiFileCount(virtualWikiId);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Return a count of all file versions, across all virtual wikis and all
+	 * databases, that reference content in the content-addressed upload store.
+	 * Content that is no longer referenced can safely be deleted.
+	 *
+	 * @param contentHash The hex-encoded SHA-256 hash of the file content.
+	 * @return The total number of file versions referencing the content.
+	 */
+	public int lookupWikiFileVersionContentCount(String contentHash) {
+		List<String> databases = new ArrayList<String>();
+		// null indicates the home database
+		databases.add(null);
+		databases.addAll(DatabaseConnection.getShardVirtualWikis());
+		int count = 0;
+		for (String database : databases) {
+			String previous = DatabaseConnection.bindVirtualWiki(database);
+			try {
+				count += this.queryHandler().lookupWikiFileVersionContentCount(contentHash);
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
+		return count;
 	}
 
 	/**
@@ -1217,9 +1670,14 @@ public class AnsiDataHandler {
 		if (user != null || CACHE_USER_BY_USER_ID.isKeyInCache(userId)) {
 			return user;
 		}
-		user = this.queryHandler().lookupWikiUser(userId);
-		CACHE_USER_BY_USER_ID.addToCache(userId, user);
-		return user;
+		String previous = DatabaseConnection.bindVirtualWiki(null);
+		try {
+			user = this.queryHandler().lookupWikiUser(userId);
+			CACHE_USER_BY_USER_ID.addToCache(userId, user);
+			return user;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1234,12 +1692,17 @@ public class AnsiDataHandler {
 		if (result != null || CACHE_USER_BY_USER_NAME.isKeyInCache(username)) {
 			return result;
 		}
-		int userId = this.queryHandler().lookupWikiUser(username);
-		if (userId != -1) {
-			result = lookupWikiUser(userId);
+		String previous = DatabaseConnection.bindVirtualWiki(null);
+		try {
+			int userId = this.queryHandler().lookupWikiUser(username);
+			if (userId != -1) {
+				result = lookupWikiUser(userId);
+			}
+			CACHE_USER_BY_USER_NAME.addToCache(username, result);
+			return result;
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
 		}
-		CACHE_USER_BY_USER_NAME.addToCache(username, result);
-		return result;
 	}
 
 	/**
@@ -1298,63 +1761,70 @@ public class AnsiDataHandler {
 		// set up the version record to record the topic move
 		final TopicVersion fromVersion = new TopicVersion(user, ipAddress, moveComment, fromTopic.getTopicContent(), 0);
 		fromVersion.setEditType(TopicVersion.EDIT_MOVE);
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						if (!canMoveTopic(fromTopic, destination)) {
-							throw new WikiException(new WikiMessage("move.exception.destinationexists", destination));
-						}
-						Topic toTopic = lookupTopic(fromTopic.getVirtualWiki(), destination, false, false);
-						boolean detinationExistsFlag = (toTopic != null && toTopic.getDeleteDate() == null);
-						if (detinationExistsFlag) {
-							// if the target topic is a redirect to the source topic then the
-							// target must first be deleted.
-							deleteTopic(toTopic, null);
-						}
-						// first rename the source topic with the new destination name
-						String fromTopicName = fromTopic.getName();
-						fromTopic.setName(destination);
-						// only one version needs to create a recent change entry, so do not create a log entry
-						// for the "from" version
-						fromVersion.setRecentChangeAllowed(false);
-						// handle categories
-						ParserOutput fromParserOutput = ParserUtil.parserOutput(fromTopic.getTopicContent(), fromTopic.getVirtualWiki(), fromTopic.getName());
-						writeTopic(fromTopic, fromVersion, fromParserOutput.getCategories(), fromParserOutput.getLinks());
-						// now either create a new topic that is a redirect with the
-						// source topic's old name, or else undelete the new topic and
-						// rename.
-						if (detinationExistsFlag) {
-							// target topic was deleted, so rename and undelete
-							toTopic.setName(fromTopicName);
-							writeTopic(toTopic, null, null, null);
-							undeleteTopic(toTopic, null);
-						} else {
-							// create a new topic that redirects to the destination
-							toTopic = new Topic(fromTopic);
-							toTopic.setTopicId(-1);
-							toTopic.setName(fromTopicName);
+		// bind the virtual wiki so that the nested writes join this transaction
+		// rather than committing separately to a virtual wiki database
+		String previous = DatabaseConnection.bindVirtualWiki(fromTopic.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							if (!canMoveTopic(fromTopic, destination)) {
+								throw new WikiException(new WikiMessage("move.exception.destinationexists", destination));
+							}
+							Topic toTopic = lookupTopic(fromTopic.getVirtualWiki(), destination, false, false);
+							boolean detinationExistsFlag = (toTopic != null && toTopic.getDeleteDate() == null);
+							if (detinationExistsFlag) {
+								// if the target topic is a redirect to the source topic then the
+								// target must first be deleted.
+								deleteTopic(toTopic, null);
+							}
+							// first rename the source topic with the new destination name
+							String fromTopicName = fromTopic.getName();
+							fromTopic.setName(destination);
+							// only one version needs to create a recent change entry, so do not create a log entry
+							// for the "from" version
+							fromVersion.setRecentChangeAllowed(false);
+							// handle categories
+							ParserOutput fromParserOutput = ParserUtil.parserOutput(fromTopic.getTopicContent(), fromTopic.getVirtualWiki(), fromTopic.getName());
+							writeTopic(fromTopic, fromVersion, fromParserOutput.getCategories(), fromParserOutput.getLinks());
+							// now either create a new topic that is a redirect with the
+							// source topic's old name, or else undelete the new topic and
+							// rename.
+							if (detinationExistsFlag) {
+								// target topic was deleted, so rename and undelete
+								toTopic.setName(fromTopicName);
+								writeTopic(toTopic, null, null, null);
+								undeleteTopic(toTopic, null);
+							} else {
+								// create a new topic that redirects to the destination
+								toTopic = new Topic(fromTopic);
+								toTopic.setTopicId(-1);
+								toTopic.setName(fromTopicName);
+							}
+							String content = ParserUtil.parserRedirectContent(destination);
+							toTopic.setRedirectTo(destination);
+							toTopic.setTopicType(TopicType.REDIRECT);
+							toTopic.setTopicContent(content);
+							TopicVersion toVersion = fromVersion;
+							toVersion.setTopicVersionId(-1);
+							toVersion.setVersionContent(content);
+							toVersion.setRecentChangeAllowed(true);
+							ParserOutput toParserOutput = ParserUtil.parserOutput(toTopic.getTopicContent(), toTopic.getVirtualWiki(), toTopic.getName());
+							writeTopic(toTopic, toVersion, toParserOutput.getCategories(), toParserOutput.getLinks());
+						} catch (ParserException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
 						}
-						String content = ParserUtil.parserRedirectContent(destination);
-						toTopic.setRedirectTo(destination);
-						toTopic.setTopicType(TopicType.REDIRECT);
-						toTopic.setTopicContent(content);
-						TopicVersion toVersion = fromVersion;
-						toVersion.setTopicVersionId(-1);
-						toVersion.setVersionContent(content);
-						toVersion.setRecentChangeAllowed(true);
-						ParserOutput toParserOutput = ParserUtil.parserOutput(toTopic.getTopicContent(), toTopic.getVirtualWiki(), toTopic.getName());
-						writeTopic(toTopic, toVersion, toParserOutput.getCategories(), toParserOutput.getLinks());
-					} catch (ParserException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1366,15 +1836,20 @@ public class AnsiDataHandler {
 	 *  chronologically from oldest to newest.
 	 */
 	public void orderTopicVersions(final Topic topic, final List<Integer> topicVersionIdList) {
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
-					queryHandler().orderTopicVersions(topic, virtualWikiId, topicVersionIdList);
-					cacheTopicRefresh(topic, true, null);
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
+						queryHandler().orderTopicVersions(topic, virtualWikiId, topicVersionIdList);
+						cacheTopicRefresh(topic, true, null);
+					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1404,46 +1879,51 @@ public class AnsiDataHandler {
 			throw new WikiException(new WikiMessage("purge.error.onlyversion", Integer.toString(topicVersionId), topic.getName()));
 		}
 		final Integer replacementTopicVersionId = (previousTopicVersionId != null) ? previousTopicVersionId : nextTopicVersionId;
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						// 3. get a reference to any topic which has this topic as its
-						// current_version_id, and update with the value from #2.
-						if (topicVersionId == topic.getCurrentVersionId().intValue()) {
-							topic.setCurrentVersionId(replacementTopicVersionId);
-							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
-							dataValidator.validateTopic(topic);
-							queryHandler().updateTopic(topic, virtualWikiId);
-						}
-						// 4. if there is a topic version with this version as its
-						// previous_topic_version_id update it with the value from #2
-						if (nextTopicVersionId != null) {
-							TopicVersion nextTopicVersion = lookupTopicVersion(nextTopicVersionId);
-							nextTopicVersion.setPreviousTopicVersionId(topicVersion.getPreviousTopicVersionId());
-							queryHandler().updateTopicVersion(nextTopicVersion);
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							// 3. get a reference to any topic which has this topic as its
+							// current_version_id, and update with the value from #2.
+							if (topicVersionId == topic.getCurrentVersionId().intValue()) {
+								topic.setCurrentVersionId(replacementTopicVersionId);
+								int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
+								dataValidator.validateTopic(topic);
+								queryHandler().updateTopic(topic, virtualWikiId);
+							}
+							// 4. if there is a topic version with this version as its
+							// previous_topic_version_id update it with the value from #2
+							if (nextTopicVersionId != null) {
+								TopicVersion nextTopicVersion = lookupTopicVersion(nextTopicVersionId);
+								nextTopicVersion.setPreviousTopicVersionId(topicVersion.getPreviousTopicVersionId());
+								queryHandler().updateTopicVersion(nextTopicVersion);
+							}
+							// 5. delete the topic version record from all tables
+							queryHandler().deleteTopicVersion(topicVersionId, topicVersion.getPreviousTopicVersionId());
+							// 6. create a log record
+							LogItem logItem = LogItem.initLogItemPurge(topic, topicVersion, user, ipAddress);
+							int logVirtualWikiId = lookupVirtualWikiId(logItem.getVirtualWiki());
+							dataValidator.validateLogItem(logItem);
+							queryHandler().insertLogItem(logItem, logVirtualWikiId);
+							RecentChange change = RecentChange.initRecentChange(logItem);
+							int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
+							dataValidator.validateRecentChange(change);
+							queryHandler().insertRecentChange(change, changeVirtualWikiId);
+							CACHE_TOPIC_VERSIONS.removeFromCache(topicVersionId);
+							CACHE_TOPIC_VERSIONS.removeFromCache(nextTopicVersionId);
+							CACHE_TOPICS_BY_ID.removeFromCache(topic.getTopicId());
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
 						}
-						// 5. delete the topic version record from all tables
-						queryHandler().deleteTopicVersion(topicVersionId, topicVersion.getPreviousTopicVersionId());
-						// 6. create a log record
-						LogItem logItem = LogItem.initLogItemPurge(topic, topicVersion, user, ipAddress);
-						int logVirtualWikiId = lookupVirtualWikiId(logItem.getVirtualWiki());
-						dataValidator.validateLogItem(logItem);
-						queryHandler().insertLogItem(logItem, logVirtualWikiId);
-						RecentChange change = RecentChange.initRecentChange(logItem);
-						int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
-						dataValidator.validateRecentChange(change);
-						queryHandler().insertRecentChange(change, changeVirtualWikiId);
-						CACHE_TOPIC_VERSIONS.removeFromCache(topicVersionId);
-						CACHE_TOPIC_VERSIONS.removeFromCache(nextTopicVersionId);
-						CACHE_TOPICS_BY_ID.removeFromCache(topic.getTopicId());
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1489,15 +1969,36 @@ public class AnsiDataHandler {
 	 * on the most recent topic versions, uploads, and user signups.
 	 */
 	public void reloadLogItems() {
+		final Set<String> shardVirtualWikis = DatabaseConnection.getShardVirtualWikis();
 		DatabaseConnection.getTransactionTemplate().execute(
 			new TransactionCallbackWithoutResult() {
 				protected void doInTransactionWithoutResult(TransactionStatus status) {
 					for (VirtualWiki virtualWiki : getVirtualWikiList()) {
-						queryHandler().reloadLogItems(virtualWiki.getVirtualWikiId());
+						if (!shardVirtualWikis.contains(virtualWiki.getName())) {
+							queryHandler().reloadLogItems(virtualWiki.getVirtualWikiId());
+						}
 					}
 				}
 			}
 		);
+		// virtual wikis stored in their own database are reloaded separately
+		for (final VirtualWiki virtualWiki : getVirtualWikiList()) {
+			if (!shardVirtualWikis.contains(virtualWiki.getName())) {
+				continue;
+			}
+			String previous = DatabaseConnection.bindVirtualWiki(virtualWiki.getName());
+			try {
+				DatabaseConnection.getTransactionTemplate().execute(
+					new TransactionCallbackWithoutResult() {
+						protected void doInTransactionWithoutResult(TransactionStatus status) {
+							queryHandler().reloadLogItems(virtualWiki.getVirtualWikiId());
+						}
+					}
+				);
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
 	}
 
 	/**
@@ -1505,14 +2006,25 @@ public class AnsiDataHandler {
 	 * on the most recent topic versions.
 	 */
 	public void reloadRecentChanges() {
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					int limit = Environment.getIntValue(Environment.PROP_MAX_RECENT_CHANGES);
-					queryHandler().reloadRecentChanges(limit);
-				}
+		List<String> databases = new ArrayList<String>();
+		// null indicates the home database
+		databases.add(null);
+		databases.addAll(DatabaseConnection.getShardVirtualWikis());
+		for (String database : databases) {
+			String previous = DatabaseConnection.bindVirtualWiki(database);
+			try {
+				DatabaseConnection.getTransactionTemplate().execute(
+					new TransactionCallbackWithoutResult() {
+						protected void doInTransactionWithoutResult(TransactionStatus status) {
+							int limit = Environment.getIntValue(Environment.PROP_MAX_RECENT_CHANGES);
+							queryHandler().reloadRecentChanges(limit);
+						}
+					}
+				);
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
 			}
-		);
+		}
 	}
 
 	/**
@@ -1553,27 +2065,32 @@ public class AnsiDataHandler {
 	 * @throws WikiException Thrown if a setup failure occurs.
 	 */
 	public void setupSpecialPages(final Locale locale, final WikiUser user, final VirtualWiki virtualWiki) throws WikiException {
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						// create the default topics
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_STARTING_POINTS, user, false, false);
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SIDEBAR, user, true, false);
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_FOOTER, user, true, false);
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_HEADER, user, true, false);
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SYSTEM_CSS, user, true, true);
-						WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_CUSTOM_CSS, user, true, false);
-					} catch (IOException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki.getName());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							// create the default topics
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_STARTING_POINTS, user, false, false);
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SIDEBAR, user, true, false);
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_FOOTER, user, true, false);
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_HEADER, user, true, false);
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_SYSTEM_CSS, user, true, true);
+							WikiDatabase.setupSpecialPage(locale, virtualWiki.getName(), WikiBase.SPECIAL_PAGE_CUSTOM_CSS, user, true, false);
+						} catch (IOException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
+						}
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1694,32 +2211,37 @@ public class AnsiDataHandler {
 		this.dataValidator.validateWikiFile(wikiFile);
 		final int virtualWikiId = this.lookupVirtualWikiId(wikiFile.getVirtualWiki());
 		LinkUtil.validateTopicName(wikiFile.getVirtualWiki(), wikiFile.getFileName(), false);
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						if (wikiFile.getFileId() <= 0) {
-							queryHandler().insertWikiFile(wikiFile, virtualWikiId);
-						} else {
-							queryHandler().updateWikiFile(wikiFile, virtualWikiId);
-						}
-						wikiFileVersion.setFileId(wikiFile.getFileId());
-						// write version
-						dataValidator.validateWikiFileVersion(wikiFileVersion);
-						queryHandler().insertWikiFileVersion(wikiFileVersion);
-						if (imageData != null) {
-							// No more needs of old resized images
-							queryHandler().deleteResizedImages(wikiFile.getFileId());
-							imageData.fileVersionId = wikiFileVersion.getFileVersionId();
-							queryHandler().insertImage(imageData, false);
+		String previous = DatabaseConnection.bindVirtualWiki(wikiFile.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							if (wikiFile.getFileId() <= 0) {
+								queryHandler().insertWikiFile(wikiFile, virtualWikiId);
+							} else {
+								queryHandler().updateWikiFile(wikiFile, virtualWikiId);
+							}
+							wikiFileVersion.setFileId(wikiFile.getFileId());
+							// write version
+							dataValidator.validateWikiFileVersion(wikiFileVersion);
+							queryHandler().insertWikiFileVersion(wikiFileVersion);
+							if (imageData != null) {
+								// No more needs of old resized images
+								queryHandler().deleteResizedImages(wikiFile.getFileId());
+								imageData.fileVersionId = wikiFileVersion.getFileVersionId();
+								queryHandler().insertImage(imageData, false);
+							}
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
 						}
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -1756,6 +2278,7 @@ public class AnsiDataHandler {
 		this.dataValidator.validateNamespace(namespace);
 		this.queryHandler().updateNamespace(namespace);
 		CACHE_NAMESPACE_LIST.removeAllFromCache();
+		DatabaseConnection.markReferenceDataChanged();
 	}
 
 	/**
@@ -1881,98 +2404,105 @@ public class AnsiDataHandler {
 	public void writeTopic(final Topic topic, final TopicVersion topicVersion, final Map<String, String> categories, final List<String> links) throws WikiException {
 		long start = System.currentTimeMillis();
 		LinkUtil.validateTopicName(topic.getVirtualWiki(), topic.getName(), false);
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					try {
-						if (topic.getTopicId() <= 0) {
-							// create the initial topic record
-							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
-							dataValidator.validateTopic(topic);
-							queryHandler().insertTopic(topic, virtualWikiId);
-						} else if (topicVersion == null) {
-							// if there is no version record then update the topic.  if there is a version
-							// record then the topic will be updated AFTER the version record is created.
-							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
-							dataValidator.validateTopic(topic);
-							queryHandler().updateTopic(topic, virtualWikiId);
-						}
-						if (topicVersion != null) {
-							// write version
-							if (topicVersion.getPreviousTopicVersionId() == null && topic.getCurrentVersionId() != null) {
-								topicVersion.setPreviousTopicVersionId(topic.getCurrentVersionId());
-							}
-							List<TopicVersion> topicVersions = new ArrayList<TopicVersion>();
-							topicVersions.add(topicVersion);
-							topicVersion.setTopicId(topic.getTopicId());
-							topicVersion.initializeVersionParams(topic);
-							dataValidator.validateTopicVersion(topicVersion);
-							queryHandler().insertTopicVersions(topicVersions);
-							// update the topic AFTER creating the version so that the current_topic_version_id parameter is set properly
-							topic.setCurrentVersionId(topicVersion.getTopicVersionId());
-							int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
-							dataValidator.validateTopic(topic);
-							queryHandler().updateTopic(topic, virtualWikiId);
-							String authorName = authorName(topicVersion.getAuthorId(), topicVersion.getAuthorDisplay());
-							LogItem logItem = LogItem.initLogItem(topic, topicVersion, authorName);
-							RecentChange change = null;
-							if (logItem != null) {
-								int logVirtualWikiId = lookupVirtualWikiId(logItem.getVirtualWiki());
-								dataValidator.validateLogItem(logItem);
-								queryHandler().insertLogItem(logItem, logVirtualWikiId);
-								change = RecentChange.initRecentChange(logItem);
-							} else {
-								change = RecentChange.initRecentChange(topic, topicVersion, authorName);
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						try {
+							if (topic.getTopicId() <= 0) {
+								// create the initial topic record
+								int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
+								dataValidator.validateTopic(topic);
+								queryHandler().insertTopic(topic, virtualWikiId);
+							} else if (topicVersion == null) {
+								// if there is no version record then update the topic.  if there is a version
+								// record then the topic will be updated AFTER the version record is created.
+								int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
+								dataValidator.validateTopic(topic);
+								queryHandler().updateTopic(topic, virtualWikiId);
 							}
-							if (topicVersion.isRecentChangeAllowed()) {
-								int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
-								dataValidator.validateRecentChange(change);
-								queryHandler().insertRecentChange(change, changeVirtualWikiId);
+							if (topicVersion != null) {
+								// write version
+								if (topicVersion.getPreviousTopicVersionId() == null && topic.getCurrentVersionId() != null) {
+									topicVersion.setPreviousTopicVersionId(topic.getCurrentVersionId());
+								}
+								List<TopicVersion> topicVersions = new ArrayList<TopicVersion>();
+								topicVersions.add(topicVersion);
+								topicVersion.setTopicId(topic.getTopicId());
+								topicVersion.initializeVersionParams(topic);
+								dataValidator.validateTopicVersion(topicVersion);
+								queryHandler().insertTopicVersions(topicVersions);
+								// update the topic AFTER creating the version so that the current_topic_version_id parameter is set properly
+								topic.setCurrentVersionId(topicVersion.getTopicVersionId());
+								int virtualWikiId = lookupVirtualWikiId(topic.getVirtualWiki());
+								dataValidator.validateTopic(topic);
+								queryHandler().updateTopic(topic, virtualWikiId);
+								String authorName = authorName(topicVersion.getAuthorId(), topicVersion.getAuthorDisplay());
+								LogItem logItem = LogItem.initLogItem(topic, topicVersion, authorName);
+								RecentChange change = null;
+								if (logItem != null) {
+									int logVirtualWikiId = lookupVirtualWikiId(logItem.getVirtualWiki());
+									dataValidator.validateLogItem(logItem);
+									queryHandler().insertLogItem(logItem, logVirtualWikiId);
+									change = RecentChange.initRecentChange(logItem);
+								} else {
+									change = RecentChange.initRecentChange(topic, topicVersion, authorName);
+								}
+								if (topicVersion.isRecentChangeAllowed()) {
+									int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
+									dataValidator.validateRecentChange(change);
+									queryHandler().insertRecentChange(change, changeVirtualWikiId);
+								}
 							}
-						}
-						if (categories != null) {
-							// add / remove categories associated with the topic
-							queryHandler().deleteTopicCategories(topic.getTopicId());
-							if (topic.getDeleteDate() == null && !categories.isEmpty()) {
-								List<Category> categoryList = new ArrayList<Category>();
-								for (Map.Entry<String, String> entry : categories.entrySet()) {
-									Category category = new Category();
-									category.setName(entry.getKey());
-									category.setSortKey(entry.getValue());
-									category.setVirtualWiki(topic.getVirtualWiki());
-									category.setChildTopicName(topic.getName());
-									categoryList.add(category);
+							if (categories != null) {
+								// add / remove categories associated with the topic
+								queryHandler().deleteTopicCategories(topic.getTopicId());
+								if (topic.getDeleteDate() == null && !categories.isEmpty()) {
+									List<Category> categoryList = new ArrayList<Category>();
+									for (Map.Entry<String, String> entry : categories.entrySet()) {
+										Category category = new Category();
+										category.setName(entry.getKey());
+										category.setSortKey(entry.getValue());
+										category.setVirtualWiki(topic.getVirtualWiki());
+										category.setChildTopicName(topic.getName());
+										categoryList.add(category);
+									}
+									int virtualWikiId = -1;
+									for (Category category : categoryList) {
+										virtualWikiId = lookupVirtualWikiId(category.getVirtualWiki());
+										dataValidator.validateCategory(category);
+									}
+									queryHandler().insertCategories(categoryList, virtualWikiId, topic.getTopicId());
 								}
-								int virtualWikiId = -1;
-								for (Category category : categoryList) {
-									virtualWikiId = lookupVirtualWikiId(category.getVirtualWiki());
-									dataValidator.validateCategory(category);
+							}
+							if (links != null) {
+								// add / remove links associated with the topic
+								queryHandler().deleteTopicLinks(topic.getTopicId());
+								if (topic.getDeleteDate() == null && !links.isEmpty()) {
+									addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId());
 								}
-								queryHandler().insertCategories(categoryList, virtualWikiId, topic.getTopicId());
 							}
-						}
-						if (links != null) {
-							// add / remove links associated with the topic
-							queryHandler().deleteTopicLinks(topic.getTopicId());
-							if (topic.getDeleteDate() == null && !links.isEmpty()) {
-								addTopicLinks(links, topic.getVirtualWiki(), topic.getTopicId());
+							if (topicVersion != null) {
+								// topic version is only null during changes that aren't user visible.
+								// the index is updated in the background once the transaction commits.
+								WikiBase.getSearchIndexQueue().enqueue(topic.getVirtualWiki(), topic.getName());
 							}
+							// update the cache only if update successful
+							cacheTopicRefresh(topic, true, null);
+							titleIndex.updateTopic(topic);
+						} catch (WikiException e) {
+							status.setRollbackOnly();
+							throw new TransactionRuntimeException(e);
 						}
-						if (topicVersion != null) {
-							// topic version is only null during changes that aren't user visible
-							WikiBase.getSearchEngine().updateInIndex(topic);
-						}
-						// update the cache only if update successful
-						cacheTopicRefresh(topic, true, null);
-					} catch (WikiException e) {
-						status.setRollbackOnly();
-						throw new TransactionRuntimeException(e);
 					}
 				}
+			);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
-		);
-		if (logger.isDebugEnabled()) {
-			logger.debug("Wrote topic " + topic.getVirtualWiki() + ':' + topic.getName() + " with params [categories is null: " + (categories == null) + "] / [links is null: " + (links == null) + "] in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
 		}
 	}
 
@@ -1998,7 +2528,12 @@ public class AnsiDataHandler {
 			topicVersion.initializeVersionParams(topic);
 			this.dataValidator.validateTopicVersion(topicVersion);
 		}
-		this.queryHandler().insertTopicVersions(topicVersions);
+		String previous = DatabaseConnection.bindVirtualWiki(topic.getVirtualWiki());
+		try {
+			this.queryHandler().insertTopicVersions(topicVersions);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -2013,6 +2548,8 @@ public class AnsiDataHandler {
 	 */
 	public void writeUserBlock(final UserBlock userBlock) throws WikiException {
 		this.dataValidator.validateUserBlock(userBlock);
+		final Set<String> shardVirtualWikis = DatabaseConnection.getShardVirtualWikis();
+		final List<LogItem> shardLogItems = new ArrayList<LogItem>();
 		DatabaseConnection.getTransactionTemplate().execute(
 			new TransactionCallbackWithoutResult() {
 				protected void doInTransactionWithoutResult(TransactionStatus status) {
@@ -2028,6 +2565,10 @@ public class AnsiDataHandler {
 							LogItem logItem = LogItem.initLogItem(userBlock, virtualWiki.getName());
 							int logVirtualWikiId = lookupVirtualWikiId(logItem.getVirtualWiki());
 							dataValidator.validateLogItem(logItem);
+							if (shardVirtualWikis.contains(virtualWiki.getName())) {
+								shardLogItems.add(logItem);
+								continue;
+							}
 							queryHandler().insertLogItem(logItem, logVirtualWikiId);
 							RecentChange change = RecentChange.initRecentChange(logItem);
 							int changeVirtualWikiId = lookupVirtualWikiId(change.getVirtualWiki());
@@ -2043,6 +2584,33 @@ public class AnsiDataHandler {
 				}
 			}
 		);
+		this.writeShardLogItems(shardLogItems);
+	}
+
+	/**
+	 * Log items for virtual wikis that are stored in their own database cannot be
+	 * written as part of a home database transaction, so write each of them in a
+	 * separate transaction once the home database changes have been committed.
+	 */
+	private void writeShardLogItems(List<LogItem> logItems) throws WikiException {
+		for (final LogItem logItem : logItems) {
+			final RecentChange change = RecentChange.initRecentChange(logItem);
+			this.dataValidator.validateRecentChange(change);
+			final int virtualWikiId = this.lookupVirtualWikiId(logItem.getVirtualWiki());
+			String previous = DatabaseConnection.bindVirtualWiki(logItem.getVirtualWiki());
+			try {
+				DatabaseConnection.getTransactionTemplate().execute(
+					new TransactionCallbackWithoutResult() {
+						protected void doInTransactionWithoutResult(TransactionStatus status) {
+							queryHandler().insertLogItem(logItem, virtualWikiId);
+							queryHandler().insertRecentChange(change, virtualWikiId);
+						}
+					}
+				);
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
 	}
 
 	/**
@@ -2071,6 +2639,7 @@ public class AnsiDataHandler {
 				}
 			}
 		);
+		DatabaseConnection.markReferenceDataChanged();
 	}
 
 	/**
@@ -2089,25 +2658,30 @@ public class AnsiDataHandler {
 		final String article = LinkUtil.extractTopicLink(virtualWiki, topicName);
 		final String comments = LinkUtil.extractCommentsLink(virtualWiki, topicName);
 		final int virtualWikiId = this.lookupVirtualWikiId(virtualWiki);
-		DatabaseConnection.getTransactionTemplate().execute(
-			new TransactionCallbackWithoutResult() {
-				protected void doInTransactionWithoutResult(TransactionStatus status) {
-					if (watchlist.containsTopic(topicName)) {
-						// remove from watchlist
-						queryHandler().deleteWatchlistEntry(virtualWikiId, article, userId);
-						queryHandler().deleteWatchlistEntry(virtualWikiId, comments, userId);
-						watchlist.remove(article);
-						watchlist.remove(comments);
-					} else {
-						// add to watchlist
-						queryHandler().insertWatchlistEntry(virtualWikiId, article, userId);
-						queryHandler().insertWatchlistEntry(virtualWikiId, comments, userId);
-						watchlist.add(article);
-						watchlist.add(comments);
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						if (watchlist.containsTopic(topicName)) {
+							// remove from watchlist
+							queryHandler().deleteWatchlistEntry(virtualWikiId, article, userId);
+							queryHandler().deleteWatchlistEntry(virtualWikiId, comments, userId);
+							watchlist.remove(article);
+							watchlist.remove(comments);
+						} else {
+							// add to watchlist
+							queryHandler().insertWatchlistEntry(virtualWikiId, article, userId);
+							queryHandler().insertWatchlistEntry(virtualWikiId, comments, userId);
+							watchlist.add(article);
+							watchlist.add(comments);
+						}
 					}
 				}
-			}
-		);
+			);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -2179,11 +2753,14 @@ public class AnsiDataHandler {
 	 */
 	public void writeWikiUser(final WikiUser user, final String username, final String encryptedPassword) throws WikiException {
 		WikiUtil.validateUserName(user.getUsername());
+		final boolean insert = (user.getUserId() <= 0);
+		final Set<String> shardVirtualWikis = DatabaseConnection.getShardVirtualWikis();
+		final List<LogItem> shardLogItems = new ArrayList<LogItem>();
 		DatabaseConnection.getTransactionTemplate().execute(
 			new TransactionCallbackWithoutResult() {
 				protected void doInTransactionWithoutResult(TransactionStatus status) {
 					try {
-						if (user.getUserId() <= 0) {
+						if (insert) {
 							WikiUserDetails userDetails = new WikiUserDetails(username, encryptedPassword);
 							dataValidator.validateUserDetails(userDetails);
 							queryHandler().insertUserDetails(userDetails);
@@ -2201,6 +2778,10 @@ public class AnsiDataHandler {
 							for (VirtualWiki virtualWiki : virtualWikis) {
 								LogItem logItem = LogItem.initLogItem(user, virtualWiki.getName());
 								dataValidator.validateLogItem(logItem);
+								if (shardVirtualWikis.contains(virtualWiki.getName())) {
+									shardLogItems.add(logItem);
+									continue;
+								}
 								queryHandler().insertLogItem(logItem, virtualWiki.getVirtualWikiId());
 								RecentChange change = RecentChange.initRecentChange(logItem);
 								dataValidator.validateRecentChange(change);
@@ -2226,6 +2807,12 @@ public class AnsiDataHandler {
 				}
 			}
 		);
+		// user records are copied to virtual wiki databases, so changes must be
+		// propagated as well as additions
+		DatabaseConnection.markReferenceDataChanged();
+		if (insert) {
+			this.writeShardLogItems(shardLogItems);
+		}
 	}
 
 	/**
@@ -2250,7 +2837,12 @@ public class AnsiDataHandler {
 	 * @param resized Must be true when inserting resized version of image and false otherwise.
 	 */
 	public void insertImage(ImageData imageData, boolean resized) {
-		this.queryHandler().insertImage(imageData, resized);
+		String previous = DatabaseConnection.bindVirtualWikiForId(imageData.fileVersionId);
+		try {
+			this.queryHandler().insertImage(imageData, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -2262,7 +2854,12 @@ public class AnsiDataHandler {
 	 * be negative when data are not an image. Result's data component may be null.
 	 */
 	public ImageData getImageInfo(int fileId, int resized) {
-		return this.queryHandler().getImageInfo(fileId, resized);
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileId);
+		try {
+			return this.queryHandler().getImageInfo(fileId, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -2273,7 +2870,12 @@ public class AnsiDataHandler {
 	 * @return The image data or null if image not found.
 	 */
 	public ImageData getImageData(int fileId, int resized) {
-		return this.queryHandler().getImageData(fileId, resized);
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileId);
+		try {
+			return this.queryHandler().getImageData(fileId, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
 	}
 
 	/**
@@ -2284,6 +2886,126 @@ public class AnsiDataHandler {
 	 * @return The image data or null if image version not found.
 	 */
 	public ImageData getImageVersionData(int fileVersionId, int resized) {
-		return this.queryHandler().getImageVersionData(fileVersionId, resized);
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileVersionId);
+		try {
+			return this.queryHandler().getImageVersionData(fileVersionId, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Get a stream over the data for the latest version of a file.  Unlike
+	 * {@link #getImageData} the data is not loaded into memory, making this
+	 * method suitable for serving large files.
+	 *
+	 * @param fileId File identifier.
+	 * @param resized Image width or zero for original.
+	 * @return An open stream or null if the file data is not found.  The stream
+	 *  MUST be closed by the caller.
+	 */
+	public FileDataStream getImageDataStream(int fileId, int resized) {
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileId);
+		try {
+			return this.queryHandler().getImageDataStream(fileId, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Get a stream over the data for a specific file version.  Unlike
+	 * {@link #getImageVersionData} the data is not loaded into memory, making
+	 * this method suitable for serving large files.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return An open stream or null if the file version data is not found.
+	 *  The stream MUST be closed by the caller.
+	 */
+	public FileDataStream getImageVersionDataStream(int fileVersionId, int resized) {
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileVersionId);
+		try {
+			return this.queryHandler().getImageVersionDataStream(fileVersionId, resized);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Retrieve all file versions stored in the database for a virtual wiki that
+	 * do not yet have image dimensions recorded.  Note that when virtual wikis
+	 * share a database the results will include file versions from all of the
+	 * virtual wikis that use that database.
+	 *
+	 * @param virtualWiki The virtual wiki whose database is being queried.
+	 * @return A list of file versions without image dimensions.
+	 */
+	public List<WikiFileVersion> getWikiFileVersionsWithoutDimensions(String virtualWiki) {
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			return this.queryHandler().getWikiFileVersionsWithoutDimensions();
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Record the original image dimensions for a file version, and once all file
+	 * versions have been updated call {@link #writeFileDimensions(String)} to
+	 * copy the current version dimensions to the file records.
+	 *
+	 * @param fileVersionId The file version being updated.
+	 * @param width The image width, or -1 if the file version is not an image.
+	 * @param height The image height, or -1 if the file version is not an image.
+	 */
+	public void writeFileDimensions(int fileVersionId, int width, int height) {
+		String previous = DatabaseConnection.bindVirtualWikiForId(fileVersionId);
+		try {
+			this.queryHandler().updateWikiFileVersionDimensions(fileVersionId, width, height);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Copy the image dimensions of the current version of each file to any file
+	 * record that does not yet have image dimensions recorded.
+	 *
+	 * @param virtualWiki The virtual wiki whose database is being updated.
+	 */
+	public void writeFileDimensions(String virtualWiki) {
+		String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+		try {
+			this.queryHandler().updateWikiFileDimensions();
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+	}
+
+	/**
+	 * Record that a resized version of the current file version has been
+	 * generated so that subsequent image links do not need to check for it.
+	 *
+	 * @param wikiFile The file that has been resized.  This object's thumbnail
+	 *  widths are replaced with the widths stored in the database, including
+	 *  widths recorded by other threads.
+	 * @param width The width of the resized image.
+	 */
+	public void writeFileThumbnail(WikiFile wikiFile, int width) {
+		if (wikiFile.getThumbnailWidths().contains(width)) {
+			return;
+		}
+		Set<Integer> thumbnailWidths = null;
+		String previous = DatabaseConnection.bindVirtualWiki(wikiFile.getVirtualWiki());
+		try {
+			thumbnailWidths = this.queryHandler().updateWikiFileThumbnails(wikiFile.getFileId(), width);
+		} finally {
+			DatabaseConnection.bindVirtualWiki(previous);
+		}
+		if (thumbnailWidths != null) {
+			// replace rather than modify the set since the file may be shared
+			wikiFile.setThumbnailWidths(thumbnailWidths);
+		}
 	}
 }
@@ -204,6 +204,7 @@ public class AnsiDataValidator {
 		checkLength(wikiFileVersion.getUrl(), 200);
 		checkLength(wikiFileVersion.getMimeType(), 100);
 		checkLength(wikiFileVersion.getAuthorDisplay(), 100);
+		checkLength(wikiFileVersion.getContentHash(), 64);
 		wikiFileVersion.setUploadComment(StringUtils.substring(wikiFileVersion.getUploadComment(), 0, 200));
 	}
 
@@ -16,17 +16,23 @@
  */
 package org.jamwiki.db;
 
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.sql.Types;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.Properties;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
@@ -55,6 +61,7 @@ import org.springframework.dao.IncorrectResultSizeDataAccessException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
 import org.springframework.jdbc.core.PreparedStatementCreator;
 import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
@@ -68,6 +75,12 @@ public class AnsiQueryHandler implements QueryHandler {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(AnsiQueryHandler.class.getName());
 	protected static final String SQL_PROPERTY_FILE_NAME = "sql/sql.ansi.properties";
+	/** Maximum number of bind variables used in a single SQL "in" clause. */
+	protected static final int MAX_IN_CLAUSE_SIZE = 100;
+	/** Maximum length of the jam_file.thumbnail_widths column. */
+	protected static final int MAX_THUMBNAIL_WIDTHS_LENGTH = 200;
+	/** Number of times to retry a thumbnail width update that lost a race with another update. */
+	private static final int MAX_THUMBNAIL_UPDATE_ATTEMPTS = 5;
 
 	protected static String STATEMENT_CONNECTION_VALIDATION_QUERY = null;
 	protected static String STATEMENT_CREATE_AUTHORITIES_TABLE = null;
@@ -103,6 +116,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_CREATE_WATCHLIST_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_FILE_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE = null;
+	protected static String STATEMENT_CREATE_WIKI_FILE_VERSION_CONTENT_HASH_INDEX = null;
 	protected static String STATEMENT_CREATE_WIKI_USER_TABLE = null;
 	protected static String STATEMENT_CREATE_WIKI_USER_LOGIN_INDEX = null;
 	protected static String STATEMENT_CREATE_USER_PREFERENCES_DEFAULTS_TABLE = null;
@@ -218,6 +232,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_TOPIC_BY_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_BY_TYPE = null;
 	protected static String STATEMENT_SELECT_TOPIC_COUNT = null;
+	protected static String STATEMENT_SELECT_TOPIC_CURSOR = null;
 	protected static String STATEMENT_SELECT_TOPIC = null;
 	protected static String STATEMENT_SELECT_TOPIC_HISTORY = null;
 	protected static String STATEMENT_SELECT_TOPIC_LINK_ORPHANS = null;
@@ -227,10 +242,13 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_TOPIC_NAME_LOWER = null;
 	protected static String STATEMENT_SELECT_TOPIC_NAMES = null;
 	protected static String STATEMENT_SELECT_TOPICS_ADMIN = null;
+	protected static String STATEMENT_SELECT_TOPICS_BY_NAME = null;
 	protected static String STATEMENT_SELECT_TOPIC_SEQUENCE = null;
+	protected static String STATEMENT_SELECT_TOPIC_TITLES = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID = null;
 	protected static String STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE = null;
+	protected static String STATEMENT_SELECT_TOPIC_VERSIONS = null;
 	protected static String STATEMENT_SELECT_USER_BLOCKS = null;
 	protected static String STATEMENT_SELECT_USER_BLOCK_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_USERS_AUTHENTICATION = null;
@@ -239,10 +257,14 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_WATCHLIST = null;
 	protected static String STATEMENT_SELECT_WATCHLIST_CHANGES = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE = null;
+	protected static String STATEMENT_SELECT_WIKI_FILES_BY_TOPIC = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_COUNT = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_SEQUENCE = null;
+	protected static String STATEMENT_SELECT_WIKI_FILE_THUMBNAILS = null;
+	protected static String STATEMENT_SELECT_WIKI_FILE_VERSION_CONTENT_COUNT = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE = null;
 	protected static String STATEMENT_SELECT_WIKI_FILE_VERSIONS = null;
+	protected static String STATEMENT_SELECT_WIKI_FILE_VERSIONS_WITHOUT_DIMENSIONS = null;
 	protected static String STATEMENT_SELECT_WIKI_USER = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = null;
 	protected static String STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN = null;
@@ -266,6 +288,10 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_UPDATE_USER_BLOCK = null;
 	protected static String STATEMENT_UPDATE_VIRTUAL_WIKI = null;
 	protected static String STATEMENT_UPDATE_WIKI_FILE = null;
+	protected static String STATEMENT_UPDATE_WIKI_FILE_DIMENSIONS = null;
+	protected static String STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS = null;
+	protected static String STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS_EMPTY = null;
+	protected static String STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS = null;
 	protected static String STATEMENT_UPDATE_WIKI_USER = null;
 	protected static String STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS = null;
 	protected static String STATEMENT_CREATE_FILE_DATA_TABLE = null;
@@ -275,6 +301,8 @@ public class AnsiQueryHandler implements QueryHandler {
 	protected static String STATEMENT_SELECT_FILE_INFO = null;
 	protected static String STATEMENT_SELECT_FILE_DATA = null;
 	protected static String STATEMENT_SELECT_FILE_VERSION_DATA = null;
+	protected static String STATEMENT_SELECT_FILE_DATA_STREAM = null;
+	protected static String STATEMENT_SELECT_FILE_VERSION_DATA_STREAM = null;
 	protected static String STATEMENT_CREATE_SEQUENCES = null;
 	protected static String STATEMENT_DROP_SEQUENCES = null;
 	private Properties props = null;
@@ -293,7 +321,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public boolean authenticateUser(String username, String encryptedPassword) {
 		Object[] args = { username, encryptedPassword };
 		try {
-			DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_USERS_AUTHENTICATION, args, String.class);
+			DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_USERS_AUTHENTICATION, args, String.class);
 			return true;
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// invalid username / password
@@ -457,6 +485,18 @@ public class AnsiQueryHandler implements QueryHandler {
 		return STATEMENT_SELECT_VIRTUAL_WIKIS;
 	}
 
+	/**
+	 * Return a comma-separated list of <code>size</code> bind variable
+	 * placeholders, suitable for use in an SQL "in" clause.
+	 */
+	private String buildInClause(int size) {
+		StringBuilder result = new StringBuilder("?");
+		for (int i = 1; i < size; i++) {
+			result.append(", ?");
+		}
+		return result.toString();
+	}
+
 	/**
 	 * In rare cases a single statement cannot easily be used across databases, such
 	 * as "date is null" and "date is not null".  Rather than having two separate
@@ -492,14 +532,21 @@ public class AnsiQueryHandler implements QueryHandler {
 	public List<WikiFileVersion> getAllWikiFileVersions(WikiFile wikiFile, boolean descending) {
 		// FIXME - sort order ignored
 		Object[] args = { wikiFile.getFileId() };
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_FILE_VERSIONS, args, new WikiFileVersionMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_FILE_VERSIONS, args, new WikiFileVersionMapper());
+	}
+
+	/**
+	 *
+	 */
+	public List<WikiFileVersion> getWikiFileVersionsWithoutDimensions() {
+		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_FILE_VERSIONS_WITHOUT_DIMENSIONS, new WikiFileVersionMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_CATEGORIES,
 				virtualWikiId,
 				pagination.getNumResults(),
@@ -537,7 +584,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		args[index++] = virtualWikiId;
 		args[index++] = pagination.getNumResults();
 		args[index++] = pagination.getOffset();
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
 	/**
@@ -550,7 +597,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -561,7 +608,7 @@ public class AnsiQueryHandler implements QueryHandler {
 			return new ArrayList<RoleMap>();
 		}
 		loginFragment = '%' + loginFragment.toLowerCase() + '%';
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_AUTHORITIES_LOGIN,
 				loginFragment
 		);
@@ -587,7 +634,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public List<RoleMap> getRoleMapByRole(String authority,boolean includeInheritedRoles) {
 		List<Map<String, Object>> results = null;
 		if (includeInheritedRoles) {
-			results = DatabaseConnection.getJdbcTemplate().queryForList(
+			results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 					STATEMENT_SELECT_AUTHORITIES_AUTHORITY_ALL,
 					authority,
 					authority,
@@ -595,7 +642,7 @@ public class AnsiQueryHandler implements QueryHandler {
 					authority
 			);
 		} else {
-			results = DatabaseConnection.getJdbcTemplate().queryForList(
+			results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 					STATEMENT_SELECT_AUTHORITIES_AUTHORITY,
 					authority,
 					authority
@@ -633,14 +680,14 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public List<Role> getRoleMapGroup(String groupName) {
 		Object[] args = { groupName };
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_GROUP_AUTHORITIES, args, new RoleMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_GROUP_AUTHORITIES, args, new RoleMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<RoleMap> getRoleMapGroups() {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_GROUPS_AUTHORITIES
 		);
 		LinkedHashMap<Integer, RoleMap> roleMaps = new LinkedHashMap<Integer, RoleMap>();
@@ -664,28 +711,28 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public List<Role> getRoleMapUser(String login) {
 		Object[] args = { login, login };
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_AUTHORITIES_USER, args, new RoleMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_AUTHORITIES_USER, args, new RoleMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<Role> getRoles() {
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_ROLES, new RoleMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_ROLES, new RoleMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<WikiGroup> getGroups() {
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_GROUPS, new WikiGroupMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_GROUPS, new WikiGroupMapper());
 	}
 
 	/**
 	 *
 	 */
 	public LinkedHashMap<String, Map<String, String>> getUserPreferencesDefaults() {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_USER_PREFERENCES_DEFAULTS
 		);
 		// the map of groups containing the maps to their preferences
@@ -724,7 +771,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -736,7 +783,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
 	}
 
 	/**
@@ -746,7 +793,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		Object[] args = {
 				new Timestamp(System.currentTimeMillis())
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_USER_BLOCKS, args, new UserBlockMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_USER_BLOCKS, args, new UserBlockMapper());
 	}
 
 	/**
@@ -760,7 +807,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -774,14 +821,14 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<VirtualWiki> getVirtualWikis() {
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_VIRTUAL_WIKIS, new VirtualWikiMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_VIRTUAL_WIKIS, new VirtualWikiMapper());
 	}
 
 	/**
@@ -789,7 +836,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public List<String> getWatchlist(int virtualWikiId, int userId) {
 		Object[] args = { virtualWikiId, userId };
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_WATCHLIST, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_WATCHLIST, args, String.class);
 	}
 
 	/**
@@ -802,7 +849,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				pagination.getNumResults(),
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -810,6 +857,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	protected void init(Properties properties) {
 		this.props = properties;
+		StatementMonitor.getInstance().registerStatements(properties);
 		STATEMENT_CONNECTION_VALIDATION_QUERY    = props.getProperty("STATEMENT_CONNECTION_VALIDATION_QUERY");
 		STATEMENT_CREATE_CONFIGURATION_TABLE     = props.getProperty("STATEMENT_CREATE_CONFIGURATION_TABLE");
 		STATEMENT_CREATE_GROUP_TABLE             = props.getProperty("STATEMENT_CREATE_GROUP_TABLE");
@@ -841,6 +889,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_CREATE_USERS_TABLE             = props.getProperty("STATEMENT_CREATE_USERS_TABLE");
 		STATEMENT_CREATE_WIKI_FILE_TABLE         = props.getProperty("STATEMENT_CREATE_WIKI_FILE_TABLE");
 		STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE = props.getProperty("STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE");
+		STATEMENT_CREATE_WIKI_FILE_VERSION_CONTENT_HASH_INDEX = props.getProperty("STATEMENT_CREATE_WIKI_FILE_VERSION_CONTENT_HASH_INDEX");
 		STATEMENT_CREATE_AUTHORITIES_TABLE       = props.getProperty("STATEMENT_CREATE_AUTHORITIES_TABLE");
 		STATEMENT_CREATE_CATEGORY_TABLE          = props.getProperty("STATEMENT_CREATE_CATEGORY_TABLE");
 		STATEMENT_CREATE_CATEGORY_INDEX          = props.getProperty("STATEMENT_CREATE_CATEGORY_INDEX");
@@ -959,6 +1008,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_TOPIC_BY_ID             = props.getProperty("STATEMENT_SELECT_TOPIC_BY_ID");
 		STATEMENT_SELECT_TOPIC_BY_TYPE           = props.getProperty("STATEMENT_SELECT_TOPIC_BY_TYPE");
 		STATEMENT_SELECT_TOPIC_COUNT             = props.getProperty("STATEMENT_SELECT_TOPIC_COUNT");
+		STATEMENT_SELECT_TOPIC_CURSOR            = props.getProperty("STATEMENT_SELECT_TOPIC_CURSOR");
 		STATEMENT_SELECT_TOPIC                   = props.getProperty("STATEMENT_SELECT_TOPIC");
 		STATEMENT_SELECT_TOPIC_HISTORY           = props.getProperty("STATEMENT_SELECT_TOPIC_HISTORY");
 		STATEMENT_SELECT_TOPIC_LINK_ORPHANS      = props.getProperty("STATEMENT_SELECT_TOPIC_LINK_ORPHANS");
@@ -968,10 +1018,13 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_TOPIC_NAME_LOWER        = props.getProperty("STATEMENT_SELECT_TOPIC_NAME_LOWER");
 		STATEMENT_SELECT_TOPIC_NAMES             = props.getProperty("STATEMENT_SELECT_TOPIC_NAMES");
 		STATEMENT_SELECT_TOPICS_ADMIN            = props.getProperty("STATEMENT_SELECT_TOPICS_ADMIN");
+		STATEMENT_SELECT_TOPICS_BY_NAME          = props.getProperty("STATEMENT_SELECT_TOPICS_BY_NAME");
 		STATEMENT_SELECT_TOPIC_SEQUENCE          = props.getProperty("STATEMENT_SELECT_TOPIC_SEQUENCE");
+		STATEMENT_SELECT_TOPIC_TITLES            = props.getProperty("STATEMENT_SELECT_TOPIC_TITLES");
 		STATEMENT_SELECT_TOPIC_VERSION           = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION");
 		STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID   = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID");
 		STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE  = props.getProperty("STATEMENT_SELECT_TOPIC_VERSION_SEQUENCE");
+		STATEMENT_SELECT_TOPIC_VERSIONS          = props.getProperty("STATEMENT_SELECT_TOPIC_VERSIONS");
 		STATEMENT_SELECT_USER_BLOCKS             = props.getProperty("STATEMENT_SELECT_USER_BLOCKS");
 		STATEMENT_SELECT_USER_BLOCK_SEQUENCE     = props.getProperty("STATEMENT_SELECT_USER_BLOCK_SEQUENCE");
 		STATEMENT_SELECT_USERS_AUTHENTICATION    = props.getProperty("STATEMENT_SELECT_USERS_AUTHENTICATION");
@@ -980,10 +1033,14 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_WATCHLIST               = props.getProperty("STATEMENT_SELECT_WATCHLIST");
 		STATEMENT_SELECT_WATCHLIST_CHANGES       = props.getProperty("STATEMENT_SELECT_WATCHLIST_CHANGES");
 		STATEMENT_SELECT_WIKI_FILE               = props.getProperty("STATEMENT_SELECT_WIKI_FILE");
+		STATEMENT_SELECT_WIKI_FILES_BY_TOPIC     = props.getProperty("STATEMENT_SELECT_WIKI_FILES_BY_TOPIC");
 		STATEMENT_SELECT_WIKI_FILE_COUNT         = props.getProperty("STATEMENT_SELECT_WIKI_FILE_COUNT");
 		STATEMENT_SELECT_WIKI_FILE_SEQUENCE      = props.getProperty("STATEMENT_SELECT_WIKI_FILE_SEQUENCE");
+		STATEMENT_SELECT_WIKI_FILE_THUMBNAILS    = props.getProperty("STATEMENT_SELECT_WIKI_FILE_THUMBNAILS");
+		STATEMENT_SELECT_WIKI_FILE_VERSION_CONTENT_COUNT = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSION_CONTENT_COUNT");
 		STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE");
 		STATEMENT_SELECT_WIKI_FILE_VERSIONS      = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSIONS");
+		STATEMENT_SELECT_WIKI_FILE_VERSIONS_WITHOUT_DIMENSIONS = props.getProperty("STATEMENT_SELECT_WIKI_FILE_VERSIONS_WITHOUT_DIMENSIONS");
 		STATEMENT_SELECT_WIKI_USER               = props.getProperty("STATEMENT_SELECT_WIKI_USER");
 		STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS");
 		STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN = props.getProperty("STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN");
@@ -1007,6 +1064,10 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_UPDATE_USER_BLOCK              = props.getProperty("STATEMENT_UPDATE_USER_BLOCK");
 		STATEMENT_UPDATE_VIRTUAL_WIKI            = props.getProperty("STATEMENT_UPDATE_VIRTUAL_WIKI");
 		STATEMENT_UPDATE_WIKI_FILE               = props.getProperty("STATEMENT_UPDATE_WIKI_FILE");
+		STATEMENT_UPDATE_WIKI_FILE_DIMENSIONS    = props.getProperty("STATEMENT_UPDATE_WIKI_FILE_DIMENSIONS");
+		STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS    = props.getProperty("STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS");
+		STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS_EMPTY = props.getProperty("STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS_EMPTY");
+		STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS = props.getProperty("STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS");
 		STATEMENT_UPDATE_WIKI_USER               = props.getProperty("STATEMENT_UPDATE_WIKI_USER");
 		STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS = props.getProperty("STATEMENT_UPDATE_USER_PREFERENCE_DEFAULTS");
 		STATEMENT_CREATE_FILE_DATA_TABLE         = props.getProperty("STATEMENT_CREATE_FILE_DATA_TABLE");
@@ -1016,6 +1077,8 @@ public class AnsiQueryHandler implements QueryHandler {
 		STATEMENT_SELECT_FILE_INFO               = props.getProperty("STATEMENT_SELECT_FILE_INFO");
 		STATEMENT_SELECT_FILE_DATA               = props.getProperty("STATEMENT_SELECT_FILE_DATA");
 		STATEMENT_SELECT_FILE_VERSION_DATA       = props.getProperty("STATEMENT_SELECT_FILE_VERSION_DATA");
+		STATEMENT_SELECT_FILE_DATA_STREAM        = props.getProperty("STATEMENT_SELECT_FILE_DATA_STREAM");
+		STATEMENT_SELECT_FILE_VERSION_DATA_STREAM = props.getProperty("STATEMENT_SELECT_FILE_VERSION_DATA_STREAM");
 		STATEMENT_CREATE_SEQUENCES               = props.getProperty("STATEMENT_CREATE_SEQUENCES");
 		STATEMENT_DROP_SEQUENCES                 = props.getProperty("STATEMENT_DROP_SEQUENCES");
 	}
@@ -1399,8 +1462,8 @@ public class AnsiQueryHandler implements QueryHandler {
 	 *
 	 */
 	public void insertWikiFile(WikiFile wikiFile, int virtualWikiId) {
-		int[] types = (this.autoIncrementPrimaryKeys()) ? new int[9] : new int[10];
-		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[9] : new Object[10];
+		int[] types = (this.autoIncrementPrimaryKeys()) ? new int[12] : new int[13];
+		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[12] : new Object[13];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
 			int fileId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_WIKI_FILE_SEQUENCE);
@@ -1426,6 +1489,12 @@ public class AnsiQueryHandler implements QueryHandler {
 		args[index++] = (wikiFile.getAdminOnly() ? 1 : 0);
 		types[index] = Types.BIGINT;
 		args[index++] = wikiFile.getFileSize();
+		types[index] = Types.INTEGER;
+		args[index++] = wikiFile.getImageWidth();
+		types[index] = Types.INTEGER;
+		args[index++] = wikiFile.getImageHeight();
+		types[index] = Types.VARCHAR;
+		args[index++] = formatThumbnailWidths(wikiFile.getThumbnailWidths());
 		if (this.autoIncrementPrimaryKeys()) {
 			int fileId = this.executeGeneratedKeyInsert(STATEMENT_INSERT_WIKI_FILE_AUTO_INCREMENT, args, types, "file_id");
 			wikiFile.setFileId(fileId);
@@ -1443,8 +1512,8 @@ public class AnsiQueryHandler implements QueryHandler {
 			Timestamp uploadDate = new Timestamp(System.currentTimeMillis());
 			wikiFileVersion.setUploadDate(uploadDate);
 		}
-		int[] types = (this.autoIncrementPrimaryKeys()) ? new int[8] : new int[9];
-		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[8] : new Object[9];
+		int[] types = (this.autoIncrementPrimaryKeys()) ? new int[11] : new int[12];
+		Object[] args = (this.autoIncrementPrimaryKeys()) ? new Object[11] : new Object[12];
 		int index = 0;
 		if (!this.autoIncrementPrimaryKeys()) {
 			int fileVersionId = DatabaseConnection.executeSequenceQuery(STATEMENT_SELECT_WIKI_FILE_VERSION_SEQUENCE);
@@ -1468,6 +1537,12 @@ public class AnsiQueryHandler implements QueryHandler {
 		args[index++] = wikiFileVersion.getMimeType();
 		types[index] = Types.BIGINT;
 		args[index++] = wikiFileVersion.getFileSize();
+		types[index] = Types.INTEGER;
+		args[index++] = wikiFileVersion.getImageWidth();
+		types[index] = Types.INTEGER;
+		args[index++] = wikiFileVersion.getImageHeight();
+		types[index] = Types.VARCHAR;
+		args[index++] = wikiFileVersion.getContentHash();
 		if (this.autoIncrementPrimaryKeys()) {
 			int fileVersionId = this.executeGeneratedKeyInsert(STATEMENT_INSERT_WIKI_FILE_VERSION_AUTO_INCREMENT, args, types, "file_version_id");
 			wikiFileVersion.setFileVersionId(fileVersionId);
@@ -1582,14 +1657,14 @@ public class AnsiQueryHandler implements QueryHandler {
 		// category name must be lowercase since search is case-insensitive
 		categoryName = categoryName.toLowerCase();
 		Object[] args = { virtualWikiId, categoryName };
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_CATEGORY_TOPICS, args, new CategoryMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_CATEGORY_TOPICS, args, new CategoryMapper(virtualWikiName));
 	}
 
 	/**
 	 *
 	 */
 	public Map<String, String> lookupConfiguration() {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_CONFIGURATION
 		);
 		Map<String, String> configuration = new HashMap<String, String>();
@@ -1608,14 +1683,14 @@ public class AnsiQueryHandler implements QueryHandler {
 	 *
 	 */
 	public List<Interwiki> lookupInterwikis() {
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_INTERWIKIS, new InterwikiMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_INTERWIKIS, new InterwikiMapper());
 	}
 
 	/**
 	 *
 	 */
 	public List<Namespace> lookupNamespaces() {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_NAMESPACES
 		);
 		Map<Integer, Namespace> namespaces = new TreeMap<Integer, Namespace>();
@@ -1667,7 +1742,7 @@ public class AnsiQueryHandler implements QueryHandler {
 				namespace.getId()
 		};
 		Topic topic = null;
-		List<Topic> topics = DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_TOPIC, args, new TopicMapper());
+		List<Topic> topics = DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_TOPIC, args, new TopicMapper());
 		if (topics != null && !topics.isEmpty()) {
 			// if there are deleted topics then multiple results are returned,
 			// so use the last (non-deleted) result
@@ -1675,7 +1750,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 		if (topic == null && !namespace.isCaseSensitive() && !pageName.toLowerCase().equals(pageName)) {
 			args[0] = pageName.toLowerCase();
-			topics = DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_TOPIC_LOWER, args, new TopicMapper());
+			topics = DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_TOPIC_LOWER, args, new TopicMapper());
 			if (topics != null && !topics.isEmpty()) {
 				// if there are deleted topics then multiple results are returned,
 				// so use the last (non-deleted) result
@@ -1691,7 +1766,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public Topic lookupTopicById(int topicId) {
 		Object[] args = { topicId };
 		Topic topic = null;
-		List<Topic> topics = DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_TOPIC_BY_ID, args, new TopicMapper());
+		List<Topic> topics = DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_TOPIC_BY_ID, args, new TopicMapper());
 		if (topics != null && !topics.isEmpty()) {
 			// if there are deleted topics then multiple results are returned,
 			// so use the last (non-deleted) result
@@ -1700,11 +1775,55 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topic;
 	}
 
+	/**
+	 *
+	 */
+	public Map<String, Topic> lookupTopics(int virtualWikiId, Namespace namespace, Collection<String> pageNames) {
+		Map<String, Topic> topics = new HashMap<String, Topic>();
+		if (namespace.getId().equals(Namespace.SPECIAL_ID)) {
+			// invalid namespace
+			return topics;
+		}
+		List<String> pageNameList = new ArrayList<String>(pageNames);
+		for (int start = 0; start < pageNameList.size(); start += MAX_IN_CLAUSE_SIZE) {
+			List<String> chunk = pageNameList.subList(start, Math.min(start + MAX_IN_CLAUSE_SIZE, pageNameList.size()));
+			Object[] params = { this.buildInClause(chunk.size()), this.buildInClause(chunk.size()) };
+			String sql = this.formatStatement(STATEMENT_SELECT_TOPICS_BY_NAME, params);
+			List<Object> args = new ArrayList<Object>();
+			args.add(virtualWikiId);
+			args.add(namespace.getId());
+			args.addAll(chunk);
+			for (String pageName : chunk) {
+				args.add(pageName.toLowerCase());
+			}
+			List<Topic> results = DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args.toArray(), new TopicMapper());
+			Map<String, Topic> exactMatches = new HashMap<String, Topic>();
+			Map<String, Topic> lowerMatches = new HashMap<String, Topic>();
+			for (Topic topic : results) {
+				// if there are deleted topics then multiple results are returned for
+				// a page name, so use the last (non-deleted) result
+				exactMatches.put(topic.getPageName(), topic);
+				lowerMatches.put(topic.getPageName().toLowerCase(), topic);
+			}
+			for (String pageName : chunk) {
+				Topic topic = exactMatches.get(pageName);
+				if (topic == null && !namespace.isCaseSensitive() && !pageName.toLowerCase().equals(pageName)) {
+					// same fallback as lookupTopic()
+					topic = lowerMatches.get(pageName.toLowerCase());
+				}
+				if (topic != null) {
+					topics.put(pageName, topic);
+				}
+			}
+		}
+		return topics;
+	}
+
 	/**
 	 *
 	 */
 	public Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_BY_TYPE,
 				virtualWikiId,
 				topicType1.id(),
@@ -1727,7 +1846,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public int lookupTopicCount(int virtualWikiId, int namespaceStart, int namespaceEnd) {
 		Object[] args = { virtualWikiId, namespaceStart, namespaceEnd, TopicType.REDIRECT.id() };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_COUNT, args, Integer.class);
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_COUNT, args, Integer.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			return 0;
 		}
@@ -1744,14 +1863,14 @@ public class AnsiQueryHandler implements QueryHandler {
 		String topicName = null;
 		Object[] args = { pageName, virtualWikiId, namespace.getId() };
 		try {
-			topicName = DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_NAME, args, String.class);
+			topicName = DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_NAME, args, String.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 		}
 		if (topicName == null && !namespace.isCaseSensitive() && !pageName.toLowerCase().equals(pageName)) {
 			args[0] = pageName.toLowerCase();
 			try {
-				topicName = DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_NAME_LOWER, args, String.class);
+				topicName = DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_NAME_LOWER, args, String.class);
 			} catch (IncorrectResultSizeDataAccessException e) {
 				// no matching result
 			}
@@ -1763,7 +1882,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 *
 	 */
 	public List<String[]> lookupTopicLinks(int virtualWikiId, Topic topic) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_LINKS,
 				virtualWikiId,
 				topic.getNamespace().getId(),
@@ -1786,14 +1905,55 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public List<String> lookupTopicLinkOrphans(int virtualWikiId, int namespaceId){
 		Object[] args = { virtualWikiId, namespaceId, TopicType.REDIRECT.id() };
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPIC_LINK_ORPHANS, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_TOPIC_LINK_ORPHANS, args, String.class);
+	}
+
+	/**
+	 *
+	 */
+	public TopicCursor lookupTopicCursor(int virtualWikiId, int startTopicId) {
+		Connection conn = DatabaseConnection.getConnection();
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean autoCommit = false;
+		try {
+			autoCommit = conn.getAutoCommit();
+			if (autoCommit) {
+				// some drivers (such as PostgreSQL) ignore the fetch size and read
+				// all results into memory unless auto-commit is disabled
+				conn.setAutoCommit(false);
+			}
+			stmt = conn.prepareStatement(STATEMENT_SELECT_TOPIC_CURSOR, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(this.cursorFetchSize());
+			stmt.setInt(1, virtualWikiId);
+			stmt.setInt(2, startTopicId);
+			rs = stmt.executeQuery();
+			return new TopicCursor(conn, autoCommit, stmt, rs, STATEMENT_SELECT_TOPIC_CURSOR, startTopicId);
+		} catch (SQLException e) {
+			if (autoCommit) {
+				try {
+					conn.setAutoCommit(true);
+				} catch (SQLException ex) {}
+			}
+			DatabaseConnection.closeConnection(conn, stmt, rs);
+			throw DatabaseConnection.getJdbcTemplate().getExceptionTranslator().translate("lookupTopicCursor", STATEMENT_SELECT_TOPIC_CURSOR, e);
+		}
+	}
+
+	/**
+	 * Return the JDBC fetch size to use for cursor queries.  Sub-classes may
+	 * override this method for drivers that require a special value in order
+	 * to stream results.
+	 */
+	protected int cursorFetchSize() {
+		return Environment.getIntValue(Environment.PROP_DB_CURSOR_FETCH_SIZE);
 	}
 
 	/**
 	 *
 	 */
 	public Map<Integer, String> lookupTopicNames(int virtualWikiId, boolean includeDeleted) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_NAMES,
 				virtualWikiId
 		);
@@ -1806,26 +1966,56 @@ public class AnsiQueryHandler implements QueryHandler {
 		return topicNames;
 	}
 
+	/**
+	 *
+	 */
+	public void lookupTopicTitles(int virtualWikiId, final TitleIndex.Loader loader) {
+		Object[] args = { virtualWikiId };
+		DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_TOPIC_TITLES, args, new RowCallbackHandler() {
+			public void processRow(ResultSet rs) throws SQLException {
+				loader.addTitle(rs.getInt("namespace_id"), rs.getString("page_name"), TopicType.findTopicType(rs.getInt("topic_type")), rs.getInt("link_count"));
+			}
+		});
+	}
+
 	/**
 	 *
 	 */
 	public TopicVersion lookupTopicVersion(int topicVersionId) {
 		Object[] args = { topicVersionId };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_VERSION, args, new TopicVersionMapper());
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_VERSION, args, new TopicVersionMapper());
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public Map<Integer, TopicVersion> lookupTopicVersions(Collection<Integer> topicVersionIds) {
+		Map<Integer, TopicVersion> topicVersions = new HashMap<Integer, TopicVersion>();
+		List<Integer> topicVersionIdList = new ArrayList<Integer>(topicVersionIds);
+		for (int start = 0; start < topicVersionIdList.size(); start += MAX_IN_CLAUSE_SIZE) {
+			List<Integer> chunk = topicVersionIdList.subList(start, Math.min(start + MAX_IN_CLAUSE_SIZE, topicVersionIdList.size()));
+			Object[] params = { this.buildInClause(chunk.size()) };
+			String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_VERSIONS, params);
+			List<TopicVersion> results = DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, chunk.toArray(), new TopicVersionMapper());
+			for (TopicVersion topicVersion : results) {
+				topicVersions.put(topicVersion.getTopicVersionId(), topicVersion);
+			}
+		}
+		return topicVersions;
+	}
+
 	/**
 	 *
 	 */
 	public Integer lookupTopicVersionNextId(int topicVersionId) {
 		Object[] args = { topicVersionId };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID, args, Integer.class);
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_TOPIC_VERSION_NEXT_ID, args, Integer.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -1836,7 +2026,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 *
 	 */
 	private Map<String, String> lookupUserPreferencesDefaults() {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_USER_PREFERENCES_DEFAULTS);
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_USER_PREFERENCES_DEFAULTS);
 		Map<String, String> defaults = new HashMap<String, String>();
 		for (Map<String, Object> row : results) {
 			defaults.put((String)row.get("pref_key"), (String)row.get("pref_value"));
@@ -1850,13 +2040,34 @@ public class AnsiQueryHandler implements QueryHandler {
 	public WikiFile lookupWikiFile(int virtualWikiId, String virtualWikiName, int topicId) {
 		Object[] args = { virtualWikiId, topicId };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE, args, new WikiFileMapper(virtualWikiName));
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE, args, new WikiFileMapper(virtualWikiName));
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public Map<Integer, WikiFile> lookupWikiFiles(int virtualWikiId, String virtualWikiName, Collection<Integer> topicIds) {
+		Map<Integer, WikiFile> wikiFiles = new HashMap<Integer, WikiFile>();
+		List<Integer> topicIdList = new ArrayList<Integer>(topicIds);
+		for (int start = 0; start < topicIdList.size(); start += MAX_IN_CLAUSE_SIZE) {
+			List<Integer> chunk = topicIdList.subList(start, Math.min(start + MAX_IN_CLAUSE_SIZE, topicIdList.size()));
+			Object[] params = { this.buildInClause(chunk.size()) };
+			String sql = this.formatStatement(STATEMENT_SELECT_WIKI_FILES_BY_TOPIC, params);
+			List<Object> args = new ArrayList<Object>();
+			args.add(virtualWikiId);
+			args.addAll(chunk);
+			List<WikiFile> results = DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args.toArray(), new WikiFileMapper(virtualWikiName));
+			for (WikiFile wikiFile : results) {
+				wikiFiles.put(wikiFile.getTopicId(), wikiFile);
+			}
+		}
+		return wikiFiles;
+	}
+
 	/**
 	 * Return a count of all wiki files currently available on the Wiki.  This
 	 * method excludes deleted files.
@@ -1867,13 +2078,22 @@ public class AnsiQueryHandler implements QueryHandler {
 	public int lookupWikiFileCount(int virtualWikiId) {
 		Object[] args = { virtualWikiId };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE_COUNT, args, Integer.class);
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE_COUNT, args, Integer.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return 0;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public int lookupWikiFileVersionContentCount(String contentHash) {
+		Object[] args = { contentHash };
+		// use the read-write template so that a version written moments ago is counted
+		return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE_VERSION_CONTENT_COUNT, args, Integer.class);
+	}
+
 	/**
 	 *
 	 */
@@ -1883,7 +2103,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		}
 		GroupMap groupMap = new GroupMap(groupId);
 		Object[] args = { groupId };
-		List<String> userLogins = DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_GROUP, args, String.class);
+		List<String> userLogins = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_GROUP, args, String.class);
 		groupMap.setGroupMembers(userLogins);
 		return groupMap;
 	}
@@ -1893,11 +2113,11 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public GroupMap lookupGroupMapUser(String userLogin) {
 		Object[] args = { userLogin };
-		List<Integer> groupIds = DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_USER, args, Integer.class);
+		List<Integer> groupIds = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_USER, args, Integer.class);
 		GroupMap groupMap = new GroupMap(userLogin);
 		groupMap.setGroupIds(groupIds);
 		// retrieve roles assigned through group assignment
-		List<String> roleNames = DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_AUTHORITIES, args, String.class);
+		List<String> roleNames = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_GROUP_MAP_AUTHORITIES, args, String.class);
 		groupMap.setRoleNames(roleNames);
 		return groupMap;
 	}
@@ -1908,7 +2128,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public WikiGroup lookupWikiGroup(String groupName) {
 		Object[] args = { groupName };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_GROUP, args, new WikiGroupMapper());
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_GROUP, args, new WikiGroupMapper());
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -1921,7 +2141,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public WikiGroup lookupWikiGroupById(int groupId) {
 		Object[] args = { groupId };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_GROUP_BY_ID, args, new WikiGroupMapper());
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_GROUP_BY_ID, args, new WikiGroupMapper());
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -1935,7 +2155,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		WikiUser user = null;
 		Object[] args = { userId };
 		try {
-			user = DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER, args, new WikiUserMapper());
+			user = DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER, args, new WikiUserMapper());
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -1943,7 +2163,7 @@ public class AnsiQueryHandler implements QueryHandler {
 		// get the default user preferences
 		Map<String, String> preferences = this.lookupUserPreferencesDefaults();
 		// overwrite the defaults with any user-specific preferences
-		List<Map<String,Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String,Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_USER_PREFERENCES,
 				userId
 		);
@@ -1959,7 +2179,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public int lookupWikiUser(String username) {
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(
 					STATEMENT_SELECT_WIKI_USER_LOGIN,
 					Integer.class,
 					username
@@ -1976,7 +2196,7 @@ public class AnsiQueryHandler implements QueryHandler {
 			return null;
 		}
 		try {
-			Map<String,Object> result = DatabaseConnection.getJdbcTemplate().queryForMap(
+			Map<String,Object> result = DatabaseConnection.getReadOnlyJdbcTemplate().queryForMap(
 					STATEMENT_SELECT_PW_RESET_CHALLENGE_DATA,
 					user.getUsername()
 			);
@@ -1995,7 +2215,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public int lookupWikiUserCount() {
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER_COUNT, Integer.class);
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER_COUNT, Integer.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return 0;
@@ -2008,7 +2228,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public String lookupWikiUserEncryptedPassword(String username) {
 		Object[] args = { username };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER_DETAILS_PASSWORD, args, String.class);
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_USER_DETAILS_PASSWORD, args, String.class);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -2020,7 +2240,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	 */
 	public List<String> lookupWikiUsers(Pagination pagination) {
 		Object[] args = { pagination.getNumResults(), pagination.getOffset() };
-		return DatabaseConnection.getJdbcTemplate().queryForList(
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_WIKI_USERS,
 				args,
 				String.class
@@ -2344,10 +2564,70 @@ public class AnsiQueryHandler implements QueryHandler {
 				(wikiFile.getReadOnly() ? 1 : 0),
 				(wikiFile.getAdminOnly() ? 1 : 0),
 				wikiFile.getFileSize(),
+				wikiFile.getImageWidth(),
+				wikiFile.getImageHeight(),
+				formatThumbnailWidths(wikiFile.getThumbnailWidths()),
 				wikiFile.getFileId()
 		);
 	}
 
+	/**
+	 *
+	 */
+	public void updateWikiFileDimensions() {
+		DatabaseConnection.getJdbcTemplate().update(STATEMENT_UPDATE_WIKI_FILE_DIMENSIONS);
+	}
+
+	/**
+	 *
+	 */
+	public Set<Integer> updateWikiFileThumbnails(int fileId, int width) {
+		Object[] args = { fileId };
+		for (int i = 0; i < MAX_THUMBNAIL_UPDATE_ATTEMPTS; i++) {
+			String current = null;
+			try {
+				// read from the primary database since the value is about to be updated
+				current = DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_WIKI_FILE_THUMBNAILS, args, String.class);
+			} catch (IncorrectResultSizeDataAccessException e) {
+				// file has been removed
+				return null;
+			}
+			Set<Integer> thumbnailWidths = parseThumbnailWidths(current);
+			if (!thumbnailWidths.add(width)) {
+				return thumbnailWidths;
+			}
+			String updated = formatThumbnailWidths(thumbnailWidths);
+			if (!parseThumbnailWidths(updated).contains(width)) {
+				// column is full, so the width is not recorded and image links will
+				// fall back to checking for the resized file
+				thumbnailWidths.remove(width);
+				return thumbnailWidths;
+			}
+			// only update if no other thread has changed the value since it was read,
+			// otherwise re-read and merge the other thread's widths
+			int count = (current == null)
+					? DatabaseConnection.getJdbcTemplate().update(STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS_EMPTY, updated, fileId)
+					: DatabaseConnection.getJdbcTemplate().update(STATEMENT_UPDATE_WIKI_FILE_THUMBNAILS, updated, fileId, current);
+			if (count > 0) {
+				return thumbnailWidths;
+			}
+		}
+		logger.info("Unable to record thumbnail width " + width + " for file " + fileId + " due to concurrent updates");
+		return null;
+	}
+
+	/**
+	 *
+	 */
+	public void updateWikiFileVersionDimensions(int fileVersionId, int width, int height) {
+		DatabaseConnection.getJdbcTemplate().update(
+				STATEMENT_UPDATE_WIKI_FILE_VERSION_DIMENSIONS,
+				width,
+				height,
+				fileVersionId
+		);
+	}
+
 	/**
 	 *
 	 */
@@ -2470,7 +2750,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public ImageData getImageInfo(int fileId, int resized) {
 		Object[] args = { fileId, resized };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_INFO, args, new ImageDataMapper(false));
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_INFO, args, new ImageDataMapper(false));
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -2483,7 +2763,7 @@ public class AnsiQueryHandler implements QueryHandler {
 	public ImageData getImageData(int fileId, int resized) {
 		Object[] args = { fileId, resized };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_DATA, args, new ImageDataMapper(true));
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_DATA, args, new ImageDataMapper(true));
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
@@ -2496,13 +2776,118 @@ public class AnsiQueryHandler implements QueryHandler {
 	public ImageData getImageVersionData(int fileVersionId, int resized) {
 		Object[] args = { fileVersionId, resized };
 		try {
-			return DatabaseConnection.getJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_VERSION_DATA, args, new ImageDataMapper(true));
+			return DatabaseConnection.getReadOnlyJdbcTemplate().queryForObject(STATEMENT_SELECT_FILE_VERSION_DATA, args, new ImageDataMapper(true));
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no matching result
 			return null;
 		}
 	}
 
+	/**
+	 *
+	 */
+	public FileDataStream getImageDataStream(int fileId, int resized) {
+		return this.openFileDataStream(STATEMENT_SELECT_FILE_DATA_STREAM, fileId, resized);
+	}
+
+	/**
+	 *
+	 */
+	public FileDataStream getImageVersionDataStream(int fileVersionId, int resized) {
+		return this.openFileDataStream(STATEMENT_SELECT_FILE_VERSION_DATA_STREAM, fileVersionId, resized);
+	}
+
+	/**
+	 * Execute a file data query and return a stream positioned on the file data
+	 * column, or <code>null</code> if there is no matching record.
+	 */
+	private FileDataStream openFileDataStream(String sql, int id, int resized) {
+		FileDataStream.acquire();
+		Connection conn = null;
+		PreparedStatement stmt = null;
+		ResultSet rs = null;
+		boolean autoCommit = false;
+		boolean opened = false;
+		try {
+			conn = DatabaseConnection.getConnection();
+			autoCommit = conn.getAutoCommit();
+			if (autoCommit) {
+				// some drivers only support streaming LOB data from within a transaction
+				conn.setAutoCommit(false);
+			}
+			stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+			stmt.setFetchSize(this.cursorFetchSize());
+			stmt.setInt(1, id);
+			stmt.setInt(2, resized);
+			rs = stmt.executeQuery();
+			if (!rs.next()) {
+				// no matching result
+				return null;
+			}
+			// read the remaining columns before the stream since some drivers do not
+			// allow columns to be read out of order once a stream has been opened
+			int fileVersionId = rs.getInt("file_version_id");
+			String mimeType = rs.getString("mime_type");
+			long length = rs.getLong("file_data_length");
+			InputStream in = rs.getBinaryStream("file_data");
+			FileDataStream result = new FileDataStream(conn, autoCommit, stmt, rs, in, fileVersionId, mimeType, length);
+			opened = true;
+			return result;
+		} catch (SQLException e) {
+			throw DatabaseConnection.getJdbcTemplate().getExceptionTranslator().translate("openFileDataStream", sql, e);
+		} finally {
+			if (!opened) {
+				// once a stream is created it is responsible for releasing resources
+				FileDataStream.release(conn, autoCommit, stmt, rs);
+			}
+		}
+	}
+
+	/**
+	 * Convert a set of resized image widths to the comma-separated format used
+	 * in the jam_file.thumbnail_widths column.
+	 */
+	private static String formatThumbnailWidths(Set<Integer> thumbnailWidths) {
+		if (thumbnailWidths == null || thumbnailWidths.isEmpty()) {
+			return null;
+		}
+		StringBuilder result = new StringBuilder();
+		for (Integer width : thumbnailWidths) {
+			String value = ((result.length() > 0) ? "," : "") + width;
+			if (result.length() + value.length() > MAX_THUMBNAIL_WIDTHS_LENGTH) {
+				// widths that do not fit are not recorded
+				logger.debug("Thumbnail widths column full, ignoring width " + width);
+				break;
+			}
+			result.append(value);
+		}
+		return result.toString();
+	}
+
+	/**
+	 * Convert the comma-separated jam_file.thumbnail_widths column value to a
+	 * set of resized image widths.
+	 */
+	private static Set<Integer> parseThumbnailWidths(String thumbnailWidths) {
+		Set<Integer> result = new TreeSet<Integer>();
+		for (String width : StringUtils.split(StringUtils.defaultString(thumbnailWidths), ',')) {
+			try {
+				result.add(Integer.valueOf(width.trim()));
+			} catch (NumberFormatException e) {
+				logger.info("Ignoring invalid thumbnail width: " + width);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieve a nullable integer column value.
+	 */
+	private static Integer retrieveInteger(ResultSet rs, String columnName) throws SQLException {
+		int value = rs.getInt(columnName);
+		return (rs.wasNull()) ? null : value;
+	}
+
 	/**
 	 * Inner class for converting result set to category.
 	 */
@@ -2826,6 +3211,9 @@ public class AnsiQueryHandler implements QueryHandler {
 			wikiFile.setDeleteDate(rs.getTimestamp("delete_date"));
 			wikiFile.setMimeType(rs.getString("mime_type"));
 			wikiFile.setFileSize(rs.getInt("file_size"));
+			wikiFile.setImageWidth(retrieveInteger(rs, "image_width"));
+			wikiFile.setImageHeight(retrieveInteger(rs, "image_height"));
+			wikiFile.setThumbnailWidths(parseThumbnailWidths(rs.getString("thumbnail_widths")));
 			return wikiFile;
 		}
 	}
@@ -2852,6 +3240,9 @@ public class AnsiQueryHandler implements QueryHandler {
 			wikiFileVersion.setMimeType(rs.getString("mime_type"));
 			wikiFileVersion.setAuthorDisplay(rs.getString("wiki_user_display"));
 			wikiFileVersion.setFileSize(rs.getInt("file_size"));
+			wikiFileVersion.setImageWidth(retrieveInteger(rs, "image_width"));
+			wikiFileVersion.setImageHeight(retrieveInteger(rs, "image_height"));
+			wikiFileVersion.setContentHash(rs.getString("content_hash"));
 			return wikiFileVersion;
 		}
 	}
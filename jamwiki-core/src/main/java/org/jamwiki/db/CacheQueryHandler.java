@@ -72,7 +72,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_CATEGORIES,
 				pagination.getNumResults(),
 				virtualWikiId,
@@ -111,7 +111,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 		args[index++] = pagination.getNumResults();
 		args[index++] = virtualWikiId;
 		args[index++] = pagination.getOffset();
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
 	/**
@@ -125,7 +125,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				virtualWiki,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -145,7 +145,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				topicId,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -158,7 +158,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				virtualWikiId,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
 	}
 
 	/**
@@ -173,7 +173,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				login,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -188,7 +188,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				userDisplay,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -202,7 +202,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 				userId,
 				pagination.getOffset()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -298,7 +298,7 @@ public class CacheQueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_BY_TYPE,
 				pagination.getNumResults(),
 				virtualWikiId,
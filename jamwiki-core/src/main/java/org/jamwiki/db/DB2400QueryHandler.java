@@ -86,7 +86,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination) {
 		String sql = this.formatStatement(STATEMENT_SELECT_CATEGORIES, pagination);
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				sql,
 				virtualWikiId
 		);
@@ -121,7 +121,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 			args[index++] = logType;
 		}
 		args[index++] = virtualWikiId;
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
 	/**
@@ -134,7 +134,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWiki
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -152,7 +152,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				topicId
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -164,7 +164,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 		Object[] args = {
 				virtualWikiId
 		};
-		return DatabaseConnection.getJdbcTemplate().queryForList(sql, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(sql, args, String.class);
 	}
 
 	/**
@@ -178,7 +178,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 				virtualWiki,
 				login
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -192,7 +192,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 				virtualWiki,
 				userDisplay
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -205,7 +205,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 				virtualWikiId,
 				userId
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -214,7 +214,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) {
 		String sql = this.formatStatement(STATEMENT_SELECT_TOPIC_BY_TYPE, pagination);
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				sql,
 				virtualWikiId,
 				topicType1.id(),
@@ -235,7 +235,7 @@ public class DB2400QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<String> lookupWikiUsers(Pagination pagination) {
 		String sql = this.formatStatement(STATEMENT_SELECT_WIKI_USERS, pagination);
-		return DatabaseConnection.getJdbcTemplate().queryForList(sql, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(sql, String.class);
 	}
 
 	/**
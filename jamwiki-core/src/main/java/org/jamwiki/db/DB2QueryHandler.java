@@ -53,7 +53,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_CATEGORIES,
 				virtualWikiId,
 				pagination.getStart(),
@@ -92,7 +92,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 		args[index++] = virtualWikiId;
 		args[index++] = pagination.getStart();
 		args[index++] = pagination.getEnd();
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
 	/**
@@ -106,7 +106,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -126,7 +126,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -139,7 +139,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
 	}
 
 	/**
@@ -154,7 +154,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -169,7 +169,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -183,7 +183,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 				pagination.getStart(),
 				pagination.getEnd()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -191,7 +191,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_BY_TYPE,
 				virtualWikiId,
 				topicType1.id(),
@@ -214,7 +214,7 @@ public class DB2QueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<String> lookupWikiUsers(Pagination pagination) {
 		Object[] args = { pagination.getStart(), pagination.getEnd() };
-		return DatabaseConnection.getJdbcTemplate().queryForList(
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_WIKI_USERS,
 				args,
 				String.class
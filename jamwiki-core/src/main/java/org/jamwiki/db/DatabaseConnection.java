@@ -21,6 +21,11 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.naming.Context;
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -28,15 +33,22 @@ import javax.sql.DataSource;
 import org.apache.commons.dbcp.BasicDataSource;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.ResourceUtil;
 import org.jamwiki.utils.WikiLogger;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.IncorrectResultSizeDataAccessException;
+import org.springframework.dao.NonTransientDataAccessResourceException;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.datasource.DelegatingDataSource;
 import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.transaction.support.TransactionTemplate;
 
 /**
@@ -50,6 +62,26 @@ public class DatabaseConnection {
 	private static JdbcTemplate jdbcTemplate = null;
 	private static TransactionTemplate transactionTemplate = null;
 	private static DataSourceTransactionManager transactionManager = null;
+	/** Optional read-only replica, <code>null</code> if no replica is configured. */
+	private static DataSource replicaDataSource = null;
+	private static JdbcTemplate replicaJdbcTemplate = null;
+	private static boolean replicaConfigured = false;
+	/** Time (in milliseconds) of the most recent write to the primary database made on behalf of the current thread's user. */
+	private static final ThreadLocal<Long> lastWriteTime = new ThreadLocal<Long>();
+	/**
+	 * Size of the primary key range reserved for each virtual wiki that is stored
+	 * in its own database.  The home database uses IDs below this value, the first
+	 * virtual wiki database uses IDs from one to two times this value, etc.
+	 */
+	protected static final int SHARD_ID_RANGE = 100000000;
+	/** The maximum number of virtual wiki databases whose ID ranges fit within an integer. */
+	private static final int MAX_SHARDS = (Integer.MAX_VALUE / SHARD_ID_RANGE) - 1;
+	/** Virtual wikis stored in their own database, keyed by virtual wiki name. */
+	private static volatile Map<String, Shard> shards = null;
+	/** The virtual wiki database used by the current thread, or <code>null</code> for the home database. */
+	private static final ThreadLocal<Shard> currentShard = new ThreadLocal<Shard>();
+	/** Incremented whenever virtual wiki, namespace or user records are added. */
+	private static final AtomicInteger referenceDataVersion = new AtomicInteger();
 
 	/**
 	 * This class has only static methods and is never instantiated.
@@ -57,6 +89,64 @@ public class DatabaseConnection {
 	private DatabaseConnection() {
 	}
 
+	/**
+	 * Route all subsequent database calls made by the current thread to the
+	 * database for the specified virtual wiki.  Virtual wikis that have not been
+	 * configured with their own database via {@link Environment#PROP_DB_SHARDS}, as
+	 * well as a <code>null</code> virtual wiki, use the home database.  Callers
+	 * should restore the previous value when finished:
+	 *
+	 * <pre>
+	 * String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+	 * try {
+	 *     ...
+	 * } finally {
+	 *     DatabaseConnection.bindVirtualWiki(previous);
+	 * }
+	 * </pre>
+	 *
+	 * @param virtualWiki The virtual wiki whose database should be used, or
+	 *  <code>null</code> if the home database should be used.
+	 * @return The virtual wiki that was previously bound to the current thread,
+	 *  or <code>null</code> if the home database was being used.
+	 */
+	protected static String bindVirtualWiki(String virtualWiki) {
+		Shard previous = currentShard.get();
+		Shard shard = (virtualWiki == null) ? null : getShards().get(virtualWiki);
+		if (shard != null) {
+			// reference data is read from the home database, so unbind first
+			currentShard.set(null);
+			DatabaseConnection.synchronizeShard(shard);
+		}
+		currentShard.set(shard);
+		return (previous == null) ? null : previous.virtualWiki;
+	}
+
+	/**
+	 * Route all subsequent database calls made by the current thread to the
+	 * database that owns the specified topic, topic version or file ID.  Since
+	 * each virtual wiki database is assigned a distinct range of IDs this method
+	 * allows lookups by ID without knowing the virtual wiki.
+	 *
+	 * @param id A topic, topic version, file or file version ID.
+	 * @return The virtual wiki that was previously bound to the current thread,
+	 *  or <code>null</code> if the home database was being used.
+	 * @see #bindVirtualWiki(String)
+	 */
+	protected static String bindVirtualWikiForId(int id) {
+		String virtualWiki = null;
+		int idBase = (id / SHARD_ID_RANGE) * SHARD_ID_RANGE;
+		if (idBase > 0) {
+			for (Shard shard : getShards().values()) {
+				if (shard.idBase == idBase) {
+					virtualWiki = shard.virtualWiki;
+					break;
+				}
+			}
+		}
+		return DatabaseConnection.bindVirtualWiki(virtualWiki);
+	}
+
 	/**
 	 * Utility method for closing a database connection, a statement and a result set.
 	 * This method must ALWAYS be called for any connection retrieved by the
@@ -76,7 +166,8 @@ public class DatabaseConnection {
 		}
 		DatabaseConnection.closeStatement(stmt);
 		if (conn != null) {
-			DataSourceUtils.releaseConnection(conn, dataSource);
+			Shard shard = currentShard.get();
+			DataSourceUtils.releaseConnection(conn, (shard != null) ? shard.dataSource : dataSource);
 		}
 	}
 
@@ -88,8 +179,36 @@ public class DatabaseConnection {
 	 * except clear the static reference to the DataSource.
 	 */
 	protected static void closeConnectionPool() {
+		DatabaseConnection.closeConnectionPool(dataSource);
+		DatabaseConnection.closeConnectionPool(replicaDataSource);
+		DatabaseConnection.closeShards();
+		// clear references to prevent them being reused (& allow garbage collection)
+		dataSource = null;
+		transactionManager = null;
+		replicaDataSource = null;
+		replicaJdbcTemplate = null;
+		replicaConfigured = false;
+	}
+
+	/**
+	 * Close the connection pools for all virtual wiki databases.
+	 */
+	protected synchronized static void closeShards() {
+		if (shards != null) {
+			for (Shard shard : shards.values()) {
+				DatabaseConnection.closeConnectionPool(shard.dataSource);
+			}
+		}
+		shards = null;
+		currentShard.remove();
+	}
+
+	/**
+	 *
+	 */
+	private static void closeConnectionPool(DataSource pooledDataSource) {
 		try {
-			DataSource testDataSource = dataSource;
+			DataSource testDataSource = pooledDataSource;
 			while (testDataSource instanceof DelegatingDataSource) {
 				testDataSource = ((DelegatingDataSource) testDataSource).getTargetDataSource();
 			}
@@ -101,9 +220,6 @@ public class DatabaseConnection {
 			// log the connection pool closing failure, but there is no need to propagate
 			logger.warn("Unable to close connection pool", e);
 		}
-		// clear references to prevent them being reused (& allow garbage collection)
-		dataSource = null;
-		transactionManager = null;
 	}
 
 	/**
@@ -127,21 +243,39 @@ public class DatabaseConnection {
 	 *
 	 * @param sql The SQL to execute.
 	 * @return Returns the result of the query or 1 if no result is found.
+	 * @throws DataIntegrityViolationException Thrown if virtual wiki databases are
+	 *  configured and the next ID would fall outside of the ID range of the
+	 *  current database.
 	 */
 	protected static int executeSequenceQuery(String sql) {
+		Shard shard = currentShard.get();
+		int minimum = (shard == null) ? 1 : shard.idBase + 1;
+		int result;
 		try {
-			Integer result = DatabaseConnection.getJdbcTemplate().queryForObject(sql, Integer.class);
-			return (result == null) ? 1 : result.intValue() + 1;
+			Integer maxId = DatabaseConnection.getJdbcTemplate().queryForObject(sql, Integer.class);
+			result = (maxId == null) ? minimum : Math.max(maxId.intValue() + 1, minimum);
 		} catch (IncorrectResultSizeDataAccessException e) {
 			// no rows available
-			return 1;
+			result = minimum;
+		}
+		// IDs are mapped to their database by range, so an ID beyond the end of the
+		// range would be routed to the wrong database
+		int maximum = (shard == null) ? SHARD_ID_RANGE - 1 : shard.idBase + SHARD_ID_RANGE - 1;
+		if (result > maximum && (shard != null || !getShards().isEmpty())) {
+			String database = (shard == null) ? "the home database" : "the database for virtual wiki " + shard.virtualWiki;
+			throw new DataIntegrityViolationException("No IDs remain in the range " + minimum + " - " + maximum + " reserved for " + database + ": " + sql);
 		}
+		return result;
 	}
 
 	/**
 	 *
 	 */
 	protected static Connection getConnection() {
+		Shard shard = currentShard.get();
+		if (shard != null) {
+			return DataSourceUtils.getConnection(shard.dataSource);
+		}
 		if (dataSource == null) {
 			// DataSource has not yet been created, obtain it now
 			configDataSource();
@@ -182,35 +316,315 @@ public class DatabaseConnection {
 		transactionManager = new DataSourceTransactionManager(targetDataSource);
 	}
 
+	/**
+	 * Static method that will configure the optional read-only replica DataSource
+	 * based on the Environment setup.  If no replica URL is configured, or if the
+	 * replica cannot be reached, all queries are executed against the primary
+	 * database.
+	 */
+	private synchronized static void configReplicaDataSource() {
+		if (replicaConfigured) {
+			return;
+		}
+		replicaConfigured = true;
+		String url = Environment.getValue(Environment.PROP_DB_REPLICA_URL);
+		if (StringUtils.isBlank(url)) {
+			return;
+		}
+		DataSource targetDataSource = null;
+		try {
+			String username = Environment.getValue(Environment.PROP_DB_REPLICA_USERNAME);
+			String password = Encryption.getEncryptedProperty(Environment.PROP_DB_REPLICA_PASSWORD, null);
+			targetDataSource = DatabaseConnection.createDataSource(url, username, password, true);
+		} catch (IllegalArgumentException e) {
+			logger.error("Failure while configuring replica data source with URL " + url + ", all queries will use the primary database", e);
+			return;
+		}
+		replicaDataSource = new LazyConnectionDataSourceProxy(targetDataSource);
+		replicaJdbcTemplate = new InstrumentedJdbcTemplate(replicaDataSource);
+		logger.info("Configured read-only replica data source with URL " + url);
+	}
+
+	/**
+	 * Static method that will configure the databases used by virtual wikis that
+	 * are not stored in the home database.  The {@link Environment#PROP_DB_SHARDS}
+	 * property is a comma-separated list of <code>virtualWiki=url</code> entries,
+	 * where the URL is either a JDBC URL or a JNDI name.  JDBC connections use the
+	 * same driver and credentials as the home database.  Each entry is assigned a
+	 * range of primary key IDs based on its position in the list, so entries must
+	 * only ever be appended to the list.
+	 */
+	private synchronized static Map<String, Shard> configShards() {
+		if (shards != null) {
+			return shards;
+		}
+		Map<String, Shard> result = new LinkedHashMap<String, Shard>();
+		String[] entries = StringUtils.split(Environment.getValue(Environment.PROP_DB_SHARDS), ',');
+		if (entries != null && entries.length > MAX_SHARDS) {
+			throw new IllegalArgumentException("A maximum of " + MAX_SHARDS + " virtual wiki databases may be configured, found " + entries.length);
+		}
+		for (int i = 0; entries != null && i < entries.length; i++) {
+			String entry = entries[i].trim();
+			int pos = entry.indexOf('=');
+			if (pos <= 0) {
+				logger.warn("Ignoring invalid virtual wiki database setting: " + entry);
+				continue;
+			}
+			String virtualWiki = entry.substring(0, pos).trim();
+			String url = entry.substring(pos + 1).trim();
+			String username = Environment.getValue(Environment.PROP_DB_USERNAME);
+			String password = Encryption.getEncryptedProperty(Environment.PROP_DB_PASSWORD, null);
+			DataSource targetDataSource = DatabaseConnection.createDataSource(url, username, password, false);
+			Connection conn = null;
+			try {
+				conn = targetDataSource.getConnection();
+				WikiDatabase.setupShard(conn);
+			} catch (SQLException e) {
+				DatabaseConnection.closeConnectionPool(targetDataSource);
+				logger.error("Failure while configuring database for virtual wiki " + virtualWiki + " with URL: " + url, e);
+				throw new IllegalArgumentException("Unable to configure database for virtual wiki " + virtualWiki + " with URL " + url + ": " + e.toString());
+			} finally {
+				if (conn != null) {
+					try {
+						conn.close();
+					} catch (SQLException e) {}
+				}
+			}
+			result.put(virtualWiki, new Shard(virtualWiki, (i + 1) * SHARD_ID_RANGE, targetDataSource));
+			logger.info("Virtual wiki " + virtualWiki + " will use the database with URL " + url);
+		}
+		if (!result.isEmpty() && WikiBase.getDataHandler().queryHandler().autoIncrementPrimaryKeys()) {
+			logger.warn("Virtual wiki databases are configured for a database that uses auto-increment primary keys.  The identity columns of each virtual wiki database must be manually initialized to the start of its ID range.");
+		}
+		shards = result;
+		return shards;
+	}
+
+	/**
+	 * Return the configured virtual wiki databases, configuring them if this has
+	 * not yet been done.
+	 */
+	private static Map<String, Shard> getShards() {
+		Map<String, Shard> result = shards;
+		return (result != null) ? result : configShards();
+	}
+
+	/**
+	 * Create a DataSource for the given JDBC URL or JNDI name.
+	 */
+	private static DataSource createDataSource(String url, String username, String password, boolean readOnly) throws IllegalArgumentException {
+		if (url.startsWith("jdbc:")) {
+			try {
+				return new LocalDataSource(url, username, password, readOnly);
+			} catch (ClassNotFoundException e) {
+				logger.error("Failure while configuring local data source", e);
+				throw new IllegalArgumentException("Failure while configuring local data source: " + e.toString());
+			}
+		}
+		try {
+			Context ctx = new InitialContext();
+			return (DataSource)ctx.lookup(url);
+		} catch (NamingException e) {
+			logger.error("Failure while configuring JNDI data source with URL: " + url, e);
+			throw new IllegalArgumentException("Unable to configure JNDI data source with URL " + url + ": " + e.toString());
+		}
+	}
+
+	/**
+	 * Return the names of all virtual wikis that are stored in a database other
+	 * than the home database.
+	 */
+	protected static Set<String> getShardVirtualWikis() {
+		return Collections.unmodifiableSet(getShards().keySet());
+	}
+
 	/**
 	 * Return a Spring JdbcTemplate suitable for querying the database.
 	 */
 	protected static JdbcTemplate getJdbcTemplate() {
+		Shard shard = currentShard.get();
+		if (shard != null) {
+			return shard.jdbcTemplate;
+		}
 		if (jdbcTemplate == null) {
 			if (dataSource == null) {
 				// DataSource has not yet been created, obtain it now
 				configDataSource();
 			}
-			jdbcTemplate = new JdbcTemplate(dataSource);
+			jdbcTemplate = new InstrumentedJdbcTemplate(dataSource);
 		}
 		return jdbcTemplate;
 	}
 
+	/**
+	 * Return a Spring JdbcTemplate suitable for executing read-only queries.  If a
+	 * read replica has been configured then the returned template will query the
+	 * replica, except in the following cases where the primary database is used
+	 * to ensure that stale data is never returned:
+	 * <ul>
+	 * <li>A transaction is active for the current thread.  Reads performed as
+	 * part of a write must see the transaction's own uncommitted data.</li>
+	 * <li>The current user made a write to the primary database within the last
+	 * {@link Environment#PROP_DB_REPLICA_MAX_LAG} seconds.  This guard ensures
+	 * that a user will see their own edit immediately after saving it, even
+	 * if the replica has not yet caught up.  See {@link #bindLastWriteTime}.</li>
+	 * </ul>
+	 */
+	protected static JdbcTemplate getReadOnlyJdbcTemplate() {
+		Shard shard = currentShard.get();
+		if (shard != null) {
+			// replicas are only supported for the home database
+			return shard.jdbcTemplate;
+		}
+		if (!replicaConfigured) {
+			configReplicaDataSource();
+		}
+		JdbcTemplate replica = replicaJdbcTemplate;
+		if (replica == null || TransactionSynchronizationManager.isActualTransactionActive() || DatabaseConnection.isReplicaStale()) {
+			return DatabaseConnection.getJdbcTemplate();
+		}
+		return replica;
+	}
+
+	/**
+	 * Associate the time of the most recent write made by a user with the
+	 * current thread, typically at the start of processing a request for that
+	 * user.  Read-only queries made by the current thread are routed to the
+	 * primary database until the configured maximum replica lag has elapsed
+	 * since that write, while other users continue to read from the replica.
+	 * Callers should restore the previous value once processing is complete:
+	 *
+	 * <pre>
+	 * long previous = DatabaseConnection.bindLastWriteTime(userLastWriteTime);
+	 * try {
+	 *     ...
+	 *     userLastWriteTime = DatabaseConnection.getLastWriteTime();
+	 * } finally {
+	 *     DatabaseConnection.bindLastWriteTime(previous);
+	 * }
+	 * </pre>
+	 *
+	 * @param time The time (in milliseconds) of the user's most recent write,
+	 *  or zero if the user has not made any writes.
+	 * @return The write time that was previously bound to the current thread.
+	 */
+	public static long bindLastWriteTime(long time) {
+		long previous = DatabaseConnection.getLastWriteTime();
+		if (time > 0) {
+			lastWriteTime.set(time);
+		} else {
+			lastWriteTime.remove();
+		}
+		return previous;
+	}
+
+	/**
+	 * Return the time (in milliseconds) of the most recent write made by the
+	 * current thread, or bound to it using {@link #bindLastWriteTime}.
+	 *
+	 * @return The time of the most recent write, or zero if no write has been
+	 *  made.
+	 */
+	public static long getLastWriteTime() {
+		Long time = lastWriteTime.get();
+		return (time == null) ? 0 : time;
+	}
+
+	/**
+	 * Return <code>true</code> if a write has been made on behalf of the current
+	 * thread's user recently enough that the replica may not yet reflect it.
+	 */
+	protected static boolean isReplicaStale() {
+		long maxLag = Environment.getIntValue(Environment.PROP_DB_REPLICA_MAX_LAG) * 1000L;
+		return (System.currentTimeMillis() - DatabaseConnection.getLastWriteTime()) < maxLag;
+	}
+
+	/**
+	 * Record that virtual wiki, namespace or user records have been added to the
+	 * home database.  These records are copied to each virtual wiki database the
+	 * next time that database is used, allowing joins and foreign keys against
+	 * these tables to work.
+	 */
+	protected static void markReferenceDataChanged() {
+		referenceDataVersion.incrementAndGet();
+	}
+
+	/**
+	 * Record that a write has been made to the primary database by the current
+	 * thread.  Read-only queries made by the current thread will be routed to
+	 * the primary database until the configured maximum replica lag has elapsed.
+	 */
+	protected static void markWrite() {
+		lastWriteTime.set(System.currentTimeMillis());
+	}
+
 	/**
 	 * Return a Spring TransactionTemplate suitable for executing transactional
 	 * database logic.
 	 */
 	protected static TransactionTemplate getTransactionTemplate() {
+		Shard shard = currentShard.get();
+		if (shard != null) {
+			return shard.transactionTemplate;
+		}
 		if (transactionTemplate == null) {
 			if (transactionManager == null) {
 				// DataSource has not yet been created, obtain it now
 				configDataSource();
 			}
-			transactionTemplate = new TransactionTemplate(transactionManager);
+			transactionTemplate = new TransactionTemplate(transactionManager) {
+				public <T> T execute(TransactionCallback<T> action) throws TransactionException {
+					// mark the write both before and after so that the replica is bypassed
+					// for the duration of the transaction and until it has caught up
+					DatabaseConnection.markWrite();
+					try {
+						return super.execute(action);
+					} finally {
+						DatabaseConnection.markWrite();
+					}
+				}
+			};
 		}
 		return transactionTemplate;
 	}
 
+	/**
+	 * Copy any virtual wiki, namespace and user records that have been added to
+	 * the home database since the last time the specified virtual wiki database
+	 * was synchronized.
+	 */
+	private static void synchronizeShard(Shard shard) {
+		int version = referenceDataVersion.get();
+		if (shard.synchronizedVersion == version) {
+			return;
+		}
+		synchronized (shard) {
+			if (shard.synchronizedVersion == version) {
+				return;
+			}
+			Connection from = null;
+			Connection to = null;
+			try {
+				from = DatabaseConnection.getConnection();
+				to = shard.dataSource.getConnection();
+				WikiDatabase.synchronizeShard(from, to);
+				if (!to.getAutoCommit()) {
+					to.commit();
+				}
+				shard.synchronizedVersion = version;
+			} catch (SQLException e) {
+				throw new NonTransientDataAccessResourceException("Failure while synchronizing the database for virtual wiki " + shard.virtualWiki, e);
+			} finally {
+				if (to != null) {
+					try {
+						to.close();
+					} catch (SQLException e) {}
+				}
+				DatabaseConnection.closeConnection(from, null, null);
+			}
+		}
+	}
+
 	/**
 	 * Test whether the database identified by the given parameters can be connected to.
 	 *
@@ -276,4 +690,28 @@ public class DatabaseConnection {
 			return testDataSource.getConnection();
 		}
 	}
+
+	/**
+	 * Connection objects for a virtual wiki that is stored in its own database.
+	 */
+	private static class Shard {
+
+		private final String virtualWiki;
+		private final int idBase;
+		private final DataSource dataSource;
+		private final JdbcTemplate jdbcTemplate;
+		private final TransactionTemplate transactionTemplate;
+		private volatile int synchronizedVersion = -1;
+
+		/**
+		 *
+		 */
+		Shard(String virtualWiki, int idBase, DataSource targetDataSource) {
+			this.virtualWiki = virtualWiki;
+			this.idBase = idBase;
+			this.dataSource = new LazyConnectionDataSourceProxy(targetDataSource);
+			this.jdbcTemplate = new InstrumentedJdbcTemplate(this.dataSource);
+			this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(targetDataSource));
+		}
+	}
 }
\ No newline at end of file
@@ -17,12 +17,14 @@
 package org.jamwiki.db;
 
 import java.sql.Connection;
+import java.util.ArrayList;
 import java.util.List;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.utils.WikiLogger;
+import org.springframework.dao.DataAccessException;
 import org.springframework.transaction.TransactionStatus;
 import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 
@@ -113,4 +115,78 @@ public class DatabaseUpgrades {
 			throw new WikiException(new WikiMessage("upgrade.error.fatal", e.getMessage()));
 		}
 	}
+
+	/**
+	 * Determine whether a column exists in the database currently in use.
+	 */
+	private static boolean isColumnPresent(String tableName, String columnName) {
+		try {
+			DatabaseConnection.getJdbcTemplate().queryForList("SELECT " + columnName + " FROM " + tableName + " WHERE 1 = 0");
+			return true;
+		} catch (DataAccessException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Perform the required database upgrade steps when upgrading from versions
+	 * older than JAMWiki 2.0.  Virtual wiki databases contain the same tables
+	 * as the home database and are upgraded as well.
+	 */
+	public static void upgrade200(final List<WikiMessage> messages) throws WikiException {
+		List<String> virtualWikis = new ArrayList<String>();
+		// null indicates the home database
+		virtualWikis.add(null);
+		virtualWikis.addAll(DatabaseConnection.getShardVirtualWikis());
+		for (String virtualWiki : virtualWikis) {
+			String previous = DatabaseConnection.bindVirtualWiki(virtualWiki);
+			try {
+				if (virtualWiki != null) {
+					if (DatabaseUpgrades.isColumnPresent("jam_file_version", "content_hash")) {
+						// virtual wiki database was created using the current schema
+						continue;
+					}
+					messages.add(new WikiMessage("upgrade.message.db.virtualwiki", virtualWiki));
+				}
+				DatabaseUpgrades.upgrade200Database(messages);
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		}
+	}
+
+	/**
+	 * Perform the JAMWiki 2.0 upgrade steps for the database currently in use.
+	 */
+	private static void upgrade200Database(final List<WikiMessage> messages) throws WikiException {
+		try {
+			DatabaseConnection.getTransactionTemplate().execute(
+				new TransactionCallbackWithoutResult() {
+					protected void doInTransactionWithoutResult(TransactionStatus status) {
+						// Image dimensions stored as of JAMWiki 2.0
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_TABLE_COLUMN_IMAGE_WIDTH");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "image_width", "jam_file"));
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_TABLE_COLUMN_IMAGE_HEIGHT");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "image_height", "jam_file"));
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_TABLE_COLUMN_THUMBNAIL_WIDTHS");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "thumbnail_widths", "jam_file"));
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_VERSION_TABLE_COLUMN_IMAGE_WIDTH");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "image_width", "jam_file_version"));
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_VERSION_TABLE_COLUMN_IMAGE_HEIGHT");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "image_height", "jam_file_version"));
+						// content-addressed uploads allow file versions to share a URL as of JAMWiki 2.0
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_ADD_FILE_VERSION_TABLE_COLUMN_CONTENT_HASH");
+						messages.add(new WikiMessage("upgrade.message.db.column.added", "content_hash", "jam_file_version"));
+						DatabaseUpgrades.executeUpgradeUpdate("STATEMENT_CREATE_WIKI_FILE_VERSION_CONTENT_HASH_INDEX");
+						messages.add(new WikiMessage("upgrade.message.db.object.added", "jam_i_filev_chash"));
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_DROP_FILE_TABLE_URL_CONSTRAINT");
+						DatabaseUpgrades.executeUpgradeUpdate("UPGRADE_200_DROP_FILE_VERSION_TABLE_URL_CONSTRAINT");
+						messages.add(new WikiMessage("upgrade.message.db.object.dropped", "jam_u_file_url, jam_u_filev_url"));
+					}
+				}
+			);
+		} catch (RuntimeException e) {
+			throw new WikiException(new WikiMessage("upgrade.error.fatal", e.getMessage()));
+		}
+	}
 }
@@ -0,0 +1,221 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Input stream over a file stored in the <code>jam_file_data</code> table.
+ * File data is read from the database as the stream is consumed rather than
+ * being loaded into memory all at once, so serving a large upload such as a
+ * PDF or video requires only a small, fixed-size buffer.
+ * <p>
+ * Each stream holds a database connection until it is closed, so callers MUST
+ * call {@link #close()} in a <code>finally</code> block.  To keep slow
+ * downloads from exhausting the connection pool, at most half of the pool's
+ * connections may be used for streams at any one time.  Note that not all
+ * JDBC drivers stream binary data - for example, PostgreSQL <code>BYTEA</code>
+ * values are always read into memory by the driver.
+ */
+public class FileDataStream extends InputStream {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(FileDataStream.class.getName());
+	/** Number of seconds to wait for another stream to be closed when the maximum number of streams are open. */
+	private static final long STREAM_PERMIT_TIMEOUT = 10;
+	private static Semaphore streamPermits = null;
+	private final boolean autoCommit;
+	private boolean closed = false;
+	private final Connection conn;
+	private final int fileVersionId;
+	private final InputStream in;
+	private final long length;
+	private final String mimeType;
+	private final ResultSet rs;
+	private final Statement stmt;
+
+	/**
+	 * Create a stream for an executed query that has been positioned on the
+	 * matching row.  The stream takes ownership of the connection, statement
+	 * and result set and releases them when closed.
+	 *
+	 * @param conn The connection used to execute the query.
+	 * @param autoCommit The auto-commit setting to restore on the connection
+	 *  when the stream is closed.
+	 * @param stmt The statement used to execute the query.
+	 * @param rs The query results.
+	 * @param in The binary stream for the file data column.
+	 * @param fileVersionId The file version ID of the file data.
+	 * @param mimeType The MIME type of the file data.
+	 * @param length The length of the file data in bytes.
+	 */
+	FileDataStream(Connection conn, boolean autoCommit, Statement stmt, ResultSet rs, InputStream in, int fileVersionId, String mimeType, long length) {
+		this.conn = conn;
+		this.autoCommit = autoCommit;
+		this.stmt = stmt;
+		this.rs = rs;
+		this.in = in;
+		this.fileVersionId = fileVersionId;
+		this.mimeType = mimeType;
+		this.length = length;
+	}
+
+	/**
+	 * Reserve one of the limited number of concurrent streams.  Every call to
+	 * this method must be followed by exactly one call to {@link #release}.
+	 *
+	 * @throws TransientDataAccessResourceException Thrown if no stream becomes
+	 *  available within a short time.
+	 */
+	static void acquire() {
+		boolean acquired = false;
+		try {
+			acquired = FileDataStream.getStreamPermits().tryAcquire(STREAM_PERMIT_TIMEOUT, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!acquired) {
+			throw new TransientDataAccessResourceException("Maximum number of concurrent file data streams are open");
+		}
+	}
+
+	/**
+	 *
+	 */
+	public int available() throws IOException {
+		return (this.closed) ? 0 : this.in.available();
+	}
+
+	/**
+	 * Release the database resources held by this stream.  Calling this method
+	 * more than once has no effect.
+	 */
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		try {
+			this.in.close();
+		} catch (IOException e) {
+			logger.info("Failure while closing file data stream: " + e.getMessage());
+		}
+		FileDataStream.release(this.conn, this.autoCommit, this.stmt, this.rs);
+	}
+
+	/**
+	 * Lazily create the semaphore that limits the number of open streams to
+	 * half of the connection pool size, leaving the remaining connections
+	 * for page views and edits.
+	 */
+	private static synchronized Semaphore getStreamPermits() {
+		if (streamPermits == null) {
+			int maximumStreams = Math.max(1, Environment.getIntValue(Environment.PROP_DBCP_MAX_ACTIVE) / 2);
+			streamPermits = new Semaphore(maximumStreams);
+		}
+		return streamPermits;
+	}
+
+	/**
+	 * Return the file version ID of the file data being streamed.
+	 */
+	public int getFileVersionId() {
+		return this.fileVersionId;
+	}
+
+	/**
+	 * Return the total length of the file data in bytes.
+	 */
+	public long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Return the MIME type of the file data being streamed.
+	 */
+	public String getMimeType() {
+		return this.mimeType;
+	}
+
+	/**
+	 *
+	 */
+	public int read() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		return this.in.read();
+	}
+
+	/**
+	 *
+	 */
+	public int read(byte[] buffer, int offset, int len) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		return this.in.read(buffer, offset, len);
+	}
+
+	/**
+	 * Release the database resources used by a file data query along with the
+	 * stream reserved by {@link #acquire}.  If auto-commit was disabled for the
+	 * query it is re-enabled before the connection is released.
+	 */
+	static void release(Connection conn, boolean autoCommit, Statement stmt, ResultSet rs) {
+		try {
+			FileDataStream.releaseConnection(conn, autoCommit, stmt, rs);
+		} finally {
+			FileDataStream.getStreamPermits().release();
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static void releaseConnection(Connection conn, boolean autoCommit, Statement stmt, ResultSet rs) {
+		try {
+			if (autoCommit) {
+				// the query was read-only, so there is nothing to commit
+				conn.rollback();
+				conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.warn("Failure while resetting file data stream connection", e);
+		}
+		DatabaseConnection.closeConnection(conn, stmt, rs);
+	}
+
+	/**
+	 *
+	 */
+	public long skip(long n) throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+		return this.in.skip(n);
+	}
+}
@@ -0,0 +1,220 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import javax.sql.DataSource;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCallback;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.jdbc.core.StatementCallback;
+
+/**
+ * JdbcTemplate implementation that reports the execution time, row count and
+ * approximate number of bytes fetched for each statement to the
+ * {@link StatementMonitor}.  All of the JdbcTemplate query and update methods
+ * are implemented in terms of the two <code>execute</code> methods overridden
+ * by this class.
+ */
+class InstrumentedJdbcTemplate extends JdbcTemplate {
+
+	/** Maximum number of bind parameters recorded for a single statement. */
+	private static final int MAX_BIND_SHAPES = 25;
+
+	/**
+	 *
+	 */
+	InstrumentedJdbcTemplate(DataSource dataSource) {
+		super(dataSource);
+	}
+
+	/**
+	 *
+	 */
+	public <T> T execute(PreparedStatementCreator psc, final PreparedStatementCallback<T> action) throws DataAccessException {
+		final StatementExecution execution = new StatementExecution((psc instanceof SqlProvider) ? ((SqlProvider)psc).getSql() : null);
+		boolean failed = true;
+		try {
+			T result = super.execute(psc, new PreparedStatementCallback<T>() {
+				public T doInPreparedStatement(PreparedStatement ps) throws SQLException, DataAccessException {
+					return action.doInPreparedStatement((PreparedStatement)execution.wrapStatement(ps, PreparedStatement.class));
+				}
+			});
+			failed = false;
+			return result;
+		} finally {
+			execution.finish(failed);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public <T> T execute(final StatementCallback<T> action) throws DataAccessException {
+		final StatementExecution execution = new StatementExecution((action instanceof SqlProvider) ? ((SqlProvider)action).getSql() : null);
+		boolean failed = true;
+		try {
+			T result = super.execute(new StatementCallback<T>() {
+				public T doInStatement(Statement stmt) throws SQLException, DataAccessException {
+					return action.doInStatement((Statement)execution.wrapStatement(stmt, Statement.class));
+				}
+			});
+			failed = false;
+			return result;
+		} finally {
+			execution.finish(failed);
+		}
+	}
+
+	/**
+	 * Tracks a single statement execution.  The statement and its result sets
+	 * are wrapped in proxies that record bind parameter shapes, rows and bytes.
+	 */
+	private static class StatementExecution {
+
+		private final List<String> bindShapes = new ArrayList<String>();
+		private long bytes = 0;
+		private long rows = 0;
+		private final String sql;
+		private final long start = System.currentTimeMillis();
+
+		/**
+		 *
+		 */
+		StatementExecution(String sql) {
+			this.sql = sql;
+		}
+
+		/**
+		 *
+		 */
+		void finish(boolean failed) {
+			long time = System.currentTimeMillis() - this.start;
+			StatementMonitor.getInstance().record(this.sql, time, this.rows, this.bytes, this.bindShapes, failed);
+		}
+
+		/**
+		 * Record the type and size of a bind parameter, but never its value.
+		 */
+		private void recordBind(String methodName, Object value) {
+			if (this.bindShapes.size() >= MAX_BIND_SHAPES) {
+				return;
+			}
+			if (methodName.equals("setNull") || value == null) {
+				this.bindShapes.add("null");
+			} else if (value instanceof String) {
+				this.bindShapes.add("String(" + ((String)value).length() + ")");
+			} else if (value instanceof byte[]) {
+				this.bindShapes.add("byte[" + ((byte[])value).length + "]");
+			} else {
+				this.bindShapes.add(value.getClass().getSimpleName());
+			}
+		}
+
+		/**
+		 * Return an approximate size in bytes for a value read from a result set.
+		 * Character data is counted as one byte per character.
+		 */
+		private static long sizeOf(Object value) {
+			if (value == null) {
+				return 0;
+			}
+			if (value instanceof String) {
+				return ((String)value).length();
+			}
+			if (value instanceof byte[]) {
+				return ((byte[])value).length;
+			}
+			if (value instanceof Boolean || value instanceof Byte) {
+				return 1;
+			}
+			if (value instanceof Short) {
+				return 2;
+			}
+			if (value instanceof Integer || value instanceof Float) {
+				return 4;
+			}
+			return 8;
+		}
+
+		/**
+		 *
+		 */
+		private ResultSet wrapResultSet(final ResultSet rs) {
+			return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class[] {ResultSet.class}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					Object result = invokeTarget(rs, method, args);
+					String name = method.getName();
+					if (name.equals("next")) {
+						if (Boolean.TRUE.equals(result)) {
+							rows++;
+						}
+					} else if (name.startsWith("get") && args != null && args.length == 1) {
+						bytes += sizeOf(result);
+					}
+					return result;
+				}
+			});
+		}
+
+		/**
+		 *
+		 */
+		Statement wrapStatement(final Statement stmt, Class<? extends Statement> type) {
+			return (Statement)Proxy.newProxyInstance(type.getClassLoader(), new Class[] {type}, new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					Object result = invokeTarget(stmt, method, args);
+					String name = method.getName();
+					if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+						recordBind(name, args[1]);
+					} else if ((name.equals("executeQuery") || name.equals("getResultSet")) && result != null) {
+						return wrapResultSet((ResultSet)result);
+					} else if (name.equals("executeUpdate") && result instanceof Integer) {
+						rows += (Integer)result;
+					} else if (name.equals("executeBatch") && result instanceof int[]) {
+						for (int count : (int[])result) {
+							rows += Math.max(count, 0);
+						}
+					}
+					return result;
+				}
+			});
+		}
+
+		/**
+		 *
+		 */
+		private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+			try {
+				return method.invoke(target, args);
+			} catch (InvocationTargetException e) {
+				throw e.getTargetException();
+			}
+		}
+	}
+}
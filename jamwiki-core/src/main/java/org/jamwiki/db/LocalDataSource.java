@@ -38,14 +38,29 @@ public class LocalDataSource extends BasicDataSource {
 	 * Constructs a new WikiDataSource
 	 */
 	public LocalDataSource() throws ClassNotFoundException, IllegalArgumentException {
+		this(Environment.getValue(Environment.PROP_DB_URL), Environment.getValue(Environment.PROP_DB_USERNAME), Encryption.getEncryptedProperty(Environment.PROP_DB_PASSWORD, null), false);
+	}
+
+	/**
+	 * Constructs a new WikiDataSource for the given connection settings.  The
+	 * driver and pool properties are shared with the primary database, allowing
+	 * this constructor to be used for read replicas.
+	 *
+	 * @param url The JDBC URL of the database.
+	 * @param username The database user.
+	 * @param password The (unencrypted) database user password.
+	 * @param readOnly Set to <code>true</code> if connections from this data
+	 *  source should default to read-only mode.
+	 */
+	public LocalDataSource(String url, String username, String password, boolean readOnly) throws ClassNotFoundException, IllegalArgumentException {
 		super();
 		if (!StringUtils.isBlank(Environment.getValue(Environment.PROP_DB_DRIVER))) {
 			ResourceUtil.forName(Environment.getValue(Environment.PROP_DB_DRIVER));
 		}
-		setUrl(Environment.getValue(Environment.PROP_DB_URL));
-		setUsername(Environment.getValue(Environment.PROP_DB_USERNAME));
-		setPassword(Encryption.getEncryptedProperty(Environment.PROP_DB_PASSWORD, null));
-		setDefaultReadOnly(false);
+		setUrl(url);
+		setUsername(username);
+		setPassword(password);
+		setDefaultReadOnly(readOnly);
 		// AutoCommit should NOT be set to true 
 		// set pool properties
 		setMaxActive(Environment.getIntValue(Environment.PROP_DBCP_MAX_ACTIVE));
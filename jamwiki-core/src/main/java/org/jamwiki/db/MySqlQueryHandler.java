@@ -45,4 +45,13 @@ public class MySqlQueryHandler extends AnsiQueryHandler {
 	public boolean autoIncrementPrimaryKeys() {
 		return true;
 	}
+
+	/**
+	 * MySQL Connector/J only streams results row-by-row when the fetch size is
+	 * set to Integer.MIN_VALUE; any other value reads the full result set into
+	 * memory.
+	 */
+	protected int cursorFetchSize() {
+		return Integer.MIN_VALUE;
+	}
 }
@@ -55,7 +55,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public List<Category> getCategories(int virtualWikiId, String virtualWikiName, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_CATEGORIES,
 				virtualWikiId,
 				pagination.getEnd(),
@@ -94,7 +94,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 		args[index++] = virtualWikiId;
 		args[index++] = pagination.getEnd();
 		args[index++] = pagination.getStart();
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new LogItemMapper(virtualWikiName));
 	}
 
 	/**
@@ -108,7 +108,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_RECENT_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -128,7 +128,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(sql, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(sql, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -141,7 +141,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(STATEMENT_SELECT_TOPICS_ADMIN, args, String.class);
 	}
 
 	/**
@@ -156,7 +156,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_LOGIN, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -171,7 +171,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WIKI_USER_CHANGES_ANONYMOUS, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -199,7 +199,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 				pagination.getEnd(),
 				pagination.getStart()
 		};
-		return DatabaseConnection.getJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
+		return DatabaseConnection.getReadOnlyJdbcTemplate().query(STATEMENT_SELECT_WATCHLIST_CHANGES, args, new RecentChangeMapper());
 	}
 
 	/**
@@ -207,7 +207,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 	 */
 	@Override
 	public Map<Integer, String> lookupTopicByType(int virtualWikiId, TopicType topicType1, TopicType topicType2, int namespaceStart, int namespaceEnd, Pagination pagination) {
-		List<Map<String, Object>> results = DatabaseConnection.getJdbcTemplate().queryForList(
+		List<Map<String, Object>> results = DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_TOPIC_BY_TYPE,
 				virtualWikiId,
 				topicType1.id(),
@@ -230,7 +230,7 @@ public class OracleQueryHandler extends AnsiQueryHandler {
 	@Override
 	public List<String> lookupWikiUsers(Pagination pagination) {
 		Object[] args = { pagination.getEnd(), pagination.getStart() };
-		return DatabaseConnection.getJdbcTemplate().queryForList(
+		return DatabaseConnection.getReadOnlyJdbcTemplate().queryForList(
 				STATEMENT_SELECT_WIKI_USERS,
 				args,
 				String.class
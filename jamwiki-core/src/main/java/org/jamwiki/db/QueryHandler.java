@@ -16,8 +16,10 @@
  */
 package org.jamwiki.db;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.jamwiki.model.Category;
 import org.jamwiki.model.GroupMap;
 import org.jamwiki.model.ImageData;
@@ -199,6 +201,15 @@ public interface QueryHandler {
 	 */
 	List<WikiFileVersion> getAllWikiFileVersions(WikiFile wikiFile, boolean descending);
 
+	/**
+	 * Retrieve a list of all wiki file versions for which the image dimensions
+	 * have not been recorded, sorted from oldest to newest.
+	 *
+	 * @return A list of all wiki file versions without image dimensions, or an
+	 *  empty list if all versions have image dimensions.
+	 */
+	List<WikiFileVersion> getWikiFileVersionsWithoutDimensions();
+
 	/**
 	 * Retrieve a list of all categories associated with a particular virtual wiki.  The
 	 * list may be limited by specifying the number of results to retrieve in a Pagination
@@ -674,6 +685,25 @@ public interface QueryHandler {
 	 */
 	public Topic lookupTopicById(int topicId);
 
+	/**
+	 * Retrieve all topics that match a given virtual wiki, namespace and list of
+	 * page names.  Page names are matched in the same way as
+	 * {@link #lookupTopic(int, Namespace, String)}, including the case-insensitive
+	 * match for namespaces that are not case sensitive.  Implementations should
+	 * retrieve the topics using a small number of queries rather than one query
+	 * per topic.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param namespace The Namespace for the topics being retrieved.
+	 * @param pageNames The topic pageNames (topic names without the namespace) for
+	 *  the topics being retrieved.
+	 * @return A map of requested page name and topic for every page name that
+	 *  matches an existing topic.  Page names that do not match a topic are not
+	 *  included in the map.
+	 */
+	Map<String, Topic> lookupTopics(int virtualWikiId, Namespace namespace, Collection<String> pageNames);
+
 	/**
 	 * Retrieve a list of all topic names of a given type within a virtual wiki.
 	 *
@@ -754,6 +784,15 @@ public interface QueryHandler {
 	 */
 	List<String> lookupTopicLinkOrphans(int virtualWikiId, int namespaceId);
 
+	/**
+	 * Stream the namespace, page name, topic type and number of incoming links
+	 * for all non-deleted topics in a virtual wiki.
+	 *
+	 * @param virtualWikiId The virtual wiki id to query against.
+	 * @param loader The callback that receives each topic title.
+	 */
+	void lookupTopicTitles(int virtualWikiId, TitleIndex.Loader loader);
+
 	/**
 	 * Retrieve a result set containing a specific topic version.
 	 *
@@ -762,6 +801,16 @@ public interface QueryHandler {
 	 */
 	TopicVersion lookupTopicVersion(int topicVersionId);
 
+	/**
+	 * Retrieve a group of topic versions using a small number of queries rather
+	 * than one query per topic version.
+	 *
+	 * @param topicVersionIds The ids for the topic version records being retrieved.
+	 * @return A map of topic version id and TopicVersion for every matching record.
+	 *  IDs that do not match a topic version are not included in the map.
+	 */
+	Map<Integer, TopicVersion> lookupTopicVersions(Collection<Integer> topicVersionIds);
+
 	/**
 	 * Retrieve the next topic version ID chronologically for a given topic
 	 * version, or <code>null</code> if there is no next topic version ID.
@@ -773,6 +822,20 @@ public interface QueryHandler {
 	 */
 	Integer lookupTopicVersionNextId(int topicVersionId);
 
+	/**
+	 * Open a cursor over all non-deleted topics within a virtual wiki, ordered by
+	 * topic ID.  Topics are read from the database as the cursor advances, and
+	 * the cursor holds a database connection until it is closed.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the topics
+	 *  being retrieved.
+	 * @param startTopicId Only topics with an ID greater than this value will be
+	 *  returned.  Use zero to retrieve all topics, or the last topic ID processed
+	 *  by an earlier cursor to resume from that point.
+	 * @return An open cursor.  The cursor MUST be closed by the caller.
+	 */
+	TopicCursor lookupTopicCursor(int virtualWikiId, int startTopicId);
+
 	/**
 	 * Retrieve a list of all topic names within a virtual wiki.
 	 *
@@ -798,6 +861,23 @@ public interface QueryHandler {
 	 */
 	WikiFile lookupWikiFile(int virtualWikiId, String virtualWikiName, int topicId);
 
+	/**
+	 * Retrieve wiki file information for a group of topic ids.  Implementations
+	 * should retrieve the files using a small number of queries rather than one
+	 * query per file.
+	 *
+	 * @param virtualWikiId The virtual wiki id for the virtual wiki of the wiki
+	 *  files being retrieved.
+	 * @param virtualWikiName The name of the virtual wiki for the virtual wiki of
+	 *  the wiki files being retrieved.
+	 * @param topicIds The ids of the parent topics for the wiki files being
+	 *  retrieved.
+	 * @return A map of topic id and wiki file for every topic id that has an
+	 *  associated wiki file.  Topic ids without a wiki file are not included in
+	 *  the map.
+	 */
+	Map<Integer, WikiFile> lookupWikiFiles(int virtualWikiId, String virtualWikiName, Collection<Integer> topicIds);
+
 	/**
 	 * Return a count of all wiki files currently available on the Wiki.  This
 	 * method excludes deleted files.
@@ -808,6 +888,16 @@ public interface QueryHandler {
 	 */
 	int lookupWikiFileCount(int virtualWikiId);
 
+	/**
+	 * Return a count of all file versions that reference the given content hash.
+	 * Deleted files are included in the count since their versions still
+	 * reference the content.
+	 *
+	 * @param contentHash The hex-encoded SHA-256 hash of the file content.
+	 * @return The total number of file versions referencing the content.
+	 */
+	int lookupWikiFileVersionContentCount(String contentHash);
+
 	/**
 	 * Retrieve the GroupMap associated with the group identified by groupId
 	 * @param groupId The GroupMap to retrieve
@@ -1028,6 +1118,35 @@ public interface QueryHandler {
 	 */
 	void updateWikiFile(WikiFile wikiFile, int virtualWikiId);
 
+	/**
+	 * Copy the image dimensions of the current version of each wiki file to any
+	 * wiki file record that does not yet have image dimensions.
+	 */
+	void updateWikiFileDimensions();
+
+	/**
+	 * Add a width to the list of resized image widths that have been generated
+	 * for the current version of a wiki file.  The width is merged with the
+	 * widths currently stored in the database so that concurrent updates are
+	 * not lost.
+	 *
+	 * @param fileId The file ID of the wiki file being updated.
+	 * @param width The width of the resized image that has been generated.
+	 * @return The widths stored for the file after the update, or
+	 *  <code>null</code> if the file does not exist or the update could not
+	 *  be completed.
+	 */
+	Set<Integer> updateWikiFileThumbnails(int fileId, int width);
+
+	/**
+	 * Record the dimensions of the original image for a wiki file version.
+	 *
+	 * @param fileVersionId The ID of the wiki file version being updated.
+	 * @param width The image width, or -1 if the file version is not an image.
+	 * @param height The image height, or -1 if the file version is not an image.
+	 */
+	void updateWikiFileVersionDimensions(int fileVersionId, int width, int height);
+
 	/**
 	 * Update a group record in the database.
 	 *
@@ -1098,4 +1217,28 @@ public interface QueryHandler {
 	 *  be negative when data are not an image. Result's image components may be null.
 	 */
 	public ImageData getImageVersionData(int fileVersionId, int resized);
+
+	/**
+	 * Get a stream over the data for the latest version of a file.  The data is
+	 * read from the database as the stream is consumed, and the stream holds a
+	 * database connection until it is closed.
+	 *
+	 * @param fileId File identifier.
+	 * @param resized Image width or zero for original.
+	 * @return An open stream or null if the file data is not found.  The stream
+	 *  MUST be closed by the caller.
+	 */
+	public FileDataStream getImageDataStream(int fileId, int resized);
+
+	/**
+	 * Get a stream over the data for a specific file version.  The data is read
+	 * from the database as the stream is consumed, and the stream holds a
+	 * database connection until it is closed.
+	 *
+	 * @param fileVersionId File version identifier.
+	 * @param resized Image width or zero for original.
+	 * @return An open stream or null if the file data is not found.  The stream
+	 *  MUST be closed by the caller.
+	 */
+	public FileDataStream getImageVersionDataStream(int fileVersionId, int resized);
 }
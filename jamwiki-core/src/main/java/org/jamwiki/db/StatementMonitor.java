@@ -0,0 +1,333 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Collects execution statistics for the SQL statements issued through the
+ * JAMWiki JdbcTemplate.  Statements are identified by the <code>STATEMENT_</code>
+ * name under which they are defined in the <code>sql.*.properties</code> files,
+ * and any statement whose execution time exceeds {@link Environment#PROP_DB_SLOW_STATEMENT_LIMIT}
+ * is added to a slow statement log along with the types and lengths (but not the
+ * values) of its bind parameters.  Statistics are available from the
+ * Special:Maintenance page and via JMX.
+ */
+public class StatementMonitor implements StatementMonitorMBean {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(StatementMonitor.class.getName());
+	/** Name under which the monitor is registered with the platform MBean server. */
+	public static final String OBJECT_NAME = "org.jamwiki:type=StatementMonitor";
+	/** Name used for statements that are not defined in a SQL properties file. */
+	public static final String UNNAMED_STATEMENT = "(unnamed)";
+	/** Maximum number of entries retained in the slow statement log. */
+	private static final int MAX_SLOW_STATEMENTS = 100;
+	/** Maximum length of SQL text stored for a slow statement. */
+	private static final int MAX_SQL_LENGTH = 500;
+	private static final StatementMonitor INSTANCE = new StatementMonitor();
+	/** Map of SQL text to statement name. */
+	private volatile Map<String, String> statementNames = Collections.emptyMap();
+	private final ConcurrentMap<String, StatementStatistics> statistics = new ConcurrentHashMap<String, StatementStatistics>();
+	private final LinkedList<SlowStatement> slowStatements = new LinkedList<SlowStatement>();
+	private boolean registered = false;
+
+	/**
+	 *
+	 */
+	private StatementMonitor() {
+	}
+
+	/**
+	 *
+	 */
+	public static StatementMonitor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Return the most recent slow statement executions, newest first.
+	 */
+	public List<SlowStatement> getSlowStatements() {
+		synchronized (this.slowStatements) {
+			return new ArrayList<SlowStatement>(this.slowStatements);
+		}
+	}
+
+	/**
+	 *
+	 */
+	public String[] getSlowStatementSummaries() {
+		List<SlowStatement> slow = this.getSlowStatements();
+		String[] result = new String[slow.size()];
+		for (int i = 0; i < slow.size(); i++) {
+			result[i] = slow.get(i).toString();
+		}
+		return result;
+	}
+
+	/**
+	 *
+	 */
+	public int getSlowStatementThreshold() {
+		return Environment.getIntValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT);
+	}
+
+	/**
+	 * Return a snapshot of the statistics for every statement that has been
+	 * executed, sorted by total execution time with the most expensive first.
+	 */
+	public List<StatementStatistics> getStatistics() {
+		List<StatementStatistics> result = new ArrayList<StatementStatistics>();
+		for (StatementStatistics statementStatistics : this.statistics.values()) {
+			result.add(new StatementStatistics(statementStatistics));
+		}
+		Collections.sort(result, new Comparator<StatementStatistics>() {
+			public int compare(StatementStatistics o1, StatementStatistics o2) {
+				long diff = o2.getTotalTime() - o1.getTotalTime();
+				return (diff > 0) ? 1 : ((diff < 0) ? -1 : o1.getName().compareTo(o2.getName()));
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Return the statistics for a specific statement, or <code>null</code> if
+	 * the statement has not been executed.
+	 */
+	public StatementStatistics getStatistics(String name) {
+		StatementStatistics result = this.statistics.get(name);
+		return (result == null) ? null : new StatementStatistics(result);
+	}
+
+	/**
+	 *
+	 */
+	public String[] getStatementSummaries() {
+		List<StatementStatistics> all = this.getStatistics();
+		String[] result = new String[all.size()];
+		for (int i = 0; i < all.size(); i++) {
+			result[i] = all.get(i).toString();
+		}
+		return result;
+	}
+
+	/**
+	 * Return the <code>STATEMENT_</code> name for the given SQL, or
+	 * {@link #UNNAMED_STATEMENT} if the SQL was not loaded from a SQL properties
+	 * file (for example, SQL that has been built dynamically).
+	 */
+	protected String lookupStatementName(String sql) {
+		String name = (sql == null) ? null : this.statementNames.get(sql);
+		return (name == null) ? UNNAMED_STATEMENT : name;
+	}
+
+	/**
+	 * Record a single statement execution.
+	 *
+	 * @param sql The SQL that was executed, or <code>null</code> if unknown.
+	 * @param time The execution time, in milliseconds.
+	 * @param rows The number of rows returned or updated.
+	 * @param bytes The approximate number of bytes fetched.
+	 * @param bindShapes A description of the type and length of each bind
+	 *  parameter.
+	 * @param failed <code>true</code> if the statement threw an exception.
+	 */
+	protected void record(String sql, long time, long rows, long bytes, List<String> bindShapes, boolean failed) {
+		String name = this.lookupStatementName(sql);
+		StatementStatistics statementStatistics = this.statistics.get(name);
+		if (statementStatistics == null) {
+			StatementStatistics existing = this.statistics.putIfAbsent(name, new StatementStatistics(name));
+			statementStatistics = (existing != null) ? existing : this.statistics.get(name);
+		}
+		statementStatistics.record(time, rows, bytes, failed);
+		int threshold = Environment.getIntValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT);
+		if (threshold > 0 && time >= threshold) {
+			SlowStatement slowStatement = new SlowStatement(name, sql, time, rows, bindShapes);
+			synchronized (this.slowStatements) {
+				this.slowStatements.addFirst(slowStatement);
+				if (this.slowStatements.size() > MAX_SLOW_STATEMENTS) {
+					this.slowStatements.removeLast();
+				}
+			}
+			logger.info("Slow statement: " + slowStatement);
+		}
+	}
+
+	/**
+	 * Register the SQL statements defined in a SQL properties file so that
+	 * statistics can be reported by statement name.  This method also registers
+	 * the monitor with the platform MBean server if that has not yet been done.
+	 */
+	protected void registerStatements(Properties properties) {
+		Map<String, String> names = new HashMap<String, String>();
+		for (String key : properties.stringPropertyNames()) {
+			String sql = properties.getProperty(key);
+			if (key.startsWith("STATEMENT_") && !StringUtils.isBlank(sql)) {
+				names.put(sql, key);
+			}
+		}
+		this.statementNames = names;
+		this.registerMBean();
+	}
+
+	/**
+	 *
+	 */
+	public void reset() {
+		this.statistics.clear();
+		synchronized (this.slowStatements) {
+			this.slowStatements.clear();
+		}
+	}
+
+	/**
+	 * Register with the platform MBean server, replacing any monitor left
+	 * behind by a previous deployment of the web application.
+	 */
+	protected synchronized void registerMBean() {
+		if (this.registered) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+			server.registerMBean(this, objectName);
+		} catch (JMException e) {
+			logger.warn("Unable to register statement monitor with JMX", e);
+		} catch (SecurityException e) {
+			logger.warn("Unable to register statement monitor with JMX", e);
+		}
+		this.registered = true;
+	}
+
+	/**
+	 * Unregister from the platform MBean server.  The platform MBean server
+	 * outlives the web application, so this method must be called on shutdown
+	 * to avoid holding a reference to the web application class loader.
+	 */
+	protected synchronized void unregisterMBean() {
+		if (!this.registered) {
+			return;
+		}
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			logger.warn("Unable to unregister statement monitor from JMX", e);
+		} catch (SecurityException e) {
+			logger.warn("Unable to unregister statement monitor from JMX", e);
+		}
+		this.registered = false;
+	}
+
+	/**
+	 * A single statement execution that exceeded the slow statement limit.
+	 */
+	public static class SlowStatement {
+
+		private final String bindShapes;
+		private final Date date = new Date();
+		private final String name;
+		private final long rows;
+		private final String sql;
+		private final long time;
+
+		/**
+		 *
+		 */
+		private SlowStatement(String name, String sql, long time, long rows, List<String> bindShapes) {
+			this.name = name;
+			this.sql = StringUtils.abbreviate(StringUtils.normalizeSpace(sql), MAX_SQL_LENGTH);
+			this.time = time;
+			this.rows = rows;
+			this.bindShapes = (bindShapes == null) ? "" : StringUtils.join(bindShapes, ", ");
+		}
+
+		/**
+		 * Return the types and lengths of the bind parameters, such as
+		 * <code>Integer, String(12), null</code>.
+		 */
+		public String getBindShapes() {
+			return this.bindShapes;
+		}
+
+		/**
+		 *
+		 */
+		public Date getDate() {
+			return this.date;
+		}
+
+		/**
+		 *
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 *
+		 */
+		public long getRows() {
+			return this.rows;
+		}
+
+		/**
+		 *
+		 */
+		public String getSql() {
+			return this.sql;
+		}
+
+		/**
+		 * Return the statement execution time, in milliseconds.
+		 */
+		public long getTime() {
+			return this.time;
+		}
+
+		/**
+		 *
+		 */
+		public String toString() {
+			return this.name + " (" + this.time + "ms, " + this.rows + " rows) [" + this.bindShapes + "]: " + this.sql;
+		}
+	}
+}
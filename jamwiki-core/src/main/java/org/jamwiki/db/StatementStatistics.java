@@ -0,0 +1,141 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+/**
+ * Execution statistics for a single SQL statement, identified by the
+ * <code>STATEMENT_</code> name used for the statement in the
+ * <code>sql.*.properties</code> files.
+ */
+public class StatementStatistics {
+
+	private final String name;
+	private long bytes = 0;
+	private long count = 0;
+	private long errors = 0;
+	private long maxTime = 0;
+	private long rows = 0;
+	private long totalTime = 0;
+
+	/**
+	 *
+	 */
+	public StatementStatistics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 *
+	 */
+	public StatementStatistics(StatementStatistics statistics) {
+		synchronized (statistics) {
+			this.name = statistics.name;
+			this.bytes = statistics.bytes;
+			this.count = statistics.count;
+			this.errors = statistics.errors;
+			this.maxTime = statistics.maxTime;
+			this.rows = statistics.rows;
+			this.totalTime = statistics.totalTime;
+		}
+	}
+
+	/**
+	 * Add the results of a statement execution to the statistics.
+	 *
+	 * @param time The statement execution time, in milliseconds.
+	 * @param rows The number of rows returned or updated.
+	 * @param bytes The approximate number of bytes fetched from the result set.
+	 * @param failed <code>true</code> if the statement threw an exception.
+	 */
+	protected synchronized void record(long time, long rows, long bytes, boolean failed) {
+		this.count++;
+		this.totalTime += time;
+		if (time > this.maxTime) {
+			this.maxTime = time;
+		}
+		this.rows += rows;
+		this.bytes += bytes;
+		if (failed) {
+			this.errors++;
+		}
+	}
+
+	/**
+	 * Return the average execution time for the statement, in milliseconds.
+	 */
+	public synchronized long getAverageTime() {
+		return (this.count == 0) ? 0 : (this.totalTime / this.count);
+	}
+
+	/**
+	 * Return the approximate total number of bytes fetched by all executions
+	 * of the statement.
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 *
+	 */
+	public synchronized long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Return the number of executions that threw an exception.
+	 */
+	public synchronized long getErrors() {
+		return this.errors;
+	}
+
+	/**
+	 * Return the longest execution time for the statement, in milliseconds.
+	 */
+	public synchronized long getMaxTime() {
+		return this.maxTime;
+	}
+
+	/**
+	 *
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Return the total number of rows returned or updated by all executions
+	 * of the statement.
+	 */
+	public synchronized long getRows() {
+		return this.rows;
+	}
+
+	/**
+	 * Return the total execution time for the statement, in milliseconds.
+	 */
+	public synchronized long getTotalTime() {
+		return this.totalTime;
+	}
+
+	/**
+	 *
+	 */
+	public synchronized String toString() {
+		return this.name + ": count=" + this.count + ", total=" + this.totalTime + "ms, max=" + this.maxTime + "ms, rows=" + this.rows + ", bytes=" + this.bytes + ", errors=" + this.errors;
+	}
+}
@@ -0,0 +1,695 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.utils.Pagination;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * In-memory index of the names of all non-deleted topics, used for page name
+ * suggestions and for listing topics by prefix without querying the database.
+ * <p>
+ * For each virtual wiki and namespace the index holds a sorted array of page
+ * names along with a popularity value for each page, currently the number of
+ * links to the page.  A prefix lookup is a binary search that yields the
+ * range of matching names, and a segment tree over the popularity values
+ * allows the most popular names in that range to be found without scanning
+ * it.  Topic changes are recorded in a small sorted set of pending changes
+ * that is consulted by all lookups, and the arrays are rebuilt once the
+ * number of pending changes reaches {@link #MERGE_THRESHOLD}.
+ * <p>
+ * The index for a virtual wiki is loaded from the database the first time it
+ * is used.  Popularity values are read when the index is loaded, and topics
+ * that are added later are given a popularity of zero until the index is
+ * reloaded.  An index is reloaded once it is older than
+ * {@link #RELOAD_INTERVAL}, and the existing index continues to serve lookups
+ * from other threads while the reload is in progress.
+ */
+public class TitleIndex {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TitleIndex.class.getName());
+	/** Number of pending changes for a namespace at which the sorted arrays are rebuilt. */
+	static final int MERGE_THRESHOLD = 1000;
+	/** Number of milliseconds after which the index for a virtual wiki is reloaded to refresh popularity values. */
+	static final long RELOAD_INTERVAL = 60L * 60L * 1000L;
+	/** Order titles case-insensitively, breaking ties so that titles that differ only by case remain distinct. */
+	private static final Comparator<String> TITLE_ORDER = new Comparator<String>() {
+		public int compare(String title1, String title2) {
+			int result = String.CASE_INSENSITIVE_ORDER.compare(title1, title2);
+			return (result != 0) ? result : title1.compareTo(title2);
+		}
+	};
+	private final AnsiDataHandler dataHandler;
+	private final long reloadInterval;
+	private final ConcurrentMap<String, VirtualWikiTitles> virtualWikis = new ConcurrentHashMap<String, VirtualWikiTitles>();
+
+	/**
+	 *
+	 */
+	TitleIndex(AnsiDataHandler dataHandler) {
+		this(dataHandler, RELOAD_INTERVAL);
+	}
+
+	/**
+	 *
+	 */
+	TitleIndex(AnsiDataHandler dataHandler, long reloadInterval) {
+		this.dataHandler = dataHandler;
+		this.reloadInterval = reloadInterval;
+	}
+
+	/**
+	 * Compare the start of a title with a prefix, ignoring case.  Returns zero if
+	 * the title starts with the prefix, and otherwise a value consistent with the
+	 * ordering of titles, so that all titles starting with a prefix are
+	 * contiguous in a sorted array.
+	 */
+	private static int comparePrefix(String title, String prefix) {
+		int length = Math.min(title.length(), prefix.length());
+		for (int i = 0; i < length; i++) {
+			char c1 = Character.toLowerCase(Character.toUpperCase(title.charAt(i)));
+			char c2 = Character.toLowerCase(Character.toUpperCase(prefix.charAt(i)));
+			if (c1 != c2) {
+				return c1 - c2;
+			}
+		}
+		return (title.length() < prefix.length()) ? -1 : 0;
+	}
+
+	/**
+	 * Return the names of topics in a namespace that start with a prefix
+	 * (ignoring case), ordered by popularity.  Internal system files are not
+	 * returned.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics.
+	 * @param namespace The namespace for the topics.
+	 * @param prefix The page name prefix, not including the namespace.
+	 * @param limit The maximum number of names to return.
+	 * @return A list of full topic names, including the namespace.
+	 */
+	public List<String> findSuggestions(String virtualWiki, Namespace namespace, String prefix, int limit) {
+		NamespaceTitles titles = this.retrieveVirtualWiki(virtualWiki).getNamespace(namespace.getId(), false);
+		List<String> results = new ArrayList<String>();
+		if (titles == null || limit <= 0) {
+			return results;
+		}
+		for (Title title : titles.state.findMostPopular(prefix, limit)) {
+			results.add(Topic.buildTopicName(virtualWiki, namespace, title.pageName));
+		}
+		return results;
+	}
+
+	/**
+	 * Return the names of topics in a namespace that start with a prefix
+	 * (ignoring case) and are of one of the given topic types, in alphabetical
+	 * order.
+	 *
+	 * @param virtualWiki The virtual wiki for the topics.
+	 * @param namespace The namespace for the topics.
+	 * @param topicType1 The first topic type to return.
+	 * @param topicType2 The second topic type to return.  May be the same as
+	 *  the first type.
+	 * @param prefix The page name prefix, not including the namespace.  An empty
+	 *  prefix matches all topics in the namespace.
+	 * @param pagination The offset and maximum number of names to return.
+	 * @return A list of full topic names, including the namespace.
+	 */
+	public List<String> findTitles(String virtualWiki, Namespace namespace, TopicType topicType1, TopicType topicType2, String prefix, Pagination pagination) {
+		NamespaceTitles titles = this.retrieveVirtualWiki(virtualWiki).getNamespace(namespace.getId(), false);
+		List<String> results = new ArrayList<String>();
+		if (titles == null) {
+			return results;
+		}
+		for (Title title : titles.state.findSorted(prefix, topicType1, topicType2, pagination.getOffset(), pagination.getNumResults())) {
+			results.add(Topic.buildTopicName(virtualWiki, namespace, title.pageName));
+		}
+		return results;
+	}
+
+	/**
+	 * Return the index for a virtual wiki, loading it if necessary.  If the
+	 * index has expired then the calling thread reloads it, while other threads
+	 * continue to use the expired index until the reload completes.
+	 */
+	private VirtualWikiTitles retrieveVirtualWiki(String virtualWiki) {
+		VirtualWikiTitles titles = this.virtualWikis.get(virtualWiki);
+		if (titles == null) {
+			VirtualWikiTitles newTitles = new VirtualWikiTitles(virtualWiki, null);
+			titles = this.virtualWikis.putIfAbsent(virtualWiki, newTitles);
+			if (titles == null) {
+				titles = newTitles;
+			}
+		} else if (titles.isExpired(this.reloadInterval)) {
+			// the new index is registered before it is loaded so that updates made
+			// during the load wait for it rather than being applied to the old index
+			VirtualWikiTitles newTitles = new VirtualWikiTitles(virtualWiki, titles);
+			if (!this.virtualWikis.replace(virtualWiki, titles, newTitles)) {
+				// another thread is already reloading the index
+				return titles;
+			}
+			titles = newTitles;
+		} else {
+			VirtualWikiTitles previous = titles.previous;
+			if (previous != null) {
+				// another thread is reloading the index
+				return previous;
+			}
+		}
+		titles.load(this.dataHandler);
+		return titles;
+	}
+
+	/**
+	 * Update the index after a topic has been added, updated or deleted.  If
+	 * called during a database transaction the index is updated only once the
+	 * transaction commits.  Changes to virtual wikis whose index has not yet
+	 * been loaded are ignored, since they will be read when the index is
+	 * loaded.
+	 *
+	 * @param topic The topic that has changed.
+	 */
+	public void updateTopic(Topic topic) {
+		final String virtualWiki = topic.getVirtualWiki();
+		final int namespaceId = topic.getNamespace().getId();
+		final String pageName = topic.getPageName();
+		final TopicType topicType = topic.getTopicType();
+		final boolean deleted = topic.getDeleted();
+		if (TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				public void afterCommit() {
+					updateTopic(virtualWiki, namespaceId, pageName, topicType, deleted);
+				}
+			});
+		} else {
+			this.updateTopic(virtualWiki, namespaceId, pageName, topicType, deleted);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void updateTopic(String virtualWiki, int namespaceId, String pageName, TopicType topicType, boolean deleted) {
+		VirtualWikiTitles titles = this.virtualWikis.get(virtualWiki);
+		if (titles != null) {
+			titles.update(namespaceId, pageName, topicType, deleted);
+		}
+	}
+
+	/**
+	 * Callback used to stream titles from the database when loading the index.
+	 */
+	public interface Loader {
+
+		/**
+		 * Add a topic to the index being loaded.
+		 *
+		 * @param namespaceId The topic namespace ID.
+		 * @param pageName The topic page name, not including the namespace.
+		 * @param topicType The topic type.
+		 * @param popularity The number of links to the topic.
+		 */
+		void addTitle(int namespaceId, String pageName, TopicType topicType, int popularity);
+	}
+
+	/**
+	 * The index for all namespaces of a single virtual wiki.
+	 */
+	private static class VirtualWikiTitles implements Loader {
+
+		private volatile boolean loaded = false;
+		/** Time at which loading started, so that changes made during loading are not missed by the next reload. */
+		private volatile long loadTime = 0;
+		private final ConcurrentMap<Integer, NamespaceTitles> namespaces = new ConcurrentHashMap<Integer, NamespaceTitles>();
+		/** Titles read from the database, discarded once loading completes. */
+		private Map<Integer, List<Title>> loading = null;
+		/** The expired index being replaced, used for lookups until the first load attempt completes. */
+		private volatile VirtualWikiTitles previous;
+		private final String virtualWiki;
+
+		/**
+		 *
+		 */
+		VirtualWikiTitles(String virtualWiki, VirtualWikiTitles previous) {
+			this.virtualWiki = virtualWiki;
+			this.previous = previous;
+		}
+
+		/**
+		 *
+		 */
+		public void addTitle(int namespaceId, String pageName, TopicType topicType, int popularity) {
+			List<Title> titles = this.loading.get(namespaceId);
+			if (titles == null) {
+				titles = new ArrayList<Title>();
+				this.loading.put(namespaceId, titles);
+			}
+			titles.add(new Title(pageName, topicType, popularity));
+		}
+
+		/**
+		 * Return the index for a namespace, optionally creating it if it does not
+		 * already exist.
+		 */
+		NamespaceTitles getNamespace(int namespaceId, boolean create) {
+			NamespaceTitles titles = this.namespaces.get(namespaceId);
+			if (titles == null && create) {
+				titles = new NamespaceTitles(new Snapshot(new ArrayList<Title>()));
+				this.namespaces.put(namespaceId, titles);
+			}
+			return titles;
+		}
+
+		/**
+		 * Determine whether the index has been loaded for longer than the reload
+		 * interval.
+		 */
+		boolean isExpired(long reloadInterval) {
+			return (this.loaded && System.currentTimeMillis() - this.loadTime >= reloadInterval);
+		}
+
+		/**
+		 * Load the index from the database if it has not already been loaded.
+		 * Updates wait for loading to complete, so no committed change can be
+		 * missed.
+		 */
+		void load(AnsiDataHandler dataHandler) {
+			if (this.loaded) {
+				return;
+			}
+			synchronized (this) {
+				if (this.loaded) {
+					return;
+				}
+				long start = System.currentTimeMillis();
+				this.loading = new HashMap<Integer, List<Title>>();
+				int count = 0;
+				try {
+					dataHandler.loadTopicTitles(this.virtualWiki, this);
+					for (Map.Entry<Integer, List<Title>> entry : this.loading.entrySet()) {
+						count += entry.getValue().size();
+						this.namespaces.put(entry.getKey(), new NamespaceTitles(new Snapshot(entry.getValue())));
+					}
+				} finally {
+					this.loading = null;
+					// if loading failed then later lookups retry the load rather than
+					// continuing to use the expired index
+					this.previous = null;
+				}
+				this.loadTime = start;
+				this.loaded = true;
+				if (logger.isInfoEnabled()) {
+					logger.info("Loaded title index for virtual wiki " + this.virtualWiki + " (" + count + " topics) in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
+				}
+			}
+		}
+
+		/**
+		 *
+		 */
+		synchronized void update(int namespaceId, String pageName, TopicType topicType, boolean deleted) {
+			if (!this.loaded) {
+				// loading failed, so the index will be re-loaded when next used
+				return;
+			}
+			NamespaceTitles titles = this.getNamespace(namespaceId, !deleted);
+			if (titles != null) {
+				titles.update(pageName, topicType, deleted);
+			}
+		}
+	}
+
+	/**
+	 * The index for a single namespace.  All updates are made while holding the
+	 * lock on the parent {@link VirtualWikiTitles}, while lookups use whichever
+	 * state is current without locking.
+	 */
+	private static class NamespaceTitles {
+
+		volatile State state;
+
+		/**
+		 *
+		 */
+		NamespaceTitles(Snapshot snapshot) {
+			this.state = new State(snapshot);
+		}
+
+		/**
+		 *
+		 */
+		void update(String pageName, TopicType topicType, boolean deleted) {
+			State current = this.state;
+			int position = current.snapshot.indexOf(pageName);
+			Title existing = current.added.get(pageName);
+			int popularity = 0;
+			if (existing != null) {
+				popularity = existing.popularity;
+			} else if (position >= 0) {
+				popularity = current.snapshot.popularity[position];
+			}
+			// add before removing so that concurrent lookups see a duplicate
+			// rather than a missing title
+			if (deleted) {
+				current.added.remove(pageName);
+			} else {
+				current.added.put(pageName, new Title(pageName, topicType, popularity));
+			}
+			if (position >= 0) {
+				current.removed.add(pageName);
+			}
+			if (current.added.size() + current.removed.size() >= MERGE_THRESHOLD) {
+				this.state = new State(current.merge());
+			}
+		}
+	}
+
+	/**
+	 * A sorted snapshot of titles along with the changes made since the
+	 * snapshot was created.
+	 */
+	private static class State {
+
+		/** Titles added or updated since the snapshot was created. */
+		final ConcurrentSkipListMap<String, Title> added = new ConcurrentSkipListMap<String, Title>(TITLE_ORDER);
+		/** Names of snapshot titles that have since been deleted or updated. */
+		final Set<String> removed = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		final Snapshot snapshot;
+
+		/**
+		 *
+		 */
+		State(Snapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		/**
+		 * Return the pending changes that start with the prefix, in sorted order.
+		 */
+		private List<Title> findAdded(String prefix) {
+			List<Title> results = new ArrayList<Title>();
+			for (Title title : this.added.values()) {
+				int result = comparePrefix(title.pageName, prefix);
+				if (result > 0) {
+					break;
+				}
+				if (result == 0) {
+					results.add(title);
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * Return the most popular titles that start with the prefix.
+		 */
+		List<Title> findMostPopular(String prefix, int limit) {
+			// the most popular titles overall are among the most popular titles
+			// in the snapshot combined with all matching pending changes
+			List<Title> candidates = this.snapshot.findMostPopular(prefix, limit, this.removed);
+			candidates.addAll(this.findAdded(prefix));
+			Collections.sort(candidates, new Comparator<Title>() {
+				public int compare(Title title1, Title title2) {
+					if (title1.popularity != title2.popularity) {
+						return (title1.popularity > title2.popularity) ? -1 : 1;
+					}
+					return TITLE_ORDER.compare(title1.pageName, title2.pageName);
+				}
+			});
+			Set<String> names = new LinkedHashSet<String>();
+			List<Title> results = new ArrayList<Title>();
+			for (Title title : candidates) {
+				if (results.size() >= limit) {
+					break;
+				}
+				if (title.topicType != TopicType.SYSTEM_FILE && names.add(title.pageName)) {
+					results.add(title);
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * Return titles of the given types that start with the prefix, in sorted
+		 * order, by merging the snapshot with the pending changes.
+		 */
+		List<Title> findSorted(String prefix, TopicType topicType1, TopicType topicType2, int offset, int limit) {
+			List<Title> results = new ArrayList<Title>();
+			List<Title> pending = this.findAdded(prefix);
+			int position = this.snapshot.lowerBound(prefix);
+			int end = this.snapshot.upperBound(prefix);
+			int pendingPosition = 0;
+			int skipped = 0;
+			while (results.size() < limit && (position < end || pendingPosition < pending.size())) {
+				Title title;
+				if (position >= end) {
+					title = pending.get(pendingPosition++);
+				} else if (pendingPosition >= pending.size()) {
+					title = this.snapshot.title(position++);
+				} else {
+					Title snapshotTitle = this.snapshot.title(position);
+					int result = TITLE_ORDER.compare(snapshotTitle.pageName, pending.get(pendingPosition).pageName);
+					if (result == 0) {
+						// the pending change supersedes the snapshot title
+						position++;
+						continue;
+					}
+					title = (result < 0) ? this.snapshot.title(position++) : pending.get(pendingPosition++);
+				}
+				if (title.topicType != topicType1 && title.topicType != topicType2) {
+					continue;
+				}
+				if (this.removed.contains(title.pageName) && !this.added.containsKey(title.pageName)) {
+					continue;
+				}
+				if (skipped < offset) {
+					skipped++;
+					continue;
+				}
+				results.add(title);
+			}
+			return results;
+		}
+
+		/**
+		 * Create a new snapshot that includes all pending changes.
+		 */
+		Snapshot merge() {
+			List<Title> titles = new ArrayList<Title>(this.snapshot.names.length + this.added.size());
+			for (int i = 0; i < this.snapshot.names.length; i++) {
+				if (!this.removed.contains(this.snapshot.names[i])) {
+					titles.add(this.snapshot.title(i));
+				}
+			}
+			titles.addAll(this.added.values());
+			return new Snapshot(titles);
+		}
+	}
+
+	/**
+	 * An immutable, sorted array of titles.
+	 */
+	private static class Snapshot {
+
+		final String[] names;
+		final int[] popularity;
+		/** Segment tree holding the index of the most popular title in each range. */
+		final int[] tree;
+		final TopicType[] topicTypes;
+
+		/**
+		 *
+		 */
+		Snapshot(List<Title> titles) {
+			Collections.sort(titles);
+			int size = titles.size();
+			this.names = new String[size];
+			this.popularity = new int[size];
+			this.topicTypes = new TopicType[size];
+			for (int i = 0; i < size; i++) {
+				Title title = titles.get(i);
+				this.names[i] = title.pageName;
+				this.popularity[i] = title.popularity;
+				this.topicTypes[i] = title.topicType;
+			}
+			this.tree = new int[size * 2];
+			for (int i = 0; i < size; i++) {
+				this.tree[size + i] = i;
+			}
+			for (int i = size - 1; i > 0; i--) {
+				this.tree[i] = this.morePopular(this.tree[2 * i], this.tree[2 * i + 1]);
+			}
+		}
+
+		/**
+		 * Return the most popular titles that start with the prefix, ignoring
+		 * titles that have been removed.
+		 */
+		List<Title> findMostPopular(String prefix, int limit, Set<String> removed) {
+			List<Title> results = new ArrayList<Title>();
+			int start = this.lowerBound(prefix);
+			int end = this.upperBound(prefix);
+			if (start >= end) {
+				return results;
+			}
+			// repeatedly take the most popular title from the best remaining range
+			// and split that range around it
+			PriorityQueue<int[]> ranges = new PriorityQueue<int[]>(11, new Comparator<int[]>() {
+				public int compare(int[] range1, int[] range2) {
+					return (morePopular(range1[2], range2[2]) == range1[2]) ? -1 : 1;
+				}
+			});
+			ranges.add(new int[] {start, end, this.mostPopular(start, end)});
+			while (!ranges.isEmpty() && results.size() < limit) {
+				int[] range = ranges.poll();
+				int position = range[2];
+				if (!removed.contains(this.names[position])) {
+					results.add(this.title(position));
+				}
+				if (range[0] < position) {
+					ranges.add(new int[] {range[0], position, this.mostPopular(range[0], position)});
+				}
+				if (position + 1 < range[1]) {
+					ranges.add(new int[] {position + 1, range[1], this.mostPopular(position + 1, range[1])});
+				}
+			}
+			return results;
+		}
+
+		/**
+		 * Return the position of a title, or a negative value if it is not present.
+		 */
+		int indexOf(String pageName) {
+			return Arrays.binarySearch(this.names, pageName, TITLE_ORDER);
+		}
+
+		/**
+		 * Return the position of the first title that starts with or sorts after the prefix.
+		 */
+		int lowerBound(String prefix) {
+			int low = 0;
+			int high = this.names.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (comparePrefix(this.names[middle], prefix) < 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+
+		/**
+		 * Return the position of the most popular title in the range, preferring
+		 * the first such title if several are equally popular.
+		 */
+		int mostPopular(int start, int end) {
+			int size = this.names.length;
+			int result = -1;
+			for (int low = start + size, high = end + size; low < high; low >>= 1, high >>= 1) {
+				if ((low & 1) == 1) {
+					result = this.morePopular(result, this.tree[low++]);
+				}
+				if ((high & 1) == 1) {
+					result = this.morePopular(result, this.tree[--high]);
+				}
+			}
+			return result;
+		}
+
+		/**
+		 *
+		 */
+		int morePopular(int position1, int position2) {
+			if (position1 < 0 || position2 < 0) {
+				return Math.max(position1, position2);
+			}
+			if (this.popularity[position1] != this.popularity[position2]) {
+				return (this.popularity[position1] > this.popularity[position2]) ? position1 : position2;
+			}
+			return Math.min(position1, position2);
+		}
+
+		/**
+		 *
+		 */
+		Title title(int position) {
+			return new Title(this.names[position], this.topicTypes[position], this.popularity[position]);
+		}
+
+		/**
+		 * Return the position after the last title that starts with the prefix.
+		 */
+		int upperBound(String prefix) {
+			int low = 0;
+			int high = this.names.length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (comparePrefix(this.names[middle], prefix) <= 0) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			return low;
+		}
+	}
+
+	/**
+	 *
+	 */
+	private static class Title implements Comparable<Title> {
+
+		final String pageName;
+		final int popularity;
+		final TopicType topicType;
+
+		/**
+		 *
+		 */
+		Title(String pageName, TopicType topicType, int popularity) {
+			this.pageName = pageName;
+			this.topicType = topicType;
+			this.popularity = popularity;
+		}
+
+		/**
+		 *
+		 */
+		public int compareTo(Title title) {
+			return TITLE_ORDER.compare(this.pageName, title.pageName);
+		}
+	}
+}
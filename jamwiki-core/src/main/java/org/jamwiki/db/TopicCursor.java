@@ -0,0 +1,166 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.jamwiki.model.Topic;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Forward-only iterator over all non-deleted topics in a virtual wiki, ordered
+ * by topic ID.  Topics are read from an open database result set as they are
+ * requested rather than being loaded into memory all at once, and are never
+ * read from or added to the topic caches, making this class suitable for
+ * maintenance jobs that must visit every topic in a large wiki.
+ * <p>
+ * Each cursor holds a database connection until it is closed, so callers MUST
+ * call {@link #close()} in a <code>finally</code> block.  A long-running job
+ * that is interrupted can continue where it left off by saving the value of
+ * {@link #getLastTopicId()} and passing it as the starting point for a new
+ * cursor.
+ *
+ * <pre>
+ * TopicCursor cursor = WikiBase.getDataHandler().lookupTopicCursor(virtualWiki, 0);
+ * try {
+ *     while (cursor.hasNext()) {
+ *         Topic topic = cursor.next();
+ *         ...
+ *     }
+ * } finally {
+ *     cursor.close();
+ * }
+ * </pre>
+ */
+public class TopicCursor implements Iterator<Topic> {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(TopicCursor.class.getName());
+	private final boolean autoCommit;
+	private boolean closed = false;
+	private final Connection conn;
+	private int lastTopicId;
+	private final AnsiQueryHandler.TopicMapper mapper = new AnsiQueryHandler.TopicMapper();
+	private Topic nextTopic = null;
+	private final ResultSet rs;
+	private int rowNum = 0;
+	private final String sql;
+	private final PreparedStatement stmt;
+
+	/**
+	 * Create a cursor for an executed query.  The cursor takes ownership of the
+	 * connection, statement and result set and releases them when closed.
+	 *
+	 * @param conn The connection used to execute the query.
+	 * @param autoCommit The auto-commit setting to restore on the connection
+	 *  when the cursor is closed.
+	 * @param stmt The statement used to execute the query.
+	 * @param rs The query results.
+	 * @param sql The query SQL, used for error reporting.
+	 * @param startTopicId The topic ID after which the results begin.
+	 */
+	TopicCursor(Connection conn, boolean autoCommit, PreparedStatement stmt, ResultSet rs, String sql, int startTopicId) {
+		this.conn = conn;
+		this.autoCommit = autoCommit;
+		this.stmt = stmt;
+		this.rs = rs;
+		this.sql = sql;
+		this.lastTopicId = startTopicId;
+	}
+
+	/**
+	 * Release the database resources held by this cursor.  Calling this method
+	 * more than once has no effect.
+	 */
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.nextTopic = null;
+		try {
+			if (this.autoCommit) {
+				// the query was read-only, so there is nothing to commit
+				this.conn.rollback();
+				this.conn.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			logger.warn("Failure while resetting cursor connection", e);
+		}
+		DatabaseConnection.closeConnection(this.conn, this.stmt, this.rs);
+	}
+
+	/**
+	 * Return the ID of the most recent topic returned by {@link #next()}, or the
+	 * starting topic ID if no topics have yet been returned.  This value can be
+	 * used as a checkpoint for resuming an interrupted job.
+	 */
+	public int getLastTopicId() {
+		return this.lastTopicId;
+	}
+
+	/**
+	 * Return <code>true</code> if there are additional topics available.  The
+	 * cursor is automatically closed once all results have been read.
+	 */
+	public boolean hasNext() {
+		if (this.nextTopic != null) {
+			return true;
+		}
+		if (this.closed) {
+			return false;
+		}
+		try {
+			if (this.rs.next()) {
+				this.nextTopic = this.mapper.mapRow(this.rs, this.rowNum++);
+				return true;
+			}
+		} catch (SQLException e) {
+			this.close();
+			throw DatabaseConnection.getJdbcTemplate().getExceptionTranslator().translate("TopicCursor", this.sql, e);
+		}
+		this.close();
+		return false;
+	}
+
+	/**
+	 * Return the next topic.
+	 *
+	 * @throws NoSuchElementException Thrown if there are no further topics.
+	 */
+	public Topic next() {
+		if (!this.hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Topic topic = this.nextTopic;
+		this.nextTopic = null;
+		this.lastTopicId = topic.getTopicId();
+		return topic;
+	}
+
+	/**
+	 * Not supported.
+	 *
+	 * @throws UnsupportedOperationException Always thrown.
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException("TopicCursor is read-only");
+	}
+}
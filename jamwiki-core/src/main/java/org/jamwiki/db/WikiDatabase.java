@@ -30,6 +30,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TimeZone;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
@@ -94,6 +95,14 @@ public class WikiDatabase {
 		{"jam_user_block", "user_block_id"},
 		{"jam_file_data", "file_version_id"}
 	};
+	// tables that are owned by the home database but must also exist in each virtual
+	// wiki database to satisfy joins and foreign keys.  ordered by dependency.
+	private static final String[][] SHARD_REFERENCE_TABLE_INFO = {
+		{"jam_virtual_wiki", "virtual_wiki_id"},
+		{"jam_users", "username"},
+		{"jam_wiki_user", "wiki_user_id"},
+		{"jam_namespace", "namespace_id"}
+	};
 
 	/**
 	 *
@@ -139,6 +148,7 @@ public class WikiDatabase {
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_TOPIC_LINKS_INDEX" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_WIKI_FILE_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_WIKI_FILE_VERSION_TABLE" , conn);
+		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_WIKI_FILE_VERSION_CONTENT_HASH_INDEX" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_CATEGORY_TABLE" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_CATEGORY_INDEX" , conn);
 		WikiDatabase.executeUpdate(handler, "STATEMENT_CREATE_GROUP_TABLE" , conn);
@@ -518,6 +528,7 @@ public class WikiDatabase {
 		} catch (Exception e) {
 			logger.error("Unable to close the connection pool on shutdown", e);
 		}
+		StatementMonitor.getInstance().unregisterMBean();
 	}
 
 	/**
@@ -595,33 +606,31 @@ public class WikiDatabase {
 	public static int[] rebuildTopicMetadata() {
 		int numErrors = 0;
 		int numUpdated = 0;
-		List<String> topicNames;
+		TopicCursor cursor;
 		Topic topic;
 		ParserOutput parserOutput;
 		List<VirtualWiki> virtualWikis = WikiBase.getDataHandler().getVirtualWikiList();
 		for (VirtualWiki virtualWiki : virtualWikis) {
-			topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-			if (topicNames.isEmpty()) {
-				continue;
-			}
-			for (String topicName : topicNames) {
-				try {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.warn("Invalid topic record found, possible database integrity issue: " + virtualWiki.getName() + " / " + topicName);
+			// stream topics rather than loading them all, and bypass the topic
+			// caches so that a rebuild does not evict entries used by live traffic
+			cursor = WikiBase.getDataHandler().lookupTopicCursor(virtualWiki.getName(), 0);
+			try {
+				while (cursor.hasNext()) {
+					topic = cursor.next();
+					try {
+						parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki.getName(), topic.getName());
+						WikiBase.getDataHandler().writeTopic(topic, null, parserOutput.getCategories(), parserOutput.getLinks());
+						numUpdated++;
+					} catch (ParserException e) {
+						logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topic.getName() + ": " + e.getMessage());
+						numErrors++;
+					} catch (WikiException e) {
+						logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topic.getName() + ": " + e.getMessage());
 						numErrors++;
-						continue;
 					}
-					parserOutput = ParserUtil.parserOutput(topic.getTopicContent(), virtualWiki.getName(), topicName);
-					WikiBase.getDataHandler().writeTopic(topic, null, parserOutput.getCategories(), parserOutput.getLinks());
-					numUpdated++;
-				} catch (ParserException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
-				} catch (WikiException e) {
-					logger.error("Failure while regenerating topic metadata for " + virtualWiki.getName() + " / " + topicName + ": " + e.getMessage());
-					numErrors++;
 				}
+			} finally {
+				cursor.close();
 			}
 		}
 		int[] resultArray = new int[2];
@@ -906,6 +915,32 @@ public class WikiDatabase {
 		WikiBase.getDataHandler().writeRole(role, false);
 	}
 
+	/**
+	 * Create the JAMWiki tables in a database that will be used to store a single
+	 * virtual wiki, unless the tables already exist.
+	 *
+	 * @param conn A connection to the virtual wiki database.
+	 * @throws SQLException Thrown if any error occurs during table creation.
+	 */
+	protected static void setupShard(Connection conn) throws SQLException {
+		QueryHandler handler = WikiBase.getDataHandler().queryHandler();
+		Statement stmt = null;
+		try {
+			stmt = conn.createStatement();
+			stmt.executeQuery(handler.existenceValidationQuery());
+			// tables already exist
+			return;
+		} catch (SQLException e) {
+			logger.info("Creating JAMWiki tables in new virtual wiki database");
+		} finally {
+			DatabaseConnection.closeStatement(stmt);
+		}
+		WikiDatabase.createTables(handler, conn);
+		if (!conn.getAutoCommit()) {
+			conn.commit();
+		}
+	}
+
 	/**
 	 *
 	 */
@@ -957,4 +992,132 @@ public class WikiDatabase {
 		WikiBase.getDataHandler().writeUserPreferenceDefault(WikiUser.USER_PREFERENCE_PREFERRED_EDITOR, "toolbar", WikiUser.USER_PREFERENCES_GROUP_EDITING, 1);
 		WikiBase.getDataHandler().writeUserPreferenceDefault(WikiUser.USER_PREFERENCE_SIGNATURE, null, WikiUser.USER_PREFERENCES_GROUP_EDITING, 2);
 	}
+
+	/**
+	 * Copy virtual wiki, namespace and user records from the home database to a
+	 * virtual wiki database.  Records that do not exist in the virtual wiki
+	 * database are inserted and records that differ are updated.  These copies
+	 * exist solely to satisfy joins and foreign keys, and the home database
+	 * remains the authoritative source.
+	 *
+	 * @param from A connection to the home database.
+	 * @param to A connection to the virtual wiki database.
+	 * @throws SQLException Thrown if any error occurs while copying records.
+	 */
+	protected static void synchronizeShard(Connection from, Connection to) throws SQLException {
+		QueryHandler handler = WikiBase.getDataHandler().queryHandler();
+		for (int i = 0; i < SHARD_REFERENCE_TABLE_INFO.length; i++) {
+			String tableName = SHARD_REFERENCE_TABLE_INFO[i][0];
+			String keyColumn = SHARD_REFERENCE_TABLE_INFO[i][1];
+			Statement stmt = null;
+			ResultSet rs = null;
+			PreparedStatement insertStmt = null;
+			PreparedStatement updateStmt = null;
+			try {
+				stmt = from.createStatement();
+				rs = stmt.executeQuery("SELECT * FROM " + tableName + " ORDER BY " + keyColumn);
+				ResultSetMetaData md = rs.getMetaData();
+				List<String> columnNames = new ArrayList<String>();
+				for (int k = 1; k <= md.getColumnCount(); k++) {
+					String columnName = md.getColumnLabel(k);
+					// special handling for Sybase ASA, which requires the "login" column name to be quoted
+					if (handler instanceof org.jamwiki.db.SybaseASAQueryHandler && "login".equalsIgnoreCase(columnName)) {
+						columnName = "\"" + columnName + "\"";
+					}
+					columnNames.add(columnName);
+				}
+				String columns = StringUtils.join(columnNames, ',');
+				Map<String, List<String>> existingRecords = WikiDatabase.retrieveShardRecords(to, tableName, keyColumn, columns);
+				StringBuilder values = new StringBuilder();
+				StringBuilder assignments = new StringBuilder();
+				for (int k = 0; k < columnNames.size(); k++) {
+					if (k > 0) {
+						values.append(',');
+						assignments.append(',');
+					}
+					values.append('?');
+					assignments.append(columnNames.get(k)).append(" = ?");
+				}
+				insertStmt = to.prepareStatement("INSERT INTO " + tableName + " (" + columns + ") VALUES (" + values + ")");
+				updateStmt = to.prepareStatement("UPDATE " + tableName + " SET " + assignments + " WHERE " + keyColumn + " = ?");
+				int inserted = 0;
+				int updated = 0;
+				while (rs.next()) {
+					List<String> existing = existingRecords.get(rs.getString(keyColumn));
+					PreparedStatement target = insertStmt;
+					if (existing != null) {
+						if (existing.equals(WikiDatabase.recordValues(rs))) {
+							continue;
+						}
+						target = updateStmt;
+						updateStmt.setObject(md.getColumnCount() + 1, rs.getObject(keyColumn));
+					}
+					for (int k = 1; k <= md.getColumnCount(); k++) {
+						Object o = rs.getObject(k);
+						if (rs.wasNull()) {
+							target.setNull(k, md.getColumnType(k));
+						} else {
+							target.setObject(k, o);
+						}
+					}
+					target.executeUpdate();
+					if (existing == null) {
+						inserted++;
+					} else {
+						updated++;
+					}
+				}
+				if (inserted > 0 || updated > 0) {
+					logger.info("Copied " + inserted + " new and " + updated + " updated records from " + tableName + " to virtual wiki database");
+				}
+			} finally {
+				if (rs != null) {
+					try {
+						rs.close();
+					} catch (SQLException e) {}
+				}
+				DatabaseConnection.closeStatement(stmt);
+				DatabaseConnection.closeStatement(insertStmt);
+				DatabaseConnection.closeStatement(updateStmt);
+			}
+		}
+	}
+
+	/**
+	 * Return the string values of all columns of the current result set row, used
+	 * to determine whether a record copied to a virtual wiki database has changed.
+	 */
+	private static List<String> recordValues(ResultSet rs) throws SQLException {
+		int columnCount = rs.getMetaData().getColumnCount();
+		List<String> values = new ArrayList<String>(columnCount);
+		for (int k = 1; k <= columnCount; k++) {
+			values.add(rs.getString(k));
+		}
+		return values;
+	}
+
+	/**
+	 * Retrieve the records of a reference table in a virtual wiki database, keyed
+	 * by the value of the key column.
+	 */
+	private static Map<String, List<String>> retrieveShardRecords(Connection conn, String tableName, String keyColumn, String columns) throws SQLException {
+		Map<String, List<String>> records = new HashMap<String, List<String>>();
+		Statement stmt = null;
+		ResultSet rs = null;
+		try {
+			stmt = conn.createStatement();
+			rs = stmt.executeQuery("SELECT " + columns + " FROM " + tableName);
+			while (rs.next()) {
+				records.put(rs.getString(keyColumn), WikiDatabase.recordValues(rs));
+			}
+		} finally {
+			if (rs != null) {
+				try {
+					rs.close();
+				} catch (SQLException e) {}
+			}
+			DatabaseConnection.closeStatement(stmt);
+		}
+		return records;
+	}
 }
@@ -32,6 +32,7 @@ import org.apache.commons.io.IOUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiVersion;
+import org.jamwiki.db.AnsiDataHandler;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Topic;
@@ -52,6 +53,8 @@ public class MediaWikiXmlExporter implements TopicExporter {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(MediaWikiXmlExporter.class.getName());
 	private static final SimpleDateFormat MEDIAWIKI_DATE_FORMATTER = new SimpleDateFormat(MediaWikiConstants.ISO_8601_DATE_FORMAT);
+	/** Topic versions may be very large, so keep the number retrieved at one time small. */
+	private static final int VERSION_BATCH_SIZE = 10;
 
 	/**
 	 *
@@ -137,16 +140,25 @@ public class MediaWikiXmlExporter implements TopicExporter {
 		// since the garbage collector ends up being invoked excessively.
 		TopicVersion topicVersion;
 		Topic topic;
+		String topicName;
 		WikiUser user;
 		// choose 100,000 as an arbitrary default
 		int maxRevisions = (Environment.getIntValue(Environment.PROP_MAX_TOPIC_VERSION_EXPORT) > 0) ? Environment.getIntValue(Environment.PROP_MAX_TOPIC_VERSION_EXPORT) : 100000;
 		int revisionsRetrieved = 0;
 		List<Integer> topicVersionIds;
+		List<String> topicBatch;
+		List<Topic> topics = null;
+		List<TopicVersion> topicVersions;
 		Map<String, String> textAttributes = new LinkedHashMap<String, String>();
 		textAttributes.put("xml:space", "preserve");
-		for (String topicName : topicNames) {
+		for (int i = 0; i < topicNames.size(); i++) {
+			if (i % AnsiDataHandler.BULK_LOOKUP_SIZE == 0) {
+				topicBatch = topicNames.subList(i, Math.min(i + AnsiDataHandler.BULK_LOOKUP_SIZE, topicNames.size()));
+				topics = WikiBase.getDataHandler().lookupTopics(virtualWiki, topicBatch);
+			}
+			topicName = topicNames.get(i);
 			topicVersionIds = new ArrayList<Integer>();
-			topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+			topic = topics.get(i % AnsiDataHandler.BULK_LOOKUP_SIZE);
 			if (topic == null) {
 				throw new MigrationException("Failure while exporting: topic " + virtualWiki + ':' + topicName + " does not exist");
 			}
@@ -165,12 +177,17 @@ public class MediaWikiXmlExporter implements TopicExporter {
 				Pagination pagination = new Pagination(maxRevisions - revisionsRetrieved, 0);
 				List<RecentChange> changes = WikiBase.getDataHandler().getTopicHistory(topic, pagination, true);
 				revisionsRetrieved += changes.size();
-				for (int i = (changes.size() - 1); i >= 0; i--) {
-					topicVersionIds.add(changes.get(i).getTopicVersionId());
+				for (int j = (changes.size() - 1); j >= 0; j--) {
+					topicVersionIds.add(changes.get(j).getTopicVersionId());
 				}
 			}
-			for (int topicVersionId : topicVersionIds) {
-				topicVersion = WikiBase.getDataHandler().lookupTopicVersion(topicVersionId);
+			topicVersions = null;
+			for (int j = 0; j < topicVersionIds.size(); j++) {
+				if (j % VERSION_BATCH_SIZE == 0) {
+					topicVersions = WikiBase.getDataHandler().lookupTopicVersions(topicVersionIds.subList(j, Math.min(j + VERSION_BATCH_SIZE, topicVersionIds.size())));
+				}
+				topicVersion = topicVersions.get(j % VERSION_BATCH_SIZE);
+				topicVersions.set(j % VERSION_BATCH_SIZE, null);
 				writer.append("\n<revision>");
 				writer.append('\n');
 				XMLUtil.buildTag(writer, "id", topicVersion.getTopicVersionId());
@@ -77,13 +77,26 @@ public class MigrationUtil {
 	 * @throws WikiException Thrown if there is no topic data available.
 	 */
 	public static List<String> importFromFile(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) throws MigrationException, WikiException {
+		// suspend search index updates during the import.  updates are still
+		// queued, but each imported topic is indexed only once after the import
+		// completes rather than once for every imported version.
+		WikiBase.getSearchIndexQueue().startBulkMode();
+		try {
+			return MigrationUtil.importTopics(file, virtualWiki, user, authorDisplay, locale);
+		} finally {
+			WikiBase.getSearchIndexQueue().endBulkMode();
+		}
+	}
+
+	/**
+	 * Parse an import file and commit all topic information within it.
+	 *
+	 * @see #importFromFile(File, String, WikiUser, String, Locale)
+	 */
+	private static List<String> importTopics(File file, String virtualWiki, WikiUser user, String authorDisplay, Locale locale) throws MigrationException, WikiException {
 		TopicImporter importer = new MediaWikiXmlImporter();
 		long start = System.currentTimeMillis();
 		Map<Topic, List<Integer>> parsedTopics = null;
-		// for performance reasons disable writes to the search engine during
-		// import since the search engine will be updated with the same topic
-		// information again during the creation of the topic import record.
-		WikiBase.getSearchEngine().setDisabled(true);
 		try {
 			parsedTopics = importer.importFromFile(file, virtualWiki);
 		} catch (MigrationException e) {
@@ -91,9 +104,6 @@ public class MigrationUtil {
 				throw (WikiException)(e.getCause());
 			}
 			throw e;
-		} finally {
-			// re-enable the write updates to the search engine
-			WikiBase.getSearchEngine().setDisabled(false);
 		}
 		if (logger.isDebugEnabled()) {
 			logger.debug("Parsed XML " + file.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
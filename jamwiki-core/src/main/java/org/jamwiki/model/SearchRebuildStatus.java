@@ -0,0 +1,161 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.model;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress information for a rebuild of the search index.  The search engine
+ * updates this object while the rebuild runs, and it may be read from other
+ * threads at any time.
+ */
+public class SearchRebuildStatus {
+
+	/** Time at which the rebuild completed, or <code>null</code> while it is running. */
+	private volatile Date endDate = null;
+	/** Error message for the most recent failure, if any. */
+	private volatile String error = null;
+	/** Number of topics processed so far. */
+	private final AtomicInteger processed = new AtomicInteger();
+	/** Time at which the rebuild started. */
+	private final Date startDate = new Date();
+	/** Total number of topics to process.  This value is an estimate since topics may be added during the rebuild. */
+	private final int total;
+	/** The virtual wiki currently being processed. */
+	private volatile String virtualWiki = null;
+
+	/**
+	 *
+	 */
+	public SearchRebuildStatus(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * Mark the rebuild as complete.
+	 */
+	public void finish() {
+		this.endDate = new Date();
+	}
+
+	/**
+	 * Return the elapsed time of the rebuild in seconds.
+	 */
+	public long getElapsedSeconds() {
+		long end = (this.endDate != null) ? this.endDate.getTime() : System.currentTimeMillis();
+		return (end - this.startDate.getTime()) / 1000;
+	}
+
+	/**
+	 *
+	 */
+	public Date getEndDate() {
+		return this.endDate;
+	}
+
+	/**
+	 *
+	 */
+	public String getError() {
+		return this.error;
+	}
+
+	/**
+	 * Return an estimate of the number of seconds remaining, based on the
+	 * rate at which topics have been processed so far, or -1 if no estimate
+	 * is available yet.
+	 */
+	public long getEstimatedSecondsRemaining() {
+		int count = this.processed.get();
+		if (count == 0 || this.endDate != null) {
+			return (this.endDate != null) ? 0 : -1;
+		}
+		long elapsed = System.currentTimeMillis() - this.startDate.getTime();
+		long remaining = Math.max(this.total - count, 0);
+		return (elapsed * remaining / count) / 1000;
+	}
+
+	/**
+	 * Return the percentage of topics processed so far, from 0 to 100.
+	 */
+	public int getPercentComplete() {
+		if (this.endDate != null) {
+			return 100;
+		}
+		if (this.total <= 0) {
+			return 0;
+		}
+		return Math.min(this.processed.get() * 100 / this.total, 100);
+	}
+
+	/**
+	 *
+	 */
+	public int getProcessed() {
+		return this.processed.get();
+	}
+
+	/**
+	 *
+	 */
+	public Date getStartDate() {
+		return this.startDate;
+	}
+
+	/**
+	 *
+	 */
+	public int getTotal() {
+		return this.total;
+	}
+
+	/**
+	 *
+	 */
+	public String getVirtualWiki() {
+		return this.virtualWiki;
+	}
+
+	/**
+	 * Record that a topic has been processed.
+	 */
+	public void incrementProcessed() {
+		this.processed.incrementAndGet();
+	}
+
+	/**
+	 * Return <code>true</code> if the rebuild has not yet completed.
+	 */
+	public boolean isRunning() {
+		return (this.endDate == null);
+	}
+
+	/**
+	 *
+	 */
+	public void setError(String error) {
+		this.error = error;
+	}
+
+	/**
+	 *
+	 */
+	public void setVirtualWiki(String virtualWiki) {
+		this.virtualWiki = virtualWiki;
+	}
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.model;
+
+import java.util.List;
+
+/**
+ * Provides an object that holds a single page of search results along with
+ * the cursor needed to retrieve the following page.
+ */
+public class SearchResultPage {
+
+	/** Search results displayed on this page. */
+	private final List<SearchResultEntry> results;
+	/** Total number of documents matching the search. */
+	private final int totalHits;
+	/** Opaque cursor used to retrieve the next page, or <code>null</code> if this is the last page. */
+	private final String nextCursor;
+	/** Flag indicating that the requested cursor could not be used and the first page was returned instead. */
+	private final boolean reset;
+
+	/**
+	 *
+	 */
+	public SearchResultPage(List<SearchResultEntry> results, int totalHits, String nextCursor) {
+		this(results, totalHits, nextCursor, false);
+	}
+
+	/**
+	 *
+	 */
+	public SearchResultPage(List<SearchResultEntry> results, int totalHits, String nextCursor, boolean reset) {
+		this.results = results;
+		this.totalHits = totalHits;
+		this.nextCursor = nextCursor;
+		this.reset = reset;
+	}
+
+	/**
+	 * Return an opaque cursor value that can be passed to
+	 * {@link org.jamwiki.SearchEngine#findResults(String, String, List, String, int)}
+	 * to retrieve the page of results following this one, or <code>null</code>
+	 * if there are no further results.
+	 */
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+
+	/**
+	 *
+	 */
+	public List<SearchResultEntry> getResults() {
+		return this.results;
+	}
+
+	/**
+	 *
+	 */
+	public int getTotalHits() {
+		return this.totalHits;
+	}
+
+	/**
+	 * Return <code>true</code> if a cursor was requested but could no longer
+	 * be used, for example because the search index was rebuilt, in which case
+	 * this page holds the first page of results rather than the page that was
+	 * requested.
+	 */
+	public boolean isReset() {
+		return this.reset;
+	}
+}
@@ -18,6 +18,8 @@ package org.jamwiki.model;
 
 import java.io.Serializable;
 import java.sql.Timestamp;
+import java.util.Set;
+import java.util.TreeSet;
 import org.apache.commons.lang3.StringUtils;
 
 /**
@@ -32,8 +34,12 @@ public class WikiFile implements Serializable {
 	private int fileId = -1;
 	private String fileName;
 	private long fileSize = -1;
+	private Integer imageHeight;
+	private Integer imageWidth;
 	private String mimeType = UNKNOWN_MIME_TYPE;
 	private boolean readOnly = false;
+	/** Widths of the resized versions of the current image that have been generated. */
+	private Set<Integer> thumbnailWidths = new TreeSet<Integer>();
 	/** The URL is the image file path relative to the file upload directory. */
 	private String url;
 	private int topicId = -1;
@@ -54,8 +60,13 @@ public class WikiFile implements Serializable {
 		this.fileId = wikiFile.getFileId();
 		this.fileName = wikiFile.getFileName();
 		this.fileSize = wikiFile.getFileSize();
+		this.imageHeight = wikiFile.getImageHeight();
+		this.imageWidth = wikiFile.getImageWidth();
 		this.mimeType = wikiFile.getMimeType();
 		this.readOnly = wikiFile.getReadOnly();
+		if (wikiFile.getThumbnailWidths() != null) {
+			this.thumbnailWidths = new TreeSet<Integer>(wikiFile.getThumbnailWidths());
+		}
 		this.url = wikiFile.getUrl();
 		this.topicId = wikiFile.getTopicId();
 		this.virtualWiki = wikiFile.getVirtualWiki();
@@ -131,6 +142,38 @@ public class WikiFile implements Serializable {
 		this.fileSize = fileSize;
 	}
 
+	/**
+	 * Return the height in pixels of the original image, <code>-1</code> if the
+	 * file is not an image, or <code>null</code> if the dimensions have not yet
+	 * been determined.
+	 */
+	public Integer getImageHeight() {
+		return this.imageHeight;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageHeight(Integer imageHeight) {
+		this.imageHeight = imageHeight;
+	}
+
+	/**
+	 * Return the width in pixels of the original image, <code>-1</code> if the
+	 * file is not an image, or <code>null</code> if the dimensions have not yet
+	 * been determined.
+	 */
+	public Integer getImageWidth() {
+		return this.imageWidth;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageWidth(Integer imageWidth) {
+		this.imageWidth = imageWidth;
+	}
+
 	/**
 	 * This method will either return the MIME type set for the file, or a default
 	 * MIME type indicating that the MIME type is unknown.  This method will never
@@ -161,6 +204,21 @@ public class WikiFile implements Serializable {
 		this.readOnly = readOnly;
 	}
 
+	/**
+	 * Return the widths of the resized versions of the current file version that
+	 * have already been generated.
+	 */
+	public Set<Integer> getThumbnailWidths() {
+		return this.thumbnailWidths;
+	}
+
+	/**
+	 *
+	 */
+	public void setThumbnailWidths(Set<Integer> thumbnailWidths) {
+		this.thumbnailWidths = thumbnailWidths;
+	}
+
 	/**
 	 *
 	 */
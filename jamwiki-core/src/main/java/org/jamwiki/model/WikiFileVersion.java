@@ -28,9 +28,12 @@ public class WikiFileVersion implements Serializable {
 
 	private Integer authorId;
 	private String authorDisplay;
+	private String contentHash;
 	private int fileId = -1;
 	private long fileSize = -1;
 	private int fileVersionId = -1;
+	private Integer imageHeight;
+	private Integer imageWidth;
 	private String mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 	private String uploadComment;
 	private Timestamp uploadDate = new Timestamp(System.currentTimeMillis());
@@ -64,6 +67,23 @@ public class WikiFileVersion implements Serializable {
 		this.authorDisplay = authorDisplay;
 	}
 
+	/**
+	 * Return the hex-encoded SHA-256 hash of the file content if the file
+	 * version is stored in the content-addressed upload store, otherwise
+	 * <code>null</code>.  File versions with the same content hash share a
+	 * single copy of the file.
+	 */
+	public String getContentHash() {
+		return this.contentHash;
+	}
+
+	/**
+	 *
+	 */
+	public void setContentHash(String contentHash) {
+		this.contentHash = contentHash;
+	}
+
 	/**
 	 *
 	 */
@@ -106,6 +126,38 @@ public class WikiFileVersion implements Serializable {
 		this.fileVersionId = fileVersionId;
 	}
 
+	/**
+	 * Return the height in pixels of the original image, <code>-1</code> if the
+	 * file is not an image, or <code>null</code> if the dimensions have not yet
+	 * been determined.
+	 */
+	public Integer getImageHeight() {
+		return this.imageHeight;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageHeight(Integer imageHeight) {
+		this.imageHeight = imageHeight;
+	}
+
+	/**
+	 * Return the width in pixels of the original image, <code>-1</code> if the
+	 * file is not an image, or <code>null</code> if the dimensions have not yet
+	 * been determined.
+	 */
+	public Integer getImageWidth() {
+		return this.imageWidth;
+	}
+
+	/**
+	 *
+	 */
+	public void setImageWidth(Integer imageWidth) {
+		this.imageWidth = imageWidth;
+	}
+
 	/**
 	 * This method will either return the MIME type set for the file, or a default
 	 * MIME type indicating that the MIME type is unknown.  This method will never
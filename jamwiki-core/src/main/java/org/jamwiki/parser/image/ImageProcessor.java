@@ -16,7 +16,6 @@
  */
 package org.jamwiki.parser.image;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
@@ -29,12 +28,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.concurrent.Semaphore;
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.stream.ImageInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
-import org.jamwiki.WikiBase;
+import org.jamwiki.Environment;
+import org.jamwiki.WikiBase;
+import org.jamwiki.db.FileDataStream;
 import org.jamwiki.model.ImageData;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -47,6 +50,8 @@ import org.jamwiki.utils.WikiUtil;
 public class ImageProcessor {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageProcessor.class.getName());
+	/** Limits the number of images being decoded and resized at the same time. */
+	private static Semaphore decodePermits = null;
 
 	static {
 		// manually set the ImageIO temp directory so that systems with incorrect defaults won't fail
@@ -64,46 +69,105 @@ public class ImageProcessor {
 	}
 
 	/**
-	 * Given a file that corresponds to an existing image, return a
-	 * BufferedImage object.
+	 * Acquire a permit to decode an image.  Decoding is limited to a small
+	 * number of concurrent operations so that a burst of requests for large
+	 * images cannot exhaust the heap.
+	 *
+	 * @return The semaphore from which the permit was acquired.
 	 */
-	private static BufferedImage loadImage(File file) throws IOException {
-		if (!file.exists()) {
-			throw new FileNotFoundException("File does not exist: " + file.getAbsolutePath());
+	private static Semaphore acquireDecodePermit() throws IOException {
+		Semaphore permits;
+		synchronized (ImageProcessor.class) {
+			if (decodePermits == null) {
+				int maxDecodes = Environment.getIntValue(Environment.PROP_IMAGE_MAX_DECODES);
+				decodePermits = new Semaphore((maxDecodes > 0) ? maxDecodes : 1, true);
+			}
+			permits = decodePermits;
 		}
-		// use a FileInputStream and make sure it gets closed to prevent unclosed file
-		// errors on some operating systems
-		FileInputStream fis = null;
 		try {
-			fis = new FileInputStream(file);
-			BufferedImage image = ImageIO.read(fis);
-			if (image == null) {
-				throw new IOException("JDK is unable to process image file, possibly indicating file corruption: " + file.getAbsolutePath());
+			permits.acquire();
+			return permits;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting to decode image");
+		}
+	}
+
+	/**
+	 * Determine the source subsampling to use when decoding an image that will
+	 * be resized to the target dimensions.  The image is subsampled to no less
+	 * than twice the target size so that the subsequent progressive downscale
+	 * can smooth out the aliasing introduced by subsampling.
+	 */
+	static int calculateSubsampling(int width, int height, int targetWidth, int targetHeight) {
+		if (targetWidth <= 0 || targetHeight <= 0) {
+			return 1;
+		}
+		int subsampling = Math.min(width / (targetWidth * 2), height / (targetHeight * 2));
+		return Math.max(subsampling, 1);
+	}
+
+	/**
+	 * Decode an image, subsampling the source so that the decoded image is close
+	 * to the target size rather than the full image resolution.  For large images
+	 * this reduces the memory required to generate a thumbnail by orders of
+	 * magnitude, since only every Nth pixel of every Nth row is decoded.
+	 *
+	 * @param input The image source, either a File or an InputStream.
+	 * @param targetWidth The width that the decoded image will be resized to.
+	 * @param targetHeight The height that the decoded image will be resized to.
+	 * @param description A description of the image source for use in error messages.
+	 */
+	private static BufferedImage decodeImage(Object input, int targetWidth, int targetHeight, String description) throws IOException {
+		ImageInputStream iis = ImageIO.createImageInputStream(input);
+		if (iis == null) {
+			throw new IOException("Unable to open image for reading: " + description);
+		}
+		ImageReader reader = null;
+		try {
+			Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+			if (!readers.hasNext()) {
+				throw new IOException("JDK is unable to process image, possibly indicating file corruption: " + description);
+			}
+			reader = readers.next();
+			reader.setInput(iis, true, true);
+			ImageReadParam param = reader.getDefaultReadParam();
+			int subsampling = calculateSubsampling(reader.getWidth(0), reader.getHeight(0), targetWidth, targetHeight);
+			if (subsampling > 1) {
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
 			}
-			return image;
+			return reader.read(0, param);
 		} finally {
-			IOUtils.closeQuietly(fis);
+			if (reader != null) {
+				reader.dispose();
+			}
+			try {
+				iis.close();
+			} catch (IOException e) {
+				// ignore
+			}
 		}
 	}
 
 	/**
-	 * When storing images in the database, given a fileId return a ImageData object.
+	 * When storing images in the database, given a fileId open a stream over the
+	 * original image data.  The stream must be closed by the caller.
 	 *
 	 * @param fileId The file identifier for the original image to be loaded.
 	 * @param fileVersionId The ID of the image revision being loaded, or -1 if
 	 *  the current image revision is being loaded.
 	 */
-	private static ImageData loadImage(int fileId, int fileRevisionId) throws IOException {
-		ImageData imageData = null;
+	private static FileDataStream openImageStream(int fileId, int fileRevisionId) throws IOException {
+		FileDataStream stream = null;
 		if (fileRevisionId != -1) {
-			imageData = WikiBase.getDataHandler().getImageVersionData(fileRevisionId, 0);
-		} else {
-			imageData = WikiBase.getDataHandler().getImageData(fileId, 0);
-		}
-		if (imageData == null) {
-			throw new FileNotFoundException("Image does not exist: " + fileId);
-		}
-		return imageData;
+			stream = WikiBase.getDataHandler().getImageVersionDataStream(fileRevisionId, 0);
+		} else {
+			stream = WikiBase.getDataHandler().getImageDataStream(fileId, 0);
+		}
+		if (stream == null) {
+			throw new FileNotFoundException("Image does not exist: " + fileId);
+		}
+		return stream;
 	}
 
 	/**
@@ -123,9 +187,11 @@ public class ImageProcessor {
 	 * @return a scaled version of the original {@code BufferedImage}
 	 */
 	public static BufferedImage resizeImage(File imageFile, int targetWidth, int targetHeight) throws IOException {
+		if (!imageFile.exists()) {
+			throw new FileNotFoundException("File does not exist: " + imageFile.getAbsolutePath());
+		}
 		long start = System.currentTimeMillis();
-		BufferedImage resized = ImageProcessor.loadImage(imageFile);
-		resized = ImageProcessor.resizeImage(resized, targetWidth, targetHeight);
+		BufferedImage resized = ImageProcessor.resizeImage(imageFile, targetWidth, targetHeight, imageFile.getAbsolutePath());
 		if (logger.isDebugEnabled()) {
 			long current = System.currentTimeMillis();
 			String message = "Image resize time (" + ((current - start) / 1000.000) + " s), dimensions: " + targetWidth + "x" + targetHeight + " for file: " + imageFile.getAbsolutePath();
@@ -153,26 +219,41 @@ public class ImageProcessor {
 	 * @return a dimensions of scaled image
 	 */
 	public static Dimension resizeImage(int fileId, int fileVersionId, int targetWidth, int targetHeight) throws IOException {
-		long start = System.currentTimeMillis();
-		ImageData imageData = ImageProcessor.loadImage(fileId, fileVersionId);
-		BufferedImage tmp = ImageIO.read(new ByteArrayInputStream(imageData.data));
-		if (tmp == null) {
-			throw new IOException("JDK is unable to process image data, possibly indicating data corruption: " + fileId);
+		long start = System.currentTimeMillis();
+		String mimeType = null;
+		int originalVersionId = -1;
+		BufferedImage resized = null;
+		// acquire the decode permit before opening the stream so that a database
+		// connection is not held while waiting for other images to be decoded
+		Semaphore permits = ImageProcessor.acquireDecodePermit();
+		try {
+			// decode directly from the database stream rather than loading the
+			// entire original image into memory first
+			FileDataStream stream = ImageProcessor.openImageStream(fileId, fileVersionId);
+			try {
+				mimeType = stream.getMimeType();
+				originalVersionId = stream.getFileVersionId();
+				BufferedImage image = ImageProcessor.decodeImage(stream, targetWidth, targetHeight, "fileId " + fileId);
+				resized = ImageProcessor.resizeImage(image, targetWidth, targetHeight);
+			} finally {
+				stream.close();
+			}
+		} finally {
+			permits.release();
 		}
-		BufferedImage resized = ImageProcessor.resizeImage(tmp, targetWidth, targetHeight);
-		int pos = imageData.mimeType.lastIndexOf('/');
-		if (pos == -1 || (pos + 1) >= imageData.mimeType.length()) {
-			throw new IOException("Unknown image file type " + imageData.mimeType);
+		int pos = (mimeType == null) ? -1 : mimeType.lastIndexOf('/');
+		if (pos == -1 || (pos + 1) >= mimeType.length()) {
+			throw new IOException("Unknown image file type " + mimeType);
 		}
-		String imageType = imageData.mimeType.substring(pos + 1).toLowerCase();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		boolean result = ImageIO.write(resized, imageType, baos);		if (!result) {
-			throw new IOException("No appropriate writer found when writing image: " + imageData.fileVersionId);
-		}
-		baos.close();
-		imageData.width = resized.getWidth();
-		imageData.height = resized.getHeight();
-		imageData.data = baos.toByteArray();
+		String imageType = mimeType.substring(pos + 1).toLowerCase();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		boolean result = ImageIO.write(resized, imageType, baos);
+		if (!result) {
+			throw new IOException("No appropriate writer found when writing image: " + originalVersionId);
+		}
+		baos.close();
+		ImageData imageData = new ImageData(mimeType, resized.getWidth(), resized.getHeight(), baos.toByteArray());
+		imageData.fileVersionId = originalVersionId;
 		saveImage(imageData);
 		if (logger.isDebugEnabled()) {
 			long current = System.currentTimeMillis();
@@ -183,7 +264,20 @@ public class ImageProcessor {
 	}
 
 	/**
-	 *
+	 * Decode and resize an image while holding a decode permit.
+	 */
+	private static BufferedImage resizeImage(Object input, int targetWidth, int targetHeight, String description) throws IOException {
+		Semaphore permits = ImageProcessor.acquireDecodePermit();
+		try {
+			BufferedImage image = ImageProcessor.decodeImage(input, targetWidth, targetHeight, description);
+			return ImageProcessor.resizeImage(image, targetWidth, targetHeight);
+		} finally {
+			permits.release();
+		}
+	}
+
+	/**
+	 * Progressively downscale an image, halving the dimensions at each step.
 	 */
 	private static BufferedImage resizeImage(BufferedImage tmp, int targetWidth, int targetHeight) throws IOException {
 		int type = (tmp.getTransparency() == Transparency.OPAQUE) ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
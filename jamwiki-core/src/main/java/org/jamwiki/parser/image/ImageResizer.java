@@ -0,0 +1,224 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiLogger;
+
+/**
+ * Run image resize operations outside of the parser.  Resizes are keyed by the
+ * resized image that they produce so that any number of pages or requests
+ * asking for the same thumbnail result in a single decode, scale and encode.
+ * Resizes can either be queued on a small bounded worker pool, executed by
+ * the calling thread (for example an image request that needs the thumbnail
+ * immediately), or pre-generated on a single low priority thread for images
+ * that nothing has displayed yet.
+ */
+class ImageResizer {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(ImageResizer.class.getName());
+	/** Maximum number of resizes that may be waiting for a worker thread. */
+	private static final int MAXIMUM_QUEUED_RESIZES = 200;
+	/** Maximum number of pre-generated resizes that may be waiting for the pre-generation thread. */
+	private static final int MAXIMUM_QUEUED_PRERENDERS = 100;
+	/** Resizes that are queued or running, keyed by the resized image they produce. */
+	private static final ConcurrentMap<String, FutureTask<Dimension>> PENDING_RESIZES = new ConcurrentHashMap<String, FutureTask<Dimension>>();
+	private static ThreadPoolExecutor executor = null;
+	private static ThreadPoolExecutor prerenderExecutor = null;
+
+	/**
+	 *
+	 */
+	private ImageResizer() {
+	}
+
+	/**
+	 * Create a bounded worker pool.  Threads time out when idle so that a wiki
+	 * that is not adding new images does not keep resize threads around.
+	 */
+	private static ThreadPoolExecutor createExecutor(final String name, int threads, int maximumQueued, final int priority) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(maximumQueued), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + " " + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				thread.setPriority(priority);
+				return thread;
+			}
+		});
+		pool.allowCoreThreadTimeOut(true);
+		return pool;
+	}
+
+	/**
+	 * Lazily create the worker pool.
+	 */
+	private static synchronized ThreadPoolExecutor getExecutor() {
+		if (executor == null) {
+			int threads = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_THREADS);
+			if (threads <= 0) {
+				threads = Runtime.getRuntime().availableProcessors();
+			}
+			executor = createExecutor("JAMWiki image resize", threads, MAXIMUM_QUEUED_RESIZES, Thread.NORM_PRIORITY);
+		}
+		return executor;
+	}
+
+	/**
+	 * Lazily create the pre-generation pool.  A single minimum priority thread
+	 * is used so that pre-generating thumbnails for new uploads never competes
+	 * with resizes of images that pages are already displaying.
+	 */
+	private static synchronized ThreadPoolExecutor getPrerenderExecutor() {
+		if (prerenderExecutor == null) {
+			prerenderExecutor = createExecutor("JAMWiki image prerender", 1, MAXIMUM_QUEUED_PRERENDERS, Thread.MIN_PRIORITY);
+		}
+		return prerenderExecutor;
+	}
+
+	/**
+	 * Return <code>true</code> if a resize for the given key is currently queued
+	 * or running.
+	 */
+	static boolean isPending(String key) {
+		return PENDING_RESIZES.containsKey(key);
+	}
+
+	/**
+	 * Perform a resize on the calling thread and return the dimensions of the
+	 * resized image.  If the same resize is already running then this method
+	 * waits for that resize to complete rather than repeating it, and if it is
+	 * still queued then it is run immediately on the calling thread.
+	 *
+	 * @param key A key that uniquely identifies the resized image.
+	 * @param resize The operation that produces the resized image.  The
+	 *  operation should first check whether the resized image already exists.
+	 * @return The dimensions of the resized image.
+	 * @throws IOException Thrown if the resize fails.
+	 */
+	static Dimension resize(String key, Callable<Dimension> resize) throws IOException {
+		FutureTask<Dimension> task = new ResizeTask(key, resize);
+		FutureTask<Dimension> pending = PENDING_RESIZES.putIfAbsent(key, task);
+		if (pending == null) {
+			pending = task;
+		}
+		// a queued resize may be waiting behind other pre-generation work, so run it
+		// now; this does nothing if a worker thread has already started the task
+		pending.run();
+		try {
+			return pending.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for image resize: " + key);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			throw new IOException("Failure while resizing image " + key + ": " + e.getCause());
+		}
+	}
+
+	/**
+	 * Queue a resize on the worker pool.  This method never blocks; if the same
+	 * resize is already queued or running nothing is done, and if the queue is
+	 * full the resize is dropped and will instead be performed when the image is
+	 * first requested.
+	 *
+	 * @param key A key that uniquely identifies the resized image.
+	 * @param resize The operation that produces the resized image.  The
+	 *  operation should first check whether the resized image already exists.
+	 */
+	static void schedule(String key, Callable<Dimension> resize) {
+		submit(getExecutor(), key, resize);
+	}
+
+	/**
+	 * Queue a resize on the low priority pre-generation thread.  Like
+	 * {@link #schedule} this method never blocks, and resizes are dropped if
+	 * the queue is full.  Pre-generated resizes are run one at a time, so
+	 * resizes queued by a single call site never run concurrently.
+	 *
+	 * @param key A key that uniquely identifies the resized image.
+	 * @param resize The operation that produces the resized image.  The
+	 *  operation should first check whether the resized image already exists.
+	 */
+	static void prerender(String key, Callable<Dimension> resize) {
+		submit(getPrerenderExecutor(), key, resize);
+	}
+
+	/**
+	 *
+	 */
+	private static void submit(ThreadPoolExecutor pool, String key, Callable<Dimension> resize) {
+		FutureTask<Dimension> task = new ResizeTask(key, resize);
+		if (PENDING_RESIZES.putIfAbsent(key, task) != null) {
+			return;
+		}
+		try {
+			pool.execute(task);
+		} catch (RejectedExecutionException e) {
+			PENDING_RESIZES.remove(key, task);
+			logger.debug("Image resize queue is full, deferring resize until first request: " + key);
+		}
+	}
+
+	/**
+	 * Task wrapper that removes itself from the pending resize map on completion
+	 * and logs failures of queued resizes, which would otherwise go unreported.
+	 */
+	private static class ResizeTask extends FutureTask<Dimension> {
+
+		private final String key;
+
+		/**
+		 *
+		 */
+		ResizeTask(String key, Callable<Dimension> resize) {
+			super(resize);
+			this.key = key;
+		}
+
+		/**
+		 *
+		 */
+		protected void done() {
+			PENDING_RESIZES.remove(this.key, this);
+			if (!this.isCancelled()) {
+				try {
+					this.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					logger.warn("Failure while resizing image " + this.key, e.getCause());
+				}
+			}
+		}
+	}
+}
@@ -19,14 +19,29 @@ package org.jamwiki.parser.image;
 import java.awt.Dimension;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.text.MessageFormat;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.jamwiki.Environment;
@@ -38,12 +53,14 @@ import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiImage;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.model.WikiFileVersion;
 import org.jamwiki.model.WikiUser;
 import org.jamwiki.parser.LinkUtil;
 import org.jamwiki.parser.ParserException;
+import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
@@ -59,6 +76,10 @@ import org.jamwiki.utils.WikiUtil;
 public abstract class ImageUtil {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageUtil.class.getName());
+	/** Default maximum width and height of images displayed in a gallery. */
+	public static final int DEFAULT_GALLERY_IMAGE_DIMENSION = 120;
+	/** Default width of thumbnail and frameless images. */
+	public static final int DEFAULT_THUMBNAIL_WIDTH = 220;
 	/** Cache name for the cache of image dimensions. */
 	private static final WikiCache<String, Dimension> CACHE_IMAGE_DIMENSIONS = new WikiCache<String, Dimension>("org.jamwiki.parser.image.ImageUtil.CACHE_IMAGE_DIMENSIONS");
 	/**
@@ -66,10 +87,23 @@ public abstract class ImageUtil {
 	 * file ID, version ID, resize increment, and file name.
 	 */
 	public static final MessageFormat DB_FILE_URL_FORMAT = new MessageFormat("{0}/{1,number,integer}/{2,number,integer}/{3,number,integer}/{4}");
+	/** Sub-folder of the upload file directory into which content-addressed files are stored. */
+	private static final String CONTENT_SUBFOLDER = "content";
+	/** Locks used to serialize storing and deleting identical content in the content-addressed upload store. */
+	private static final Object[] CONTENT_LOCKS = new Object[64];
+	static {
+		for (int i = 0; i < CONTENT_LOCKS.length; i++) {
+			CONTENT_LOCKS[i] = new Object();
+		}
+	}
 	/** Default sub-directory into which image files are stored. */
 	private static final String DEFAULT_RELATIVE_FILE_DIRECTORY = "/uploads";
+	/** Parser input parameter used to hold files retrieved in bulk while parsing a topic. */
+	private static final String PARSER_INPUT_WIKI_FILES = "org.jamwiki.parser.image.ImageUtil.PARSER_INPUT_WIKI_FILES";
 	/** Sub-folder of the upload file directory into which to place resized images. */
 	private static final String RESIZED_IMAGE_SUBFOLDER = "resized";
+	/** Pattern matching a resized image path, capturing the original path, the width and the extension. */
+	private static final Pattern RESIZED_IMAGE_PATTERN = Pattern.compile("(.+)-([0-9]+)px(\\.[^./]+)?");
 	/** Path to the template used to format a center-aligned image. */
 	private static final String TEMPLATE_IMAGE_ALIGN_CENTER = "templates/image-align-center.template";
 	/** Path to the template used to format a left-aligned image. */
@@ -103,6 +137,48 @@ public abstract class ImageUtil {
 		CACHE_IMAGE_DIMENSIONS.addToCache(key, dimensions);
 	}
 
+	/**
+	 * Record the original image dimensions for any uploaded file versions that
+	 * do not yet have dimensions, such as files uploaded prior to JAMWiki 2.0.
+	 * Once dimensions are recorded image links can be rendered without reading
+	 * any image data.  This method reads every image lacking dimensions and
+	 * should be run once after upgrading.
+	 *
+	 * @return The number of file versions that were updated.
+	 */
+	public static int backfillImageDimensions() {
+		int count = 0;
+		for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+			List<WikiFileVersion> fileVersions = WikiBase.getDataHandler().getWikiFileVersionsWithoutDimensions(virtualWiki.getName());
+			for (WikiFileVersion fileVersion : fileVersions) {
+				Dimension dimensions = null;
+				try {
+					if (isImagesOnFS()) {
+						File file = ImageUtil.buildAbsoluteFile(fileVersion.getUrl());
+						if (!file.exists()) {
+							logger.info("Unable to record dimensions for missing file " + file.getAbsolutePath());
+							continue;
+						}
+						dimensions = ImageProcessor.retrieveImageDimensions(file);
+					} else {
+						dimensions = ImageProcessor.retrieveImageDimensions(fileVersion.getFileId(), fileVersion.getFileVersionId(), 0);
+					}
+				} catch (IOException e) {
+					logger.warn("Unable to determine dimensions for file version " + fileVersion.getFileVersionId() + ": " + e.getMessage());
+					continue;
+				}
+				if (dimensions == null) {
+					// not an image
+					dimensions = new Dimension(-1, -1);
+				}
+				WikiBase.getDataHandler().writeFileDimensions(fileVersion.getFileVersionId(), dimensions.width, dimensions.height);
+				count++;
+			}
+			WikiBase.getDataHandler().writeFileDimensions(virtualWiki.getName());
+		}
+		return count;
+	}
+
 	/**
 	 * Given a relative upload file name, return a File object representing the
 	 * absolute file path for the upload file.  Note that the file may not yet
@@ -125,6 +201,23 @@ public abstract class ImageUtil {
 		return new File(fileDirectory, relativeFile);
 	}
 
+	/**
+	 * Given the content hash of a file, generate the path relative to the file
+	 * upload root at which the file is stored in the content-addressed upload
+	 * store.  Files are spread across two levels of sub-directories so that
+	 * no single directory grows too large, for example
+	 * "/content/9f/86/9f86d08...0a08.png".
+	 *
+	 * @param contentHash The hex-encoded SHA-256 hash of the file content.
+	 * @param filename The file name, used only to determine the file extension.
+	 * @return The path of the file relative to the file upload root.
+	 */
+	protected static String buildContentUrl(String contentHash, String filename) {
+		String url = "/" + CONTENT_SUBFOLDER + "/" + contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash;
+		String extension = FilenameUtils.getExtension(filename);
+		return (StringUtils.isBlank(extension)) ? url : url + "." + extension.toLowerCase();
+	}
+
 	/**
 	 * Given a filename, generate the relative URL for files stored in the database.
 	 *
@@ -166,6 +259,14 @@ public abstract class ImageUtil {
 	 */
 	public static String buildImageFileUrl(String context, String virtualWiki, String topicName, boolean forceAbsoluteUrl) {
 		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName);
+		return buildImageFileUrl(context, wikiFile, forceAbsoluteUrl);
+	}
+
+	/**
+	 * Utility method for building the URL to an uploaded file (NOT the file's
+	 * topic page) for a file that has already been retrieved.
+	 */
+	private static String buildImageFileUrl(String context, WikiFile wikiFile, boolean forceAbsoluteUrl) {
 		if (wikiFile == null) {
 			return null;
 		}
@@ -237,7 +338,39 @@ public abstract class ImageUtil {
 	 * @throws IOException Thrown if any error occurs while reading image information.
 	 */
 	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion) throws IOException {
-		String url = ImageUtil.buildImageFileUrl(context, linkVirtualWiki, topicName, false);
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(linkVirtualWiki, topicName);
+		return ImageUtil.buildImageLinkHtml(context, linkVirtualWiki, topicName, wikiFile, imageMetadata, style, escapeHtml, fileVersion);
+	}
+
+	/**
+	 * Utility method for building an anchor tag that links to an image page
+	 * and includes the HTML image tag to display the image.  This method is
+	 * identical to {@link #buildImageLinkHtml(String, String, String, ImageMetadata, String, boolean, WikiFileVersion)}
+	 * except that the file record has already been retrieved, such as by
+	 * {@link #lookupWikiFile(ParserInput, String, String)}.
+	 *
+	 * @param context The servlet context for the link that is being created.
+	 * @param linkVirtualWiki The virtual wiki to use when looking up the
+	 *  image/file topic, and when linking to the image/file topic page.
+	 * @param topicName The name of the image for which a link is being
+	 *  created.
+	 * @param wikiFile The file record for the image, or <code>null</code> if
+	 *  no file has been uploaded for the topic.
+	 * @param imageMetadata A container for the image display params, such as
+	 *  border, alignment, caption, etc.
+	 * @param style The CSS class to use with the img HTML tag.  This value
+	 *  can be <code>null</code> or empty if no custom style is used.
+	 * @param escapeHtml Set to <code>true</code> if the caption should be
+	 *  HTML escaped.
+	 * @param fileVersion If building image HTML for anything other than the
+	 *  current file version then the version object must be provided, otherwise
+	 *  this parameter should be <code>null</code>.
+	 * @return The full HTML required to display an image enclosed within an
+	 *  HTML anchor tag that links to the image topic page.
+	 * @throws IOException Thrown if any error occurs while reading image information.
+	 */
+	public static String buildImageLinkHtml(String context, String linkVirtualWiki, String topicName, WikiFile wikiFile, ImageMetadata imageMetadata, String style, boolean escapeHtml, WikiFileVersion fileVersion) throws IOException {
+		String url = ImageUtil.buildImageFileUrl(context, wikiFile, false);
 		if (url == null) {
 			return ImageUtil.buildUploadLink(context, linkVirtualWiki, topicName);
 		}
@@ -247,7 +380,6 @@ public abstract class ImageUtil {
 			// file, not an image - use the file name, minus the translated/untranslated namespace
 			return ImageUtil.buildLinkToFile(url, topic, caption, escapeHtml);
 		}
-		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile(topic.getVirtualWiki(), topic.getName());
 		WikiImage wikiImage = null;
 		try {
 			wikiImage = ImageUtil.initializeWikiImage(wikiFile, imageMetadata, fileVersion);
@@ -431,8 +563,10 @@ public abstract class ImageUtil {
 	 * Determine the scaled dimensions, rounded to an increment for performance reasons,
 	 * given a max width and height.  For example, if the original dimensions are 800x400,
 	 * the max width height are 200, and the increment is 400, the result is 400x200.
+	 * This method only performs arithmetic; the resized image itself is generated
+	 * asynchronously or when it is first requested.
 	 */
-	private static Dimension calculateIncrementalDimensions(WikiImage wikiImage, Dimension originalDimensions, Dimension scaledDimensions, WikiFileVersion fileVersion) throws IOException {
+	private static Dimension calculateIncrementalDimensions(Dimension originalDimensions, Dimension scaledDimensions) {
 		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
 		// use width for incremental resizing
 		int incrementalWidth = calculateImageIncrement(scaledDimensions.getWidth());
@@ -440,45 +574,15 @@ public abstract class ImageUtil {
 			// let the browser scale the image
 			return originalDimensions;
 		}
-		int incrementalHeight = (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
-		if (isImagesOnFS()) {
-			return calculateIncrementalDimensionsForImageFile(wikiImage, originalDimensions, incrementalWidth, incrementalHeight);
-		} else {
-			return calculateIncrementalDimensionsForImageBlob(wikiImage, incrementalWidth, incrementalHeight, fileVersion);
-		}
+		return new Dimension(incrementalWidth, calculateIncrementalHeight(originalDimensions, incrementalWidth));
 	}
 
 	/**
-	 * Determine scaled dimensions for images stored on the filesystem.
+	 * Given original image dimensions and a resized width, return the resized
+	 * height that preserves the image aspect ratio.
 	 */
-	private static Dimension calculateIncrementalDimensionsForImageFile(WikiImage wikiImage, Dimension originalDimensions, int incrementalWidth, int incrementalHeight) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		String newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), incrementalWidth);
-		File newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		if (newImageFile.exists()) {
-			return new Dimension(incrementalWidth, incrementalHeight);
-		}
-		// otherwise generate a scaled instance
-		File imageFile = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
-		BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, incrementalWidth, incrementalHeight);
-		newUrl = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), bufferedImage.getWidth());
-		newImageFile = ImageUtil.buildAbsoluteFile(newUrl);
-		ImageProcessor.saveImage(bufferedImage, newImageFile);
-		return new Dimension(bufferedImage.getWidth(), bufferedImage.getHeight());
-	}
-
-	/**
-	 * Determine scaled dimensions for images stored in the database.
-	 */
-	private static Dimension calculateIncrementalDimensionsForImageBlob(WikiImage wikiImage, int incrementalWidth, int incrementalHeight, WikiFileVersion fileVersion) throws IOException {
-		// check to see if an image with the desired dimensions already exists on the filesystem
-		int fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : -1;
-		Dimension d1  = ImageProcessor.retrieveImageDimensions(wikiImage.getFileId(), fileVersionId, incrementalWidth);
-		if (d1 != null) {
-			return d1;
-		}
-		// otherwise generate a scaled instance
-		return ImageProcessor.resizeImage(wikiImage.getFileId(), fileVersionId, incrementalWidth, incrementalHeight);
+	private static int calculateIncrementalHeight(Dimension originalDimensions, int incrementalWidth) {
+		return (int)Math.round(((double)incrementalWidth / (double)originalDimensions.getWidth()) * (double)originalDimensions.getHeight());
 	}
 
 	/**
@@ -567,6 +671,73 @@ public abstract class ImageUtil {
 		return Utilities.decodeAndEscapeTopicName(filename, true);
 	}
 
+	/**
+	 * Generate a resized image for images stored on the filesystem.  Resized images
+	 * are not created while parsing, so this method is used to create the image
+	 * on demand the first time that it is requested.  The requested width must be
+	 * a resize increment that is smaller than the original image.
+	 *
+	 * @param resizedUrl The path of the resized image relative to the file upload
+	 *  root, for example "resized/en/2013/1/example-200px.jpg".
+	 * @return The resized image file, or <code>null</code> if the path does not
+	 *  correspond to a valid resized version of an existing image.
+	 * @throws IOException Thrown if an error occurs while generating the image.
+	 */
+	public static File generateResizedImage(String resizedUrl) throws IOException {
+		String path = FilenameUtils.normalize(StringUtils.removeStart(resizedUrl, DEFAULT_RELATIVE_FILE_DIRECTORY), true);
+		if (path == null) {
+			return null;
+		}
+		path = StringUtils.removeStart(path, "/");
+		if (!path.startsWith(RESIZED_IMAGE_SUBFOLDER + "/")) {
+			return null;
+		}
+		Matcher matcher = RESIZED_IMAGE_PATTERN.matcher(path.substring(RESIZED_IMAGE_SUBFOLDER.length()));
+		if (!matcher.matches()) {
+			return null;
+		}
+		String originalUrl = matcher.group(1) + StringUtils.defaultString(matcher.group(3));
+		File originalFile = ImageUtil.buildAbsoluteFile(originalUrl);
+		if (originalFile == null || !originalFile.isFile()) {
+			return null;
+		}
+		Dimension originalDimensions = ImageProcessor.retrieveImageDimensions(originalFile);
+		Dimension incrementalDimensions = validateIncrementalDimensions(originalDimensions, matcher.group(2));
+		if (incrementalDimensions == null) {
+			return null;
+		}
+		String url = buildImagePath(originalUrl, originalDimensions.width, incrementalDimensions.width);
+		ImageResizer.resize(ImageUtil.buildAbsoluteFile(url).getAbsolutePath(), new ResizedImageFileTask(originalUrl, url, incrementalDimensions, null));
+		return ImageUtil.buildAbsoluteFile(url);
+	}
+
+	/**
+	 * Generate a resized image for images stored in the database.  Resized images
+	 * are not created while parsing, so this method is used to create the image
+	 * on demand the first time that it is requested.  The requested width must be
+	 * a resize increment that is smaller than the original image.
+	 *
+	 * @param fileId The file ID of the image.
+	 * @param fileVersionId The file version ID of the image, or zero if the current
+	 *  version is being resized.
+	 * @param resized The width of the resized image.
+	 * @return <code>true</code> if the resized image exists after calling this
+	 *  method, <code>false</code> if the parameters do not correspond to a valid
+	 *  resized version of an existing image.
+	 * @throws IOException Thrown if an error occurs while generating the image.
+	 */
+	public static boolean generateResizedImage(int fileId, int fileVersionId, int resized) throws IOException {
+		int revisionId = (fileVersionId > 0) ? fileVersionId : -1;
+		Dimension originalDimensions = ImageProcessor.retrieveImageDimensions(fileId, revisionId, 0);
+		Dimension incrementalDimensions = validateIncrementalDimensions(originalDimensions, Integer.toString(resized));
+		if (incrementalDimensions == null) {
+			return false;
+		}
+		String key = fileId + "/" + revisionId + "/" + resized;
+		ImageResizer.resize(key, new ResizedImageDatabaseTask(fileId, revisionId, incrementalDimensions));
+		return true;
+	}
+
 	/**
 	 * Given a virtualWiki and WikiFIle that correspond to an existing image,
 	 * return the WikiImage object.  In addition, if the image metadata specifies
@@ -594,8 +765,22 @@ public abstract class ImageUtil {
 			wikiImage.setMimeType(fileVersion.getMimeType());
 			wikiImage.setUrl(fileVersion.getUrl());
 		}
-		// get the size of the original (unresized) image
-		Dimension originalDimensions = ImageUtil.retrieveFromCache(wikiImage);
+		// get the size of the original (unresized) image, preferring the dimensions
+		// recorded when the file was uploaded
+		Integer imageWidth = (fileVersion != null) ? fileVersion.getImageWidth() : wikiFile.getImageWidth();
+		Integer imageHeight = (fileVersion != null) ? fileVersion.getImageHeight() : wikiFile.getImageHeight();
+		Dimension originalDimensions = null;
+		if (imageWidth != null && imageHeight != null) {
+			if (imageWidth < 0 || imageHeight < 0) {
+				// file is not an image
+				return null;
+			}
+			originalDimensions = new Dimension(imageWidth, imageHeight);
+		} else {
+			// dimensions were not recorded for files uploaded prior to JAMWiki 2.0
+			// unless ImageUtil.backfillImageDimensions() has been run
+			originalDimensions = ImageUtil.retrieveFromCache(wikiImage);
+		}
 		if (originalDimensions == null) {
 			if (isImagesOnFS()) {
 				File file = ImageUtil.buildAbsoluteFile(wikiImage.getUrl());
@@ -620,11 +805,18 @@ public abstract class ImageUtil {
 		wikiImage.setWidth((int)scaledDimensions.getWidth());
 		wikiImage.setHeight((int)scaledDimensions.getHeight());
 		// return an appropriate WikiImage object with URL to the scaled image, proper width, and proper height
-		Dimension incrementalDimensions = calculateIncrementalDimensions(wikiImage, originalDimensions, scaledDimensions, fileVersion);
+		Dimension incrementalDimensions = calculateIncrementalDimensions(originalDimensions, scaledDimensions);
 		if (isImagesOnFS()) {
 			String url = buildImagePath(wikiImage.getUrl(), (int)originalDimensions.getWidth(), (int)incrementalDimensions.getWidth());
+			if (incrementalDimensions.width != originalDimensions.width) {
+				// files may be served directly by the web server, so start generating the
+				// resized file now rather than waiting for the first request
+				scheduleResizedImageFile((fileVersion == null) ? wikiFile : null, wikiImage.getUrl(), url, incrementalDimensions);
+			}
 			wikiImage.setUrl(url);
 		} else {
+			// database images are always served by ImageServlet, which generates any
+			// missing resized image when it is first requested
 			Integer resized  = incrementalDimensions.width != originalDimensions.width ? incrementalDimensions.width : null;
 			Integer fileVersionId = (fileVersion != null) ? fileVersion.getFileVersionId() : null;
 			String url = buildDatabaseRelativeUrl(wikiImage.getFileId(), fileVersionId, resized, wikiImage.getUrl());
@@ -694,6 +886,100 @@ public abstract class ImageUtil {
 		}
 	}
 
+	/**
+	 * Retrieve the file record for an image being rendered by the parser.  If
+	 * the file was already retrieved by {@link #lookupWikiFiles(ParserInput, String, Collection)}
+	 * during the current parse then the stored record is returned without
+	 * querying the database.
+	 *
+	 * @param parserInput The parser input for the current parse.
+	 * @param virtualWiki The virtual wiki for the file being queried.
+	 * @param topicName The topic name for the file being queried.
+	 * @return The WikiFile object for the given virtual wiki and topic name,
+	 *  or <code>null</code> if no matching WikiFile exists.
+	 */
+	public static WikiFile lookupWikiFile(ParserInput parserInput, String virtualWiki, String topicName) {
+		Map<String, WikiFile> wikiFiles = ImageUtil.retrieveParserWikiFiles(parserInput, false);
+		String key = virtualWiki + "/" + topicName;
+		if (wikiFiles != null && wikiFiles.containsKey(key)) {
+			return wikiFiles.get(key);
+		}
+		return WikiBase.getDataHandler().lookupWikiFile(virtualWiki, topicName);
+	}
+
+	/**
+	 * Retrieve the file records for all images in a group of topic names using a
+	 * small number of queries and store them with the parser input, so that
+	 * rendering each image during the current parse does not require separate
+	 * queries.  Topic names outside of the file namespace, and names that have
+	 * already been retrieved during the current parse, are ignored.
+	 *
+	 * @param parserInput The parser input for the current parse.
+	 * @param virtualWiki The virtual wiki for the files being queried.
+	 * @param topicNames The topic names for the files being queried.
+	 */
+	public static void lookupWikiFiles(ParserInput parserInput, String virtualWiki, Collection<String> topicNames) {
+		if (StringUtils.isBlank(virtualWiki) || topicNames == null || topicNames.isEmpty()) {
+			return;
+		}
+		Map<String, WikiFile> wikiFiles = ImageUtil.retrieveParserWikiFiles(parserInput, true);
+		Set<String> fileTopicNames = new LinkedHashSet<String>();
+		for (String topicName : topicNames) {
+			if (StringUtils.isBlank(topicName) || wikiFiles.containsKey(virtualWiki + "/" + topicName)) {
+				continue;
+			}
+			if (LinkUtil.retrieveTopicNamespace(virtualWiki, topicName).getId().equals(Namespace.FILE_ID)) {
+				fileTopicNames.add(topicName);
+			}
+		}
+		if (fileTopicNames.isEmpty()) {
+			return;
+		}
+		List<WikiFile> results = WikiBase.getDataHandler().lookupWikiFiles(virtualWiki, fileTopicNames);
+		int i = 0;
+		for (String topicName : fileTopicNames) {
+			// store null results as well so that missing files are not queried again
+			wikiFiles.put(virtualWiki + "/" + topicName, results.get(i++));
+		}
+	}
+
+	/**
+	 * Return the map of files retrieved during the current parse, optionally
+	 * creating it if it does not yet exist.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Map<String, WikiFile> retrieveParserWikiFiles(ParserInput parserInput, boolean create) {
+		Map<String, WikiFile> wikiFiles = (Map<String, WikiFile>)parserInput.getTempParam(PARSER_INPUT_WIKI_FILES);
+		if (wikiFiles == null && create) {
+			wikiFiles = new HashMap<String, WikiFile>();
+			parserInput.addTempParam(PARSER_INPUT_WIKI_FILES, wikiFiles);
+		}
+		return wikiFiles;
+	}
+
+	/**
+	 * Determine the original image dimensions for a newly uploaded file.
+	 *
+	 * @return The image dimensions, -1x-1 if the file is not an image, or
+	 *  <code>null</code> if the dimensions cannot be determined.
+	 */
+	private static Dimension retrieveUploadDimensions(String url, ImageData imageData) {
+		if (imageData != null) {
+			return new Dimension(imageData.width, imageData.height);
+		}
+		File file = ImageUtil.buildAbsoluteFile(url);
+		if (file == null || !file.exists()) {
+			return null;
+		}
+		try {
+			Dimension dimensions = ImageProcessor.retrieveImageDimensions(file);
+			return (dimensions != null) ? dimensions : new Dimension(-1, -1);
+		} catch (IOException e) {
+			logger.info("Unable to determine dimensions for uploaded file " + file.getAbsolutePath() + ": " + e.getMessage());
+			return null;
+		}
+	}
+
 	/**
 	 * Determine if image information is available in the cache.  If so return it,
 	 * otherwise return <code>null</code>.
@@ -703,6 +989,74 @@ public abstract class ImageUtil {
 		return CACHE_IMAGE_DIMENSIONS.retrieveFromCache(key);
 	}
 
+	/**
+	 * Queue generation of the resized images that are most likely to be
+	 * requested for a newly uploaded image so that the first pages to display
+	 * the image do not wait for a resize.  The candidates are the default
+	 * thumbnail and gallery sizes plus any widths that pages displayed for the
+	 * previous version of the file.
+	 *
+	 * @param wikiFile The file that was just uploaded.
+	 * @param previousWidths The resized widths recorded for the previous
+	 *  version of the file.
+	 */
+	private static void prerenderResizedImages(WikiFile wikiFile, Set<Integer> previousWidths) {
+		Integer imageWidth = wikiFile.getImageWidth();
+		Integer imageHeight = wikiFile.getImageHeight();
+		if (imageWidth == null || imageHeight == null || imageWidth <= 0 || imageHeight <= 0) {
+			return;
+		}
+		Dimension originalDimensions = new Dimension(imageWidth, imageHeight);
+		Set<Integer> widths = new TreeSet<Integer>(previousWidths);
+		widths.add(calculateIncrementalDimensions(originalDimensions, calculateScaledDimensions(originalDimensions, DEFAULT_THUMBNAIL_WIDTH, -1)).width);
+		widths.add(calculateIncrementalDimensions(originalDimensions, calculateScaledDimensions(originalDimensions, DEFAULT_GALLERY_IMAGE_DIMENSION, DEFAULT_GALLERY_IMAGE_DIMENSION)).width);
+		// pre-generated resizes run one at a time, so a single copy of the file
+		// can safely accumulate the recorded widths
+		WikiFile thumbnailFile = new WikiFile(wikiFile);
+		for (int width : widths) {
+			Dimension incrementalDimensions = validateIncrementalDimensions(originalDimensions, Integer.toString(width));
+			if (incrementalDimensions == null) {
+				// the original image is displayed at this width
+				continue;
+			}
+			if (isImagesOnFS()) {
+				String resizedUrl = buildImagePath(wikiFile.getUrl(), originalDimensions.width, width);
+				String key = ImageUtil.buildAbsoluteFile(resizedUrl).getAbsolutePath();
+				ImageResizer.prerender(key, new ResizedImageFileTask(wikiFile.getUrl(), resizedUrl, incrementalDimensions, thumbnailFile));
+			} else {
+				String key = wikiFile.getFileId() + "/-1/" + width;
+				ImageResizer.prerender(key, new ResizedImageDatabaseTask(wikiFile.getFileId(), -1, incrementalDimensions));
+			}
+		}
+	}
+
+	/**
+	 * Queue generation of a resized image file if it does not already exist.
+	 *
+	 * @param wikiFile The file being resized, or <code>null</code> if an older
+	 *  file version is being resized.  Resized widths are only recorded for the
+	 *  current file version.
+	 */
+	private static void scheduleResizedImageFile(WikiFile wikiFile, String originalUrl, String resizedUrl, Dimension incrementalDimensions) {
+		if (wikiFile != null && wikiFile.getThumbnailWidths().contains(incrementalDimensions.width)) {
+			return;
+		}
+		File resizedFile = ImageUtil.buildAbsoluteFile(resizedUrl);
+		String key = resizedFile.getAbsolutePath();
+		if (ImageResizer.isPending(key)) {
+			return;
+		}
+		if (resizedFile.exists()) {
+			if (wikiFile != null) {
+				// resized image generated on first request or before widths were recorded
+				WikiBase.getDataHandler().writeFileThumbnail(wikiFile, incrementalDimensions.width);
+			}
+			return;
+		}
+		WikiFile thumbnailFile = (wikiFile != null) ? new WikiFile(wikiFile) : null;
+		ImageResizer.schedule(key, new ResizedImageFileTask(originalUrl, resizedUrl, incrementalDimensions, thumbnailFile));
+	}
+
 	/**
 	 * Given a file name that might correspond to an absolute URL, strip any directories
 	 * and convert spaces in the name to underscores.
@@ -770,13 +1124,56 @@ public abstract class ImageUtil {
 	 * @param ipAddress The IP address of the user creating the file record.
 	 * @param filename The path on the filesystem relative to the file upload root for the
 	 *  file version being created.
-	 * @param url The relative URL for the file version being created.
+	 * @param url The relative URL for the file version being created.  If the
+	 *  content-addressed upload store is enabled then the file is moved into the
+	 *  store and the record is created with the store URL instead.
 	 * @param contentType The MIME type of the file version record being created.  For
 	 *  example, "image/jpeg".
 	 * @param fileSize The size of the file version record in bytes.
 	 * @return The new or updated WikiFile record.
 	 */
 	public static WikiFile writeWikiFile(Topic topic, WikiFileVersion wikiFileVersion, WikiUser user, String ipAddress, String filename, String url, String contentType, long fileSize, ImageData imageData) throws WikiException {
+		String contentHash = null;
+		if (ImageUtil.isContentAddressed()) {
+			contentHash = ImageUtil.calculateContentHash(ImageUtil.buildAbsoluteFile(url));
+		}
+		WikiFile wikiFile = null;
+		Set<Integer> previousWidths = null;
+		// hold the content lock until the file version referencing the content
+		// has been written so that a failed upload of identical content cannot
+		// delete the stored file in the meantime
+		synchronized (ImageUtil.contentLock(contentHash)) {
+			boolean contentStored = false;
+			if (contentHash != null) {
+				// move the upload into the content-addressed store, where identical
+				// uploads share a single file and its resized images
+				String contentUrl = ImageUtil.buildContentUrl(contentHash, filename);
+				contentStored = ImageUtil.storeFileContent(url, contentUrl);
+				url = contentUrl;
+			}
+			wikiFile = ImageUtil.buildWikiFileRecord(topic, wikiFileVersion, user, ipAddress, filename, url, contentType, fileSize, imageData, contentHash);
+			previousWidths = wikiFile.getThumbnailWidths();
+			wikiFile.setThumbnailWidths(new TreeSet<Integer>());
+			boolean success = false;
+			try {
+				WikiBase.getDataHandler().writeFile(wikiFile, wikiFileVersion, imageData);
+				success = true;
+			} finally {
+				if (!success && contentStored) {
+					ImageUtil.deleteUnreferencedContent(contentHash, url);
+				}
+			}
+		}
+		ImageUtil.prerenderResizedImages(wikiFile, previousWidths);
+		return wikiFile;
+	}
+
+	/**
+	 * Populate the WikiFile and WikiFileVersion records for a file upload.  The
+	 * records are not written to the database by this method.
+	 */
+	private static WikiFile buildWikiFileRecord(Topic topic, WikiFileVersion wikiFileVersion, WikiUser user, String ipAddress, String filename, String url, String contentType, long fileSize, ImageData imageData, String contentHash) throws WikiException {
+		wikiFileVersion.setContentHash(contentHash);
 		wikiFileVersion.setAuthorDisplay(ipAddress);
 		Integer authorId = null;
 		if (user != null && user.getUserId() > 0) {
@@ -792,13 +1189,136 @@ public abstract class ImageUtil {
 		wikiFile.setFileName(filename);
 		wikiFile.setUrl(url);
 		wikiFileVersion.setUrl(url);
+		// record the image dimensions so that image links can be rendered without
+		// reading the image, and discard thumbnails of the previous version
+		Dimension dimensions = ImageUtil.retrieveUploadDimensions(url, imageData);
+		Integer imageWidth = (dimensions != null) ? dimensions.width : null;
+		Integer imageHeight = (dimensions != null) ? dimensions.height : null;
+		wikiFile.setImageWidth(imageWidth);
+		wikiFile.setImageHeight(imageHeight);
+		wikiFileVersion.setImageWidth(imageWidth);
+		wikiFileVersion.setImageHeight(imageHeight);
 		wikiFileVersion.setMimeType(contentType);
 		wikiFile.setMimeType(contentType);
 		wikiFileVersion.setFileSize(fileSize);
 		wikiFile.setFileSize(fileSize);
 		wikiFile.setTopicId(topic.getTopicId());
-		WikiBase.getDataHandler().writeFile(wikiFile, wikiFileVersion, imageData);
 		return wikiFile;
+	}
+
+	/**
+	 * Return the lock object used to serialize updates to the content-addressed
+	 * upload store for the given content.  Uploads of different content will
+	 * usually use different locks.  Note that the lock only applies within a
+	 * single JVM.
+	 *
+	 * @param contentHash The hex-encoded SHA-256 hash of the file content, or
+	 *  <code>null</code> if the content is not stored in the content-addressed
+	 *  upload store.
+	 */
+	private static Object contentLock(String contentHash) {
+		if (contentHash == null) {
+			return new Object();
+		}
+		return CONTENT_LOCKS[(contentHash.hashCode() & Integer.MAX_VALUE) % CONTENT_LOCKS.length];
+	}
+
+	/**
+	 * Return the hex-encoded SHA-256 hash of a file's content.
+	 */
+	private static String calculateContentHash(File file) throws WikiException {
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			return DigestUtils.sha256Hex(in);
+		} catch (IOException e) {
+			throw new WikiException(new WikiMessage("upload.error.filenotfound"), e);
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	/**
+	 * Move an uploaded file into the content-addressed upload store.  If a
+	 * file with identical content has already been stored then the upload is
+	 * discarded.
+	 *
+	 * @param uploadUrl The path of the uploaded file relative to the file upload root.
+	 * @param contentUrl The path of the file in the content-addressed upload store.
+	 * @return <code>true</code> if the upload was moved into the store, or
+	 *  <code>false</code> if identical content was already stored.
+	 */
+	private static boolean storeFileContent(String uploadUrl, String contentUrl) throws WikiException {
+		File uploadedFile = ImageUtil.buildAbsoluteFile(uploadUrl);
+		File contentFile = ImageUtil.buildAbsoluteFile(contentUrl);
+		if (contentFile.exists()) {
+			FileUtils.deleteQuietly(uploadedFile);
+			return false;
+		}
+		File directory = contentFile.getParentFile();
+		if (!directory.mkdirs() && !directory.isDirectory()) {
+			throw new WikiException(new WikiMessage("upload.error.directorycreate", directory.getAbsolutePath()));
+		}
+		if (!uploadedFile.renameTo(contentFile)) {
+			// rename fails on some platforms if the target was created concurrently
+			if (!contentFile.exists()) {
+				throw new WikiException(new WikiMessage("upload.error.filerename", contentUrl));
+			}
+			FileUtils.deleteQuietly(uploadedFile);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Delete a file and its resized images from the content-addressed upload
+	 * store if no file version references the file content.  Uploads of
+	 * identical content are blocked while the reference count and delete are
+	 * performed so that a concurrent upload cannot lose its file.
+	 *
+	 * @param contentHash The hex-encoded SHA-256 hash of the file content.
+	 * @param contentUrl The path of the file in the content-addressed upload store.
+	 * @return <code>true</code> if the content was unreferenced and has been
+	 *  deleted, otherwise <code>false</code>.
+	 */
+	public static boolean deleteUnreferencedContent(final String contentHash, String contentUrl) {
+		synchronized (ImageUtil.contentLock(contentHash)) {
+			if (!ImageUtil.isImagesOnFS() || WikiBase.getDataHandler().lookupWikiFileVersionContentCount(contentHash) > 0) {
+				return false;
+			}
+			FileUtils.deleteQuietly(ImageUtil.buildAbsoluteFile(contentUrl));
+			File resizedDirectory = ImageUtil.buildAbsoluteFile(RESIZED_IMAGE_SUBFOLDER + contentUrl).getParentFile();
+			File[] resizedFiles = resizedDirectory.listFiles(new FileFilter() {
+				public boolean accept(File file) {
+					return file.getName().startsWith(contentHash + "-");
+				}
+			});
+			if (resizedFiles != null) {
+				for (File resizedFile : resizedFiles) {
+					FileUtils.deleteQuietly(resizedFile);
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Given original image dimensions and a requested resize width, return the
+	 * resized dimensions if the width is a valid resize increment that is smaller
+	 * than the original image, otherwise return <code>null</code>.  Restricting
+	 * widths to increments prevents arbitrary requests from generating an
+	 * unbounded number of resized images.
+	 */
+	private static Dimension validateIncrementalDimensions(Dimension originalDimensions, String width) {
+		int increment = Environment.getIntValue(Environment.PROP_IMAGE_RESIZE_INCREMENT);
+		if (originalDimensions == null || increment <= 0 || width.length() > 6) {
+			return null;
+		}
+		int incrementalWidth = Integer.parseInt(width);
+		if (incrementalWidth <= 0 || incrementalWidth % increment != 0 || incrementalWidth >= originalDimensions.width) {
+			return null;
+		}
+		return new Dimension(incrementalWidth, calculateIncrementalHeight(originalDimensions, incrementalWidth));
 	}
 
 	/**
@@ -807,4 +1327,95 @@ public abstract class ImageUtil {
 	public static boolean isImagesOnFS() {
 		return (!Environment.getValue(Environment.PROP_FILE_UPLOAD_STORAGE).equals(WikiBase.UPLOAD_STORAGE.DATABASE.toString()));
 	}
+
+	/**
+	 * @return <code>true</code> if new uploads are stored on the file system in
+	 *  the content-addressed upload store, where files with identical content
+	 *  are only stored once.
+	 */
+	public static boolean isContentAddressed() {
+		return (ImageUtil.isImagesOnFS() && Environment.getBooleanValue(Environment.PROP_FILE_CONTENT_ADDRESSED));
+	}
+
+	/**
+	 * Resize operation for images stored on the filesystem.  The resized image is
+	 * written to a temporary file and then renamed so that a partially written
+	 * image is never served.
+	 */
+	private static class ResizedImageFileTask implements Callable<Dimension> {
+
+		private final String originalUrl;
+		private final String resizedUrl;
+		private final Dimension dimensions;
+		private final WikiFile wikiFile;
+
+		/**
+		 * @param wikiFile If not <code>null</code> then the resized width is
+		 *  recorded for this file once the resized image has been created.
+		 */
+		ResizedImageFileTask(String originalUrl, String resizedUrl, Dimension dimensions, WikiFile wikiFile) {
+			this.originalUrl = originalUrl;
+			this.resizedUrl = resizedUrl;
+			this.dimensions = dimensions;
+			this.wikiFile = wikiFile;
+		}
+
+		/**
+		 *
+		 */
+		public Dimension call() throws IOException {
+			File resizedFile = ImageUtil.buildAbsoluteFile(this.resizedUrl);
+			if (!resizedFile.exists()) {
+				File imageFile = ImageUtil.buildAbsoluteFile(this.originalUrl);
+				BufferedImage bufferedImage = ImageProcessor.resizeImage(imageFile, this.dimensions.width, this.dimensions.height);
+				File tempFile = new File(resizedFile.getParentFile(), "." + Thread.currentThread().getId() + "-" + resizedFile.getName());
+				ImageProcessor.saveImage(bufferedImage, tempFile);
+				if (!tempFile.renameTo(resizedFile)) {
+					// rename fails on some platforms if the target was created concurrently
+					FileUtils.deleteQuietly(tempFile);
+					if (!resizedFile.exists()) {
+						throw new IOException("Unable to create resized image " + resizedFile.getAbsolutePath());
+					}
+				}
+			}
+			if (this.wikiFile != null) {
+				// record the width even if the resized image already existed, for
+				// example a content-addressed upload sharing an earlier upload's images
+				WikiBase.getDataHandler().writeFileThumbnail(this.wikiFile, this.dimensions.width);
+			}
+			return this.dimensions;
+		}
+	}
+
+	/**
+	 * Resize operation for images stored in the database.
+	 */
+	private static class ResizedImageDatabaseTask implements Callable<Dimension> {
+
+		private final int fileId;
+		private final int fileVersionId;
+		private final Dimension dimensions;
+
+		/**
+		 * @param fileVersionId The file version being resized, or -1 for the
+		 *  current version.
+		 */
+		ResizedImageDatabaseTask(int fileId, int fileVersionId, Dimension dimensions) {
+			this.fileId = fileId;
+			this.fileVersionId = fileVersionId;
+			this.dimensions = dimensions;
+		}
+
+		/**
+		 *
+		 */
+		public Dimension call() throws IOException {
+			Dimension resizedDimensions = ImageProcessor.retrieveImageDimensions(this.fileId, this.fileVersionId, this.dimensions.width);
+			if (resizedDimensions != null) {
+				// another server may already have created the resized image
+				return resizedDimensions;
+			}
+			return ImageProcessor.resizeImage(this.fileId, this.fileVersionId, this.dimensions.width, this.dimensions.height);
+		}
+	}
 }
@@ -28,6 +28,7 @@ import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.parser.image.ImageBorderEnum;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.Utilities;
 import org.jamwiki.utils.WikiLogger;
 
@@ -40,7 +41,6 @@ public class GalleryTag implements JFlexCustomTagItem {
 	// match image dimensions of the form "450px". note that "?:" is a regex non-capturing group.
 	private static Pattern IMAGE_DIMENSION_PATTERN = Pattern.compile("([0-9]+)[ ]*(?:px)?", Pattern.CASE_INSENSITIVE);
 	private static final int DEFAULT_IMAGES_PER_ROW = 4;
-	private static final int DEFAULT_THUMBNAIL_MAX_DIMENSION = 120;
 	private String tagName = "gallery";
 
 	/**
@@ -52,8 +52,8 @@ public class GalleryTag implements JFlexCustomTagItem {
 			// empty gallery tag
 			return "";
 		}
-		int width = this.retrieveDimension(attributes, "widths", DEFAULT_THUMBNAIL_MAX_DIMENSION);
-		int height = this.retrieveDimension(attributes, "heights", DEFAULT_THUMBNAIL_MAX_DIMENSION);
+		int width = this.retrieveDimension(attributes, "widths", ImageUtil.DEFAULT_GALLERY_IMAGE_DIMENSION);
+		int height = this.retrieveDimension(attributes, "heights", ImageUtil.DEFAULT_GALLERY_IMAGE_DIMENSION);
 		int perRow = NumberUtils.toInt(Utilities.getMapValueCaseInsensitive(attributes, "perrow"), DEFAULT_IMAGES_PER_ROW);
 		int count = 0;
 		StringBuilder result = new StringBuilder("{| class=\"gallery\" cellspacing=\"0\" cellpadding=\"0\"\n");
@@ -90,6 +90,7 @@ public class GalleryTag implements JFlexCustomTagItem {
 	 */
 	private List<String> generateImageLinks(ParserInput parserInput, String content) throws ParserException {
 		List<String> imageLinks = new ArrayList<String>();
+		List<String> imageTopicNames = new ArrayList<String>();
 		if (!StringUtils.isBlank(content)) {
 			String[] lines = content.split("\n");
 			String imageLinkText;
@@ -108,8 +109,14 @@ public class GalleryTag implements JFlexCustomTagItem {
 					continue;
 				}
 				imageLinks.add(line);
+				imageTopicNames.add(wikiLink.getDestination());
 			}
 		}
+		if (!imageTopicNames.isEmpty()) {
+			// retrieve all image files at once so that rendering each image
+			// does not require separate queries
+			ImageUtil.lookupWikiFiles(parserInput, parserInput.getVirtualWiki(), imageTopicNames);
+		}
 		return imageLinks;
 	}
 
@@ -138,7 +145,6 @@ public class GalleryTag implements JFlexCustomTagItem {
 	 * resulting wiki text output.
 	 */
 	public String parse(JFlexLexer lexer, Map<String, String> attributes, String content) throws ParserException {
-logger.error("GalleryTag.parse");
 		// get the tag contents as a list of wiki syntax for image thumbnails.
 		List<String> imageLinks = this.generateImageLinks(lexer.getParserInput(), content);
 		// generate the gallery wiki text
@@ -23,6 +23,7 @@ import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.model.Namespace;
+import org.jamwiki.model.WikiFile;
 import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
@@ -47,7 +48,6 @@ public class ImageLinkTag implements JFlexParserTag {
 	// look for link info in image tags
 	private static Pattern IMAGE_LINK_PATTERN = Pattern.compile("link[ ]*=[ ]*(.*)", Pattern.CASE_INSENSITIVE);
 	// FIXME - make configurable
-	private static final int DEFAULT_THUMBNAIL_WIDTH = 220;
 
 	/**
 	 * Parse a Mediawiki link of the form "[[topic|text]]" and return the
@@ -105,7 +105,8 @@ public class ImageLinkTag implements JFlexParserTag {
 		// do not escape html for caption since parser does it above
 		try {
 			String virtualWiki = (wikiLink.getAltVirtualWiki() == null) ? parserInput.getVirtualWiki() : wikiLink.getAltVirtualWiki().getName();
-			return ImageUtil.buildImageLinkHtml(context, virtualWiki, wikiLink.getDestination(), imageMetadata, null, false, null);
+			WikiFile wikiFile = ImageUtil.lookupWikiFile(parserInput, virtualWiki, wikiLink.getDestination());
+			return ImageUtil.buildImageLinkHtml(context, virtualWiki, wikiLink.getDestination(), wikiFile, imageMetadata, null, false, null);
 		} catch (IOException e) {
 			// FIXME - display a broken image icon or something better
 			logger.warn("I/O Failure while parsing image link: " + e.getMessage(), e);
@@ -230,7 +231,7 @@ public class ImageLinkTag implements JFlexParserTag {
 			imageMetadata.setMaxWidth(-1);
 		}
 		if ((imageMetadata.getBorder() == ImageBorderEnum.THUMB || imageMetadata.getBorder() == ImageBorderEnum.FRAMELESS)&& imageMetadata.getMaxWidth() <= 0) {
-			imageMetadata.setMaxWidth(DEFAULT_THUMBNAIL_WIDTH);
+			imageMetadata.setMaxWidth(ImageUtil.DEFAULT_THUMBNAIL_WIDTH);
 		}
 		if (imageMetadata.getBordered() && (imageMetadata.getBorder() != ImageBorderEnum.BORDER && imageMetadata.getBorder() != ImageBorderEnum.FRAMELESS)) {
 			// thumb, frame, etc handle borders differently
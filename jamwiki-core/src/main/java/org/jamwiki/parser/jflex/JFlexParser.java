@@ -25,6 +25,7 @@ import org.jamwiki.parser.ParserException;
 import org.jamwiki.parser.ParserInput;
 import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.parser.WikiLink;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -178,6 +179,11 @@ public class JFlexParser implements JAMWikiParser {
 		output = this.parseTemplate(parserInput, parserOutput, output, JFlexParser.MODE_TEMPLATE);
 		output = this.parseCustom(parserInput, parserOutput, output, JFlexParser.MODE_CUSTOM);
 		output = this.parsePreProcess(parserInput, parserOutput, output, JFlexParser.MODE_PREPROCESS);
+		if (parserOutput != ParserOutput.IMMUTABLE_PARSER_OUTPUT) {
+			// preprocessing records all links, so retrieve the files for any image
+			// links at once rather than querying for each image while rendering
+			ImageUtil.lookupWikiFiles(parserInput, parserInput.getVirtualWiki(), parserOutput.getLinks());
+		}
 		output = this.parseProcess(parserInput, parserOutput, output, JFlexParser.MODE_LAYOUT);
 		output = this.parsePostProcess(parserInput, parserOutput, output, JFlexParser.MODE_POSTPROCESS);
 		if (!StringUtils.isBlank(parserOutput.getRedirect())) {
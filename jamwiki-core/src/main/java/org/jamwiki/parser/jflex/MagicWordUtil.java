@@ -243,8 +243,11 @@ public class MagicWordUtil {
 	protected static String processMagicWord(ParserInput parserInput, ParserOutput parserOutput, int mode, String magicWord, String magicWordArguments) throws ParserException {
 		String[] magicWordArgumentArray = JFlexParserUtil.retrieveTokenizedArgumentArray(parserInput, parserOutput, mode, magicWordArguments);
 		if (MAGIC_WORDS_DATETIME.contains(magicWord)) {
+			// output changes over time rather than when the topic is edited
+			parserOutput.setCacheable(false);
 			return processMagicWordDateTime(parserInput, magicWord);
 		} else if (MAGIC_WORDS_STATISTICS.contains(magicWord)) {
+			parserOutput.setCacheable(false);
 			return processMagicWordStatistics(parserInput, magicWord);
 		} else if (MAGIC_WORDS_PAGE_NAMES.contains(magicWord)) {
 			return processMagicWordPageNames(parserInput, magicWord, magicWordArgumentArray);
@@ -0,0 +1,127 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.jamwiki.model.Topic;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the search index update queue.
+ */
+public class SearchIndexQueueTest extends JAMWikiUnitTest {
+
+	/**
+	 * Search engine that records the updates applied to it.
+	 */
+	private static class RecordingSearchEngine extends TestSearchEngine {
+
+		private final List<String> commits = new ArrayList<String>();
+		private final List<String> deletes = new ArrayList<String>();
+		private final List<String> updates = new ArrayList<String>();
+
+		/**
+		 *
+		 */
+		public synchronized void commit(String virtualWiki) {
+			this.commits.add(virtualWiki);
+		}
+
+		/**
+		 *
+		 */
+		public synchronized void deleteFromIndex(Topic topic) {
+			this.deletes.add(topic.getName());
+		}
+
+		/**
+		 *
+		 */
+		public synchronized void updateInIndex(Topic topic) {
+			this.updates.add(topic.getName());
+		}
+	}
+
+	/**
+	 *
+	 */
+	private File setupJournalFile(String name) {
+		File journalFile = new File(new File("target", "data"), name);
+		journalFile.delete();
+		return journalFile;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCollapsedUpdates() throws Exception {
+		File journalFile = this.setupJournalFile("test-queue-1.journal");
+		RecordingSearchEngine searchEngine = new RecordingSearchEngine();
+		SearchIndexQueue queue = new SearchIndexQueue(searchEngine, journalFile);
+		queue.start();
+		try {
+			queue.startBulkMode();
+			for (int i = 0; i < 3; i++) {
+				queue.enqueue("en", WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
+				queue.enqueue("en", WikiBase.SPECIAL_PAGE_STARTING_POINTS);
+			}
+			queue.enqueue("en", "Search Queue Missing Topic");
+			assertEquals("Incorrect pending count", 3, queue.getPendingCount());
+			assertEquals("Incorrect journal size", 3, FileUtils.readLines(journalFile, "UTF-8").size());
+			assertTrue("Updates applied during bulk mode", searchEngine.updates.isEmpty());
+			queue.endBulkMode();
+			queue.flush();
+			assertEquals("Incorrect pending count", 0, queue.getPendingCount());
+			assertEquals("Incorrect number of updates", 2, searchEngine.updates.size());
+			assertEquals("Incorrect update order", WikiBase.SPECIAL_PAGE_SYSTEM_CSS, searchEngine.updates.get(0));
+			assertEquals("Missing topic should be deleted", 1, searchEngine.deletes.size());
+			assertEquals("Updates should be committed once per virtual wiki", 1, searchEngine.commits.size());
+			assertFalse("Journal not cleared", journalFile.exists() && journalFile.length() > 0);
+		} finally {
+			queue.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testJournalRecovery() throws Exception {
+		File journalFile = this.setupJournalFile("test-queue-2.journal");
+		RecordingSearchEngine searchEngine = new RecordingSearchEngine();
+		SearchIndexQueue queue = new SearchIndexQueue(searchEngine, journalFile);
+		// queue updates without starting the queue, then shut it down to
+		// simulate a restart with pending updates
+		queue.enqueue("en", WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
+		queue.shutdown();
+		assertTrue("Updates applied before queue started", searchEngine.updates.isEmpty());
+		queue = new SearchIndexQueue(searchEngine, journalFile);
+		assertEquals("Pending update not recovered", 1, queue.getPendingCount());
+		queue.start();
+		try {
+			queue.flush();
+			assertEquals("Recovered update not applied", 1, searchEngine.updates.size());
+		} finally {
+			queue.shutdown();
+		}
+	}
+}
@@ -16,9 +16,12 @@
  */
 package org.jamwiki;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
+import org.jamwiki.model.SearchRebuildStatus;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
 
 /**
@@ -32,6 +35,13 @@ public class TestSearchEngine implements SearchEngine {
 	public void addToIndex(Topic topic) {
 	}
 
+	/**
+	 *
+	 */
+	public File backupIndex(String virtualWiki) {
+		return null;
+	}
+
 	/**
 	 *
 	 */
@@ -51,12 +61,32 @@ public class TestSearchEngine implements SearchEngine {
 		return new ArrayList<SearchResultEntry>();
 	}
 
+	/**
+	 *
+	 */
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, String cursor, int pageSize) {
+		return new SearchResultPage(new ArrayList<SearchResultEntry>(), 0, null);
+	}
+
+	/**
+	 *
+	 */
+	public SearchRebuildStatus getRebuildStatus() {
+		return null;
+	}
+
 	/**
 	 *
 	 */
 	public void refreshIndex() throws Exception {
 	}
 
+	/**
+	 *
+	 */
+	public void restoreIndex(String virtualWiki, File backupPath) {
+	}
+
 	/**
 	 *
 	 */
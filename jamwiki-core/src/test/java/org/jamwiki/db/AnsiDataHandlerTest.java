@@ -16,13 +16,25 @@
  */
 package org.jamwiki.db;
 
+import java.awt.Dimension;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
+import org.jamwiki.model.ImageData;
 import org.jamwiki.model.RecentChange;
 import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.model.WikiFileVersion;
+import org.jamwiki.parser.image.ImageProcessor;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.Pagination;
 import org.junit.Test;
 import static org.junit.Assert.*;
@@ -103,4 +115,185 @@ public class AnsiDataHandlerTest extends JAMWikiUnitTest {
 		topic = WikiBase.getDataHandler().lookupTopic("en", "HELP:Test", false);
 		assertEquals("Incorrect topic name (case-insensitive)", topic.getName(), TOPIC_NAME);
 	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicCursor() throws IOException, WikiException {
+		this.setupTopic(null, "Topic Cursor Test", "Topic cursor content");
+		List<Integer> topicIds = new ArrayList<Integer>();
+		TopicCursor cursor = WikiBase.getDataHandler().lookupTopicCursor("en", 0);
+		try {
+			int lastTopicId = 0;
+			while (cursor.hasNext()) {
+				Topic topic = cursor.next();
+				assertTrue("Topics not returned in ID order", topic.getTopicId() > lastTopicId);
+				assertNull("Deleted topic returned", topic.getDeleteDate());
+				assertEquals("Incorrect checkpoint", topic.getTopicId(), cursor.getLastTopicId());
+				lastTopicId = topic.getTopicId();
+				topicIds.add(lastTopicId);
+				if (topic.getName().equals("Topic Cursor Test")) {
+					assertEquals("Incorrect topic content", "Topic cursor content", topic.getTopicContent());
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		assertEquals("Incorrect number of topics", WikiBase.getDataHandler().lookupTopicCount("en", null), topicIds.size());
+		// resume from a checkpoint in the middle of the results
+		int checkpoint = topicIds.get(topicIds.size() / 2);
+		cursor = WikiBase.getDataHandler().lookupTopicCursor("en", checkpoint);
+		try {
+			assertTrue("Resumed cursor returned no results", cursor.hasNext());
+			assertEquals("Incorrect topic after checkpoint", topicIds.get(topicIds.size() / 2 + 1).intValue(), cursor.next().getTopicId());
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageDataStream() throws IOException {
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		WikiFileVersion fileVersion = WikiBase.getDataHandler().getAllWikiFileVersions("en", "File:Test Image.jpg", true).get(0);
+		byte[] data = new byte[20000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte)i;
+		}
+		ImageData imageData = new ImageData("image/jpeg", 300, 200, data);
+		imageData.fileVersionId = fileVersion.getFileVersionId();
+		WikiBase.getDataHandler().insertImage(imageData, true);
+		try {
+			FileDataStream stream = WikiBase.getDataHandler().getImageDataStream(wikiFile.getFileId(), 300);
+			assertNotNull("File data not found", stream);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try {
+				assertEquals("Incorrect file version", fileVersion.getFileVersionId(), stream.getFileVersionId());
+				assertEquals("Incorrect length", data.length, stream.getLength());
+				assertEquals("Incorrect mime type", "image/jpeg", stream.getMimeType());
+				IOUtils.copy(stream, out);
+			} finally {
+				stream.close();
+			}
+			assertArrayEquals("Incorrect file data", data, out.toByteArray());
+			stream = WikiBase.getDataHandler().getImageVersionDataStream(fileVersion.getFileVersionId(), 300);
+			assertNotNull("File version data not found", stream);
+			stream.close();
+			assertNull("Missing file data returned", WikiBase.getDataHandler().getImageVersionDataStream(fileVersion.getFileVersionId(), 301));
+			// the number of open streams is limited, so closed and missing streams
+			// must not continue to count against the limit
+			for (int i = 0; i < Environment.getIntValue(Environment.PROP_DBCP_MAX_ACTIVE); i++) {
+				stream = WikiBase.getDataHandler().getImageDataStream(wikiFile.getFileId(), 300);
+				stream.close();
+				stream.close();
+				assertNull("Missing file data returned", WikiBase.getDataHandler().getImageDataStream(wikiFile.getFileId(), 301));
+			}
+		} finally {
+			WikiBase.getDataHandler().queryHandler().deleteResizedImages(wikiFile.getFileId());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResizeImageData() throws IOException {
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		WikiFileVersion fileVersion = WikiBase.getDataHandler().getAllWikiFileVersions("en", "File:Test Image.jpg", true).get(0);
+		ImageData imageData = new ImageData("image/jpeg", 0, 0, FileUtils.readFileToByteArray(ImageUtil.buildAbsoluteFile("test_image.jpg")));
+		imageData.fileVersionId = fileVersion.getFileVersionId();
+		WikiBase.getDataHandler().insertImage(imageData, false);
+		try {
+			// the original image is decoded directly from the database stream
+			Dimension dimension = ImageProcessor.resizeImage(wikiFile.getFileId(), -1, 100, 67);
+			assertEquals("Resized width incorrect", 100, dimension.width);
+			assertEquals("Resized height incorrect", 67, dimension.height);
+			FileDataStream stream = WikiBase.getDataHandler().getImageDataStream(wikiFile.getFileId(), 100);
+			assertNotNull("Resized image not saved", stream);
+			try {
+				assertEquals("Incorrect file version", fileVersion.getFileVersionId(), stream.getFileVersionId());
+				assertEquals("Incorrect mime type", "image/jpeg", stream.getMimeType());
+			} finally {
+				stream.close();
+			}
+		} finally {
+			WikiBase.getDataHandler().queryHandler().deleteResizedImages(wikiFile.getFileId());
+			DatabaseConnection.getJdbcTemplate().update("delete from jam_file_data where file_version_id = ?", fileVersion.getFileVersionId());
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRebuildTopicMetadata() {
+		int[] results = WikiDatabase.rebuildTopicMetadata();
+		assertTrue("No topics were updated", results[0] > 0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBulkTopicLookup() throws IOException, WikiException {
+		Topic topic1 = this.setupTopic(null, "Bulk Lookup Test 1", "Bulk lookup content 1");
+		Topic topic2 = this.setupTopic(null, "Bulk Lookup Test 2", "Bulk lookup content 2");
+		List<String> topicNames = new ArrayList<String>();
+		topicNames.add(topic2.getName());
+		topicNames.add("Bulk Lookup Test Missing");
+		topicNames.add(WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
+		topicNames.add(topic1.getName());
+		List<Topic> topics = WikiBase.getDataHandler().lookupTopics("en", topicNames);
+		assertEquals("Incorrect number of topics", topicNames.size(), topics.size());
+		assertEquals("Incorrect topic order", topic2.getTopicId(), topics.get(0).getTopicId());
+		assertNull("Missing topic should be null", topics.get(1));
+		assertEquals("Incorrect topic order", WikiBase.SPECIAL_PAGE_SYSTEM_CSS, topics.get(2).getName());
+		assertEquals("Incorrect topic order", topic1.getTopicId(), topics.get(3).getTopicId());
+		assertEquals("Incorrect topic content", "Bulk lookup content 1", topics.get(3).getTopicContent());
+		// names that differ by capitalization or case are matched as by lookupTopic()
+		Topic template = this.setupTopic(null, "Template:Bulk Lookup Template", "Bulk lookup template content");
+		topicNames = new ArrayList<String>();
+		topicNames.add("bulk Lookup Test 1");
+		topicNames.add("Template:bulk lookup template");
+		topicNames.add("Bulk Lookup Test Missing");
+		topics = WikiBase.getDataHandler().lookupTopics("en", topicNames);
+		assertEquals("Capitalized name not matched", topic1.getTopicId(), topics.get(0).getTopicId());
+		assertEquals("Case-insensitive name not matched", template.getTopicId(), topics.get(1).getTopicId());
+		assertNull("Missing topic should be null", topics.get(2));
+		for (int i = 0; i < topicNames.size(); i++) {
+			Topic topic = WikiBase.getDataHandler().lookupTopic("en", topicNames.get(i), false);
+			assertEquals("Bulk lookup differs from single lookup", (topic == null) ? null : topic.getTopicId(), (topics.get(i) == null) ? null : topics.get(i).getTopicId());
+		}
+		List<Integer> topicVersionIds = new ArrayList<Integer>();
+		topicVersionIds.add(topic1.getCurrentVersionId());
+		topicVersionIds.add(-1);
+		topicVersionIds.add(topic2.getCurrentVersionId());
+		List<TopicVersion> topicVersions = WikiBase.getDataHandler().lookupTopicVersions(topicVersionIds);
+		assertEquals("Incorrect number of topic versions", topicVersionIds.size(), topicVersions.size());
+		assertEquals("Incorrect topic version order", topic1.getCurrentVersionId().intValue(), topicVersions.get(0).getTopicVersionId());
+		assertNull("Missing topic version should be null", topicVersions.get(1));
+		assertEquals("Incorrect topic version content", "Bulk lookup content 2", topicVersions.get(2).getVersionContent());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBulkWikiFileLookup() throws Throwable {
+		List<String> topicNames = new ArrayList<String>();
+		topicNames.add("File:Test Image.jpg");
+		topicNames.add("File:Bulk Lookup Missing.jpg");
+		topicNames.add("Bulk Lookup Test 1");
+		List<WikiFile> wikiFiles = WikiBase.getDataHandler().lookupWikiFiles("en", topicNames);
+		assertEquals("Incorrect number of files", topicNames.size(), wikiFiles.size());
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertNotNull("Test image not found", wikiFile);
+		assertEquals("Incorrect file", wikiFile.getFileId(), wikiFiles.get(0).getFileId());
+		assertEquals("Incorrect file URL", wikiFile.getUrl(), wikiFiles.get(0).getUrl());
+		assertNull("Missing file should be null", wikiFiles.get(1));
+		assertNull("Non-file topic should be null", wikiFiles.get(2));
+	}
 }
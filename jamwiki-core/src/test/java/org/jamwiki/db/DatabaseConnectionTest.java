@@ -0,0 +1,120 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.io.File;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.VirtualWiki;
+import org.junit.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for database connection functionality.
+ */
+public class DatabaseConnectionTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReadOnlyTemplateWithoutReplica() {
+		// no replica is configured, so reads must use the primary database
+		assertSame("Read-only queries should use the primary database when no replica is configured", DatabaseConnection.getJdbcTemplate(), DatabaseConnection.getReadOnlyJdbcTemplate());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testReplicaStaleAfterWrite() {
+		long previous = DatabaseConnection.bindLastWriteTime(0);
+		String maxLag = Environment.getValue(Environment.PROP_DB_REPLICA_MAX_LAG);
+		try {
+			assertFalse("Replica should not be considered stale without a write by the current user", DatabaseConnection.isReplicaStale());
+			DatabaseConnection.markWrite();
+			assertTrue("Replica should be considered stale immediately after a write", DatabaseConnection.isReplicaStale());
+			long writeTime = DatabaseConnection.getLastWriteTime();
+			assertTrue("Write time not recorded", writeTime > 0);
+			// writes made on behalf of another user do not affect the current user
+			DatabaseConnection.bindLastWriteTime(0);
+			assertFalse("Replica should not be considered stale for a different user", DatabaseConnection.isReplicaStale());
+			DatabaseConnection.bindLastWriteTime(writeTime);
+			assertTrue("Replica should be considered stale after binding a recent write", DatabaseConnection.isReplicaStale());
+			Environment.setValue(Environment.PROP_DB_REPLICA_MAX_LAG, "0");
+			assertFalse("Replica should not be considered stale when no lag is allowed", DatabaseConnection.isReplicaStale());
+		} finally {
+			Environment.setValue(Environment.PROP_DB_REPLICA_MAX_LAG, maxLag);
+			DatabaseConnection.bindLastWriteTime(previous);
+		}
+	}
+	/**
+	 *
+	 */
+	@Test
+	public void testShardedVirtualWiki() throws Throwable {
+		String shards = Environment.getValue(Environment.PROP_DB_SHARDS);
+		File shardDirectory = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), "shard");
+		try {
+			Environment.setValue(Environment.PROP_DB_SHARDS, "shardtest=jdbc:hsqldb:file:" + new File(shardDirectory, "jamwiki").getPath() + ";shutdown=true");
+			DatabaseConnection.closeShards();
+			VirtualWiki virtualWiki = WikiBase.getDataHandler().lookupVirtualWiki("shardtest");
+			if (virtualWiki == null) {
+				virtualWiki = new VirtualWiki("shardtest");
+				virtualWiki.setRootTopicName("StartingPoints");
+				WikiBase.getDataHandler().writeVirtualWiki(virtualWiki);
+			}
+			Topic topic = WikiBase.getDataHandler().lookupTopic("shardtest", "ShardTopic", false);
+			if (topic == null) {
+				topic = this.setupTopic(virtualWiki, "ShardTopic", "Stored in a separate database");
+			}
+			assertTrue("Topic ID should be within the virtual wiki database ID range", topic.getTopicId() > DatabaseConnection.SHARD_ID_RANGE);
+			Topic result = WikiBase.getDataHandler().lookupTopicById(topic.getTopicId());
+			assertEquals("Topic lookup by ID failed for virtual wiki database", "ShardTopic", result.getName());
+			String previous = DatabaseConnection.bindVirtualWiki(null);
+			try {
+				assertNull("Topic should not be stored in the home database", WikiBase.getDataHandler().queryHandler().lookupTopicById(topic.getTopicId()));
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+			// updates to reference records are copied to the virtual wiki database
+			String siteName = "Shard Test " + System.currentTimeMillis();
+			virtualWiki.setSiteName(siteName);
+			WikiBase.getDataHandler().writeVirtualWiki(virtualWiki);
+			previous = DatabaseConnection.bindVirtualWiki("shardtest");
+			try {
+				String shardSiteName = DatabaseConnection.getJdbcTemplate().queryForObject("select site_name from jam_virtual_wiki where virtual_wiki_name = ?", String.class, "shardtest");
+				assertEquals("Virtual wiki update not copied to the virtual wiki database", siteName, shardSiteName);
+				// each database may only allocate IDs within its own range
+				try {
+					DatabaseConnection.executeSequenceQuery("select " + (2 * DatabaseConnection.SHARD_ID_RANGE) + " from jam_virtual_wiki where virtual_wiki_name = 'shardtest'");
+					fail("ID outside of the virtual wiki database range allocated");
+				} catch (DataIntegrityViolationException e) {
+					// expected
+				}
+			} finally {
+				DatabaseConnection.bindVirtualWiki(previous);
+			}
+		} finally {
+			Environment.setValue(Environment.PROP_DB_SHARDS, shards);
+			DatabaseConnection.closeShards();
+		}
+	}
+}
@@ -0,0 +1,91 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for SQL statement instrumentation.
+ */
+public class StatementMonitorTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testStatementStatistics() {
+		StatementMonitor monitor = StatementMonitor.getInstance();
+		StatementStatistics before = monitor.getStatistics("STATEMENT_SELECT_VIRTUAL_WIKIS");
+		long count = (before == null) ? 0 : before.getCount();
+		long rows = (before == null) ? 0 : before.getRows();
+		int virtualWikis = WikiBase.getDataHandler().queryHandler().getVirtualWikis().size();
+		StatementStatistics after = monitor.getStatistics("STATEMENT_SELECT_VIRTUAL_WIKIS");
+		assertNotNull("No statistics recorded for STATEMENT_SELECT_VIRTUAL_WIKIS", after);
+		assertEquals("Incorrect execution count", count + 1, after.getCount());
+		assertEquals("Incorrect row count", rows + virtualWikis, after.getRows());
+		assertTrue("No bytes recorded", after.getBytes() > 0);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testMBeanRegistration() throws Exception {
+		StatementMonitor monitor = StatementMonitor.getInstance();
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName objectName = new ObjectName(StatementMonitor.OBJECT_NAME);
+		assertTrue("Monitor not registered", server.isRegistered(objectName));
+		monitor.unregisterMBean();
+		assertFalse("Monitor not unregistered", server.isRegistered(objectName));
+		// the monitor can be registered again after a shutdown
+		monitor.registerMBean();
+		assertTrue("Monitor not re-registered", server.isRegistered(objectName));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSlowStatementLog() {
+		StatementMonitor monitor = StatementMonitor.getInstance();
+		monitor.reset();
+		String limit = Environment.getValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT);
+		try {
+			Environment.setValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT, "0");
+			monitor.record("select 1", 10, 1, 4, null, false);
+			assertTrue("Slow statement logged when slow statement logging is disabled", monitor.getSlowStatements().isEmpty());
+			Environment.setValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT, "5");
+			monitor.record("select 1", 1, 1, 4, null, false);
+			monitor.record("select 1", 10, 1, 4, Arrays.asList("Integer", "String(5)"), false);
+			assertEquals("Incorrect slow statement count", 1, monitor.getSlowStatements().size());
+			StatementMonitor.SlowStatement slowStatement = monitor.getSlowStatements().get(0);
+			assertEquals("Incorrect slow statement name", StatementMonitor.UNNAMED_STATEMENT, slowStatement.getName());
+			assertEquals("Incorrect slow statement bind shapes", "Integer, String(5)", slowStatement.getBindShapes());
+			assertEquals("Incorrect execution count", 3, monitor.getStatistics(StatementMonitor.UNNAMED_STATEMENT).getCount());
+		} finally {
+			Environment.setValue(Environment.PROP_DB_SLOW_STATEMENT_LIMIT, limit);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.db;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.TopicType;
+import org.jamwiki.model.TopicVersion;
+import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.utils.Pagination;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class TitleIndexTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testFindSuggestions() throws Throwable {
+		this.setupTopic(null, "Title Index Suggestion", "Title index content");
+		TitleIndex titleIndex = new TitleIndex((AnsiDataHandler)WikiBase.getDataHandler());
+		Namespace main = Namespace.namespace(Namespace.MAIN_ID);
+		List<String> results = titleIndex.findSuggestions("en", main, "title index sug", 10);
+		assertEquals("Case-insensitive prefix match failed", 1, results.size());
+		assertEquals("Incorrect suggestion", "Title Index Suggestion", results.get(0));
+		assertTrue("Unexpected suggestion", titleIndex.findSuggestions("en", main, "Title Index Missing", 10).isEmpty());
+		assertTrue("Limit not respected", titleIndex.findSuggestions("en", main, "", 3).size() <= 3);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPopularityReload() throws Throwable {
+		this.setupTopic(null, "Title Index Popular A", "Title index content");
+		this.setupTopic(null, "Title Index Popular B", "Title index content");
+		// an index that expires immediately is reloaded by every lookup
+		TitleIndex titleIndex = new TitleIndex((AnsiDataHandler)WikiBase.getDataHandler(), 0);
+		Namespace main = Namespace.namespace(Namespace.MAIN_ID);
+		List<String> results = titleIndex.findSuggestions("en", main, "Title Index Popular", 10);
+		assertEquals("Incorrect suggestion order", "Title Index Popular A", results.get(0));
+		// links from another virtual wiki do not count towards popularity
+		this.writeLinkingTopic(WikiBase.getDataHandler().lookupVirtualWiki("test"), "Title Index Popular B");
+		results = titleIndex.findSuggestions("en", main, "Title Index Popular", 10);
+		assertEquals("Link from another virtual wiki counted", "Title Index Popular A", results.get(0));
+		this.writeLinkingTopic(WikiBase.getDataHandler().lookupVirtualWiki("en"), "Title Index Popular B");
+		results = titleIndex.findSuggestions("en", main, "Title Index Popular", 10);
+		assertEquals("Popularity not refreshed", "Title Index Popular B", results.get(0));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testUpdatesAndMerge() throws Throwable {
+		TitleIndex titleIndex = new TitleIndex((AnsiDataHandler)WikiBase.getDataHandler());
+		Namespace main = Namespace.namespace(Namespace.MAIN_ID);
+		// force the initial load so that subsequent updates are applied incrementally
+		titleIndex.findSuggestions("en", main, "Zzqq", 10);
+		int count = TitleIndex.MERGE_THRESHOLD + 10;
+		for (int i = 0; i < count; i++) {
+			Topic topic = new Topic("en", main, "Zzqq " + String.format("%05d", i));
+			topic.setTopicType(TopicType.ARTICLE);
+			titleIndex.updateTopic(topic);
+		}
+		Pagination pagination = new Pagination(5, 10);
+		List<String> titles = titleIndex.findTitles("en", main, TopicType.ARTICLE, TopicType.ARTICLE, "zzqq", pagination);
+		assertEquals("Incorrect page size", 5, titles.size());
+		assertEquals("Incorrect page ordering", "Zzqq 00010", titles.get(0));
+		assertEquals("Incorrect page ordering", "Zzqq 00014", titles.get(4));
+		Topic deleted = new Topic("en", main, "Zzqq 00010");
+		deleted.setTopicType(TopicType.ARTICLE);
+		deleted.setDeleteDate(new Timestamp(System.currentTimeMillis()));
+		titleIndex.updateTopic(deleted);
+		titles = titleIndex.findTitles("en", main, TopicType.ARTICLE, TopicType.ARTICLE, "Zzqq", pagination);
+		assertEquals("Deleted topic not removed", "Zzqq 00011", titles.get(0));
+		assertEquals("Incorrect suggestion count", 10, titleIndex.findSuggestions("en", main, "Zzqq", 10).size());
+		assertTrue("Redirect filter not applied", titleIndex.findTitles("en", main, TopicType.REDIRECT, TopicType.REDIRECT, "Zzqq", pagination).isEmpty());
+	}
+
+	/**
+	 * Create a topic in a virtual wiki that links to the given topic.
+	 */
+	private void writeLinkingTopic(VirtualWiki virtualWiki, String link) throws Throwable {
+		Topic topic = new Topic(virtualWiki.getName(), Namespace.namespace(Namespace.MAIN_ID), "Title Index Linker " + link);
+		topic.setTopicContent("[[" + link + "]]");
+		TopicVersion topicVersion = new TopicVersion(null, "127.0.0.1", null, topic.getTopicContent(), topic.getTopicContent().length());
+		List<String> links = new ArrayList<String>();
+		links.add(link);
+		WikiBase.getDataHandler().writeTopic(topic, topicVersion, null, links);
+	}
+}
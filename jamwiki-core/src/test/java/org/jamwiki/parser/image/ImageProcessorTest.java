@@ -0,0 +1,51 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageProcessorTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCalculateSubsampling() throws Throwable {
+		assertEquals("Small image subsampled", 1, ImageProcessor.calculateSubsampling(400, 267, 300, 200));
+		assertEquals("Image subsampled below twice the target size", 1, ImageProcessor.calculateSubsampling(400, 267, 200, 134));
+		assertEquals("Large image subsampling incorrect", 27, ImageProcessor.calculateSubsampling(12000, 9000, 220, 165));
+		assertEquals("Subsampling should use the smaller scaling factor", 2, ImageProcessor.calculateSubsampling(4000, 1000, 500, 250));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResizeImage() throws Throwable {
+		File imageFile = ImageUtil.buildAbsoluteFile("test_image.jpg");
+		BufferedImage resized = ImageProcessor.resizeImage(imageFile, 100, 67);
+		assertEquals("Resized width incorrect", 100, resized.getWidth());
+		assertEquals("Resized height incorrect", 67, resized.getHeight());
+	}
+}
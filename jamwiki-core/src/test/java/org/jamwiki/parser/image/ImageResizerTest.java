@@ -0,0 +1,70 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.parser.image;
+
+import java.awt.Dimension;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.jamwiki.JAMWikiUnitTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class ImageResizerTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testResizeQueued() throws Throwable {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final boolean[] queuedRunBlocked = new boolean[1];
+		// occupy the single pre-generation thread
+		ImageResizer.prerender("ImageResizerTest-blocker", new Callable<Dimension>() {
+			public Dimension call() throws Exception {
+				started.countDown();
+				release.await(30, TimeUnit.SECONDS);
+				return new Dimension(1, 1);
+			}
+		});
+		try {
+			assertTrue("Pre-generation thread did not start", started.await(30, TimeUnit.SECONDS));
+			ImageResizer.prerender("ImageResizerTest-queued", new Callable<Dimension>() {
+				public Dimension call() {
+					queuedRunBlocked[0] = (release.getCount() > 0);
+					return new Dimension(2, 2);
+				}
+			});
+			assertTrue("Resize not queued", ImageResizer.isPending("ImageResizerTest-queued"));
+			// a request for a queued resize runs it rather than waiting for the queue
+			Dimension result = ImageResizer.resize("ImageResizerTest-queued", new Callable<Dimension>() {
+				public Dimension call() {
+					return new Dimension(3, 3);
+				}
+			});
+			assertEquals("Queued resize not used", new Dimension(2, 2), result);
+			assertTrue("Resize waited for the pre-generation queue", queuedRunBlocked[0]);
+			assertFalse("Completed resize still pending", ImageResizer.isPending("ImageResizerTest-queued"));
+		} finally {
+			release.countDown();
+		}
+	}
+}
@@ -16,10 +16,17 @@
  */
 package org.jamwiki.parser.image;
 
+import java.awt.Dimension;
 import java.io.File;
+import java.util.List;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.JAMWikiUnitTest;
 import org.jamwiki.WikiBase;
+import org.jamwiki.model.Topic;
+import org.jamwiki.model.WikiFile;
+import org.jamwiki.model.WikiFileVersion;
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -40,6 +47,114 @@ public class ImageUtilTest extends JAMWikiUnitTest {
 		assertEquals("Image link HTML built incorrectly", expectedResult, actualResult);
 	}
 
+	/**
+	 *
+	 */
+	@Test
+	public void testGenerateResizedImage() throws Throwable {
+		File resizedFile = ImageUtil.buildAbsoluteFile("resized/test_image-200px.jpg");
+		if (resizedFile.exists()) {
+			assertTrue("Unable to remove existing resized image", resizedFile.delete());
+		}
+		File result = ImageUtil.generateResizedImage("/resized/test_image-200px.jpg");
+		assertEquals("Resized image file incorrect", resizedFile, result);
+		assertEquals("Resized image dimensions incorrect", new Dimension(200, 134), ImageProcessor.retrieveImageDimensions(result));
+		// only resize increments smaller than the original image are allowed
+		assertNull("Non-increment width resized", ImageUtil.generateResizedImage("/resized/test_image-150px.jpg"));
+		assertNull("Enlarged width resized", ImageUtil.generateResizedImage("/resized/test_image-500px.jpg"));
+		assertNull("Missing image resized", ImageUtil.generateResizedImage("/resized/missing_image-200px.jpg"));
+		assertNull("Path outside of resize folder accepted", ImageUtil.generateResizedImage("/resized/../test_image-200px.jpg"));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testImageDimensions() throws Throwable {
+		// dimensions are recorded when the file is uploaded
+		WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertEquals("Image width not recorded", Integer.valueOf(400), wikiFile.getImageWidth());
+		assertEquals("Image height not recorded", Integer.valueOf(267), wikiFile.getImageHeight());
+		// all test files have dimensions, so nothing needs to be updated
+		assertEquals("Unexpected file versions updated", 0, ImageUtil.backfillImageDimensions());
+		// thumbnail widths are recorded once the resized image exists
+		WikiBase.getDataHandler().writeFileThumbnail(wikiFile, 200);
+		wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertTrue("Thumbnail width not recorded", wikiFile.getThumbnailWidths().contains(200));
+		// widths recorded using an out-of-date copy of the file are merged
+		WikiFile staleFile = new WikiFile(wikiFile);
+		WikiBase.getDataHandler().writeFileThumbnail(wikiFile, 300);
+		WikiBase.getDataHandler().writeFileThumbnail(staleFile, 100);
+		wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertEquals("Concurrent thumbnail width lost", "[100, 200, 300]", wikiFile.getThumbnailWidths().toString());
+		// widths that do not fit in the database column are not recorded
+		for (int width = 1000; width < 1100; width++) {
+			WikiBase.getDataHandler().writeFileThumbnail(wikiFile, width);
+		}
+		wikiFile = WikiBase.getDataHandler().lookupWikiFile("en", "File:Test Image.jpg");
+		assertTrue("Thumbnail widths exceed column size", StringUtils.join(wikiFile.getThumbnailWidths(), ",").length() <= 200);
+		assertTrue("Thumbnail widths not recorded", wikiFile.getThumbnailWidths().contains(1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testContentAddressedUpload() throws Throwable {
+		String originalContentAddressed = Environment.getValue(Environment.PROP_FILE_CONTENT_ADDRESSED);
+		try {
+			Environment.setValue(Environment.PROP_FILE_CONTENT_ADDRESSED, "true");
+			// upload the same image twice under different names
+			File original = ImageUtil.buildAbsoluteFile("test_image.jpg");
+			String contentUrl = null;
+			for (int i = 1; i <= 2; i++) {
+				String filename = "content_test" + i + ".JPG";
+				File uploadedFile = ImageUtil.buildAbsoluteFile("/" + filename);
+				FileUtils.copyFile(original, uploadedFile);
+				Topic topic = ImageUtil.writeImageTopic("test", "Content Test" + i + ".jpg", "", null, true, "127.0.0.1");
+				WikiFile wikiFile = ImageUtil.writeWikiFile(topic, new WikiFileVersion(), null, "127.0.0.1", filename, "/" + filename, "image/jpeg", original.length(), null);
+				assertFalse("Uploaded file not moved to content store", uploadedFile.exists());
+				if (contentUrl == null) {
+					contentUrl = wikiFile.getUrl();
+				}
+				assertEquals("Identical upload not deduplicated", contentUrl, wikiFile.getUrl());
+				assertEquals("Image width not recorded", Integer.valueOf(400), wikiFile.getImageWidth());
+			}
+			assertTrue("Content URL incorrect", contentUrl.matches("/content/([0-9a-f]{2})/([0-9a-f]{2})/\\1\\2[0-9a-f]{60}\\.jpg"));
+			assertTrue("Content file missing", ImageUtil.buildAbsoluteFile(contentUrl).exists());
+			WikiFile wikiFile = WikiBase.getDataHandler().lookupWikiFile("test", "File:Content Test1.jpg");
+			List<WikiFileVersion> versions = WikiBase.getDataHandler().getAllWikiFileVersions("test", "File:Content Test1.jpg", true);
+			String contentHash = versions.get(0).getContentHash();
+			assertEquals("Content URL does not match hash", ImageUtil.buildContentUrl(contentHash, "example.jpg"), wikiFile.getUrl());
+			assertEquals("Content references incorrect", 2, WikiBase.getDataHandler().lookupWikiFileVersionContentCount(contentHash));
+			assertFalse("Referenced content deleted", ImageUtil.deleteUnreferencedContent(contentHash, contentUrl));
+			assertTrue("Referenced content deleted", ImageUtil.buildAbsoluteFile(contentUrl).exists());
+		} finally {
+			Environment.setValue(Environment.PROP_FILE_CONTENT_ADDRESSED, originalContentAddressed);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPrerenderResizedImages() throws Throwable {
+		File original = ImageUtil.buildAbsoluteFile("test_image.jpg");
+		String url = ImageUtil.generateFileUrl("test", "prerender_test.jpg", null);
+		FileUtils.copyFile(original, ImageUtil.buildAbsoluteFile(url));
+		Topic topic = ImageUtil.writeImageTopic("test", "Prerender Test.jpg", "", null, true, "127.0.0.1");
+		ImageUtil.writeWikiFile(topic, new WikiFileVersion(), null, "127.0.0.1", "prerender_test.jpg", url, "image/jpeg", original.length(), null);
+		// the 400px wide image is displayed at 300px as a thumbnail and 200px in a gallery
+		String resizedUrl = "resized" + url.substring(0, url.length() - ".jpg".length());
+		File thumbnail = ImageUtil.buildAbsoluteFile(resizedUrl + "-300px.jpg");
+		File gallery = ImageUtil.buildAbsoluteFile(resizedUrl + "-200px.jpg");
+		for (int i = 0; i < 100 && (!thumbnail.exists() || !gallery.exists()); i++) {
+			Thread.sleep(100);
+		}
+		assertTrue("Thumbnail not pre-generated", thumbnail.exists());
+		assertTrue("Gallery image not pre-generated", gallery.exists());
+	}
+
 	/**
 	 *
 	 */
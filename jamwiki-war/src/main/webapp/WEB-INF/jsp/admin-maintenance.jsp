@@ -29,6 +29,7 @@
 <ul class="tab-menu" id="tab_submenu">
 <li><a href="#system"><fmt:message key="admin.maintenance.title.system" /></a></li>
 <li><a href="#data"><fmt:message key="admin.maintenance.title.data" /></a></li>
+<li><a href="#statements"><fmt:message key="admin.maintenance.title.statements" /></a></li>
 <li><a href="#password"><fmt:message key="admin.title.password" /></a></li>
 <li><a href="#adduser"><fmt:message key="admin.title.adduser" /></a></li>
 <li><a href="#migrate"><fmt:message key="admin.title.migratedatabase" /></a></li>
@@ -53,10 +54,70 @@
 	<span><input type="submit" name="submit" value="<fmt:message key="admin.action.refresh" />" /></span>
 	<div class="formhelp"><fmt:message key="admin.help.rebuildsearch" /></div>
 </div>
+<c:if test="${!empty searchRebuildStatus}">
+<div class="row">
+	<c:choose>
+	<c:when test="${searchRebuildStatus.running}">
+	<fmt:message key="admin.maintenance.caption.search.progress"><fmt:param><c:out value="${searchRebuildStatus.virtualWiki}" /></fmt:param><fmt:param value="${searchRebuildStatus.processed}" /><fmt:param value="${searchRebuildStatus.total}" /><fmt:param value="${searchRebuildStatus.percentComplete}" /></fmt:message>
+	<c:if test="${searchRebuildStatus.estimatedSecondsRemaining >= 0}"><fmt:message key="admin.maintenance.caption.search.remaining"><fmt:param value="${searchRebuildStatus.estimatedSecondsRemaining}" /></fmt:message></c:if>
+	</c:when>
+	<c:when test="${!empty searchRebuildStatus.error}">
+	<fmt:message key="admin.maintenance.caption.search.failed"><fmt:param value="${searchRebuildStatus.endDate}" /><fmt:param><c:out value="${searchRebuildStatus.error}" /></fmt:param></fmt:message>
+	</c:when>
+	<c:otherwise>
+	<fmt:message key="admin.maintenance.caption.search.complete"><fmt:param value="${searchRebuildStatus.endDate}" /><fmt:param value="${searchRebuildStatus.processed}" /><fmt:param value="${searchRebuildStatus.elapsedSeconds}" /></fmt:message>
+	</c:otherwise>
+	</c:choose>
+</div>
+</c:if>
 <input type="hidden" name="function" value="search" />
 </form>
 </fieldset>
 
+<%-- Back Up or Restore Search Index --%>
+<c:if test="${!empty pageInfo.messages && (function == 'searchbackup' || function == 'searchrestore')}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<c:if test="${!empty pageInfo.errors && (function == 'searchbackup' || function == 'searchrestore')}">
+<div class="message red"><c:forEach items="${pageInfo.errors}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.title.searchbackup" /></legend>
+<div class="row">
+	<label><fmt:message key="admin.title.searchbackup" /></label>
+	<span>
+		<form action="<jamwiki:link value="Special:Maintenance" />#system" method="post" style="display:inline">
+		<input type="hidden" name="function" value="searchbackup" />
+		<input type="submit" name="submit" value="<fmt:message key="admin.action.searchbackup" />" />
+		</form>
+		<form action="<jamwiki:link value="Special:Maintenance" />#system" method="post" style="display:inline">
+		<input type="hidden" name="function" value="searchrestore" />
+		<input type="submit" name="submit" value="<fmt:message key="admin.action.restoresearch" />" />
+		</form>
+	</span>
+	<div class="formhelp"><fmt:message key="admin.help.searchbackup" /></div>
+</div>
+</fieldset>
+
+<%-- Image Dimensions --%>
+<c:if test="${!empty pageInfo.messages && function == 'imagedimensions'}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<c:if test="${!empty pageInfo.errors && function == 'imagedimensions'}">
+<div class="message red"><c:forEach items="${pageInfo.errors}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.title.imagedimensions" /></legend>
+<form action="<jamwiki:link value="Special:Maintenance" />#system" method="post">
+<div class="row">
+	<label><fmt:message key="admin.title.imagedimensions" /></label>
+	<span><input type="submit" value="<fmt:message key="admin.action.imagedimensions" />" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.imagedimensions" /></div>
+</div>
+<input type="hidden" name="function" value="imagedimensions" />
+</form>
+</fieldset>
+
 <%-- Cache --%>
 <c:if test="${!empty pageInfo.messages && function == 'cache'}">
 <div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
@@ -182,6 +243,78 @@
 
 </div>
 
+<%-- SQL Statement Statistics --%>
+<div id="statements" class="submenu-tab-item">
+<c:if test="${!empty pageInfo.messages && function == 'statements'}">
+<div class="message green"><c:forEach items="${pageInfo.messages}" var="message"><jamwiki_t:wikiMessage message="${message}" /><br /></c:forEach></div>
+</c:if>
+<fieldset>
+<legend><fmt:message key="admin.maintenance.title.statements" /></legend>
+<form action="<jamwiki:link value="Special:Maintenance" />#statements" method="post">
+<div class="rowhelp"><fmt:message key="admin.maintenance.help.statements" /></div>
+<c:if test="${!empty statementStatistics}">
+<div class="row">
+<table class="wiki-admin">
+<tr>
+	<th class="first"><fmt:message key="admin.maintenance.caption.statement" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.count" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.totaltime" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.averagetime" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.maxtime" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.rows" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.bytes" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.errors" /></th>
+</tr>
+<c:forEach items="${statementStatistics}" var="statistics">
+<tr>
+	<td><c:out value="${statistics.name}" /></td>
+	<td class="center">${statistics.count}</td>
+	<td class="center">${statistics.totalTime}</td>
+	<td class="center">${statistics.averageTime}</td>
+	<td class="center">${statistics.maxTime}</td>
+	<td class="center">${statistics.rows}</td>
+	<td class="center">${statistics.bytes}</td>
+	<td class="center">${statistics.errors}</td>
+</tr>
+</c:forEach>
+</table>
+</div>
+</c:if>
+<div class="row">
+	<label><fmt:message key="admin.maintenance.caption.statements" /></label>
+	<span><input type="submit" value="<fmt:message key="admin.caption.reset" />" /></span>
+</div>
+<input type="hidden" name="function" value="statements" />
+</form>
+</fieldset>
+<fieldset>
+<legend><fmt:message key="admin.maintenance.title.slowstatements" /></legend>
+<div class="rowhelp"><fmt:message key="admin.maintenance.help.slowstatements"><fmt:param value="${slowStatementLimit}" /></fmt:message></div>
+<c:if test="${!empty slowStatements}">
+<div class="row">
+<table class="wiki-admin">
+<tr>
+	<th class="first"><fmt:message key="admin.maintenance.caption.statement" /></th>
+	<th><fmt:message key="common.date" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.time" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.rows" /></th>
+	<th><fmt:message key="admin.maintenance.caption.statement.binds" /></th>
+</tr>
+<c:forEach items="${slowStatements}" var="slowStatement">
+<tr>
+	<td title="<c:out value="${slowStatement.sql}" />"><c:out value="${slowStatement.name}" /></td>
+	<td class="center"><fmt:formatDate value="${slowStatement.date}" type="both" pattern="${pageInfo.datePatternDateAndTime}" timeZone="${pageInfo.timeZoneId}" /></td>
+	<td class="center">${slowStatement.time}</td>
+	<td class="center">${slowStatement.rows}</td>
+	<td><c:out value="${slowStatement.bindShapes}" /></td>
+</tr>
+</c:forEach>
+</table>
+</div>
+</c:if>
+</fieldset>
+</div>
+
 <%-- Password Reset --%>
 <div id="password" class="submenu-tab-item">
 <c:if test="${!empty pageInfo.messages && function == 'password'}">
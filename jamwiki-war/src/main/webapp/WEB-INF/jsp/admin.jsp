@@ -150,6 +150,12 @@
 		</select>
 	</span>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_SEARCH_INDEX_RENDERED %>"><fmt:message key="admin.caption.searchrendered" /></label>
+	<c:set var="PROP_SEARCH_INDEX_RENDERED"><%= Environment.PROP_SEARCH_INDEX_RENDERED %></c:set>
+	<span><jamwiki:checkbox name="${PROP_SEARCH_INDEX_RENDERED}" value="true" checked="${props[PROP_SEARCH_INDEX_RENDERED]}" id="${PROP_SEARCH_INDEX_RENDERED}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.searchrendered" /></div>
+</div>
 <div class="row">
 	<label for="<%= Environment.PROP_TOPIC_EDITOR %>"><fmt:message key="admin.caption.editor" /></label>
 	<c:set var="PROP_TOPIC_EDITOR"><%= Environment.PROP_TOPIC_EDITOR %></c:set>
@@ -169,6 +175,18 @@
 	<span><jamwiki:text name="${PROP_MAX_TOPIC_VERSION_EXPORT}" size="5" maxlength="4" value="${props[PROP_MAX_TOPIC_VERSION_EXPORT]}" id="${PROP_MAX_TOPIC_VERSION_EXPORT}" /></span>
 	<div class="formhelp"><fmt:message key="admin.help.maxversionexport" /></div>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_CACHE_CONTROL %>"><fmt:message key="admin.caption.cachecontrol" /></label>
+	<c:set var="PROP_TOPIC_CACHE_CONTROL"><%= Environment.PROP_TOPIC_CACHE_CONTROL %></c:set>
+	<span><jamwiki:text name="${PROP_TOPIC_CACHE_CONTROL}" value="${props[PROP_TOPIC_CACHE_CONTROL]}" size="30" id="${PROP_TOPIC_CACHE_CONTROL}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.cachecontrol" /></div>
+</div>
+<div class="row">
+	<label for="<%= Environment.PROP_TOPIC_PAGE_CACHE %>"><fmt:message key="admin.caption.pagecache" /></label>
+	<c:set var="PROP_TOPIC_PAGE_CACHE"><%= Environment.PROP_TOPIC_PAGE_CACHE %></c:set>
+	<span><jamwiki:checkbox name="${PROP_TOPIC_PAGE_CACHE}" value="true" checked="${props[PROP_TOPIC_PAGE_CACHE]}" id="${PROP_TOPIC_PAGE_CACHE}" /></span>
+	<div class="formhelp"><fmt:message key="admin.help.pagecache" /></div>
+</div>
 <div class="row">
 	<c:set var="USER_PREFERENCE_DATE_FORMAT"><%= WikiUser.USER_PREFERENCE_DATE_FORMAT %></c:set>
 	<label for="${USER_PREFERENCE_DATE_FORMAT}"><fmt:message key="admin.caption.date.dateonly" /></label>
@@ -450,6 +468,12 @@
 		<div class="formhelp"><fmt:message key="admin.upload.help.serverurl" /></div>
 	</div>
 </div>
+<div class="row">
+	<label for="<%= Environment.PROP_FILE_CONTENT_ADDRESSED %>"><fmt:message key="admin.upload.caption.contentaddressed" /></label>
+	<c:set var="PROP_FILE_CONTENT_ADDRESSED"><%= Environment.PROP_FILE_CONTENT_ADDRESSED %></c:set>
+	<span><jamwiki:checkbox name="${PROP_FILE_CONTENT_ADDRESSED}" value="true" checked="${props[PROP_FILE_CONTENT_ADDRESSED]}" id="${PROP_FILE_CONTENT_ADDRESSED}" /></span>
+	<div class="formhelp"><fmt:message key="admin.upload.help.contentaddressed" /></div>
+</div>
 <div class="row">
 	<label for="<%= Environment.PROP_FILE_MAX_FILE_SIZE %>"><fmt:message key="admin.upload.caption.maxfilesize" /></label>
 	<span><input type="text" name="<%= Environment.PROP_FILE_MAX_FILE_SIZE %>" value="<c:out value="${maximumFileSize}" />" size="10" id="<%= Environment.PROP_FILE_MAX_FILE_SIZE %>" /></span>
@@ -41,6 +41,11 @@
 			<option value="${namespace.key}"<c:if test="${namespace.key == param.namespace}"> selected="selected"</c:if>>${namespace.value}</option>
 		</c:forEach>
 		</select>
+		<c:if test="${showPrefix}">
+		&#160;&#160;
+		<label for="prefix"><fmt:message key="alltopics.caption.prefix" /></label>
+		<input type="text" name="prefix" id="prefix" value="<c:out value="${param.prefix}" />" />
+		</c:if>
 		&#160;&#160;
 		<input type="submit" value="<fmt:message key="common.button.go" />" />
 	</div>
@@ -46,10 +46,19 @@
 		<div id="searchhints"><fmt:message key="search.hints"/></div>
 	</c:when>
 	<c:when test="${!empty results}">
+		<c:if test="${!empty searchReset}"><div class="message"><fmt:message key="searchresult.reset" /></div></c:if>
+		<div class="message"><fmt:message key="searchresult.total"><fmt:param value="${totalHits}" /></fmt:message></div>
 		<c:forEach items="${results}" var="result">
 			<div class="searchresult"><jamwiki:link value="${result.topic}" text="${result.topic}" /></div>
 			<div class="searchsummary"><c:out value="${result.summary}" escapeXml="false" /></div>
 		</c:forEach>
+		<c:if test="${!empty firstPageUrl || !empty nextPageUrl}">
+		<div class="message">
+			<c:if test="${!empty firstPageUrl}"><jamwiki:link value="${firstPageUrl}"><fmt:message key="searchresult.first" /></jamwiki:link></c:if>
+			<c:if test="${!empty firstPageUrl && !empty nextPageUrl}">&#160;|&#160;</c:if>
+			<c:if test="${!empty nextPageUrl}"><jamwiki:link value="${nextPageUrl}"><fmt:message key="common.pagination.next"><fmt:param value="${num}" /></fmt:message></jamwiki:link></c:if>
+		</div>
+		</c:if>
 	</c:when>
 	<c:otherwise>
 		<div class="message"><fmt:message key="searchresult.notfound"><fmt:param><c:out value="${searchField}" escapeXml="true"/></fmt:param></fmt:message></div>
@@ -45,7 +45,8 @@
 	</c:if>
 	<div id="nav-search" class="portlet">
 	<form method="get" action="<jamwiki:link value="Special:Search" />">
-	<input type="text" name="text" value="" />
+	<input type="text" name="text" value="" id="searchText" autocomplete="off" list="searchSuggestions" data-suggest-url="<jamwiki:link value="Special:Suggest" />" />
+	<datalist id="searchSuggestions"></datalist>
 	<br />
 	<input type="submit" name="search" value='<fmt:message key="generalmenu.search"/>'/>
 	<input type="submit" name="jumpto" value='<fmt:message key="generalmenu.jumpto"/>'/>
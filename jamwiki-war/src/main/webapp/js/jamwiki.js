@@ -330,7 +330,61 @@ JAMWiki.Admin = function() {
 		}
 	};
 }();
+JAMWiki.Suggest = function() {
+	var lastText = null;
+	var timer = null;
+	function replaceOptions(datalist, values) {
+		while (datalist.firstChild) {
+			datalist.removeChild(datalist.firstChild);
+		}
+		for (var i = 0; i < values.length; i++) {
+			var option = document.createElement('option');
+			option.value = values[i];
+			datalist.appendChild(option);
+		}
+	}
+	function requestSuggestions(input, datalist) {
+		var text = input.value;
+		if (text == lastText) {
+			return;
+		}
+		lastText = text;
+		if (!text) {
+			replaceOptions(datalist, []);
+			return;
+		}
+		var request = new XMLHttpRequest();
+		request.open('GET', input.getAttribute('data-suggest-url') + '?text=' + encodeURIComponent(text), true);
+		request.onreadystatechange = function() {
+			if (request.readyState != 4 || request.status != 200) {
+				return;
+			}
+			var response = JSON.parse(request.responseText);
+			// ignore responses for text that has since been changed
+			if (response[0] == input.value) {
+				replaceOptions(datalist, response[1]);
+			}
+		};
+		request.send(null);
+	}
+	return {
+		// request page name suggestions as the user types, waiting for a short
+		// pause in typing to avoid sending a request for every keystroke
+		initialize: function(inputId, datalistId) {
+			var input = document.getElementById(inputId);
+			var datalist = document.getElementById(datalistId);
+			if (!input || !datalist || !window.XMLHttpRequest || !window.JSON) {
+				return;
+			}
+			input.onkeyup = function() {
+				clearTimeout(timer);
+				timer = setTimeout(requestSuggestions.bind(JAMWiki.Suggest, input, datalist), 150);
+			};
+		}
+	};
+}();
 window.onload = function() {
 	JAMWiki.Tabs.initializeTabs();
 	JAMWiki.Admin.initializeVirtualWikiCheckboxes();
+	JAMWiki.Suggest.initialize('searchText', 'searchSuggestions');
 }
@@ -0,0 +1,365 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexCommit;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherLifetimeManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+
+/**
+ * The search index for a single virtual wiki.  Each index holds one
+ * IndexWriter that is shared by all threads, and searches use near-real-time
+ * readers obtained from that writer rather than re-opening the index from
+ * disk after every change.  Readers are reference counted, so a searcher
+ * that has been acquired remains valid until it is released even if a newer
+ * searcher becomes available in the meantime.
+ * <p>
+ * Changes made through this class become visible to searches only after
+ * {@link #refresh()} is called, and become durable only after
+ * {@link #commit()} is called.  {@link LuceneSearchEngine} calls both methods
+ * periodically from a background thread.
+ * <p>
+ * Operations hold a reference to the index obtained from {@link #incRef()},
+ * and each searcher holds a reference until it is released, so that
+ * {@link #close()} can wait for operations and searches that are still using
+ * the index when it is replaced by a rebuilt index.
+ * <p>
+ * Searchers used to produce a page of paged search results are recorded so
+ * that following pages can be retrieved from the same point-in-time view of
+ * the index even after newer searchers have been opened.  Recorded searchers
+ * are pruned once they are older than {@link #RECORDED_SEARCHER_MAX_AGE}.
+ */
+class LuceneIndex {
+
+	/** Source of index generations.  Seeded with the current time so that generations are not repeated after a restart. */
+	private static final AtomicLong GENERATIONS = new AtomicLong(System.currentTimeMillis());
+	/** Number of seconds that a recorded searcher is kept after a newer searcher has been recorded. */
+	static final double RECORDED_SEARCHER_MAX_AGE = 600;
+	/** Flag indicating whether there are uncommitted changes. */
+	private volatile boolean changed = false;
+	private final long generation = GENERATIONS.incrementAndGet();
+	/** Number of operations and searchers currently using the index.  Guarded by this object's lock. */
+	private int references = 0;
+	/** Flag indicating that the index has been closed or is being closed.  Guarded by this object's lock. */
+	private boolean retired = false;
+	/** Deletion policy used to protect commit points while they are copied. */
+	private final SnapshotDeletionPolicy snapshotPolicy;
+	/** Counter used to generate unique snapshot names. */
+	private final AtomicInteger snapshotCount = new AtomicInteger();
+	/** Searchers that produced pages of paged search results. */
+	private final SearcherLifetimeManager searcherLifetimeManager = new SearcherLifetimeManager();
+	private final SearcherManager searcherManager;
+	private final String virtualWiki;
+	private final IndexWriter writer;
+
+	/**
+	 * Create an index using an open writer.  The index takes ownership of the
+	 * writer and closes it when the index is closed.
+	 */
+	LuceneIndex(String virtualWiki, IndexWriter writer) throws IOException {
+		this.virtualWiki = virtualWiki;
+		this.writer = writer;
+		if (!(writer.getConfig().getIndexDeletionPolicy() instanceof SnapshotDeletionPolicy)) {
+			throw new IllegalArgumentException("Search index writers must use a SnapshotDeletionPolicy");
+		}
+		this.snapshotPolicy = (SnapshotDeletionPolicy)writer.getConfig().getIndexDeletionPolicy();
+		if (!DirectoryReader.indexExists(writer.getDirectory())) {
+			// commit the empty index so that it can be opened by other tools
+			writer.commit();
+		}
+		final LuceneIndex index = this;
+		this.searcherManager = new SearcherManager(writer, true, new SearcherFactory() {
+			public IndexSearcher newSearcher(IndexReader reader) {
+				return new LuceneIndexSearcher(reader, index);
+			}
+		});
+	}
+
+	/**
+	 * Return a searcher for the most recently refreshed version of the index.
+	 * Every searcher returned by this method MUST be passed to
+	 * {@link #release(IndexSearcher)} once the caller is done with it.
+	 *
+	 * @throws AlreadyClosedException Thrown if the index has been closed.
+	 */
+	IndexSearcher acquire() throws IOException {
+		if (!this.incRef()) {
+			throw new AlreadyClosedException("Search index for virtual wiki " + this.virtualWiki + " has been closed");
+		}
+		boolean acquired = false;
+		try {
+			IndexSearcher searcher = this.searcherManager.acquire();
+			acquired = true;
+			return searcher;
+		} finally {
+			if (!acquired) {
+				this.decRef();
+			}
+		}
+	}
+
+	/**
+	 * Return the recorded searcher identified by a token returned from
+	 * {@link #record(IndexSearcher)}, or <code>null</code> if the searcher has
+	 * been pruned or the index has been closed.  Searchers returned by this
+	 * method MUST be passed to {@link #release(IndexSearcher)} once the caller
+	 * is done with them.
+	 */
+	IndexSearcher acquire(long token) throws IOException {
+		if (!this.incRef()) {
+			return null;
+		}
+		IndexSearcher searcher = null;
+		try {
+			searcher = this.searcherLifetimeManager.acquire(token);
+			return searcher;
+		} catch (AlreadyClosedException e) {
+			return null;
+		} finally {
+			if (searcher == null) {
+				this.decRef();
+			}
+		}
+	}
+
+	/**
+	 * Add a document to the index.
+	 */
+	void addDocument(Document document) throws IOException {
+		this.writer.addDocument(document);
+		this.changed = true;
+	}
+
+	/**
+	 * Copy the files of the most recent commit point to a backup directory.
+	 * Pending changes are committed first, and the commit point is protected
+	 * by a snapshot while it is copied, so documents can continue to be added,
+	 * updated and deleted while the backup is made.
+	 */
+	void backup(File backupPath) throws IOException {
+		this.commit();
+		String snapshotId = "backup-" + this.snapshotCount.incrementAndGet();
+		IndexCommit indexCommit = this.snapshotPolicy.snapshot(snapshotId);
+		try {
+			Directory source = this.writer.getDirectory();
+			Directory destination = FSDirectory.open(backupPath);
+			try {
+				for (String fileName : indexCommit.getFileNames()) {
+					source.copy(destination, fileName, fileName, IOContext.DEFAULT);
+				}
+			} finally {
+				destination.close();
+			}
+		} finally {
+			this.snapshotPolicy.release(snapshotId);
+			// remove files from commit points that were only kept for the snapshot
+			this.writer.deleteUnusedFiles();
+		}
+	}
+
+	/**
+	 * Commit, then close the searcher manager and the writer.  No new
+	 * references to the index can be obtained once this method is called, and
+	 * the index is not closed until all operations and searchers that are
+	 * still using it have released their references.  Calling this method more
+	 * than once has no effect.
+	 */
+	void close() throws IOException {
+		synchronized (this) {
+			if (this.retired) {
+				return;
+			}
+			this.retired = true;
+			boolean interrupted = false;
+			while (this.references > 0) {
+				try {
+					this.wait();
+				} catch (InterruptedException e) {
+					// the index must not be closed while in use, so keep waiting
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		try {
+			this.searcherLifetimeManager.close();
+			this.searcherManager.close();
+		} finally {
+			// closing the writer also commits any pending changes
+			this.writer.close();
+		}
+	}
+
+	/**
+	 * Commit any pending changes to disk.  This method does nothing if there
+	 * have been no changes since the last commit.
+	 */
+	void commit() throws IOException {
+		if (!this.changed) {
+			return;
+		}
+		// reset the flag before committing so that changes made during the
+		// commit are picked up by the next commit
+		this.changed = false;
+		try {
+			this.writer.commit();
+		} catch (IOException e) {
+			this.changed = true;
+			throw e;
+		}
+	}
+
+	/**
+	 * Release a reference obtained from {@link #incRef()}.
+	 */
+	synchronized void decRef() {
+		this.references--;
+		if (this.references == 0) {
+			this.notifyAll();
+		}
+	}
+
+	/**
+	 * Remove all documents matching the term from the index.
+	 */
+	void deleteDocuments(Term term) throws IOException {
+		this.writer.deleteDocuments(term);
+		this.changed = true;
+	}
+
+	/**
+	 * Return a value that uniquely identifies this index instance.  Reader
+	 * versions start over when an index is rebuilt, so the generation is
+	 * needed to tell apart readers of the old and new index.
+	 */
+	long getGeneration() {
+		return this.generation;
+	}
+
+	/**
+	 *
+	 */
+	String getVirtualWiki() {
+		return this.virtualWiki;
+	}
+
+	/**
+	 * Obtain a reference to the index so that it is not closed while an
+	 * operation is using it.  Every successful call to this method MUST be
+	 * followed by a call to {@link #decRef()}.
+	 *
+	 * @return <code>true</code> if a reference was obtained, or
+	 *  <code>false</code> if the index has been closed.
+	 */
+	synchronized boolean incRef() {
+		if (this.retired) {
+			return false;
+		}
+		this.references++;
+		return true;
+	}
+
+	/**
+	 * Record a searcher acquired from this index so that it can be retrieved
+	 * again with {@link #acquire(long)} until it is pruned.  The searcher must
+	 * still be released by the caller.
+	 *
+	 * @return A token identifying the searcher.
+	 */
+	long record(IndexSearcher searcher) throws IOException {
+		return this.searcherLifetimeManager.record(searcher);
+	}
+
+	/**
+	 * Make changes made since the last refresh visible to new searchers.  This
+	 * method returns immediately if another thread is already refreshing the
+	 * index.  Recorded searchers that have expired are also pruned.
+	 */
+	void refresh() throws IOException {
+		this.searcherManager.maybeRefresh();
+		this.searcherLifetimeManager.prune(new SearcherLifetimeManager.PruneByAge(RECORDED_SEARCHER_MAX_AGE));
+	}
+
+	/**
+	 * Make all changes made so far visible to new searchers, waiting for any
+	 * refresh already in progress to complete.
+	 */
+	void refreshBlocking() throws IOException {
+		this.searcherManager.maybeRefreshBlocking();
+	}
+
+	/**
+	 * Release a searcher returned by {@link #acquire()}.  This method remains
+	 * safe to call if the index has been replaced since the searcher was
+	 * acquired.
+	 */
+	static void release(IndexSearcher searcher) throws IOException {
+		try {
+			// equivalent to SearcherManager.release()
+			searcher.getIndexReader().decRef();
+		} finally {
+			if (searcher instanceof LuceneIndexSearcher) {
+				((LuceneIndexSearcher)searcher).index.decRef();
+			}
+		}
+	}
+
+	/**
+	 * Replace all documents matching the term with a new document.  The delete
+	 * and add are applied atomically, so searchers never see the index with
+	 * neither or both documents present.
+	 */
+	void updateDocument(Term term, Document document) throws IOException {
+		this.writer.updateDocument(term, document);
+		this.changed = true;
+	}
+
+	/**
+	 * Searcher that records the index it was created for, so that releasing the
+	 * searcher also releases its reference to the index.
+	 */
+	private static class LuceneIndexSearcher extends IndexSearcher {
+
+		private final LuceneIndex index;
+
+		/**
+		 *
+		 */
+		LuceneIndexSearcher(IndexReader reader, LuceneIndex index) {
+			super(reader);
+			this.index = index;
+		}
+	}
+}
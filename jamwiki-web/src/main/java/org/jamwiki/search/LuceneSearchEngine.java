@@ -18,37 +18,57 @@ package org.jamwiki.search;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.StringReader;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Locale;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.FieldInfo.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.KeepOnlyLastCommitDeletionPolicy;
+import org.apache.lucene.index.SnapshotDeletionPolicy;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.CachingWrapperFilter;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.BooleanClause.Occur;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.InvalidTokenOffsetsException;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.store.LockFactory;
 import org.apache.lucene.store.SimpleFSLockFactory;
@@ -56,11 +76,18 @@ import org.apache.lucene.util.Version;
 import org.apache.lucene.store.LockObtainFailedException;
 import org.jamwiki.Environment;
 import org.jamwiki.SearchEngine;
+import org.jamwiki.SearchIndexQueue;
 import org.jamwiki.WikiBase;
+import org.jamwiki.db.TopicCursor;
+import org.jamwiki.model.SearchRebuildStatus;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.TopicType;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.parser.ParserInput;
+import org.jamwiki.parser.ParserUtil;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -72,31 +99,65 @@ public class LuceneSearchEngine implements SearchEngine {
 
 	/** Where to log to */
 	private static final WikiLogger logger = WikiLogger.getLogger(LuceneSearchEngine.class.getName());
+	/** Cache of search results, keyed by virtual wiki, index version, namespaces and query text. */
+	private static final WikiCache<String, List<SearchResultEntry>> CACHE_SEARCH_RESULTS = new WikiCache<String, List<SearchResultEntry>>("org.jamwiki.search.LuceneSearchEngine.CACHE_SEARCH_RESULTS");
+	/** Cache of pages of search results, keyed by page size, cursor and the search result cache key. */
+	private static final WikiCache<String, SearchResultPage> CACHE_SEARCH_RESULT_PAGES = new WikiCache<String, SearchResultPage>("org.jamwiki.search.LuceneSearchEngine.CACHE_SEARCH_RESULT_PAGES");
 	/** Directory for search index files */
 	private static final String SEARCH_DIR = "search";
+	/** Directory, relative to the search index directory, for search index backups. */
+	private static final String BACKUP_DIR = "backup";
+	/** Number of search index backups to keep for each virtual wiki. */
+	private static final int MAXIMUM_BACKUPS = 5;
 	/** Name of the search index field that holds the processed topic content. */
 	private static final String FIELD_TOPIC_CONTENT = "topic_content";
+	/** Name of the search index field that holds the text of topic headings when rendered content is indexed. */
+	private static final String FIELD_TOPIC_HEADINGS = "topic_headings";
 	/** Name of the search index field that holds the un-processed topic name. */
 	protected static final String FIELD_TOPIC_NAME = "topic_name";
 	/** Name of the search index field that holds the processed topic name. */
 	private static final String FIELD_TOPIC_NAME_ANALYZED = "topic_name_analyzed";
 	/** Name of the search index field that holds the un-processed topic namespace. */
 	private static final String FIELD_TOPIC_NAMESPACE = "topic_namespace";
+	/** Field type for topic content, indexed with offsets so that results can be highlighted without re-analysis. */
+	private static final FieldType TOPIC_CONTENT_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+	static {
+		TOPIC_CONTENT_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+		TOPIC_CONTENT_FIELD_TYPE.freeze();
+	}
+	/** Stored fields to load when retrieving the topic name for a search result. */
+	protected static final Set<String> TOPIC_NAME_FIELDS = Collections.singleton(FIELD_TOPIC_NAME);
 	/** Lucene compatibility version. */
 	protected static final Version USE_LUCENE_VERSION = Version.LUCENE_43;
 	/** Maximum number of results to return per search. */
 	// FIXME - make this configurable
 	protected static final int MAXIMUM_RESULTS_PER_SEARCH = 200;
-	/** Flag indicating whether or not to commit search index changes immediately. */
-	private boolean autoCommit = true;
+	/** Maximum number of highlighted fragments to display per search result. */
+	private static final int MAXIMUM_SUMMARY_FRAGMENTS = 3;
+	/** Maximum length of the summary displayed for results without highlighted fragments. */
+	private static final int DEFAULT_SUMMARY_LENGTH = 200;
+	/** Cached namespace filters, keyed by the sorted list of namespace IDs. */
+	private final ConcurrentMap<String, Filter> namespaceFilters = new ConcurrentHashMap<String, Filter>();
+	/** Flag used to log only once that the search index was built without content offsets. */
+	private final AtomicBoolean offsetsWarningLogged = new AtomicBoolean(false);
+	/** Maximum number of distinct namespace filters to cache. */
+	private static final int MAXIMUM_NAMESPACE_FILTERS = 64;
+	/** Flag indicating whether or not search index changes are periodically committed. */
+	private volatile boolean autoCommit = true;
 	/** Flag indicating whether write operations are temporarily disabled. */
-	private boolean disabled = false;
-	/** Store Searchers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexSearcher> searchers = new HashMap<String, IndexSearcher>();
-	/** Store Readers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexReader> indexReaders = new HashMap<String, IndexReader>();
-	/** Store Writers (once opened) for re-use for performance reasons. */
-	private Map<String, IndexWriter> indexWriters = new HashMap<String, IndexWriter>();
+	private volatile boolean disabled = false;
+	/** Flag indicating whether the search engine has been shut down. */
+	private volatile boolean closed = false;
+	/** Open search indexes, keyed by virtual wiki name. */
+	private final ConcurrentMap<String, LuceneIndex> indexes = new ConcurrentHashMap<String, LuceneIndex>();
+	/** Background thread used to refresh searchers and commit index changes. */
+	private ScheduledExecutorService scheduler = null;
+	/** Flag indicating whether a rebuild of the search index is running. */
+	private final AtomicBoolean rebuilding = new AtomicBoolean(false);
+	/** Names of topics changed while their virtual wiki's index is being rebuilt, keyed by virtual wiki name. */
+	private final ConcurrentMap<String, Set<String>> rebuildChanges = new ConcurrentHashMap<String, Set<String>>();
+	/** Progress of the current or most recent index rebuild. */
+	private volatile SearchRebuildStatus rebuildStatus = null;
 
 	/**
 	 * Add a topic to the search index.
@@ -107,56 +168,149 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildChange(topic);
+		LuceneIndex index = null;
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			index = this.acquireIndex(topic.getVirtualWiki());
+			this.addToIndex(index, topic);
 			if (logger.isDebugEnabled()) {
 				logger.debug("Add to search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while adding topic " + topic.getVirtualWiki() + " / " + topic.getName(), e);
+		} finally {
+			this.releaseIndex(index);
 		}
 	}
 
 	/**
 	 * Add a topic to the search index.
 	 *
-	 * @param writer The IndexWriter to use when updating the search index.
+	 * @param index The index to update.
 	 * @param topic The Topic object that is to be added to the index.
 	 */
-	private void addToIndex(IndexWriter writer, Topic topic) throws IOException {
+	private void addToIndex(LuceneIndex index, Topic topic) throws IOException {
 		if (topic.getTopicType() == TopicType.REDIRECT) {
 			// do not index redirects
 			return;
 		}
-		Document standardDocument = createStandardDocument(topic);
-		writer.addDocument(standardDocument);
-		this.resetIndexSearcher(topic.getVirtualWiki());
+		index.addDocument(this.createStandardDocument(topic));
+	}
+
+	/**
+	 * Return a searcher for the virtual wiki's search index.  Every searcher
+	 * returned by this method MUST be passed to
+	 * {@link #releaseIndexSearcher(IndexSearcher)} once the caller is done
+	 * with it, ideally in a <code>finally</code> block.
+	 */
+	protected IndexSearcher acquireIndexSearcher(String virtualWiki) throws IOException {
+		LuceneIndex index = this.acquireIndex(virtualWiki);
+		try {
+			// the searcher holds its own reference to the index until it is released
+			return index.acquire();
+		} finally {
+			this.releaseIndex(index);
+		}
+	}
+
+	/**
+	 * Return the search index for a virtual wiki with a reference held so that
+	 * it is not closed while in use.  Every index returned by this method MUST
+	 * be passed to {@link #releaseIndex(LuceneIndex)} once the caller is done
+	 * with it.  Callers must not call this method or
+	 * {@link #retrieveIndex(String)} while holding a reference, since a rebuild
+	 * replacing the index waits for references to be released while blocking
+	 * the opening of the new index.
+	 */
+	private LuceneIndex acquireIndex(String virtualWiki) throws IOException {
+		while (true) {
+			LuceneIndex index = this.retrieveIndex(virtualWiki);
+			if (index.incRef()) {
+				return index;
+			}
+			// the index was closed by a rebuild, so retry with the new index
+		}
 	}
 
 	/**
-	 * Force a flush of any pending commits to the search index.
+	 * Copy a consistent snapshot of the search index for a virtual wiki to a
+	 * new backup directory.  Searches and index updates continue while the
+	 * backup is made.  Backups are written to a timestamped directory below
+	 * the search index directory, and only the most recent backups for each
+	 * virtual wiki are kept.
+	 *
+	 * @param virtualWiki The virtual wiki whose search index is being backed up.
+	 * @return The directory containing the backup.
+	 * @throws IOException Thrown if the backup cannot be written.
+	 */
+	public File backupIndex(String virtualWiki) throws IOException {
+		long start = System.currentTimeMillis();
+		File backupParent = this.getBackupPath(virtualWiki);
+		File backupPath = new File(backupParent, new SimpleDateFormat("yyyyMMddHHmmssSSS").format(new Date()));
+		// write to a temporary directory so that a partial backup is never mistaken for a complete one
+		File tempPath = new File(backupParent, backupPath.getName() + ".tmp");
+		FileUtils.deleteQuietly(tempPath);
+		LuceneIndex index = this.acquireIndex(virtualWiki);
+		try {
+			index.backup(tempPath);
+			if (!tempPath.renameTo(backupPath)) {
+				throw new IOException("Unable to rename search index backup " + tempPath.getAbsolutePath() + " to " + backupPath.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			FileUtils.deleteQuietly(tempPath);
+			throw e;
+		} finally {
+			this.releaseIndex(index);
+		}
+		List<File> backups = this.retrieveBackups(virtualWiki);
+		for (int i = MAXIMUM_BACKUPS; i < backups.size(); i++) {
+			FileUtils.deleteQuietly(backups.get(i));
+		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Backed up search index for " + virtualWiki + " to " + backupPath.getAbsolutePath() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+		}
+		return backupPath;
+	}
+
+	/**
+	 * Force a flush of any pending commits to the search index.  Pending
+	 * changes are also made visible to searches immediately rather than
+	 * after the next background refresh.
 	 *
 	 * @param virtualWiki The virtual wiki for which pending updates are being
 	 *  committed.
 	 */
 	public void commit(String virtualWiki) {
+		LuceneIndex index = null;
 		try {
-			this.commit(this.retrieveIndexWriter(virtualWiki, false), true);
+			index = this.acquireIndex(virtualWiki);
+			index.commit();
+			index.refreshBlocking();
 		} catch (IOException e) {
 			logger.error("Exception while committing pending changes for virtual wiki " + virtualWiki, e);
+		} finally {
+			this.releaseIndex(index);
 		}
 	}
 
 	/**
-	 * Commit pending changes to the writer only if the commitNow value is true.
-	 * This is primarily a utility method for working with the autoCommit flag.
+	 * Commit pending changes for all open indexes.  Called periodically by the
+	 * background thread unless auto-commit has been disabled.
 	 */
-	private void commit(IndexWriter writer, boolean commitNow) throws IOException {
-		if (commitNow) {
-			writer.commit();
+	private void commitAll() {
+		for (LuceneIndex index : this.indexes.values()) {
+			if (!index.incRef()) {
+				// the index is being replaced by a rebuild
+				continue;
+			}
+			try {
+				index.commit();
+			} catch (Exception e) {
+				logger.error("Exception while committing pending changes for virtual wiki " + index.getVirtualWiki(), e);
+			} finally {
+				index.decRef();
+			}
 		}
 	}
 
@@ -165,41 +319,43 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * appropriate Lucene search query.
 	 */
 	protected Query createSearchQuery(IndexSearcher searcher, StandardAnalyzer analyzer, String text, List<Integer> namespaces) throws IOException, ParseException {
-		BooleanQuery fullQuery = new BooleanQuery();
-		QueryParser qp;
-		// build the namespace portion the query
-		if (namespaces != null && !namespaces.isEmpty()) {
-			qp = new QueryParser(USE_LUCENE_VERSION, FIELD_TOPIC_NAMESPACE, analyzer);
-			StringBuilder namespaceText = new StringBuilder();
-			for (Integer namespaceId : namespaces) {
-				if (namespaceText.length() != 0) {
-					namespaceText.append(" ").append(QueryParser.Operator.OR).append(" ");
-				}
-				namespaceText.append(namespaceId);
-			}
-			fullQuery.add(qp.parse(namespaceText.toString()), Occur.MUST);
-		}
 		// create a sub-query for topic name & topic text
 		BooleanQuery nameAndContentQuery = new BooleanQuery();
 		// topic name
-		qp = new QueryParser(USE_LUCENE_VERSION, FIELD_TOPIC_NAME_ANALYZED, analyzer);
+		QueryParser qp = new QueryParser(USE_LUCENE_VERSION, FIELD_TOPIC_NAME_ANALYZED, analyzer);
 		nameAndContentQuery.add(qp.parse(text), Occur.SHOULD);
 		// topic content
 		qp = new QueryParser(USE_LUCENE_VERSION, FIELD_TOPIC_CONTENT, analyzer);
 		nameAndContentQuery.add(qp.parse(text), Occur.SHOULD);
+		// topic headings, only present when rendered content is indexed
+		qp = new QueryParser(USE_LUCENE_VERSION, FIELD_TOPIC_HEADINGS, analyzer);
+		nameAndContentQuery.add(qp.parse(text), Occur.SHOULD);
 		// rewrite the sub-query to expand it - required for wildcards to work with highlighter
 		Query subQuery = searcher.rewrite(nameAndContentQuery);
-		// add the sub-query to the main query
-		fullQuery.add(subQuery, Occur.MUST);
-		return fullQuery;
+		// restrict the results to the requested namespaces using a cached filter
+		if (namespaces != null && !namespaces.isEmpty()) {
+			return new FilteredQuery(subQuery, this.retrieveNamespaceFilter(namespaces));
+		}
+		return subQuery;
 	}
 
 	/**
 	 * Create a basic Lucene document to add to the index.  This document
-	 * is suitable to be parsed with the StandardAnalyzer.
+	 * is suitable to be parsed with the StandardAnalyzer.  If
+	 * {@link Environment#PROP_SEARCH_INDEX_RENDERED} is enabled then the plain
+	 * text of the rendered topic is indexed instead of the raw wiki syntax,
+	 * along with a separate field for the topic headings.
 	 */
 	private Document createStandardDocument(Topic topic) {
 		String topicContent = topic.getTopicContent();
+		String topicHeadings = null;
+		if (Environment.getBooleanValue(Environment.PROP_SEARCH_INDEX_RENDERED)) {
+			RenderedTextExtractor extractor = this.extractRenderedText(topic);
+			if (extractor != null) {
+				topicContent = extractor.getText();
+				topicHeadings = extractor.getHeadings();
+			}
+		}
 		if (topicContent == null) {
 			topicContent = "";
 		}
@@ -215,11 +371,48 @@ public class LuceneSearchEngine implements SearchEngine {
 		nameField.setBoost(3.0f);
 		doc.add(nameField);
 		// analyze & store the topic content so that it is searchable and also usable for display in
-		// search result summaries
-		doc.add(new TextField(FIELD_TOPIC_CONTENT, topicContent, Field.Store.YES));
+		// search result summaries.  offsets are stored so that summaries do not require re-analysis.
+		doc.add(new Field(FIELD_TOPIC_CONTENT, topicContent, TOPIC_CONTENT_FIELD_TYPE));
+		if (!StringUtils.isBlank(topicHeadings)) {
+			// headings are a short summary of the topic, so weight them above the content
+			TextField headingsField = new TextField(FIELD_TOPIC_HEADINGS, topicHeadings, Field.Store.NO);
+			headingsField.setBoost(2.0f);
+			doc.add(headingsField);
+		}
 		return doc;
 	}
 
+	/**
+	 * Convert a cursor generated by {@link #encodeCursor} back into the
+	 * searcher token and last search hit of the previous page, or return
+	 * <code>null</code> if the cursor is empty or invalid.  Tokens are only
+	 * meaningful for the index that recorded them, so <code>null</code> is also
+	 * returned if the cursor was generated before the index was rebuilt.
+	 */
+	private SearchCursor decodeCursor(String cursor, long generation) {
+		if (StringUtils.isBlank(cursor)) {
+			return null;
+		}
+		String[] values = StringUtils.split(cursor, '-');
+		if (values.length != 4) {
+			logger.info("Invalid search cursor " + cursor);
+			return null;
+		}
+		try {
+			if (Long.parseLong(values[0]) != generation) {
+				logger.debug("Search index has been rebuilt since cursor " + cursor + " was generated, returning the first page of results");
+				return null;
+			}
+			long token = Long.parseLong(values[1]);
+			int docId = Integer.parseInt(values[2]);
+			float score = Float.intBitsToFloat((int)Long.parseLong(values[3], 16));
+			return new SearchCursor(token, new ScoreDoc(docId, score));
+		} catch (NumberFormatException e) {
+			logger.info("Invalid search cursor " + cursor);
+			return null;
+		}
+	}
+
 	/**
 	 * Remove a topic from the search index.
 	 *
@@ -229,34 +422,102 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildChange(topic);
+		LuceneIndex index = null;
 		try {
 			long start = System.currentTimeMillis();
+			index = this.acquireIndex(topic.getVirtualWiki());
 			// delete the current document
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.deleteFromIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			index.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName()));
 			if (logger.isDebugEnabled()) {
 				logger.debug("Delete from search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while adding topic " + topic.getVirtualWiki() + ':' + topic.getName(), e);
+		} finally {
+			this.releaseIndex(index);
 		}
 	}
 
 	/**
-	 * Remove a topic from the search index.
+	 * Generate an opaque cursor from the index generation, the token of the
+	 * recorded searcher and the last search hit on a page of results.  The
+	 * score is encoded using its exact bit pattern so that ties are resolved
+	 * identically when the cursor is used.
+	 */
+	private String encodeCursor(long generation, long token, ScoreDoc scoreDoc) {
+		return generation + "-" + token + "-" + scoreDoc.doc + "-" + Integer.toHexString(Float.floatToIntBits(scoreDoc.score));
+	}
+
+	/**
+	 * Execute a search against an index searcher, returning the matching
+	 * topics ordered by relevance along with highlighted summaries.  Results
+	 * returned by this method are cached by {@link #findResults}, so the
+	 * results must depend only on the searcher, query text and namespaces.
 	 *
-	 * @param writer The IndexWriter to use when updating the search index.
-	 * @param topic The topic object that is to be removed from the index.
+	 * @param searcher The searcher to use when executing the search.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched, or
+	 *  <code>null</code> to search all namespaces.
+	 * @return A list of SearchResultEntry objects for all documents that
+	 *  contain the search term.
+	 */
+	protected List<SearchResultEntry> executeSearch(IndexSearcher searcher, String text, List<Integer> namespaces) throws Exception {
+		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
+		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
+		Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
+		// actually perform the search
+		TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
+		searcher.search(query, collector);
+		ScoreDoc[] hits = collector.topDocs().scoreDocs;
+		int[] docIds = new int[hits.length];
+		for (int i = 0; i < hits.length; i++) {
+			docIds[i] = hits[i].doc;
+		}
+		String[] summaries = this.retrieveResultSummaries(searcher, query, docIds);
+		for (int i = 0; i < hits.length; i++) {
+			Document doc = searcher.doc(hits[i].doc, TOPIC_NAME_FIELDS);
+			SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), hits[i].score, summaries[i]);
+			results.add(result);
+		}
+		return results;
+	}
+
+	/**
+	 * Render a topic and extract its plain text for indexing.  Rendered HTML
+	 * that is already in the parsed content cache is reused, otherwise the topic
+	 * is parsed without section edit links or a table of contents.  Returns
+	 * <code>null</code> if the topic cannot be rendered, in which case the raw
+	 * topic content should be indexed.
 	 */
-	private void deleteFromIndex(IndexWriter writer, Topic topic) throws IOException {
-		writer.deleteDocuments(new Term(FIELD_TOPIC_NAME, topic.getName()));
-		this.resetIndexSearcher(topic.getVirtualWiki());
+	private RenderedTextExtractor extractRenderedText(Topic topic) {
+		if (StringUtils.isBlank(topic.getTopicContent())) {
+			return null;
+		}
+		String html = WikiBase.CACHE_PARSED_TOPIC_CONTENT.retrieveFromCache(topic.getVirtualWiki() + '/' + topic.getName());
+		if (html == null) {
+			ParserInput parserInput = new ParserInput(topic.getVirtualWiki(), topic.getName());
+			parserInput.setAllowSectionEdit(false);
+			parserInput.setAllowTableOfContents(false);
+			// links are discarded, so any context value will do
+			parserInput.setContext("/wiki");
+			parserInput.setLocale(Locale.getDefault());
+			try {
+				html = ParserUtil.parse(parserInput, null, topic.getTopicContent());
+			} catch (Exception e) {
+				logger.warn("Unable to render topic " + topic.getVirtualWiki() + " / " + topic.getName() + " for the search index, raw content will be indexed", e);
+				return null;
+			}
+		}
+		return (html == null) ? null : new RenderedTextExtractor(html);
 	}
 
 	/**
 	 * Find all documents that contain a specific search term, ordered by relevance.
-	 * This method supports all Lucene search query syntax.
+	 * This method supports all Lucene search query syntax.  Results are cached
+	 * until the index changes, so repeated searches for the same text (for
+	 * example when paging through results) do not re-execute the query or
+	 * re-generate the result summaries.
 	 *
 	 * @param virtualWiki The virtual wiki for the topic.
 	 * @param text The search term being searched for.
@@ -264,30 +525,135 @@ public class LuceneSearchEngine implements SearchEngine {
 	 *  contain the search term.
 	 */
 	public List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces) {
-		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
-		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
 		if (logger.isTraceEnabled()) {
 			logger.trace("search text: " + text);
 		}
+		IndexSearcher searcher = null;
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
+			searcher = this.acquireIndexSearcher(virtualWiki);
+			String key = this.searchCacheKey(virtualWiki, searcher.getIndexReader(), text, namespaces);
+			List<SearchResultEntry> results = CACHE_SEARCH_RESULTS.retrieveFromCache(key);
+			if (results == null) {
+				results = this.executeSearch(searcher, text, namespaces);
+				CACHE_SEARCH_RESULTS.addToCache(key, results);
+			}
+			// return a copy so that callers cannot modify the cached results
+			return new ArrayList<SearchResultEntry>(results);
+		} catch (Exception e) {
+			logger.error("Exception while searching for " + text, e);
+			return new ArrayList<SearchResultEntry>();
+		} finally {
+			this.releaseIndexSearcher(searcher);
+		}
+	}
+
+	/**
+	 * Find a single page of documents that contain a specific search term,
+	 * ordered by relevance.  Pages after the first are retrieved with
+	 * {@link IndexSearcher#searchAfter}, so the cost of retrieving a page does
+	 * not grow with the number of pages that precede it, and only the results
+	 * on the requested page are loaded and highlighted.  Cursors identify the
+	 * last result of the previous page and the searcher that produced it, and
+	 * following pages are retrieved from that same searcher so that changes
+	 * made to the index in the meantime do not cause results to be skipped or
+	 * repeated.  Searchers are kept for
+	 * {@link LuceneIndex#RECORDED_SEARCHER_MAX_AGE} seconds after a newer
+	 * searcher is recorded; if the searcher is no longer available, or the
+	 * index has been rebuilt, the first page of results from the current index
+	 * is returned and flagged as reset.  Pages are cached until the index
+	 * changes.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched, or
+	 *  <code>null</code> to search all namespaces.
+	 * @param cursor The cursor returned with the previous page of results, or
+	 *  <code>null</code> to retrieve the first page.
+	 * @param pageSize The maximum number of results to return.  Values larger
+	 *  than {@link #MAXIMUM_RESULTS_PER_SEARCH} are reduced to that limit.
+	 * @return A page of search results.
+	 */
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, String cursor, int pageSize) {
+		if (logger.isTraceEnabled()) {
+			logger.trace("search text: " + text + " / cursor: " + cursor);
+		}
+		// the page size comes from the request, so limit it to avoid huge result queues
+		pageSize = Math.min(Math.max(pageSize, 1), MAXIMUM_RESULTS_PER_SEARCH);
+		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
+		LuceneIndex index = null;
+		IndexSearcher searcher = null;
+		try {
+			index = this.acquireIndex(virtualWiki);
+			SearchCursor position = this.decodeCursor(cursor, index.getGeneration());
+			if (position != null) {
+				// continue from the searcher that produced the previous page
+				searcher = index.acquire(position.token);
+			}
+			ScoreDoc after = (searcher != null) ? position.after : null;
+			boolean reset = false;
+			if (searcher == null) {
+				reset = !StringUtils.isBlank(cursor);
+				if (reset) {
+					logger.debug("Search cursor " + cursor + " has expired or is invalid, returning the first page of results");
+				}
+				searcher = index.acquire();
+			}
+			// a cursor that could not be used returns the first page, so cache it as the first page
+			String key = pageSize + "/" + ((after == null) ? "" : cursor) + "/" + index.getGeneration() + "/" + this.searchCacheKey(virtualWiki, searcher.getIndexReader(), text, namespaces);
+			SearchResultPage resultPage = CACHE_SEARCH_RESULT_PAGES.retrieveFromCache(key);
+			if (resultPage != null) {
+				if (resultPage.getNextCursor() != null) {
+					// re-record the searcher in case it was pruned since the page was cached
+					index.record(searcher);
+				}
+				// return a copy so that callers cannot modify the cached results
+				return new SearchResultPage(new ArrayList<SearchResultEntry>(resultPage.getResults()), resultPage.getTotalHits(), resultPage.getNextCursor(), reset);
+			}
+			StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
 			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
-			// actually perform the search
-			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
-			searcher.search(query, collector);
-			Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query, FIELD_TOPIC_CONTENT));
-			ScoreDoc[] hits = collector.topDocs().scoreDocs;
-			for (int i = 0; i < hits.length; i++) {
-				int docId = hits[i].doc;
-				Document doc = searcher.doc(docId);
-				String summary = retrieveResultSummary(doc, highlighter, analyzer);
-				SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), hits[i].score, summary);
-				results.add(result);
+			// retrieve one extra hit to determine whether another page follows this one
+			TopDocs topDocs = (after == null) ? searcher.search(query, pageSize + 1) : searcher.searchAfter(after, query, pageSize + 1);
+			ScoreDoc[] hits = topDocs.scoreDocs;
+			int[] docIds = new int[Math.min(hits.length, pageSize)];
+			for (int i = 0; i < docIds.length; i++) {
+				docIds[i] = hits[i].doc;
+			}
+			String[] summaries = this.retrieveResultSummaries(searcher, query, docIds);
+			for (int i = 0; i < docIds.length; i++) {
+				Document doc = searcher.doc(docIds[i], TOPIC_NAME_FIELDS);
+				results.add(new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), hits[i].score, summaries[i]));
 			}
+			String nextCursor = null;
+			if (hits.length > pageSize) {
+				// keep the searcher so that the next page is retrieved from the same view of the index
+				nextCursor = this.encodeCursor(index.getGeneration(), index.record(searcher), hits[pageSize - 1]);
+			}
+			CACHE_SEARCH_RESULT_PAGES.addToCache(key, new SearchResultPage(new ArrayList<SearchResultEntry>(results), topDocs.totalHits, nextCursor));
+			return new SearchResultPage(results, topDocs.totalHits, nextCursor, reset);
 		} catch (Exception e) {
 			logger.error("Exception while searching for " + text, e);
+			return new SearchResultPage(results, 0, null);
+		} finally {
+			this.releaseIndexSearcher(searcher);
+			this.releaseIndex(index);
 		}
-		return results;
+	}
+
+	/**
+	 * Return progress information for the currently running or most recently
+	 * completed rebuild of the search index, or <code>null</code> if no rebuild
+	 * has been run since the search engine was started.
+	 */
+	public SearchRebuildStatus getRebuildStatus() {
+		return this.rebuildStatus;
+	}
+
+	/**
+	 * Get the path that holds search index backups for a virtual wiki.
+	 */
+	private File getBackupPath(String virtualWiki) {
+		File parent = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), SEARCH_DIR);
+		return new File(new File(parent, BACKUP_DIR), "index" + virtualWiki);
 	}
 
 	/**
@@ -307,21 +673,11 @@ public class LuceneSearchEngine implements SearchEngine {
 		}
 		File child = new File(parent.getPath(), "index" + virtualWiki + File.separator);
 		if (!child.exists()) {
-			// create the search instance
 			child.mkdirs();
-			IndexWriter writer = this.openIndexWriter(child, true);
-			writer.close();
 		}
 		return child;
 	}
 
-	/**
-	 * Open an IndexReader, executing error handling as needed.
-	 */
-	private IndexReader openIndexReader(File searchIndexPath) throws IOException {
-		return DirectoryReader.open(FSDirectory.open(searchIndexPath));
-	}
-
 	/**
 	 * Open an IndexWriter, executing error handling as needed.
 	 */
@@ -352,133 +708,429 @@ public class LuceneSearchEngine implements SearchEngine {
 	}
 
 	/**
-	 * Refresh the current search index by re-visiting all topic pages.
+	 * Build a new search index for a virtual wiki in a side directory.  Topics
+	 * are streamed from the database on the calling thread and handed to a pool
+	 * of worker threads that build the Lucene documents and add them to a
+	 * single IndexWriter.  The work queue is bounded so that only a small
+	 * number of topics are held in memory at any one time.
+	 */
+	private void rebuildIndex(String virtualWiki, File rebuildPath, SearchRebuildStatus status) throws Exception {
+		int threads = Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_THREADS);
+		if (threads <= 0) {
+			threads = Runtime.getRuntime().availableProcessors();
+		}
+		final IndexWriter writer = this.openIndexWriter(rebuildPath, true);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		final SearchRebuildStatus rebuildStatus = status;
+		final AtomicInteger threadCount = new AtomicInteger();
+		// when the work queue is full the cursor thread indexes the topic itself,
+		// which throttles the database reads to the speed of the workers
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(threads * 4), new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "JAMWiki search index rebuild " + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		}, new ThreadPoolExecutor.CallerRunsPolicy());
+		TopicCursor cursor = null;
+		try {
+			// stream topics rather than loading them all, and bypass the topic
+			// caches so that a rebuild does not evict entries used by live traffic
+			cursor = WikiBase.getDataHandler().lookupTopicCursor(virtualWiki, 0);
+			while (failure.get() == null && cursor.hasNext()) {
+				final Topic topic = cursor.next();
+				executor.execute(new Runnable() {
+					public void run() {
+						try {
+							if (topic.getTopicType() != TopicType.REDIRECT) {
+								// IndexWriter is thread-safe, and documents added concurrently
+								// are analyzed in parallel
+								writer.addDocument(createStandardDocument(topic));
+								// the progress total does not include redirects, so
+								// only count topics that are indexed
+								rebuildStatus.incrementProcessed();
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e);
+						}
+					}
+				});
+			}
+		} catch (Exception e) {
+			failure.compareAndSet(null, e);
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// wait for queued documents to be added
+			}
+		}
+		if (failure.get() != null) {
+			try {
+				writer.rollback();
+			} catch (IOException e) {
+				logger.warn("Exception while discarding partial search index for virtual wiki " + virtualWiki, e);
+			}
+			throw failure.get();
+		}
+		try {
+			writer.commit();
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Record that a topic is being changed while the index for its virtual wiki
+	 * is being rebuilt.  Changes must be recorded before they are applied to the
+	 * live index so that they can be re-applied to the new index after the swap.
+	 */
+	private void recordRebuildChange(Topic topic) {
+		Set<String> changes = this.rebuildChanges.get(topic.getVirtualWiki());
+		if (changes != null) {
+			changes.add(topic.getName());
+		}
+	}
+
+	/**
+	 * Refresh the current search index by re-visiting all topic pages.  A new
+	 * index is built for each virtual wiki in a separate directory while
+	 * searches and updates continue to use the existing index, and the new
+	 * index then replaces the existing index.  Topics that are changed while the
+	 * rebuild is running are re-queued for indexing once the new index is in
+	 * place.  Progress is available from {@link #getRebuildStatus()}.
 	 *
+	 * @throws IllegalStateException Thrown if a rebuild is already running.
 	 * @throws Exception Thrown if any error occurs while re-indexing the Wiki.
 	 */
 	public void refreshIndex() throws Exception {
-		List<VirtualWiki> allWikis = WikiBase.getDataHandler().getVirtualWikiList();
-		Topic topic;
-		for (VirtualWiki virtualWiki : allWikis) {
-			long start = System.currentTimeMillis();
-			int count = 0;
-			IndexWriter writer = null;
-			try {
-				writer = this.retrieveIndexWriter(virtualWiki.getName(), true);
-				List<String> topicNames = WikiBase.getDataHandler().getAllTopicNames(virtualWiki.getName(), false);
-				// FIXME - parsing all documents will be intolerably slow with even a
-				// moderately large Wiki
-				for (String topicName : topicNames) {
-					topic = WikiBase.getDataHandler().lookupTopic(virtualWiki.getName(), topicName, false);
-					if (topic == null) {
-						logger.info("Unable to rebuild search index for topic: " + topicName);
-						continue;
-					}
-					// note: no delete is necessary since a new index is being created
-					this.addToIndex(writer, topic);
-					count++;
-				}
-			} catch (Exception ex) {
-				logger.error("Failure while refreshing search index", ex);
-			} finally {
-				try {
-					if (writer != null) {
-						writer.close();
-					}
-				} catch (Exception e) {
-					logger.error("Exception during close", e);
-				}
+		if (!this.rebuilding.compareAndSet(false, true)) {
+			throw new IllegalStateException("A search index rebuild is already running");
+		}
+		SearchRebuildStatus status = null;
+		try {
+			List<VirtualWiki> allWikis = WikiBase.getDataHandler().getVirtualWikiList();
+			int total = 0;
+			for (VirtualWiki virtualWiki : allWikis) {
+				total += WikiBase.getDataHandler().lookupTopicCount(virtualWiki.getName(), null);
+			}
+			status = new SearchRebuildStatus(total);
+			this.rebuildStatus = status;
+			for (VirtualWiki virtualWiki : allWikis) {
+				status.setVirtualWiki(virtualWiki.getName());
+				this.refreshIndex(virtualWiki.getName(), status);
+			}
+		} catch (Exception e) {
+			if (status != null) {
+				status.setError(e.toString());
+			}
+			throw e;
+		} finally {
+			if (status != null) {
+				status.finish();
 			}
-			if (logger.isInfoEnabled()) {
-				logger.info("Rebuilt search index for " + virtualWiki.getName() + " (" + count + " documents) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+			this.rebuilding.set(false);
+		}
+	}
+
+	/**
+	 * Rebuild the search index for a single virtual wiki into a side directory
+	 * and then swap it into place.
+	 */
+	private void refreshIndex(String virtualWiki, SearchRebuildStatus status) throws Exception {
+		long start = System.currentTimeMillis();
+		int processed = status.getProcessed();
+		File searchIndexPath = this.getSearchIndexPath(virtualWiki);
+		File rebuildPath = new File(searchIndexPath.getParentFile(), searchIndexPath.getName() + ".rebuild");
+		FileUtils.deleteQuietly(rebuildPath);
+		// start recording changes before reading any topics so that no change
+		// made during the rebuild can be lost
+		Set<String> changes = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+		this.rebuildChanges.put(virtualWiki, changes);
+		try {
+			this.rebuildIndex(virtualWiki, rebuildPath, status);
+			this.swapIndex(virtualWiki, searchIndexPath, rebuildPath);
+		} catch (Exception e) {
+			FileUtils.deleteQuietly(rebuildPath);
+			throw e;
+		} finally {
+			this.rebuildChanges.remove(virtualWiki);
+		}
+		SearchIndexQueue searchIndexQueue = WikiBase.getSearchIndexQueue();
+		for (String topicName : changes) {
+			if (searchIndexQueue != null) {
+				searchIndexQueue.enqueue(virtualWiki, topicName);
 			}
 		}
+		if (logger.isInfoEnabled()) {
+			logger.info("Rebuilt search index for " + virtualWiki + " (" + (status.getProcessed() - processed) + " topics) in " + ((System.currentTimeMillis() - start) / 1000.000) + " seconds");
+		}
 	}
 
 	/**
-	 * Call this method after a search index is updated to reset the searcher.
+	 * Make recent index changes visible to searches.  Called periodically by the
+	 * background thread.
 	 */
-	private void resetIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
-		if (searcher != null) {
-			searchers.remove(virtualWiki);
+	private void refreshAll() {
+		for (LuceneIndex index : this.indexes.values()) {
+			if (!index.incRef()) {
+				// the index is being replaced by a rebuild
+				continue;
+			}
+			try {
+				index.refresh();
+			} catch (Exception e) {
+				logger.error("Exception while refreshing searcher for virtual wiki " + index.getVirtualWiki(), e);
+			} finally {
+				index.decRef();
+			}
 		}
 	}
 
 	/**
-	 * For performance reasons cache the IndexSearcher for re-use.
+	 * Release a searcher returned by {@link #acquireIndexSearcher(String)}.
+	 * This method may be safely called with a <code>null</code> searcher.
 	 */
-	protected IndexSearcher retrieveIndexSearcher(String virtualWiki) throws IOException {
-		IndexSearcher searcher = searchers.get(virtualWiki);
+	protected void releaseIndexSearcher(IndexSearcher searcher) {
 		if (searcher == null) {
-			searcher = new IndexSearcher(this.retrieveIndexReader(virtualWiki));
-			searchers.put(virtualWiki, searcher);
+			return;
+		}
+		try {
+			LuceneIndex.release(searcher);
+		} catch (IOException e) {
+			logger.warn("Exception while releasing searcher", e);
 		}
-		return searcher;
 	}
 
 	/**
-	 * For performance reasons create a cache of readers.
+	 * Replace the search index for a virtual wiki with a copy of a backup made
+	 * by {@link #backupIndex(String)}.  The backup is verified and copied while
+	 * the existing index continues to serve searches, and the copy is then
+	 * swapped into place.  Topics changed since the backup was made are not
+	 * reflected in the restored index until they are next updated or the
+	 * index is rebuilt.
+	 *
+	 * @param virtualWiki The virtual wiki whose search index is being restored.
+	 * @param backupPath The backup directory to restore, or <code>null</code>
+	 *  to restore the most recent backup for the virtual wiki.
+	 * @throws IllegalStateException Thrown if a rebuild of the search index is
+	 *  running.
+	 * @throws IOException Thrown if no valid backup is available or the backup
+	 *  cannot be restored.
 	 */
-	private IndexReader retrieveIndexReader(String virtualWiki) throws IOException {
-		IndexReader indexReader = indexReaders.get(virtualWiki);
-		if (indexReader == null) {
+	public void restoreIndex(String virtualWiki, File backupPath) throws IOException {
+		if (backupPath == null) {
+			List<File> backups = this.retrieveBackups(virtualWiki);
+			if (backups.isEmpty()) {
+				throw new IOException("No search index backup is available for virtual wiki " + virtualWiki);
+			}
+			backupPath = backups.get(0);
+		}
+		FSDirectory backupDirectory = FSDirectory.open(backupPath);
+		try {
+			// opening a reader verifies that the backup contains a complete commit
+			DirectoryReader.open(backupDirectory).close();
+		} finally {
+			backupDirectory.close();
+		}
+		// a rebuild swaps in its own index, so restores and rebuilds must not overlap
+		if (!this.rebuilding.compareAndSet(false, true)) {
+			throw new IllegalStateException("A search index rebuild is running");
+		}
+		try {
 			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexReader = this.openIndexReader(searchIndexPath);
-			indexReaders.put(virtualWiki, indexReader);
+			File restorePath = new File(searchIndexPath.getParentFile(), searchIndexPath.getName() + ".restore");
+			FileUtils.deleteQuietly(restorePath);
+			try {
+				FileUtils.copyDirectory(backupPath, restorePath);
+				this.swapIndex(virtualWiki, searchIndexPath, restorePath);
+			} catch (IOException e) {
+				FileUtils.deleteQuietly(restorePath);
+				throw e;
+			}
+		} finally {
+			this.rebuilding.set(false);
 		}
-		return indexReader;
+		logger.info("Restored search index for " + virtualWiki + " from " + backupPath.getAbsolutePath());
 	}
 
 	/**
-	 * For performance reasons create a cache of writers.  Since writers are not being
-	 * re-initialized then commit() must be called to explicitly flush data to the index,
-	 * otherwise it will be flushed on a programmatic basis by Lucene.
+	 * Return the completed backups of the search index for a virtual wiki,
+	 * most recent first.
 	 */
-	private IndexWriter retrieveIndexWriter(String virtualWiki, boolean create) throws IOException {
-		IndexWriter indexWriter = indexWriters.get(virtualWiki);
-		if (create && indexWriter != null) {
-			// if the writer is going to blow away the existing index and create a new one then it
-			// should not be cached.  instead, close any open writer, create a new one, and return.
-			indexWriter.close();
-			indexWriters.remove(virtualWiki);
-			indexWriter = null;
+	private List<File> retrieveBackups(String virtualWiki) {
+		List<File> backups = new ArrayList<File>();
+		File[] files = this.getBackupPath(virtualWiki).listFiles();
+		if (files == null) {
+			return backups;
 		}
-		if (indexWriter == null) {
-			File searchIndexPath = this.getSearchIndexPath(virtualWiki);
-			indexWriter = this.openIndexWriter(searchIndexPath, create);
-			if (!create) {
-				indexWriters.put(virtualWiki, indexWriter);
+		// backup directory names are timestamps, so reverse name order is most recent first
+		Arrays.sort(files, Collections.reverseOrder());
+		for (File file : files) {
+			if (file.isDirectory() && !file.getName().endsWith(".tmp")) {
+				backups.add(file);
 			}
 		}
-		return indexWriter;
+		return backups;
 	}
 
 	/**
-	 * Retrieve an IndexWriter configuration object.
+	 * Release a reference to an index returned by
+	 * {@link #acquireIndex(String)}.  This method may be safely called with a
+	 * <code>null</code> index.
+	 */
+	private void releaseIndex(LuceneIndex index) {
+		if (index != null) {
+			index.decRef();
+		}
+	}
+
+	/**
+	 * Return the search index for a virtual wiki, opening it if it is not
+	 * already open.  Indexes remain open until the search engine is shut down
+	 * or the index is replaced by a rebuild, so callers that use the index
+	 * should obtain it from {@link #acquireIndex(String)} instead.
+	 */
+	private LuceneIndex retrieveIndex(String virtualWiki) throws IOException {
+		LuceneIndex index = this.indexes.get(virtualWiki);
+		if (index != null) {
+			return index;
+		}
+		synchronized (this.indexes) {
+			if (this.closed) {
+				throw new IOException("Search engine has been shut down");
+			}
+			index = this.indexes.get(virtualWiki);
+			if (index == null) {
+				File searchIndexPath = this.getSearchIndexPath(virtualWiki);
+				index = new LuceneIndex(virtualWiki, this.openIndexWriter(searchIndexPath, false));
+				this.indexes.put(virtualWiki, index);
+				this.startScheduler();
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Retrieve an IndexWriter configuration object.  Writers that create a new
+	 * index are used for bulk rebuilds, so they are given a larger RAM buffer to
+	 * reduce the number of segments that must be flushed and merged.
 	 */
 	private IndexWriterConfig retrieveIndexWriterConfig(boolean create) {
 		IndexWriterConfig indexWriterConfig = new IndexWriterConfig(USE_LUCENE_VERSION, new StandardAnalyzer(USE_LUCENE_VERSION));
 		indexWriterConfig.setOpenMode(((create) ? IndexWriterConfig.OpenMode.CREATE : IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+		// allow commit points to be copied by backupIndex() while the index is in use
+		indexWriterConfig.setIndexDeletionPolicy(new SnapshotDeletionPolicy(new KeepOnlyLastCommitDeletionPolicy()));
+		if (create) {
+			int ramBufferSize = Environment.getIntValue(Environment.PROP_SEARCH_REBUILD_RAM_BUFFER);
+			if (ramBufferSize > 0) {
+				indexWriterConfig.setRAMBufferSizeMB(ramBufferSize);
+			}
+		}
 		return indexWriterConfig;
 	}
 
 	/**
+	 * Return a filter that restricts search results to the specified
+	 * namespaces.  Filters are cached by namespace set, and each filter caches
+	 * its matching documents per index segment, so the namespace restriction
+	 * is only evaluated again for segments created since it was last used.
+	 * Because the segment cache is keyed by the segment itself, filters are
+	 * shared safely across refreshed searchers and rebuilt indexes.
+	 */
+	Filter retrieveNamespaceFilter(List<Integer> namespaces) {
+		List<Integer> sortedNamespaces = new ArrayList<Integer>(new TreeSet<Integer>(namespaces));
+		String key = sortedNamespaces.toString();
+		Filter filter = this.namespaceFilters.get(key);
+		if (filter != null) {
+			return filter;
+		}
+		BooleanQuery namespaceQuery = new BooleanQuery();
+		for (Integer namespaceId : sortedNamespaces) {
+			namespaceQuery.add(new TermQuery(new Term(FIELD_TOPIC_NAMESPACE, namespaceId.toString())), Occur.SHOULD);
+		}
+		if (this.namespaceFilters.size() >= MAXIMUM_NAMESPACE_FILTERS) {
+			// unusual namespace combinations should not grow the cache without limit
+			this.namespaceFilters.clear();
+		}
+		filter = new CachingWrapperFilter(new QueryWrapperFilter(namespaceQuery));
+		Filter existing = this.namespaceFilters.putIfAbsent(key, filter);
+		return (existing != null) ? existing : filter;
+	}
+
+	/**
+	 * Generate highlighted summaries for a group of search results.  Matches
+	 * are located using the offsets stored in the index rather than by
+	 * re-analyzing topic content, and no more than
+	 * {@link Environment#PROP_SEARCH_HIGHLIGHT_MAX_CHARS} characters of
+	 * each topic are examined.
 	 *
+	 * @param searcher The searcher used to execute the search.
+	 * @param query The query that matched the documents.
+	 * @param docIds The IDs of the documents for which summaries are needed.
+	 * @return An array of summaries in the same order as the document IDs.
 	 */
-	protected String retrieveResultSummary(Document document, Highlighter highlighter, StandardAnalyzer analyzer) throws InvalidTokenOffsetsException, IOException {
-		String content = document.get(FIELD_TOPIC_CONTENT);
-		TokenStream tokenStream = analyzer.tokenStream(FIELD_TOPIC_CONTENT, new StringReader(content));
-		String summary = highlighter.getBestFragments(tokenStream, content, 3, "...");
-		if (StringUtils.isBlank(summary) && !StringUtils.isBlank(content)) {
-			summary = StringEscapeUtils.escapeHtml4(content.substring(0, Math.min(200, content.length())));
-			if (Math.min(200, content.length()) == 200) {
-				summary += "...";
+	protected String[] retrieveResultSummaries(IndexSearcher searcher, Query query, int[] docIds) throws IOException {
+		String[] summaries = null;
+		if (docIds.length > 0) {
+			int maxLength = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_HIGHLIGHT_MAX_CHARS), 1);
+			try {
+				SummaryHighlighter highlighter = new SummaryHighlighter(maxLength);
+				summaries = highlighter.highlightFields(new String[] {FIELD_TOPIC_CONTENT}, query, searcher, docIds, new int[] {MAXIMUM_SUMMARY_FRAGMENTS}).get(FIELD_TOPIC_CONTENT);
+			} catch (IllegalArgumentException e) {
+				// indexes built by earlier versions do not store offsets
+				if (this.offsetsWarningLogged.compareAndSet(false, true)) {
+					logger.warn("Search index does not contain content offsets and results will not be highlighted.  Rebuild the search index to enable highlighting: " + e.getMessage());
+				}
 			}
 		}
+		if (summaries == null) {
+			summaries = new String[docIds.length];
+		}
+		Set<String> contentFields = Collections.singleton(FIELD_TOPIC_CONTENT);
+		for (int i = 0; i < docIds.length; i++) {
+			if (StringUtils.isBlank(summaries[i])) {
+				summaries[i] = this.retrieveDefaultSummary(searcher.doc(docIds[i], contentFields).get(FIELD_TOPIC_CONTENT));
+			}
+		}
+		return summaries;
+	}
+
+	/**
+	 * Generate a summary for a search result with no highlighted fragments.
+	 */
+	private String retrieveDefaultSummary(String content) {
+		if (StringUtils.isBlank(content)) {
+			return "";
+		}
+		String summary = StringEscapeUtils.escapeHtml4(content.substring(0, Math.min(DEFAULT_SUMMARY_LENGTH, content.length())));
+		if (content.length() > DEFAULT_SUMMARY_LENGTH) {
+			summary += "...";
+		}
 		return summary;
 	}
 
+	/**
+	 * Generate the search result cache key for a query.  The key includes the
+	 * version of the index reader, so any change to the index that is visible
+	 * to searches also makes previously cached results unreachable.  Query
+	 * text is normalized by collapsing whitespace, but case is preserved since
+	 * query operators such as <code>AND</code> are case-sensitive.
+	 */
+	private String searchCacheKey(String virtualWiki, IndexReader reader, String text, List<Integer> namespaces) {
+		StringBuilder key = new StringBuilder(virtualWiki);
+		key.append('/').append(((DirectoryReader)reader).getVersion()).append('/');
+		if (namespaces != null && !namespaces.isEmpty()) {
+			List<Integer> sortedNamespaces = new ArrayList<Integer>(namespaces);
+			Collections.sort(sortedNamespaces);
+			key.append(StringUtils.join(sortedNamespaces, ','));
+		}
+		key.append('/').append(StringUtils.normalizeSpace(text));
+		return key.toString();
+	}
+
 	/**
 	 *
 	 */
@@ -497,11 +1149,93 @@ public class LuceneSearchEngine implements SearchEngine {
 	 * 
 	 */
 	public void shutdown() throws IOException {
-		for (IndexReader indexReader : this.indexReaders.values()) {
-			indexReader.close();
+		synchronized (this.indexes) {
+			this.closed = true;
+			if (this.scheduler != null) {
+				this.scheduler.shutdownNow();
+				this.scheduler = null;
+			}
 		}
-		for (IndexWriter indexWriter : this.indexWriters.values()) {
-			indexWriter.close();
+		IOException exception = null;
+		for (LuceneIndex index : this.indexes.values()) {
+			try {
+				index.close();
+			} catch (IOException e) {
+				logger.error("Exception while closing search index for virtual wiki " + index.getVirtualWiki(), e);
+				exception = e;
+			}
+		}
+		this.indexes.clear();
+		if (exception != null) {
+			throw exception;
+		}
+	}
+
+	/**
+	 * Start the background thread that periodically refreshes searchers and
+	 * commits pending changes.  The refresh interval is set in milliseconds by
+	 * {@link Environment#PROP_SEARCH_REFRESH_INTERVAL} and the commit interval in
+	 * seconds by {@link Environment#PROP_SEARCH_COMMIT_INTERVAL}.  This method
+	 * must be called while holding the lock on the index map.
+	 */
+	private void startScheduler() {
+		if (this.scheduler != null) {
+			return;
+		}
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "JAMWiki search index maintenance");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long refreshInterval = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_REFRESH_INTERVAL), 1);
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				refreshAll();
+			}
+		}, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+		long commitInterval = Math.max(Environment.getIntValue(Environment.PROP_SEARCH_COMMIT_INTERVAL), 1);
+		this.scheduler.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				if (autoCommit) {
+					commitAll();
+				}
+			}
+		}, commitInterval, commitInterval, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Replace the search index for a virtual wiki with a newly built index.
+	 * The old index is closed once searches and updates that are still using
+	 * it have finished, and searches that start during the swap wait for the
+	 * new index to be opened.
+	 */
+	private void swapIndex(String virtualWiki, File searchIndexPath, File rebuildPath) throws IOException {
+		File backupPath = new File(searchIndexPath.getParentFile(), searchIndexPath.getName() + ".old");
+		synchronized (this.indexes) {
+			if (this.closed) {
+				throw new IOException("Search engine has been shut down");
+			}
+			LuceneIndex index = this.indexes.remove(virtualWiki);
+			if (index != null) {
+				// waits for operations holding a reference to the old index
+				index.close();
+			}
+			FileUtils.deleteQuietly(backupPath);
+			if (searchIndexPath.exists() && !searchIndexPath.renameTo(backupPath)) {
+				throw new IOException("Unable to rename search index " + searchIndexPath.getAbsolutePath() + " to " + backupPath.getAbsolutePath());
+			}
+			if (!rebuildPath.renameTo(searchIndexPath)) {
+				backupPath.renameTo(searchIndexPath);
+				throw new IOException("Unable to rename search index " + rebuildPath.getAbsolutePath() + " to " + searchIndexPath.getAbsolutePath());
+			}
+			FileUtils.deleteQuietly(backupPath);
+			// versions of the new index may repeat versions of the old index, so
+			// cached search results can no longer be distinguished by version
+			CACHE_SEARCH_RESULTS.removeAllFromCache();
+			CACHE_SEARCH_RESULT_PAGES.removeAllFromCache();
+			// the new index is opened by the next call to retrieveIndex()
 		}
 	}
 
@@ -512,17 +1246,44 @@ public class LuceneSearchEngine implements SearchEngine {
 		if (this.disabled) {
 			return;
 		}
+		this.recordRebuildChange(topic);
+		LuceneIndex index = null;
 		try {
 			long start = System.currentTimeMillis();
-			IndexWriter writer = this.retrieveIndexWriter(topic.getVirtualWiki(), false);
-			this.deleteFromIndex(writer, topic);
-			this.addToIndex(writer, topic);
-			this.commit(writer, this.autoCommit);
+			index = this.acquireIndex(topic.getVirtualWiki());
+			Term term = new Term(FIELD_TOPIC_NAME, topic.getName());
+			if (topic.getTopicType() == TopicType.REDIRECT) {
+				// redirects are not indexed
+				index.deleteDocuments(term);
+			} else {
+				index.updateDocument(term, this.createStandardDocument(topic));
+			}
 			if (logger.isDebugEnabled()) {
 				logger.debug("Update search index for topic " + topic.getVirtualWiki() + " / " + topic.getName() + " in " + ((System.currentTimeMillis() - start) / 1000.000) + " s.");
 			}
 		} catch (Exception e) {
 			logger.error("Exception while updating topic " + topic.getVirtualWiki() + " / " + topic.getName(), e);
+		} finally {
+			this.releaseIndex(index);
+		}
+	}
+
+	/**
+	 * Position in a set of paged search results decoded from a cursor.
+	 */
+	private static class SearchCursor {
+
+		/** Token of the recorded searcher that produced the previous page. */
+		private final long token;
+		/** Last search hit on the previous page. */
+		private final ScoreDoc after;
+
+		/**
+		 *
+		 */
+		SearchCursor(long token, ScoreDoc after) {
+			this.token = token;
+			this.after = after;
 		}
 	}
 }
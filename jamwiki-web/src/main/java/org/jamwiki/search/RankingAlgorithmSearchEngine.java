@@ -19,16 +19,13 @@ package org.jamwiki.search;
 import java.util.ArrayList;
 import java.util.List;
 import java.lang.reflect.Method;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
-import org.apache.lucene.search.TopScoreDocCollector;
-import org.apache.lucene.search.highlight.Highlighter;
-import org.apache.lucene.search.highlight.QueryScorer;
-import org.apache.lucene.search.highlight.SimpleHTMLEncoder;
-import org.apache.lucene.search.highlight.SimpleHTMLFormatter;
 import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.utils.WikiLogger;
 
 /**
@@ -42,62 +39,87 @@ public class RankingAlgorithmSearchEngine extends LuceneSearchEngine {
 	private static final WikiLogger logger = WikiLogger.getLogger(RankingAlgorithmSearchEngine.class.getName());
 
 	/**
-	 * Find all documents that contain a specific search term, ordered by relevance.
-	 * This method supports all Lucene search query syntax.
+	 * Execute a search using the RankingAlgorithm library, returning the
+	 * matching topics ordered by relevance.
 	 *
-	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param searcher The searcher to use when executing the search.
 	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched, or
+	 *  <code>null</code> to search all namespaces.
 	 * @return A list of SearchResultEntry objects for all documents that
 	 *  contain the search term.
 	 */
-	public List<SearchResultEntry> findResults(String virtualWiki, String text, List<Integer> namespaces) {
+	protected List<SearchResultEntry> executeSearch(IndexSearcher searcher, String text, List<Integer> namespaces) throws Exception {
 		StandardAnalyzer analyzer = new StandardAnalyzer(USE_LUCENE_VERSION);
 		List<SearchResultEntry> results = new ArrayList<SearchResultEntry>();
-		logger.trace("search text: " + text);
+		Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
+		// actually perform the search
 		try {
-			IndexSearcher searcher = this.retrieveIndexSearcher(virtualWiki);
-			Query query = this.createSearchQuery(searcher, analyzer, text, namespaces);
-			// actually perform the search
-			TopScoreDocCollector collector = TopScoreDocCollector.create(MAXIMUM_RESULTS_PER_SEARCH, true);
-			Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<span class=\"highlight\">", "</span>"), new SimpleHTMLEncoder(), new QueryScorer(query));
-			try {
-				Class classRQ = Class.forName("com.transaxtions.search.rankingalgorithm.RankingQuery");
-				Class classQuery = Class.forName("org.apache.lucene.search.Query");
-				Object rq = classRQ.newInstance();
-				Class classArray[] = new Class[2];
-				classArray[0] = classQuery;
-				classArray[1] = searcher.getClass();
-				Object args[] = new Object[2];
-				args[0] = query;
-				args[1] = searcher;
-				Method methodRQ_search = classRQ.getMethod("search", classArray);
-				Object hitsobject = methodRQ_search.invoke(rq, args); 
-				Class classRH = hitsobject.getClass();
-				classArray = new Class[1];
-				classArray[0] = int.class;
-				Method methodRH_length = classRH.getMethod("length", null);
-				Method methodRH_docid = classRH.getMethod("docid", classArray);
-				Method methodRH_score = classRH.getMethod("score", classArray);
-				Object lenobject = methodRH_length.invoke(hitsobject);
-				int length = ((Integer)lenobject).intValue();
-				for (int i = 0; i < length; i++) {
-					args = new Object[1];
-					args[0] = new Integer(i);
-					Object docobject = methodRH_docid.invoke(hitsobject, args);
-					int docId = ((Integer)docobject).intValue();
-					Document doc = searcher.doc(docId);
-					String summary = retrieveResultSummary(doc, highlighter, analyzer);
-					Object scoreobject = methodRH_score.invoke(hitsobject, args);
-					float score = ((Float)scoreobject).floatValue();
-					SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), score, summary);
-					results.add(result);
-				}
-			} catch (Throwable t) {
-				logger.error("Failure while executing RankingAlgorithm search", t);
-			}
-		} catch (Exception e) {
-			logger.error("Exception while searching for " + text, e);
+			Class classRQ = Class.forName("com.transaxtions.search.rankingalgorithm.RankingQuery");
+			Class classQuery = Class.forName("org.apache.lucene.search.Query");
+			Object rq = classRQ.newInstance();
+			Class classArray[] = new Class[2];
+			classArray[0] = classQuery;
+			classArray[1] = searcher.getClass();
+			Object args[] = new Object[2];
+			args[0] = query;
+			args[1] = searcher;
+			Method methodRQ_search = classRQ.getMethod("search", classArray);
+			Object hitsobject = methodRQ_search.invoke(rq, args); 
+			Class classRH = hitsobject.getClass();
+			classArray = new Class[1];
+			classArray[0] = int.class;
+			Method methodRH_length = classRH.getMethod("length", null);
+			Method methodRH_docid = classRH.getMethod("docid", classArray);
+			Method methodRH_score = classRH.getMethod("score", classArray);
+			Object lenobject = methodRH_length.invoke(hitsobject);
+			int length = ((Integer)lenobject).intValue();
+			int[] docIds = new int[length];
+			float[] scores = new float[length];
+			for (int i = 0; i < length; i++) {
+				args = new Object[1];
+				args[0] = new Integer(i);
+				Object docobject = methodRH_docid.invoke(hitsobject, args);
+				docIds[i] = ((Integer)docobject).intValue();
+				Object scoreobject = methodRH_score.invoke(hitsobject, args);
+				scores[i] = ((Float)scoreobject).floatValue();
+			}
+			String[] summaries = retrieveResultSummaries(searcher, query, docIds);
+			for (int i = 0; i < length; i++) {
+				Document doc = searcher.doc(docIds[i], TOPIC_NAME_FIELDS);
+				SearchResultEntry result = new SearchResultEntry(doc.get(FIELD_TOPIC_NAME), scores[i], summaries[i]);
+				results.add(result);
+			}
+		} catch (Throwable t) {
+			logger.error("Failure while executing RankingAlgorithm search", t);
+			// re-throw so that the failed search is not cached
+			throw new Exception("Failure while executing RankingAlgorithm search", t);
 		}
 		return results;
 	}
+
+	/**
+	 * Find a single page of documents that contain a specific search term.
+	 * RankingAlgorithm does not support <code>searchAfter</code>, so pages are
+	 * taken from the cached full result list and the cursor is the offset of
+	 * the next page.
+	 *
+	 * @param virtualWiki The virtual wiki for the topic.
+	 * @param text The search term being searched for.
+	 * @param namespaces A list of all namespaces that should be searched, or
+	 *  <code>null</code> to search all namespaces.
+	 * @param cursor The cursor returned with the previous page of results, or
+	 *  <code>null</code> to retrieve the first page.
+	 * @param pageSize The maximum number of results to return.  Values larger
+	 *  than {@link #MAXIMUM_RESULTS_PER_SEARCH} are reduced to that limit.
+	 * @return A page of search results.
+	 */
+	public SearchResultPage findResults(String virtualWiki, String text, List<Integer> namespaces, String cursor, int pageSize) {
+		List<SearchResultEntry> results = this.findResults(virtualWiki, text, namespaces);
+		pageSize = Math.min(Math.max(pageSize, 1), MAXIMUM_RESULTS_PER_SEARCH);
+		int offset = Math.min(Math.max(NumberUtils.toInt(cursor, 0), 0), results.size());
+		int end = Math.min(offset + pageSize, results.size());
+		String nextCursor = (end < results.size()) ? Integer.toString(end) : null;
+		return new SearchResultPage(new ArrayList<SearchResultEntry>(results.subList(offset, end)), results.size(), nextCursor);
+	}
 }
@@ -0,0 +1,146 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+/**
+ * Convert rendered topic HTML to the plain text that is added to the search
+ * index.  Tags are removed and entities decoded in a single pass over the
+ * HTML without building a document tree.  The content of script and style
+ * elements is discarded, block-level elements are separated by whitespace so
+ * that words on either side are not joined, and heading text is additionally
+ * collected so that it can be indexed as a separate field.
+ */
+class RenderedTextExtractor {
+
+	/** Tags that do not separate words, such as links and font styles. */
+	private static final Set<String> INLINE_TAGS = new HashSet<String>(Arrays.asList("a", "abbr", "b", "big", "code", "em", "font", "i", "s", "small", "span", "strong", "sub", "sup", "tt", "u"));
+	private final StringBuilder headings = new StringBuilder();
+	private final StringBuilder text;
+
+	/**
+	 * Extract the plain text from rendered HTML.
+	 */
+	RenderedTextExtractor(String html) {
+		this.text = new StringBuilder(html.length() / 2);
+		this.extract(html);
+	}
+
+	/**
+	 * Append text to the output, adding it to the headings if it is
+	 * within a heading element.
+	 */
+	private void append(String html, int start, int end, boolean heading) {
+		if (start >= end) {
+			return;
+		}
+		String value = html.substring(start, end);
+		if (value.indexOf('&') != -1) {
+			value = StringEscapeUtils.unescapeHtml4(value);
+		}
+		this.text.append(value);
+		if (heading) {
+			this.headings.append(value);
+		}
+	}
+
+	/**
+	 *
+	 */
+	private void extract(String html) {
+		int length = html.length();
+		int pos = 0;
+		int headingDepth = 0;
+		String skipUntil = null;
+		while (pos < length) {
+			int tagStart = html.indexOf('<', pos);
+			if (tagStart == -1) {
+				tagStart = length;
+			}
+			if (skipUntil == null) {
+				this.append(html, pos, tagStart, headingDepth > 0);
+			}
+			if (tagStart == length) {
+				break;
+			}
+			if (html.startsWith("<!--", tagStart)) {
+				int commentEnd = html.indexOf("-->", tagStart + 4);
+				pos = (commentEnd == -1) ? length : commentEnd + 3;
+				continue;
+			}
+			int tagEnd = html.indexOf('>', tagStart + 1);
+			if (tagEnd == -1) {
+				break;
+			}
+			String tagName = this.tagName(html, tagStart + 1, tagEnd);
+			boolean closing = (html.charAt(tagStart + 1) == '/');
+			pos = tagEnd + 1;
+			if (skipUntil != null) {
+				if (closing && tagName.equals(skipUntil)) {
+					skipUntil = null;
+				}
+				continue;
+			}
+			if (!closing && (tagName.equals("script") || tagName.equals("style"))) {
+				skipUntil = tagName;
+				continue;
+			}
+			if (tagName.length() == 2 && tagName.charAt(0) == 'h' && tagName.charAt(1) >= '1' && tagName.charAt(1) <= '6') {
+				headingDepth = (closing) ? Math.max(headingDepth - 1, 0) : headingDepth + 1;
+				if (closing) {
+					this.headings.append('\n');
+				}
+			}
+			if (!INLINE_TAGS.contains(tagName)) {
+				this.text.append('\n');
+			}
+		}
+	}
+
+	/**
+	 * Return the text of all headings, separated by newlines.
+	 */
+	String getHeadings() {
+		return this.headings.toString().trim();
+	}
+
+	/**
+	 * Return the plain text of the rendered HTML.
+	 */
+	String getText() {
+		return this.text.toString().trim();
+	}
+
+	/**
+	 * Return the lower-case name of the tag whose content (excluding the
+	 * angle brackets) lies between the given positions.
+	 */
+	private String tagName(String html, int start, int end) {
+		if (start < end && html.charAt(start) == '/') {
+			start++;
+		}
+		int pos = start;
+		while (pos < end && Character.isLetterOrDigit(html.charAt(pos))) {
+			pos++;
+		}
+		return html.substring(start, pos).toLowerCase();
+	}
+}
@@ -0,0 +1,108 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.text.BreakIterator;
+import org.apache.commons.lang3.StringEscapeUtils;
+import org.apache.lucene.search.postingshighlight.Passage;
+import org.apache.lucene.search.postingshighlight.PassageFormatter;
+import org.apache.lucene.search.postingshighlight.PostingsHighlighter;
+
+/**
+ * Highlighter used to generate search result summaries.  Match positions are
+ * read from the offsets stored in the index postings, so stored topic content
+ * is never re-analyzed, and only the first <code>maxLength</code> characters
+ * of each topic are loaded and examined.
+ */
+class SummaryHighlighter extends PostingsHighlighter {
+
+	/** Maximum number of characters of context to display on either side of a match. */
+	private static final int FRAGMENT_CONTEXT = 80;
+	/** Formatter that generates the escaped and highlighted HTML summary. */
+	private static final PassageFormatter FORMATTER = new SummaryFormatter();
+	/** Returned for topics without matches so that the caller can generate a default summary. */
+	private static final Passage[] NO_PASSAGES = new Passage[0];
+
+	/**
+	 *
+	 */
+	SummaryHighlighter(int maxLength) {
+		super(maxLength);
+	}
+
+	/**
+	 *
+	 */
+	protected Passage[] getEmptyHighlight(String fieldName, BreakIterator bi, int maxPassages) {
+		return NO_PASSAGES;
+	}
+
+	/**
+	 *
+	 */
+	protected PassageFormatter getFormatter(String field) {
+		return FORMATTER;
+	}
+
+	/**
+	 * Format passages as escaped HTML with matches wrapped in highlight spans.
+	 * Passages are sentences, which in wiki markup may be very long, so each
+	 * passage is trimmed to a limited amount of context around its matches.
+	 */
+	private static class SummaryFormatter extends PassageFormatter {
+
+		/**
+		 *
+		 */
+		public String format(Passage[] passages, String content) {
+			StringBuilder result = new StringBuilder();
+			int lastEnd = 0;
+			for (Passage passage : passages) {
+				if (passage.getNumMatches() == 0) {
+					continue;
+				}
+				int[] matchStarts = passage.getMatchStarts();
+				int[] matchEnds = passage.getMatchEnds();
+				int start = Math.max(passage.getStartOffset(), matchStarts[0] - FRAGMENT_CONTEXT);
+				int end = Math.min(passage.getEndOffset(), matchEnds[passage.getNumMatches() - 1] + FRAGMENT_CONTEXT);
+				if (result.length() != 0 || start > 0) {
+					result.append("...");
+				}
+				int pos = start;
+				for (int i = 0; i < passage.getNumMatches(); i++) {
+					int matchStart = Math.max(matchStarts[i], pos);
+					int matchEnd = Math.min(matchEnds[i], end);
+					if (matchEnd <= matchStart) {
+						// overlapping match, already highlighted
+						continue;
+					}
+					result.append(StringEscapeUtils.escapeHtml4(content.substring(pos, matchStart)));
+					result.append("<span class=\"highlight\">");
+					result.append(StringEscapeUtils.escapeHtml4(content.substring(matchStart, matchEnd)));
+					result.append("</span>");
+					pos = matchEnd;
+				}
+				result.append(StringEscapeUtils.escapeHtml4(content.substring(pos, end)));
+				lastEnd = end;
+			}
+			if (result.length() != 0 && lastEnd < content.length()) {
+				result.append("...");
+			}
+			return result.toString();
+		}
+	}
+}
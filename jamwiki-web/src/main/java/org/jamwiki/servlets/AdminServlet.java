@@ -16,6 +16,7 @@
  */
 package org.jamwiki.servlets;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -27,17 +28,21 @@ import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.math.NumberUtils;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.jamwiki.Environment;
+import org.jamwiki.SearchEngine;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiConfiguration;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
+import org.jamwiki.db.StatementMonitor;
 import org.jamwiki.db.WikiDatabase;
 import org.jamwiki.mail.WikiMail;
 import org.jamwiki.model.Role;
+import org.jamwiki.model.SearchRebuildStatus;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.model.WikiConfigurationObject;
 import org.jamwiki.model.WikiUser;
+import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.Encryption;
 import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
@@ -76,6 +81,12 @@ public class AdminServlet extends JAMWikiServlet {
 			cache(request, next, pageInfo);
 		} else if (function.equals("search")) {
 			refreshIndex(request, next, pageInfo);
+		} else if (function.equals("searchbackup")) {
+			backupIndex(request, next, pageInfo);
+		} else if (function.equals("searchrestore")) {
+			restoreIndex(request, next, pageInfo);
+		} else if (function.equals("imagedimensions")) {
+			imageDimensions(request, next, pageInfo);
 		} else if (function.equals("properties")) {
 			properties(request, next, pageInfo);
 		} else if (function.equals("logitems")) {
@@ -84,6 +95,8 @@ public class AdminServlet extends JAMWikiServlet {
 			recentChanges(request, next, pageInfo);
 		} else if (function.equals("spam")) {
 			spam(request, next, pageInfo);
+		} else if (function.equals("statements")) {
+			statements(request, next, pageInfo);
 		} else if (function.equals("migrate")) {
 			migrateDatabase(request, next, pageInfo);
 		} else if (function.equals("password")) {
@@ -138,6 +151,24 @@ public class AdminServlet extends JAMWikiServlet {
 		viewAdminSystem(request, next, pageInfo);
 	}
 
+	/**
+	 * Back up the search index for each virtual wiki.
+	 */
+	private void backupIndex(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+			try {
+				File backupPath = WikiBase.getSearchEngine().backupIndex(virtualWiki.getName());
+				if (backupPath != null) {
+					pageInfo.addMessage(new WikiMessage("admin.message.searchbackup", virtualWiki.getName(), backupPath.getAbsolutePath()));
+				}
+			} catch (Exception e) {
+				logger.error("Failure while backing up search index for virtual wiki " + virtualWiki.getName(), e);
+				pageInfo.addError(new WikiMessage("admin.message.searchbackupfail", e.getMessage()));
+			}
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
 	/**
 	 *
 	 */
@@ -152,6 +183,20 @@ public class AdminServlet extends JAMWikiServlet {
 		viewAdminSystem(request, next, pageInfo);
 	}
 
+	/**
+	 * Record image dimensions for uploaded files that do not yet have them.
+	 */
+	private void imageDimensions(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		try {
+			int count = ImageUtil.backfillImageDimensions();
+			pageInfo.addMessage(new WikiMessage("admin.message.imagedimensions", Integer.toString(count)));
+		} catch (Exception e) {
+			logger.error("Failure while recording image dimensions", e);
+			pageInfo.addError(new WikiMessage("admin.message.imagedimensionsfail", e.getMessage()));
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
 	/**
 	 *
 	 */
@@ -266,8 +311,11 @@ public class AdminServlet extends JAMWikiServlet {
 			setBooleanProperty(props, request, Environment.PROP_TOPIC_USE_SHOW_CHANGES);
 			setProperty(props, request, Environment.PROP_BASE_META_DESCRIPTION);
 			setProperty(props, request, Environment.PROP_BASE_SEARCH_ENGINE);
+			setBooleanProperty(props, request, Environment.PROP_SEARCH_INDEX_RENDERED);
 			setProperty(props, request, Environment.PROP_TOPIC_EDITOR);
 			setNumericProperty(props, request, Environment.PROP_MAX_TOPIC_VERSION_EXPORT, pageInfo.getErrors());
+			setProperty(props, request, Environment.PROP_TOPIC_CACHE_CONTROL);
+			setBooleanProperty(props, request, Environment.PROP_TOPIC_PAGE_CACHE);
 			// parser
 			setProperty(props, request, Environment.PROP_PARSER_CLASS);
 			setBooleanProperty(props, request, Environment.PROP_PARSER_ALLOW_HTML);
@@ -319,6 +367,7 @@ public class AdminServlet extends JAMWikiServlet {
 			setProperty(props, request, Environment.PROP_FILE_DIR_FULL_PATH);
 			setProperty(props, request, Environment.PROP_FILE_DIR_RELATIVE_PATH);
 			setProperty(props, request, Environment.PROP_FILE_SERVER_URL);
+			setBooleanProperty(props, request, Environment.PROP_FILE_CONTENT_ADDRESSED);
 			setProperty(props, request, Environment.PROP_SHARED_UPLOAD_VIRTUAL_WIKI);
 			setProperty(props, request, Environment.PROP_FILE_BLACKLIST_TYPE);
 			setProperty(props, request, Environment.PROP_FILE_BLACKLIST);
@@ -408,15 +457,45 @@ public class AdminServlet extends JAMWikiServlet {
 	}
 
 	/**
-	 *
+	 * Restore the search index for each virtual wiki from its most recent
+	 * backup.
+	 */
+	private void restoreIndex(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		for (VirtualWiki virtualWiki : WikiBase.getDataHandler().getVirtualWikiList()) {
+			try {
+				WikiBase.getSearchEngine().restoreIndex(virtualWiki.getName(), null);
+				pageInfo.addMessage(new WikiMessage("admin.message.searchrestore", virtualWiki.getName()));
+			} catch (Exception e) {
+				logger.error("Failure while restoring search index for virtual wiki " + virtualWiki.getName(), e);
+				pageInfo.addError(new WikiMessage("admin.message.searchrestorefail", e.getMessage()));
+			}
+		}
+		viewAdminSystem(request, next, pageInfo);
+	}
+
+	/**
+	 * Start a rebuild of the search index.  Rebuilding a large index can take
+	 * far longer than a request should, so the rebuild runs on a background
+	 * thread and its progress is displayed on the maintenance page.
 	 */
 	private void refreshIndex(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
-		try {
-			WikiBase.getSearchEngine().refreshIndex();
-			pageInfo.addMessage(new WikiMessage("admin.message.indexrefreshed"));
-		} catch (Exception e) {
-			logger.error("Failure while refreshing search index", e);
-			pageInfo.addError(new WikiMessage("admin.message.searchrefresh", e.getMessage()));
+		final SearchEngine searchEngine = WikiBase.getSearchEngine();
+		SearchRebuildStatus status = searchEngine.getRebuildStatus();
+		if (status != null && status.isRunning()) {
+			pageInfo.addError(new WikiMessage("admin.message.indexrefreshrunning"));
+		} else {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					try {
+						searchEngine.refreshIndex();
+					} catch (Exception e) {
+						logger.error("Failure while refreshing search index", e);
+					}
+				}
+			}, "JAMWiki search index rebuild");
+			thread.setDaemon(true);
+			thread.start();
+			pageInfo.addMessage(new WikiMessage("admin.message.indexrefreshstarted"));
 		}
 		viewAdminSystem(request, next, pageInfo);
 	}
@@ -542,6 +621,15 @@ public class AdminServlet extends JAMWikiServlet {
 		viewAdminSystem(request, next, pageInfo);
 	}
 
+	/**
+	 *
+	 */
+	private void statements(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+		StatementMonitor.getInstance().reset();
+		pageInfo.addMessage(new WikiMessage("admin.maintenance.message.statements"));
+		viewAdminSystem(request, next, pageInfo);
+	}
+
 	/**
 	 *
 	 */
@@ -593,5 +681,9 @@ public class AdminServlet extends JAMWikiServlet {
 		next.addObject("allowExport", allowExport);
 		List<WikiConfigurationObject> queryHandlers = WikiConfiguration.getInstance().getQueryHandlers();
 		next.addObject("queryHandlers", queryHandlers);
+		next.addObject("statementStatistics", StatementMonitor.getInstance().getStatistics());
+		next.addObject("slowStatements", StatementMonitor.getInstance().getSlowStatements());
+		next.addObject("slowStatementLimit", StatementMonitor.getInstance().getSlowStatementThreshold());
+		next.addObject("searchRebuildStatus", WikiBase.getSearchEngine().getRebuildStatus());
 	}
 }
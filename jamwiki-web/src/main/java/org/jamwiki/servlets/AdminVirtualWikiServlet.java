@@ -71,6 +71,10 @@ public class AdminVirtualWikiServlet extends JAMWikiServlet {
 		} else if (function.equals("commoniwiki")) {
 			commonInterwiki(request, next, pageInfo);
 		}
+		if (!StringUtils.isBlank(function)) {
+			// virtual wiki, namespace and interwiki changes affect the display of every page
+			ServletUtil.resetTopicValidators();
+		}
 		return next;
 	}
 
@@ -18,21 +18,23 @@ package org.jamwiki.servlets;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.InputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.text.ParseException;
 import javax.servlet.ServletException;
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.springframework.dao.TransientDataAccessResourceException;
 import org.springframework.web.servlet.ModelAndView;
 import org.apache.commons.io.IOUtils;
 import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
-import org.jamwiki.model.ImageData;
+import org.jamwiki.db.FileDataStream;
 import org.jamwiki.model.WikiFile;
 import org.jamwiki.parser.image.ImageUtil;
 import org.jamwiki.utils.WikiLogger;
@@ -43,6 +45,15 @@ import org.jamwiki.utils.WikiLogger;
 public class ImageServlet extends JAMWikiServlet {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(ImageServlet.class.getName());
+	/** Size of the buffer used when copying file data to the response. */
+	private static final int BUFFER_SIZE = 8192;
+	/** Number of seconds a client should wait before retrying a database file request that could not be served. */
+	private static final int RETRY_AFTER_SECONDS = 5;
+	/** Request attribute set by containers (such as Tomcat) that can send files directly to the socket. */
+	private static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+	private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+	private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+	private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
 
 	/**
 	 * This servlet requires slightly different initialization parameters from most
@@ -61,27 +72,118 @@ public class ImageServlet extends JAMWikiServlet {
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws ServletException, IOException {
 		File file = this.retrieveFile(request);
+		if (file == null && ImageUtil.isImagesOnFS()) {
+			// resized images are generated on first request rather than during parsing
+			file = ImageUtil.generateResizedImage(this.retrieveFilename(request));
+		}
 		if (file == null) {
 			this.streamFileFromDatabase(request, response);
 		} else {
-			this.streamFileFromFileSystem(file, response);
+			this.streamFileFromFileSystem(file, request, response);
 		}
 		return null;
 	}
 
+	/**
+	 * Set the response headers for file content and handle conditional and
+	 * range requests.  A <code>Range</code> request is honored so that clients
+	 * can resume interrupted downloads or request only part of a large file,
+	 * unless an <code>If-Range</code> header indicates that the client's
+	 * partial copy is out of date.
+	 *
+	 * @param length The total length of the file content in bytes.
+	 * @param etag A strong entity tag identifying the file content.
+	 * @param lastModified The time the file content was last modified, or -1
+	 *  if unknown.
+	 * @return A two-element array containing the offset and number of bytes of
+	 *  file content to write, or <code>null</code> if no content should be
+	 *  written because the file has not been modified or because the requested
+	 *  range cannot be satisfied.
+	 */
+	private long[] initializeContentResponse(HttpServletRequest request, HttpServletResponse response, String mimeType, long length, String etag, long lastModified) {
+		response.setHeader("ETag", etag);
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+		}
+		if (ServletUtil.isNotModified(request, etag, lastModified)) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return null;
+		}
+		response.setContentType(mimeType);
+		response.setHeader("Accept-Ranges", "bytes");
+		long[] range = null;
+		if (this.isRangeCurrent(request, etag, lastModified)) {
+			range = ServletUtil.parseByteRange(request.getHeader("Range"), length);
+		}
+		if (range != null && range.length == 0) {
+			response.setHeader("Content-Range", "bytes */" + length);
+			response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			return null;
+		}
+		long offset = 0;
+		long count = length;
+		if (range != null) {
+			offset = range[0];
+			count = range[1] - range[0] + 1;
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+		}
+		// setContentLength() is limited to int values
+		response.setHeader("Content-Length", Long.toString(count));
+		return new long[] {offset, count};
+	}
+
+	/**
+	 * Return <code>true</code> if there is no <code>If-Range</code> request
+	 * header or if its entity tag or date matches the current file content.
+	 */
+	private boolean isRangeCurrent(HttpServletRequest request, String etag, long lastModified) {
+		String ifRange = request.getHeader("If-Range");
+		if (ifRange == null || ifRange.equals(etag)) {
+			return true;
+		}
+		if (lastModified < 0 || ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return false;
+		}
+		try {
+			// HTTP dates have one-second resolution
+			return (request.getDateHeader("If-Range") / 1000 == lastModified / 1000);
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
 	/**
 	 * If a file corresponding to the request is on the filesystem return it,
 	 * otherwise return <code>null</code>.
 	 */
 	private File retrieveFile(HttpServletRequest request) {
+		File file = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), this.retrieveFilename(request));
+		return (file.exists()) ? file : null;
+	}
+
+	/**
+	 * Return the decoded request path relative to the servlet context.
+	 */
+	private String retrieveFilename(HttpServletRequest request) {
 		String filename = request.getRequestURI().substring(request.getContextPath().length());
 		try {
 			filename = URLDecoder.decode(filename, "UTF-8");
 		} catch (UnsupportedEncodingException e) {
 			// this doesn't happen - UTF-8 is always supported
 		}
-		File file = new File(Environment.getValue(Environment.PROP_BASE_FILE_DIR), filename);
-		return (file.exists()) ? file : null;
+		return filename;
+	}
+
+	/**
+	 * Open a stream over the data for a database file, or return <code>null</code>
+	 * if no matching record exists.  The returned stream must be closed.
+	 */
+	private FileDataStream retrieveFileData(int fileId, int fileVersionId, int resized) {
+		if (fileVersionId != 0) {
+			return WikiBase.getDataHandler().getImageVersionDataStream(fileVersionId, resized);
+		}
+		return WikiBase.getDataHandler().getImageDataStream(fileId, resized);
 	}
 
 	/**
@@ -102,25 +204,44 @@ public class ImageServlet extends JAMWikiServlet {
 		int fileId = Integer.parseInt(args[1].toString());
 		int fileVersionId = Integer.parseInt(args[2].toString());
 		int resized = Integer.parseInt(args[3].toString());
-		ImageData imageData;
-		if (fileVersionId != 0) {
-			imageData = WikiBase.getDataHandler().getImageVersionData(fileVersionId, resized);
-		} else {
-			imageData = WikiBase.getDataHandler().getImageData(fileId, resized);
+		FileDataStream fileData = null;
+		try {
+			fileData = this.retrieveFileData(fileId, fileVersionId, resized);
+			if (fileData == null && resized > 0 && ImageUtil.generateResizedImage(fileId, fileVersionId, resized)) {
+				// resized images are generated on first request rather than during parsing
+				fileData = this.retrieveFileData(fileId, fileVersionId, resized);
+			}
+		} catch (TransientDataAccessResourceException e) {
+			// the maximum number of database downloads are in progress
+			logger.info("Unable to serve database file: " + e.getMessage() + " / request=" + request.getRequestURI());
+			response.setHeader("Retry-After", Integer.toString(RETRY_AFTER_SECONDS));
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			return;
 		}
-		if (imageData == null) {
+		if (fileData == null) {
 			logger.debug("Database file does not exist: fileId=" + fileId + " / fileVersionId=" + fileVersionId + " / resized=" + resized + " / request=" + request.getRequestURI());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
 			return;
 		}
-		response.setContentType(imageData.mimeType);
-		response.setContentLength(imageData.data.length);
-		OutputStream os = null;
 		try {
-			os = response.getOutputStream();
-			os.write(imageData.data);
+			// file version data never changes once written, so the version and
+			// resized width uniquely identify the content
+			String etag = "\"" + fileData.getFileVersionId() + "-" + resized + "\"";
+			long[] content = this.initializeContentResponse(request, response, fileData.getMimeType(), fileData.getLength(), etag, -1);
+			if (content == null) {
+				return;
+			}
+			// content is copied using a fixed-size buffer regardless of the file size
+			OutputStream out = null;
+			try {
+				out = response.getOutputStream();
+				IOUtils.copyLarge(fileData, out, content[0], content[1], new byte[BUFFER_SIZE]);
+				out.flush();
+			} finally {
+				IOUtils.closeQuietly(out);
+			}
 		} finally {
-			IOUtils.closeQuietly(os);
+			fileData.close();
 		}
 	}
 
@@ -129,9 +250,7 @@ public class ImageServlet extends JAMWikiServlet {
 	 * directly via Tomcat or Apache, but allows files to be stored outside of the
 	 * webapp and thus keeps wiki data (files) separate from application code.
 	 */
-	private void streamFileFromFileSystem(File file, HttpServletResponse response) throws ServletException, IOException {
-		ServletOutputStream out = null;
-		InputStream in = null;
+	private void streamFileFromFileSystem(File file, HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
 		if (file.isDirectory() || !file.canRead()) {
 			logger.debug("File does not exist: " + file.getAbsolutePath());
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -141,12 +260,41 @@ public class ImageServlet extends JAMWikiServlet {
 		if (mimeType == null) {
 			mimeType = WikiFile.UNKNOWN_MIME_TYPE;
 		}
+		long length = file.length();
+		long lastModified = file.lastModified();
+		// the size and modification time change whenever the file is replaced
+		String etag = "\"" + length + "-" + lastModified + "\"";
+		long[] content = this.initializeContentResponse(request, response, mimeType, length, etag, lastModified);
+		if (content == null) {
+			return;
+		}
+		if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE))) {
+			// the container will write the file directly to the socket once
+			// the request completes, without copying it through the JVM
+			request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+			request.setAttribute(SENDFILE_START_ATTRIBUTE, Long.valueOf(content[0]));
+			request.setAttribute(SENDFILE_END_ATTRIBUTE, Long.valueOf(content[0] + content[1]));
+			return;
+		}
+		FileInputStream in = null;
+		OutputStream out = null;
 		try {
-			response.setContentType(mimeType);
-			response.setContentLength((int)file.length());
-			out = response.getOutputStream();
 			in = new FileInputStream(file);
-			IOUtils.copy(in, out);
+			out = response.getOutputStream();
+			// FileChannel.transferTo() copies through a cached direct buffer rather
+			// than allocating a new heap buffer for every request
+			FileChannel channel = in.getChannel();
+			WritableByteChannel target = Channels.newChannel(out);
+			long position = content[0];
+			long end = content[0] + content[1];
+			while (position < end) {
+				long transferred = channel.transferTo(position, end - position, target);
+				if (transferred <= 0) {
+					// file was truncated while being served
+					break;
+				}
+				position += transferred;
+			}
 			out.flush();
 		} finally {
 			IOUtils.closeQuietly(in);
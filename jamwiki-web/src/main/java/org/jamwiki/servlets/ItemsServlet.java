@@ -16,6 +16,7 @@
  */
 package org.jamwiki.servlets;
 
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -23,6 +24,7 @@ import java.util.Set;
 import java.util.TreeSet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.model.Namespace;
@@ -155,19 +157,27 @@ public class ItemsServlet extends JAMWikiServlet {
 	}
 
 	/**
-	 *
+	 * Display topics in a namespace, optionally limited to topics whose names
+	 * start with a prefix.  Topic names are retrieved from an in-memory index
+	 * rather than from the database.
 	 */
-	private void viewTopics(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) {
+	private void viewTopics(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String virtualWiki = pageInfo.getVirtualWikiName();
 		Pagination pagination = ServletUtil.loadPagination(request, next);
 		// find the current namespace and topic type
 		int namespaceId = (request.getParameter("namespace") == null) ? Namespace.MAIN_ID : Integer.valueOf(request.getParameter("namespace"));
-		TopicType topicType1 = (namespaceId == Namespace.FILE_ID) ? TopicType.FILE : TopicType.ARTICLE;
-		TopicType topicType2 = WikiUtil.findTopicTypeForNamespace(WikiBase.getDataHandler().lookupNamespaceById(namespaceId));
-		// retrieve a list of topics for the namespace
-		Map<Integer, String> items = WikiBase.getDataHandler().lookupTopicByType(virtualWiki, topicType1, topicType2, namespaceId, pagination);
+		String prefix = StringUtils.trimToEmpty(request.getParameter("prefix"));
+		Namespace namespace = WikiBase.getDataHandler().lookupNamespaceById(namespaceId);
+		List<String> items = new ArrayList<String>();
+		if (namespace != null) {
+			TopicType topicType1 = (namespaceId == Namespace.FILE_ID) ? TopicType.FILE : TopicType.ARTICLE;
+			TopicType topicType2 = WikiUtil.findTopicTypeForNamespace(namespace);
+			// retrieve a list of topics for the namespace
+			items = WikiBase.getDataHandler().lookupTopicTitles(virtualWiki, namespace, topicType1, topicType2, prefix, pagination);
+		}
 		next.addObject("itemCount", items.size());
-		next.addObject("items", items.values());
+		next.addObject("items", items);
+		next.addObject("showPrefix", true);
 		if (items.isEmpty()) {
 			pageInfo.addMessage(new WikiMessage("alltopics.message.none"));
 		}
@@ -175,6 +185,9 @@ public class ItemsServlet extends JAMWikiServlet {
 		if (request.getParameter("namespace") != null) {
 			rootUrl += "?namespace=" + namespaceId;
 		}
+		if (!StringUtils.isBlank(prefix)) {
+			rootUrl += ((rootUrl.indexOf('?') == -1) ? "?" : "&") + "prefix=" + URLEncoder.encode(prefix, "UTF-8");
+		}
 		next.addObject("rootUrl", rootUrl);
 		// add a map of namespace id & label for display on the front end.
 		Map<Integer, String> namespaceMap = ServletUtil.loadNamespaceDisplayMap(virtualWiki, ServletUtil.retrieveUserLocale(request));
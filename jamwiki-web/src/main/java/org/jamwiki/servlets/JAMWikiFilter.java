@@ -25,7 +25,9 @@ import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
 import org.jamwiki.authentication.JAMWikiAuthenticationConstants;
+import org.jamwiki.db.DatabaseConnection;
 import org.jamwiki.model.VirtualWiki;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
@@ -38,6 +40,8 @@ import org.jamwiki.utils.WikiUtil;
 public class JAMWikiFilter implements Filter {
 
 	private static final WikiLogger logger = WikiLogger.getLogger(JAMWikiFilter.class.getName());
+	/** Session attribute holding the time of the user's most recent database write. */
+	private static final String SESSION_LAST_WRITE_TIME = "org.jamwiki.servlets.JAMWikiFilter.lastWriteTime";
 	private String encoding = "UTF-8";
 
 	/**
@@ -59,7 +63,24 @@ public class JAMWikiFilter implements Filter {
 		if (redirectNeeded(request, response)) {
 			return;
 		}
-		chain.doFilter(request, response);
+		// route the user's reads to the primary database for a short time after
+		// they write so that they see their own changes
+		long lastWriteTime = this.retrieveLastWriteTime(request);
+		long previous = DatabaseConnection.bindLastWriteTime(lastWriteTime);
+		if (request instanceof HttpServletRequest && "POST".equals(((HttpServletRequest)request).getMethod())) {
+			// writes are made by form posts, so create the session now while its
+			// cookie can still be sent; the response may be committed by the time
+			// the write time is stored
+			((HttpServletRequest)request).getSession(true);
+		}
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			if (DatabaseConnection.getLastWriteTime() > lastWriteTime) {
+				this.storeLastWriteTime(request, response, DatabaseConnection.getLastWriteTime());
+			}
+			DatabaseConnection.bindLastWriteTime(previous);
+		}
 	}
 
 	/**
@@ -134,6 +155,39 @@ public class JAMWikiFilter implements Filter {
 		return true;
 	}
 
+	/**
+	 * Return the time of the most recent database write made by the user
+	 * making the current request, or zero if there is no such write.
+	 */
+	private long retrieveLastWriteTime(ServletRequest request) {
+		if (!(request instanceof HttpServletRequest)) {
+			return 0;
+		}
+		HttpSession session = ((HttpServletRequest)request).getSession(false);
+		Long lastWriteTime = (session == null) ? null : (Long)session.getAttribute(SESSION_LAST_WRITE_TIME);
+		return (lastWriteTime == null) ? 0 : lastWriteTime;
+	}
+
+	/**
+	 * Record the time of a database write made by the user making the current
+	 * request.  A session is created for users without one if the response has
+	 * not yet been committed, so that anonymous writers also read their own
+	 * changes.
+	 */
+	private void storeLastWriteTime(ServletRequest request, ServletResponse response, long lastWriteTime) {
+		if (!(request instanceof HttpServletRequest)) {
+			return;
+		}
+		try {
+			HttpSession session = ((HttpServletRequest)request).getSession(!response.isCommitted());
+			if (session != null) {
+				session.setAttribute(SESSION_LAST_WRITE_TIME, lastWriteTime);
+			}
+		} catch (IllegalStateException e) {
+			// session was invalidated during the request, for example by a logout
+		}
+	}
+
 	/**
 	 * Determine whether or not to redirect to the upgrade page.
 	 */
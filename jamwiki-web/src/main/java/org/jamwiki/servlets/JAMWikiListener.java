@@ -16,10 +16,13 @@
  */
 package org.jamwiki.servlets;
 
+import java.io.IOException;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
+import org.jamwiki.WikiBase;
 import org.jamwiki.db.WikiDatabase;
 import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 
 /**
@@ -28,6 +31,8 @@ import org.jamwiki.utils.WikiUtil;
  */
 public class JAMWikiListener implements ServletContextListener {
 
+	private static final WikiLogger logger = WikiLogger.getLogger(JAMWikiListener.class.getName());
+
 	/**
 	 * Initialize the database connection pool and disk cache.
 	 *
@@ -41,11 +46,18 @@ public class JAMWikiListener implements ServletContextListener {
 	}
 
 	/**
-	 * Clean up the database connection pool and disk cache.
+	 * Stop the search index threads, then clean up the database connection
+	 * pool and disk cache.
 	 *
 	 * @see javax.servlet.ServletContextListener#contextDestroyed(javax.servlet.ServletContextEvent)
 	 */
 	public void contextDestroyed(ServletContextEvent arg0) {
+		try {
+			// the search index queue reads topics, so stop it before closing the database
+			WikiBase.shutdown();
+		} catch (IOException e) {
+			logger.error("Failure while shutting down the search engine", e);
+		}
 		WikiDatabase.shutdown();
 		WikiCache.shutdown();
 	}
@@ -0,0 +1,387 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import javax.servlet.http.HttpSession;
+import org.apache.commons.lang3.StringUtils;
+import org.jamwiki.Environment;
+import org.jamwiki.utils.WikiCache;
+import org.jamwiki.utils.WikiLogger;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.web.servlet.i18n.LocaleChangeInterceptor;
+import org.springframework.web.servlet.i18n.SessionLocaleResolver;
+
+/**
+ * Serve topic pages to anonymous users from a cache of gzipped responses,
+ * avoiding the cost of request dispatching, JSP rendering and compression for
+ * pages that are identical for all anonymous users.  Only pages that have been
+ * marked as cacheable by {@link ServletUtil#setTopicValidators} are stored, and
+ * a cached page is only served while the topic validator that it was rendered
+ * with is current, so any change to the topic, its templates or the layout
+ * pages causes the page to be rendered again.  This filter must be mapped after
+ * the Spring Security filter chain so that anonymous users can be identified.
+ */
+public class PageCacheFilter implements Filter {
+
+	private static final WikiLogger logger = WikiLogger.getLogger(PageCacheFilter.class.getName());
+	/** Cache of gzipped topic pages served to anonymous users. */
+	private static final WikiCache<String, CachedPage> CACHE_PAGES = new WikiCache<String, CachedPage>("org.jamwiki.servlets.PageCacheFilter.CACHE_PAGES");
+	/** Request attribute used to indicate that the page being rendered may be cached. */
+	private static final String PARAMETER_CACHED_PAGE = "org.jamwiki.servlets.PageCacheFilter.cachedPage";
+
+	/**
+	 * Standard servlet filter destroy() method implementation.
+	 */
+	public void destroy() {
+	}
+
+	/**
+	 * Serve the requested page from the cache if possible, otherwise render it
+	 * normally and add it to the cache if it has been marked as cacheable.
+	 */
+	public void doFilter(ServletRequest servletRequest, ServletResponse servletResponse, FilterChain chain) throws IOException, ServletException {
+		if (!(servletRequest instanceof HttpServletRequest) || !(servletResponse instanceof HttpServletResponse) || !this.isCacheableRequest((HttpServletRequest)servletRequest)) {
+			chain.doFilter(servletRequest, servletResponse);
+			return;
+		}
+		HttpServletRequest request = (HttpServletRequest)servletRequest;
+		HttpServletResponse response = (HttpServletResponse)servletResponse;
+		String key = this.cacheKey(request);
+		CachedPage cachedPage = CACHE_PAGES.retrieveFromCache(key);
+		boolean current = (cachedPage != null && ServletUtil.isTopicValidatorCurrent(cachedPage.virtualWiki, cachedPage.topicName, cachedPage.versions, cachedPage.lastModified));
+		// the response differs depending on whether the client accepts gzip, and
+		// pages for other users or locales must not be served from shared caches
+		response.setHeader("Vary", "Accept-Encoding, " + ServletUtil.TOPIC_VARY_HEADERS);
+		if (current) {
+			if (ServletUtil.isNotModified(request, cachedPage.etag, cachedPage.lastModified)) {
+				ServletUtil.setTopicValidatorHeaders(response, cachedPage.etag, cachedPage.lastModified);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				return;
+			}
+			if (this.isGzipAccepted(request)) {
+				this.writeCachedPage(response, cachedPage);
+				return;
+			}
+		}
+		CaptureResponseWrapper responseWrapper = new CaptureResponseWrapper(request, response);
+		chain.doFilter(request, responseWrapper);
+		if (current) {
+			return;
+		}
+		cachedPage = (CachedPage)request.getAttribute(PARAMETER_CACHED_PAGE);
+		byte[] content = responseWrapper.getCapturedContent();
+		if (cachedPage == null || content == null || !this.isCacheableResponse(request, responseWrapper)) {
+			return;
+		}
+		cachedPage.contentType = responseWrapper.getContentType();
+		cachedPage.content = this.gzip(content);
+		CACHE_PAGES.addToCache(key, cachedPage);
+		if (logger.isDebugEnabled()) {
+			logger.debug("Cached page " + key + " (" + content.length + " bytes, " + cachedPage.content.length + " compressed)");
+		}
+	}
+
+	/**
+	 * Build the cache key for a request.  The URL identifies the virtual wiki
+	 * and topic, and the locale determines the language of the page layout.
+	 */
+	private String cacheKey(HttpServletRequest request) {
+		// match the locale resolution performed by the Spring SessionLocaleResolver
+		Locale locale = null;
+		HttpSession session = request.getSession(false);
+		if (session != null) {
+			locale = (Locale)session.getAttribute(SessionLocaleResolver.LOCALE_SESSION_ATTRIBUTE_NAME);
+		}
+		if (locale == null) {
+			locale = request.getLocale();
+		}
+		String url = request.getRequestURI();
+		if (request.getQueryString() != null) {
+			url += "?" + request.getQueryString();
+		}
+		return locale + "|" + url;
+	}
+
+	/**
+	 * Compress page content for storage in the cache.
+	 */
+	private byte[] gzip(byte[] content) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4);
+		GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+		try {
+			gzip.write(content);
+		} finally {
+			gzip.close();
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Standard servlet filter init() method implementation.
+	 */
+	public void init(FilterConfig config) throws ServletException {
+	}
+
+	/**
+	 * Determine whether a request may be served from or added to the cache.
+	 * Only GET requests from anonymous users are cached, and requests that
+	 * change the session locale must always be processed.
+	 */
+	private boolean isCacheableRequest(HttpServletRequest request) {
+		if (!Environment.getBooleanValue(Environment.PROP_TOPIC_PAGE_CACHE)) {
+			return false;
+		}
+		if (!request.getMethod().equals("GET")) {
+			return false;
+		}
+		if (!(SecurityContextHolder.getContext().getAuthentication() instanceof AnonymousAuthenticationToken)) {
+			return false;
+		}
+		return (request.getParameter(LocaleChangeInterceptor.DEFAULT_PARAM_NAME) == null);
+	}
+
+	/**
+	 * Determine whether a rendered page may be added to the cache.  Pages for
+	 * a session that is not yet tracked by a cookie may contain session IDs
+	 * in URLs and must not be shared.
+	 */
+	private boolean isCacheableResponse(HttpServletRequest request, CaptureResponseWrapper responseWrapper) {
+		if (responseWrapper.status != HttpServletResponse.SC_OK) {
+			return false;
+		}
+		HttpSession session = request.getSession(false);
+		return (session == null || request.isRequestedSessionIdFromCookie());
+	}
+
+	/**
+	 * Determine whether the client accepts gzip-encoded content.
+	 */
+	private boolean isGzipAccepted(HttpServletRequest request) {
+		return StringUtils.contains(request.getHeader("Accept-Encoding"), "gzip");
+	}
+
+	/**
+	 * Mark the page being rendered for the current request as cacheable.  This
+	 * method is called once the topic validators for the page are known, and the
+	 * page will be added to the cache if rendering completes successfully.
+	 *
+	 * @param request The servlet request object.
+	 * @param virtualWiki The virtual wiki for the page being displayed.
+	 * @param topicName The name of the topic being displayed.
+	 * @param versions The topic validator versions for the page.
+	 * @param lastModified The topic validator modification date for the page.
+	 * @param etag The entity tag sent with the page.
+	 */
+	protected static void setPageCacheable(HttpServletRequest request, String virtualWiki, String topicName, String versions, long lastModified, String etag) {
+		request.setAttribute(PARAMETER_CACHED_PAGE, new CachedPage(virtualWiki, topicName, versions, lastModified, etag));
+	}
+
+	/**
+	 * Write a cached page to the response.
+	 */
+	private void writeCachedPage(HttpServletResponse response, CachedPage cachedPage) throws IOException {
+		if (cachedPage.contentType != null) {
+			response.setContentType(cachedPage.contentType);
+		}
+		response.setHeader("Content-Encoding", "gzip");
+		response.setContentLength(cachedPage.content.length);
+		ServletUtil.setTopicValidatorHeaders(response, cachedPage.etag, cachedPage.lastModified);
+		response.getOutputStream().write(cachedPage.content);
+	}
+
+	/**
+	 * A gzipped topic page along with the topic validator information needed to
+	 * determine whether the page is still current.
+	 */
+	private static final class CachedPage {
+
+		private final String virtualWiki;
+		private final String topicName;
+		private final String versions;
+		private final long lastModified;
+		private final String etag;
+		private String contentType;
+		private byte[] content;
+
+		/**
+		 *
+		 */
+		CachedPage(String virtualWiki, String topicName, String versions, long lastModified, String etag) {
+			this.virtualWiki = virtualWiki;
+			this.topicName = topicName;
+			this.versions = versions;
+			this.lastModified = lastModified;
+			this.etag = etag;
+		}
+	}
+
+	/**
+	 * Response wrapper that records the response status and, for pages marked as
+	 * cacheable, a copy of the page content written to the response.  Content
+	 * is passed through to the client as it is written.
+	 */
+	private static final class CaptureResponseWrapper extends HttpServletResponseWrapper {
+
+		private final HttpServletRequest request;
+		private CharArrayWriter capture = null;
+		private PrintWriter writer = null;
+		private boolean streamUsed = false;
+		private int status = HttpServletResponse.SC_OK;
+
+		/**
+		 *
+		 */
+		CaptureResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+			super(response);
+			this.request = request;
+		}
+
+		/**
+		 * Return the captured page content, or <code>null</code> if the page was
+		 * not marked as cacheable before its content was written.
+		 */
+		byte[] getCapturedContent() throws IOException {
+			if (this.capture == null || this.streamUsed) {
+				return null;
+			}
+			return this.capture.toString().getBytes(this.getCharacterEncoding());
+		}
+
+		/**
+		 *
+		 */
+		public ServletOutputStream getOutputStream() throws IOException {
+			// binary output is not captured
+			this.streamUsed = true;
+			return super.getOutputStream();
+		}
+
+		/**
+		 *
+		 */
+		public PrintWriter getWriter() throws IOException {
+			if (this.writer != null) {
+				return this.writer;
+			}
+			if (this.request.getAttribute(PARAMETER_CACHED_PAGE) == null) {
+				this.writer = super.getWriter();
+				return this.writer;
+			}
+			final Writer target = super.getWriter();
+			this.capture = new CharArrayWriter();
+			final CharArrayWriter copy = this.capture;
+			this.writer = new PrintWriter(new Writer() {
+				public void close() throws IOException {
+					target.close();
+				}
+				public void flush() throws IOException {
+					target.flush();
+				}
+				public void write(char[] cbuf, int off, int len) throws IOException {
+					target.write(cbuf, off, len);
+					copy.write(cbuf, off, len);
+				}
+			});
+			return this.writer;
+		}
+
+		/**
+		 *
+		 */
+		public void reset() {
+			super.reset();
+			this.status = HttpServletResponse.SC_OK;
+			this.resetCapture();
+		}
+
+		/**
+		 *
+		 */
+		public void resetBuffer() {
+			super.resetBuffer();
+			this.resetCapture();
+		}
+
+		/**
+		 * Discard captured content after the response buffer has been reset.
+		 */
+		private void resetCapture() {
+			if (this.capture != null) {
+				this.capture.reset();
+			}
+		}
+
+		/**
+		 *
+		 */
+		public void sendError(int sc) throws IOException {
+			this.status = sc;
+			super.sendError(sc);
+		}
+
+		/**
+		 *
+		 */
+		public void sendError(int sc, String msg) throws IOException {
+			this.status = sc;
+			super.sendError(sc, msg);
+		}
+
+		/**
+		 *
+		 */
+		public void sendRedirect(String location) throws IOException {
+			this.status = HttpServletResponse.SC_MOVED_TEMPORARILY;
+			super.sendRedirect(location);
+		}
+
+		/**
+		 *
+		 */
+		public void setStatus(int sc) {
+			this.status = sc;
+			super.setStatus(sc);
+		}
+
+		/**
+		 *
+		 */
+		@SuppressWarnings("deprecation")
+		public void setStatus(int sc, String sm) {
+			this.status = sc;
+			super.setStatus(sc, sm);
+		}
+	}
+}
@@ -16,6 +16,7 @@
  */
 package org.jamwiki.servlets;
 
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -27,8 +28,9 @@ import org.apache.commons.lang3.math.NumberUtils;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiConfiguration;
 import org.jamwiki.WikiMessage;
-import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
 import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.servlet.ModelAndView;
@@ -97,10 +99,30 @@ public class SearchServlet extends JAMWikiServlet {
 			next.addObject("selectedNamespaces", selectedNamespaceMap);
 		}
 		if (!StringUtils.isBlank(searchField)) {
-			// grab search engine instance and find results
-			List<SearchResultEntry> results = WikiBase.getSearchEngine().findResults(virtualWiki, searchField, selectedNamespaces);
+			// grab search engine instance and find the current page of results
+			Pagination pagination = ServletUtil.loadPagination(request, next);
+			String cursor = request.getParameter("cursor");
+			SearchResultPage resultPage = WikiBase.getSearchEngine().findResults(virtualWiki, searchField, selectedNamespaces, cursor, pagination.getNumResults());
 			next.addObject("searchField", searchField);
-			next.addObject("results", results);
+			next.addObject("results", resultPage.getResults());
+			next.addObject("totalHits", resultPage.getTotalHits());
+			if (resultPage.isReset()) {
+				// the requested page is no longer available, so tell the user that they are back at the first page
+				next.addObject("searchReset", true);
+			}
+			StringBuilder searchUrl = new StringBuilder("Special:Search?text=").append(URLEncoder.encode(searchField, "UTF-8"));
+			if (selectedNamespaces != null) {
+				for (Integer namespaceId : selectedNamespaces) {
+					searchUrl.append("&ns=").append(namespaceId);
+				}
+			}
+			searchUrl.append("&num=").append(pagination.getNumResults());
+			if (!StringUtils.isBlank(cursor) && !resultPage.isReset()) {
+				next.addObject("firstPageUrl", searchUrl.toString());
+			}
+			if (resultPage.getNextCursor() != null) {
+				next.addObject("nextPageUrl", searchUrl.toString() + "&cursor=" + URLEncoder.encode(resultPage.getNextCursor(), "UTF-8"));
+			}
 		}
 		pageInfo.setContentJsp(JSP_SEARCH);
 		pageInfo.setSpecial(true);
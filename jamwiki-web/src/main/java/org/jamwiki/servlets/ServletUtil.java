@@ -18,13 +18,19 @@ package org.jamwiki.servlets;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.TreeMap;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
@@ -35,8 +41,10 @@ import org.jamwiki.Environment;
 import org.jamwiki.WikiBase;
 import org.jamwiki.WikiException;
 import org.jamwiki.WikiMessage;
+import org.jamwiki.WikiVersion;
 import org.jamwiki.authentication.JAMWikiAuthenticationConstants;
 import org.jamwiki.authentication.WikiUserDetailsImpl;
+import org.jamwiki.db.AnsiDataHandler;
 import org.jamwiki.model.Category;
 import org.jamwiki.model.Namespace;
 import org.jamwiki.model.Role;
@@ -55,6 +63,7 @@ import org.jamwiki.parser.ParserUtil;
 import org.jamwiki.parser.WikiLink;
 import org.jamwiki.utils.Pagination;
 import org.jamwiki.utils.Utilities;
+import org.jamwiki.utils.WikiCache;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.jamwiki.web.utils.SpamFilter;
@@ -63,6 +72,7 @@ import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.authentication.AuthenticationCredentialsNotFoundException;
 import org.springframework.security.web.savedrequest.HttpSessionRequestCache;
 import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.support.RequestContextUtils;
 
 /**
  * Utility methods useful when processing JAMWiki servlet requests.
@@ -76,6 +86,20 @@ public class ServletUtil {
 	public static final String PARAMETER_TOPIC_OBJECT = "topicObject";
 	/** The name of the output parameter used to indicate that Spring should redirect to another servlet. */
 	protected static final String SPRING_REDIRECT_PREFIX = "redirect:";
+	/** Request headers that topic pages and their entity tags depend on, sent in the <code>Vary</code> response header. */
+	protected static final String TOPIC_VARY_HEADERS = "Cookie, Accept-Language";
+	/** Cache of the topics that each topic page depended on when it was last rendered. */
+	private static final WikiCache<String, TopicValidator> CACHE_TOPIC_VALIDATORS = new WikiCache<String, TopicValidator>("org.jamwiki.servlets.ServletUtil.CACHE_TOPIC_VALIDATORS");
+	/** Topics that are displayed as part of the layout of every topic page. */
+	private static final List<String> LAYOUT_TOPICS = new ArrayList<String>();
+
+	static {
+		LAYOUT_TOPICS.add(WikiBase.SPECIAL_PAGE_SIDEBAR);
+		LAYOUT_TOPICS.add(WikiBase.SPECIAL_PAGE_HEADER);
+		LAYOUT_TOPICS.add(WikiBase.SPECIAL_PAGE_FOOTER);
+		LAYOUT_TOPICS.add(WikiBase.SPECIAL_PAGE_SYSTEM_CSS);
+		LAYOUT_TOPICS.add(WikiBase.SPECIAL_PAGE_CUSTOM_CSS);
+	}
 
 	/**
 	 *
@@ -105,6 +129,57 @@ public class ServletUtil {
 		pageInfo.setVirtualWikiLinks(virtualWikiLinks);
 	}
 
+	/**
+	 * Build an entity tag for a topic page.  The tag changes whenever the topic,
+	 * anything that it depends on, or the user-specific parts of the page change.
+	 */
+	private static String buildTopicETag(HttpServletRequest request, String virtualWiki, Topic topic, TopicValidator validator) throws WikiException {
+		StringBuilder variant = new StringBuilder(validator.versions);
+		variant.append('|').append(validator.lastModified);
+		variant.append('|').append(RequestContextUtils.getLocale(request));
+		if (ServletUtil.currentUserDetails().hasRole(Role.ROLE_ANONYMOUS)) {
+			variant.append("|anonymous");
+		} else {
+			// menus and edit links differ by user, and the watch tab depends on
+			// the user's watchlist
+			variant.append('|').append(ServletUtil.currentWikiUser().getUserId());
+			variant.append('|').append(ServletUtil.currentWatchlist(request, virtualWiki).containsTopic(topic.getName()));
+		}
+		if (request.getQueryString() != null) {
+			variant.append('|').append(request.getQueryString());
+		}
+		return "\"" + DigestUtils.md5Hex(variant.toString()) + "\"";
+	}
+
+	/**
+	 * Build a string containing the versions of a topic and all topics that it
+	 * depends on.  Templates and files contribute their current version, while
+	 * other linked topics only contribute whether or not they exist since that
+	 * determines how links to them are displayed.
+	 */
+	private static String buildTopicVersions(String virtualWiki, Topic topic, Collection<String> dependencies, Set<String> templates) {
+		StringBuilder versions = new StringBuilder();
+		versions.append(topic.getTopicId()).append('.').append(topic.getCurrentVersionId());
+		List<Topic> dependencyTopics = WikiBase.getDataHandler().lookupTopics(topic.getVirtualWiki(), dependencies);
+		int i = 0;
+		for (String dependency : dependencies) {
+			Topic dependencyTopic = dependencyTopics.get(i++);
+			versions.append('|');
+			if (dependencyTopic == null) {
+				versions.append('-');
+			} else if (templates.contains(dependency) || dependencyTopic.getNamespace().getId().equals(Namespace.FILE_ID)) {
+				versions.append(dependencyTopic.getCurrentVersionId());
+			} else {
+				versions.append('+');
+			}
+		}
+		for (Topic layoutTopic : WikiBase.getDataHandler().lookupTopics(virtualWiki, LAYOUT_TOPICS)) {
+			versions.append('|').append((layoutTopic == null) ? "-" : layoutTopic.getCurrentVersionId());
+		}
+		versions.append('|').append(WikiVersion.CURRENT_WIKI_VERSION);
+		return versions.toString();
+	}
+
 	/**
 	 * Retrieve the content of a topic from the cache, or if it is not yet in
 	 * the cache then add it to the cache.
@@ -404,6 +479,123 @@ public class ServletUtil {
 		return true;
 	}
 
+	/**
+	 * Determine whether a conditional request can be answered with a
+	 * <code>304 Not Modified</code> response.  An <code>If-None-Match</code>
+	 * header takes precedence over an <code>If-Modified-Since</code> header,
+	 * as required by RFC 7232.
+	 *
+	 * @param request The servlet request object.
+	 * @param etag The entity tag for the current content.
+	 * @param lastModified The time the content was last modified, or -1 if the
+	 *  modification time is unknown.
+	 * @return <code>true</code> if the client's cached copy is current.
+	 */
+	protected static boolean isNotModified(HttpServletRequest request, String etag, long lastModified) {
+		String ifNoneMatch = request.getHeader("If-None-Match");
+		if (ifNoneMatch != null) {
+			for (String value : StringUtils.split(ifNoneMatch, ',')) {
+				value = value.trim();
+				if (value.startsWith("W/")) {
+					// weak comparison is used for If-None-Match
+					value = value.substring(2);
+				}
+				if (value.equals("*") || value.equals(etag)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		if (lastModified < 0) {
+			return false;
+		}
+		long ifModifiedSince;
+		try {
+			ifModifiedSince = request.getDateHeader("If-Modified-Since");
+		} catch (IllegalArgumentException e) {
+			// invalid dates are ignored
+			return false;
+		}
+		// HTTP dates have one-second resolution
+		return (ifModifiedSince != -1 && lastModified / 1000 <= ifModifiedSince / 1000);
+	}
+
+	/**
+	 * Determine whether a conditional request for a topic page can be answered
+	 * with a <code>304 Not Modified</code> response without parsing the topic.
+	 * This is only possible if the topic has previously been displayed with
+	 * validators set by {@link #setTopicValidators} and nothing that the page
+	 * depends on has changed since then.  If the request can be answered then
+	 * the response status and headers are set and the caller should not
+	 * generate any further output.
+	 *
+	 * @param request The servlet request object.
+	 * @param response The servlet response object.
+	 * @param virtualWiki The virtual wiki for the page being displayed.
+	 * @param topic The topic being displayed.
+	 * @return <code>true</code> if a <code>304 Not Modified</code> response
+	 *  has been set.
+	 * @throws WikiException Thrown if any error occurs while retrieving user
+	 *  information.
+	 */
+	protected static boolean isTopicNotModified(HttpServletRequest request, HttpServletResponse response, String virtualWiki, Topic topic) throws WikiException {
+		if (!ServletUtil.isTopicValidatable(request, topic)) {
+			return false;
+		}
+		TopicValidator validator = CACHE_TOPIC_VALIDATORS.retrieveFromCache(virtualWiki + '/' + topic.getName());
+		if (validator == null) {
+			return false;
+		}
+		String versions = ServletUtil.buildTopicVersions(virtualWiki, topic, validator.dependencies, validator.templates);
+		if (!versions.equals(validator.versions)) {
+			// something has changed since the page was last rendered
+			return false;
+		}
+		String etag = ServletUtil.buildTopicETag(request, virtualWiki, topic, validator);
+		// pages for logged-in users are personalized, so only the entity tag is used
+		long lastModified = (ServletUtil.currentUserDetails().hasRole(Role.ROLE_ANONYMOUS)) ? validator.lastModified : -1;
+		if (!ServletUtil.isNotModified(request, etag, lastModified)) {
+			return false;
+		}
+		ServletUtil.setTopicValidatorHeaders(response, etag, lastModified);
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		return true;
+	}
+
+	/**
+	 * Determine whether a page rendered using a topic validator is still
+	 * current, meaning that the validator recorded for the topic has not been
+	 * replaced and nothing that the page depends on has changed since it was
+	 * recorded.
+	 *
+	 * @param virtualWiki The virtual wiki for the page.
+	 * @param topicName The name of the topic displayed by the page.
+	 * @param versions The topic validator versions when the page was rendered.
+	 * @param lastModified The topic validator modification date when the page
+	 *  was rendered.
+	 * @return <code>true</code> if the page is still current.
+	 */
+	protected static boolean isTopicValidatorCurrent(String virtualWiki, String topicName, String versions, long lastModified) {
+		TopicValidator validator = CACHE_TOPIC_VALIDATORS.retrieveFromCache(virtualWiki + '/' + topicName);
+		if (validator == null || validator.lastModified != lastModified || !validator.versions.equals(versions)) {
+			return false;
+		}
+		Topic topic = WikiBase.getDataHandler().lookupTopic(virtualWiki, topicName, false);
+		return (topic != null && versions.equals(ServletUtil.buildTopicVersions(virtualWiki, topic, validator.dependencies, validator.templates)));
+	}
+
+	/**
+	 * Determine whether validators can be generated for a topic page.  Redirects
+	 * and category pages display content from other topics that is not tracked
+	 * when the page is parsed.
+	 */
+	private static boolean isTopicValidatable(HttpServletRequest request, Topic topic) {
+		if (!request.getMethod().equals("GET") && !request.getMethod().equals("HEAD")) {
+			return false;
+		}
+		return (topic.getTopicId() > 0 && topic.getTopicType() != TopicType.REDIRECT && topic.getTopicType() != TopicType.CATEGORY);
+	}
+
 	/**
 	 * Examine the request object, and see if the requested topic or page
 	 * matches a given value.
@@ -463,6 +655,18 @@ public class ServletUtil {
 		}
 		// manually process pagination
 		List<Category> paginatedCategories = Pagination.retrievePaginatedSubset(pagination, categoryTopics);
+		// retrieve all displayed topics at once so that rendering each link or
+		// image does not require a separate query
+		List<String> childTopicNames = new ArrayList<String>(subCategories.keySet());
+		for (Category category : categoryImages) {
+			childTopicNames.add(category.getChildTopicName());
+		}
+		for (Category category : paginatedCategories) {
+			childTopicNames.add(category.getChildTopicName());
+		}
+		for (i = 0; i < childTopicNames.size(); i += AnsiDataHandler.BULK_LOOKUP_SIZE) {
+			WikiBase.getDataHandler().lookupTopics(virtualWiki, childTopicNames.subList(i, Math.min(i + AnsiDataHandler.BULK_LOOKUP_SIZE, childTopicNames.size())));
+		}
 		next.addObject("categoryTopics", paginatedCategories);
 		next.addObject("numCategoryTopics", categoryTopics.size());
 		next.addObject("categoryImages", categoryImages);
@@ -517,6 +721,56 @@ public class ServletUtil {
 		return pagination;
 	}
 
+	/**
+	 * Parse the value of an HTTP <code>Range</code> header.  Only a single byte
+	 * range is supported - a request for multiple ranges, or a header that
+	 * cannot be parsed, is ignored and the full content should be returned.
+	 *
+	 * @param range The <code>Range</code> header value, such as "bytes=0-499",
+	 *  "bytes=500-" or "bytes=-500".  May be <code>null</code>.
+	 * @param length The total length in bytes of the content being requested.
+	 * @return <code>null</code> if the full content should be returned, an
+	 *  empty array if the range cannot be satisfied, or a two-element array
+	 *  containing the first and last byte positions (inclusive) of the range.
+	 */
+	protected static long[] parseByteRange(String range, long length) {
+		if (StringUtils.isBlank(range) || !range.startsWith("bytes=") || range.indexOf(',') != -1) {
+			return null;
+		}
+		String spec = range.substring("bytes=".length()).trim();
+		int pos = spec.indexOf('-');
+		if (pos == -1) {
+			return null;
+		}
+		long first;
+		long last;
+		try {
+			if (pos == 0) {
+				// suffix range such as "bytes=-500", the final 500 bytes
+				long suffix = Long.parseLong(spec.substring(1).trim());
+				if (suffix <= 0 || length == 0) {
+					return new long[0];
+				}
+				first = Math.max(0, length - suffix);
+				last = length - 1;
+			} else {
+				first = Long.parseLong(spec.substring(0, pos).trim());
+				String lastValue = spec.substring(pos + 1).trim();
+				last = (lastValue.length() == 0) ? Long.MAX_VALUE : Long.parseLong(lastValue);
+			}
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (first < 0 || last < first) {
+			// syntactically invalid range
+			return null;
+		}
+		if (first >= length) {
+			return new long[0];
+		}
+		return new long[] {first, Math.min(last, length - 1)};
+	}
+
 	/**
 	 * Utility method for parsing a multipart servlet request.  This method returns
 	 * a list of FileItem objects that corresponds to the request.
@@ -617,6 +871,16 @@ public class ServletUtil {
 		return request.getLocale();
 	}
 
+	/**
+	 * Remove all validators recorded for topic pages, forcing the next request
+	 * for each page to be rendered in full.  This method should be called
+	 * after any change that alters the display of all pages, such as a change
+	 * to virtual wiki or namespace configuration.
+	 */
+	protected static void resetTopicValidators() {
+		CACHE_TOPIC_VALIDATORS.removeAllFromCache();
+	}
+
 	/**
 	 * Given a virtual wiki name, return a <code>VirtualWiki</code> object.
 	 * If there is no virtual wiki available with the given name then the
@@ -646,6 +910,70 @@ public class ServletUtil {
 		return virtualWiki;
 	}
 
+	/**
+	 * Set the response headers for a topic page.  Topic pages depend on the
+	 * user, identified by the session cookie, and on the locale, so a
+	 * <code>Vary</code> header is sent to prevent shared caches from serving or
+	 * validating one variant of a page for a request that needs another.
+	 * Filters that set their own <code>Vary</code> header must include
+	 * {@link #TOPIC_VARY_HEADERS} in it.
+	 */
+	protected static void setTopicValidatorHeaders(HttpServletResponse response, String etag, long lastModified) {
+		response.setHeader("ETag", etag);
+		if (!response.containsHeader("Vary")) {
+			response.setHeader("Vary", TOPIC_VARY_HEADERS);
+		}
+		if (lastModified >= 0) {
+			response.setDateHeader("Last-Modified", lastModified);
+			String cacheControl = Environment.getValue(Environment.PROP_TOPIC_CACHE_CONTROL);
+			if (!StringUtils.isBlank(cacheControl)) {
+				response.setHeader("Cache-Control", cacheControl);
+			}
+		} else {
+			// personalized pages must not be stored by shared caches
+			response.setHeader("Cache-Control", "private, no-cache");
+		}
+	}
+
+	/**
+	 * Record the topics that a topic page depends on after the topic has been
+	 * parsed, and set <code>ETag</code>, <code>Last-Modified</code> and
+	 * <code>Cache-Control</code> headers so that later requests for the page
+	 * can be answered by {@link #isTopicNotModified}.  Pages for anonymous users
+	 * are also marked as cacheable for the {@link PageCacheFilter}.
+	 *
+	 * @param request The servlet request object.
+	 * @param response The servlet response object.
+	 * @param virtualWiki The virtual wiki for the page being displayed.
+	 * @param topic The topic being displayed.
+	 * @param parserOutput The parser output from parsing the topic.
+	 * @throws WikiException Thrown if any error occurs while retrieving user
+	 *  information.
+	 */
+	protected static void setTopicValidators(HttpServletRequest request, HttpServletResponse response, String virtualWiki, Topic topic, ParserOutput parserOutput) throws WikiException {
+		if (!ServletUtil.isTopicValidatable(request, topic) || !parserOutput.getCacheable()) {
+			return;
+		}
+		Set<String> dependencies = new LinkedHashSet<String>(parserOutput.getLinks());
+		dependencies.addAll(parserOutput.getCategories().keySet());
+		Set<String> templates = new HashSet<String>(parserOutput.getTemplates());
+		String versions = ServletUtil.buildTopicVersions(virtualWiki, topic, dependencies, templates);
+		String key = virtualWiki + '/' + topic.getName();
+		TopicValidator validator = CACHE_TOPIC_VALIDATORS.retrieveFromCache(key);
+		if (validator == null || !versions.equals(validator.versions)) {
+			// HTTP dates have one-second resolution
+			long lastModified = (System.currentTimeMillis() / 1000) * 1000;
+			validator = new TopicValidator(dependencies, templates, versions, lastModified);
+			CACHE_TOPIC_VALIDATORS.addToCache(key, validator);
+		}
+		String etag = ServletUtil.buildTopicETag(request, virtualWiki, topic, validator);
+		long lastModified = (ServletUtil.currentUserDetails().hasRole(Role.ROLE_ANONYMOUS)) ? validator.lastModified : -1;
+		ServletUtil.setTopicValidatorHeaders(response, etag, lastModified);
+		if (lastModified >= 0) {
+			PageCacheFilter.setPageCacheable(request, virtualWiki, topic.getName(), validator.versions, validator.lastModified, etag);
+		}
+	}
+
 	/**
 	 * Generate a ParserInput object appropriate for the given topic parameters.
 	 */
@@ -730,9 +1058,10 @@ public class ServletUtil {
 	 * @param allowRedirect Setting this parameter to <code>true</code> will force the
 	 *  redirection target to be displayed (rather than a redirect page) if the topic is a
 	 *  redirect.
+	 * @return The parser output from parsing the topic.
 	 * @throws WikiException Thrown if any error occurs while retrieving or parsing the topic.
 	 */
-	protected static void viewTopic(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo, WikiMessage pageTitle, Topic topic, boolean sectionEdit, boolean allowRedirect) throws WikiException {
+	protected static ParserOutput viewTopic(HttpServletRequest request, ModelAndView next, WikiPageInfo pageInfo, WikiMessage pageTitle, Topic topic, boolean sectionEdit, boolean allowRedirect) throws WikiException {
 		// FIXME - what should the default be for topics that don't exist?
 		if (topic == null) {
 			throw new WikiException(new WikiMessage("common.exception.notopic"));
@@ -775,6 +1104,7 @@ public class ServletUtil {
 			}
 			pageInfo.setPageTitle(pageTitle);
 		}
+		return parserOutput;
 	}
 
 	/**
@@ -859,4 +1189,26 @@ public class ServletUtil {
 			pageInfo.setSpecial(true);
 		}
 	}
+
+	/**
+	 * The topics that a topic page depended on when it was last rendered, along
+	 * with their versions at that time.
+	 */
+	private static final class TopicValidator {
+
+		private final Collection<String> dependencies;
+		private final Set<String> templates;
+		private final String versions;
+		private final long lastModified;
+
+		/**
+		 *
+		 */
+		TopicValidator(Collection<String> dependencies, Set<String> templates, String versions, long lastModified) {
+			this.dependencies = dependencies;
+			this.templates = templates;
+			this.versions = versions;
+			this.lastModified = lastModified;
+		}
+	}
 }
@@ -0,0 +1,108 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.jamwiki.WikiBase;
+import org.jamwiki.parser.LinkUtil;
+import org.jamwiki.parser.WikiLink;
+import org.springframework.web.servlet.ModelAndView;
+
+/**
+ * Return topic name suggestions for a partially typed topic name as JSON,
+ * for use by the search box.  The response uses the OpenSearch suggestions
+ * format, an array containing the search text followed by an array of topic
+ * names ordered by popularity.  Suggestions are served from an in-memory
+ * index, so this servlet does not query the database.
+ */
+public class SuggestServlet extends JAMWikiServlet {
+
+	/** Number of suggestions returned if no limit is specified. */
+	private static final int DEFAULT_LIMIT = 10;
+	/** Maximum number of suggestions that may be requested. */
+	private static final int MAXIMUM_LIMIT = 100;
+
+	/**
+	 * This servlet returns raw JSON rather than a page layout.
+	 */
+	public SuggestServlet() {
+		this.layout = false;
+	}
+
+	/**
+	 * Append a string to a JSON response, escaping characters as required.  The
+	 * characters <code>&lt;</code>, <code>&gt;</code> and <code>&amp;</code> are
+	 * also escaped so that the response cannot be interpreted as HTML.
+	 */
+	private static void appendJsonString(StringBuilder json, String value) {
+		json.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				json.append('\\').append(c);
+			} else if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '\u2028' || c == '\u2029') {
+				json.append(String.format("\\u%04x", (int)c));
+			} else {
+				json.append(c);
+			}
+		}
+		json.append('"');
+	}
+
+	/**
+	 *
+	 */
+	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+		String virtualWiki = pageInfo.getVirtualWikiName();
+		String text = StringUtils.defaultString(request.getParameter("text"));
+		int limit = Math.min(NumberUtils.toInt(request.getParameter("limit"), DEFAULT_LIMIT), MAXIMUM_LIMIT);
+		List<String> suggestions = new ArrayList<String>();
+		if (!StringUtils.isBlank(text)) {
+			// determine the namespace from any namespace prefix in the search text
+			WikiLink wikiLink = LinkUtil.parseWikiLink(request.getContextPath(), virtualWiki, text);
+			if (wikiLink.getNamespace() != null) {
+				String prefix = StringUtils.defaultString(wikiLink.getArticle());
+				suggestions = WikiBase.getDataHandler().lookupTopicSuggestions(virtualWiki, wikiLink.getNamespace(), prefix, limit);
+			}
+		}
+		StringBuilder json = new StringBuilder("[");
+		appendJsonString(json, text);
+		json.append(",[");
+		for (int i = 0; i < suggestions.size(); i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			appendJsonString(json, suggestions.get(i));
+		}
+		json.append("]]");
+		response.setContentType("application/json");
+		response.setCharacterEncoding("UTF-8");
+		// suggestions may be briefly out of date, so allow short-term caching
+		response.setHeader("Cache-Control", "max-age=60");
+		PrintWriter out = response.getWriter();
+		out.print(json.toString());
+		out.close();
+		// do not load defaults or redirect - return as raw JSON
+		return null;
+	}
+}
@@ -23,6 +23,7 @@ import org.jamwiki.WikiBase;
 import org.jamwiki.WikiMessage;
 import org.jamwiki.model.Topic;
 import org.jamwiki.model.VirtualWiki;
+import org.jamwiki.parser.ParserOutput;
 import org.jamwiki.utils.WikiLogger;
 import org.jamwiki.utils.WikiUtil;
 import org.springframework.web.servlet.ModelAndView;
@@ -44,14 +45,21 @@ public class TopicServlet extends JAMWikiServlet {
 	 * @return A <code>ModelAndView</code> object to be handled by the rest of the Spring framework.
 	 */
 	public ModelAndView handleJAMWikiRequest(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
-		view(request, response, next, pageInfo);
+		if (!view(request, response, next, pageInfo)) {
+			// not modified, so there is no page to render
+			return null;
+		}
 		return next;
 	}
 
 	/**
+	 * Display the topic, or if the client already has a current copy of the page
+	 * then set a <code>304 Not Modified</code> response without parsing the topic.
 	 *
+	 * @return <code>false</code> if a <code>304 Not Modified</code> response was
+	 *  set and no page should be rendered.
 	 */
-	private void view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
+	private boolean view(HttpServletRequest request, HttpServletResponse response, ModelAndView next, WikiPageInfo pageInfo) throws Exception {
 		String topicName = WikiUtil.getTopicFromURI(request);
 		if (StringUtils.isBlank(topicName)) {
 			String virtualWikiName = pageInfo.getVirtualWikiName();
@@ -63,6 +71,9 @@ public class TopicServlet extends JAMWikiServlet {
 			virtualWiki = VirtualWiki.defaultVirtualWiki().getName();
 		}
 		Topic topic = ServletUtil.initializeTopic(virtualWiki, topicName);
+		if (ServletUtil.isTopicNotModified(request, response, virtualWiki, topic)) {
+			return false;
+		}
 		if (topic.getTopicId() <= 0) {
 			// topic does not exist, return 404 and display empty page
 			response.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -72,6 +83,8 @@ public class TopicServlet extends JAMWikiServlet {
 			next.addObject("notopic", wikiMessage);
 		}
 		WikiMessage pageTitle = new WikiMessage("topic.title", topicName);
-		ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, true, true);
+		ParserOutput parserOutput = ServletUtil.viewTopic(request, next, pageInfo, pageTitle, topic, true, true);
+		ServletUtil.setTopicValidators(request, response, virtualWiki, topic, parserOutput);
+		return true;
 	}
 }
\ No newline at end of file
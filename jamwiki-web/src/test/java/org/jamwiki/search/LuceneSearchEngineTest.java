@@ -0,0 +1,370 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.Namespace;
+import org.jamwiki.model.SearchRebuildStatus;
+import org.jamwiki.model.SearchResultEntry;
+import org.jamwiki.model.SearchResultPage;
+import org.jamwiki.model.Topic;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ * Tests for the Lucene search engine.
+ */
+public class LuceneSearchEngineTest extends JAMWikiUnitTest {
+
+	private static final String VIRTUAL_WIKI = "en";
+	private LuceneSearchEngine searchEngine;
+
+	/**
+	 *
+	 */
+	@Before
+	public void setupSearchEngine() {
+		this.searchEngine = new LuceneSearchEngine();
+	}
+
+	/**
+	 *
+	 */
+	@After
+	public void shutdownSearchEngine() throws Exception {
+		this.searchEngine.shutdown();
+	}
+
+	/**
+	 *
+	 */
+	private Topic createTopic(String pageName, String content) {
+		Topic topic = new Topic(VIRTUAL_WIKI, Namespace.namespace(Namespace.MAIN_ID), pageName);
+		topic.setTopicContent(content);
+		return topic;
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testAddUpdateDelete() throws Exception {
+		Topic topic = this.createTopic("Lucene Engine Test", "xyzzyalpha content");
+		this.searchEngine.addToIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		List<SearchResultEntry> results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyalpha", null);
+		assertEquals("Added topic not found", 1, results.size());
+		assertEquals("Incorrect topic found", topic.getName(), results.get(0).getTopic());
+		topic.setTopicContent("xyzzybeta content");
+		this.searchEngine.updateInIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		assertTrue("Old content still found", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyalpha", null).isEmpty());
+		assertEquals("Updated topic not found", 1, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzybeta", null).size());
+		this.searchEngine.deleteFromIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		assertTrue("Deleted topic still found", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzybeta", null).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBackupAndRestore() throws Exception {
+		Topic topic = this.createTopic("Lucene Backup Test", "xyzzylambda content");
+		this.searchEngine.addToIndex(topic);
+		// uncommitted changes are included in the backup
+		File backupPath = this.searchEngine.backupIndex(VIRTUAL_WIKI);
+		try {
+			assertTrue("Backup directory not created", backupPath.isDirectory());
+			this.searchEngine.deleteFromIndex(topic);
+			this.searchEngine.commit(VIRTUAL_WIKI);
+			assertTrue("Deleted topic still found", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzylambda", null).isEmpty());
+			this.searchEngine.restoreIndex(VIRTUAL_WIKI, null);
+			assertEquals("Topic not found after restore", 1, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzylambda", null).size());
+			// the restored index accepts updates
+			this.searchEngine.deleteFromIndex(topic);
+			this.searchEngine.commit(VIRTUAL_WIKI);
+			assertTrue("Deleted topic still found after restore", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzylambda", null).isEmpty());
+			try {
+				this.searchEngine.restoreIndex(VIRTUAL_WIKI, new File(backupPath.getParentFile(), "missing"));
+				fail("Restore from an invalid backup should fail");
+			} catch (IOException e) {
+				// expected
+			}
+		} finally {
+			FileUtils.deleteQuietly(backupPath);
+		}
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testBackgroundRefresh() throws Exception {
+		Topic topic = this.createTopic("Lucene Refresh Test", "xyzzygamma content");
+		this.searchEngine.addToIndex(topic);
+		// no explicit commit, so the change should become visible once the
+		// background thread refreshes the searcher
+		List<SearchResultEntry> results = null;
+		for (int i = 0; i < 50; i++) {
+			results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzygamma", null);
+			if (!results.isEmpty()) {
+				break;
+			}
+			Thread.sleep(100);
+		}
+		assertEquals("Topic not visible after background refresh", 1, results.size());
+		this.searchEngine.deleteFromIndex(topic);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testCachedResults() throws Exception {
+		Topic topic = this.createTopic("Lucene Cache Test", "xyzzyepsilon content");
+		this.searchEngine.addToIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		List<SearchResultEntry> results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyepsilon", null);
+		assertEquals("Added topic not found", 1, results.size());
+		// callers receive a copy, so modifying the results does not affect the cache
+		results.clear();
+		assertEquals("Cached results modified", 1, this.searchEngine.findResults(VIRTUAL_WIKI, "  xyzzyepsilon ", null).size());
+		// any change to the index invalidates the cached results
+		this.searchEngine.deleteFromIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		assertTrue("Stale cached results returned", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyepsilon", null).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testHighlightedSummary() throws Exception {
+		StringBuilder content = new StringBuilder("Intro <b>markup</b>. ");
+		for (int i = 0; i < 50; i++) {
+			content.append("Filler sentence number ").append(i).append(". ");
+		}
+		content.append("The xyzzyzeta term & more.");
+		Topic topic = this.createTopic("Lucene Xyzzyeta Test", content.toString());
+		this.searchEngine.addToIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		List<SearchResultEntry> results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyzeta", null);
+		assertEquals("Added topic not found", 1, results.size());
+		String summary = results.get(0).getSummary();
+		assertTrue("Match not highlighted: " + summary, summary.contains("<span class=\"highlight\">xyzzyzeta</span>"));
+		assertTrue("Summary not escaped: " + summary, summary.contains("&amp;"));
+		assertFalse("Summary contains unmatched content: " + summary, summary.contains("Filler sentence number 1."));
+		// a match on the topic name only produces the default summary
+		results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyeta", null);
+		assertEquals("Added topic not found by name", 1, results.size());
+		assertTrue("Incorrect default summary: " + results.get(0).getSummary(), results.get(0).getSummary().startsWith("Intro &lt;b&gt;markup"));
+		this.searchEngine.deleteFromIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testNamespaceFilter() throws Exception {
+		Topic mainTopic = this.createTopic("Lucene Namespace Test", "xyzzykappa content");
+		Topic talkTopic = new Topic(VIRTUAL_WIKI, Namespace.namespace(Namespace.COMMENTS_ID), "Lucene Namespace Test");
+		talkTopic.setTopicContent("xyzzykappa comments");
+		this.searchEngine.addToIndex(mainTopic);
+		this.searchEngine.addToIndex(talkTopic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		List<Integer> namespaces = new ArrayList<Integer>();
+		namespaces.add(Namespace.MAIN_ID);
+		List<SearchResultEntry> results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzykappa", namespaces);
+		assertEquals("Namespace filter not applied", 1, results.size());
+		assertEquals("Incorrect topic found", mainTopic.getName(), results.get(0).getTopic());
+		namespaces.add(Namespace.COMMENTS_ID);
+		assertEquals("Multiple namespace filter not applied", 2, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzykappa", namespaces).size());
+		assertEquals("Unfiltered search failed", 2, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzykappa", null).size());
+		// filters are cached independently of namespace order
+		List<Integer> reversed = new ArrayList<Integer>();
+		reversed.add(Namespace.COMMENTS_ID);
+		reversed.add(Namespace.MAIN_ID);
+		assertSame("Namespace filter not cached", this.searchEngine.retrieveNamespaceFilter(namespaces), this.searchEngine.retrieveNamespaceFilter(reversed));
+		this.searchEngine.deleteFromIndex(mainTopic);
+		this.searchEngine.deleteFromIndex(talkTopic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPagedResults() throws Exception {
+		List<Topic> topics = new ArrayList<Topic>();
+		for (int i = 0; i < 5; i++) {
+			Topic topic = this.createTopic("Lucene Paging Test " + i, "xyzzyiota content " + i);
+			topics.add(topic);
+			this.searchEngine.addToIndex(topic);
+		}
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		Set<String> found = new HashSet<String>();
+		String cursor = null;
+		int pages = 0;
+		do {
+			SearchResultPage page = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, cursor, 2);
+			assertEquals("Incorrect total hits", 5, page.getTotalHits());
+			assertTrue("Incorrect page size", page.getResults().size() <= 2);
+			for (SearchResultEntry result : page.getResults()) {
+				assertTrue("Duplicate result " + result.getTopic(), found.add(result.getTopic()));
+			}
+			cursor = page.getNextCursor();
+			pages++;
+		} while (cursor != null && pages < 10);
+		assertEquals("Incorrect number of pages", 3, pages);
+		assertEquals("Not all results found", 5, found.size());
+		// an invalid cursor returns the first page
+		SearchResultPage invalidPage = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, "invalid", 2);
+		assertEquals("Invalid cursor not ignored", 2, invalidPage.getResults().size());
+		assertTrue("Invalid cursor not reported", invalidPage.isReset());
+		// oversized pages are limited rather than failing
+		assertEquals("Oversized page failed", 5, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, null, Integer.MAX_VALUE).getResults().size());
+		// a cursor continues from the same view of the index after the index changes
+		SearchResultPage firstPage = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, null, 2);
+		SearchResultPage secondPage = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, firstPage.getNextCursor(), 2);
+		Topic addedTopic = this.createTopic("Lucene Paging Test 5", "xyzzyiota content 5");
+		topics.add(addedTopic);
+		this.searchEngine.addToIndex(addedTopic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		assertEquals("Updated index not searched", 6, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, null, 2).getTotalHits());
+		SearchResultPage continuedPage = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyiota", null, firstPage.getNextCursor(), 2);
+		assertFalse("Cursor reset after index change", continuedPage.isReset());
+		assertEquals("Cursor not continued from the original searcher", 5, continuedPage.getTotalHits());
+		assertEquals("Cursor not continued from the original searcher", secondPage.getResults().get(0).getTopic(), continuedPage.getResults().get(0).getTopic());
+		assertEquals("Cursor not continued from the original searcher", secondPage.getResults().get(1).getTopic(), continuedPage.getResults().get(1).getTopic());
+		for (Topic topic : topics) {
+			this.searchEngine.deleteFromIndex(topic);
+		}
+		this.searchEngine.commit(VIRTUAL_WIKI);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRenderedContent() throws Exception {
+		Topic topic = this.createTopic("Lucene Rendered Test", "== Xyzzymu heading ==\nSome '''xyzzynu''' text in [[Lucene Link Target|xyzzyxi]].");
+		Environment.setBooleanValue(Environment.PROP_SEARCH_INDEX_RENDERED, true);
+		try {
+			this.searchEngine.addToIndex(topic);
+			this.searchEngine.commit(VIRTUAL_WIKI);
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_SEARCH_INDEX_RENDERED, false);
+		}
+		assertEquals("Heading text not indexed", 1, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzymu", null).size());
+		List<SearchResultEntry> results = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzynu", null);
+		assertEquals("Rendered text not indexed", 1, results.size());
+		assertFalse("Summary contains wiki markup: " + results.get(0).getSummary(), results.get(0).getSummary().contains("'''"));
+		assertEquals("Link text not indexed", 1, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyxi", null).size());
+		assertTrue("Link target indexed", this.searchEngine.findResults(VIRTUAL_WIKI, "\"Lucene Link Target\"", null).isEmpty());
+		this.searchEngine.deleteFromIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testRefreshIndex() throws Exception {
+		// a document that does not correspond to any topic in the database
+		Topic topic = this.createTopic("Lucene Rebuild Test", "xyzzydelta content");
+		this.searchEngine.addToIndex(topic);
+		this.searchEngine.addToIndex(this.createTopic("Lucene Rebuild Test 2", "xyzzydelta content 2"));
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		assertEquals("Added topic not found", 2, this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzydelta", null).size());
+		String cursor = this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzydelta", null, null, 1).getNextCursor();
+		assertNotNull("No cursor returned", cursor);
+		this.searchEngine.refreshIndex();
+		SearchRebuildStatus status = this.searchEngine.getRebuildStatus();
+		assertNotNull("Rebuild status not available", status);
+		assertFalse("Rebuild still running", status.isRunning());
+		assertNull("Rebuild failed", status.getError());
+		assertTrue("No topics indexed", status.getProcessed() > 0);
+		assertEquals("Rebuild not complete", 100, status.getPercentComplete());
+		// the rebuilt index replaces the old index entirely
+		assertTrue("Stale document found after rebuild", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzydelta", null).isEmpty());
+		assertFalse("Rebuilt index is empty", this.searchEngine.findResults(VIRTUAL_WIKI, "content", null).isEmpty());
+		// cursors from the old index cannot be used with the rebuilt index
+		assertTrue("Cursor not reset after rebuild", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzydelta", null, cursor, 1).isReset());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSearchDuringRebuild() throws Exception {
+		Topic topic = this.createTopic("Lucene Swap Test", "xyzzyomicron content");
+		this.searchEngine.addToIndex(topic);
+		this.searchEngine.commit(VIRTUAL_WIKI);
+		IndexSearcher searcher = this.searchEngine.acquireIndexSearcher(VIRTUAL_WIKI);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread rebuild = new Thread(new Runnable() {
+			public void run() {
+				try {
+					searchEngine.refreshIndex();
+				} catch (Exception e) {
+					failure.set(e);
+				}
+			}
+		});
+		try {
+			rebuild.start();
+			// give the rebuild time to reach the swap, which must wait for the searcher
+			rebuild.join(2000);
+			TermQuery query = new TermQuery(new Term(LuceneSearchEngine.FIELD_TOPIC_NAME, topic.getName()));
+			assertEquals("Searcher closed during rebuild", 1, searcher.search(query, 1).totalHits);
+		} finally {
+			this.searchEngine.releaseIndexSearcher(searcher);
+		}
+		rebuild.join(60000);
+		assertFalse("Rebuild did not finish", rebuild.isAlive());
+		assertNull("Rebuild failed", failure.get());
+		assertNull("Rebuild failed", this.searchEngine.getRebuildStatus().getError());
+		assertTrue("Stale document found after rebuild", this.searchEngine.findResults(VIRTUAL_WIKI, "xyzzyomicron", null).isEmpty());
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testSearchAfterShutdown() throws Exception {
+		this.searchEngine.findResults(VIRTUAL_WIKI, "content", null);
+		this.searchEngine.shutdown();
+		// searches after shutdown fail quietly rather than re-opening the index
+		assertTrue("Search after shutdown returned results", this.searchEngine.findResults(VIRTUAL_WIKI, "content", null).isEmpty());
+	}
+}
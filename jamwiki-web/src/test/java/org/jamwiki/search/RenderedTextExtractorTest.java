@@ -0,0 +1,45 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.search;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+/**
+ *
+ */
+public class RenderedTextExtractorTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testExtract() throws Throwable {
+		String html = "<h2><span id=\"Intro\">First &amp; Second</span></h2>\n<p>Some <b>bold</b>text<br/>next&#160;line</p><script type=\"text/javascript\">var x = '<b>';</script><!-- <p>comment</p> --><h3>Third</h3><style>p { color: red; }</style>end";
+		RenderedTextExtractor extractor = new RenderedTextExtractor(html);
+		String text = extractor.getText();
+		assertTrue("Heading not extracted: " + text, text.contains("First & Second"));
+		assertTrue("Inline tags split words: " + text, text.contains("Some boldtext"));
+		assertFalse("Block tags joined words: " + text, text.contains("textnext"));
+		assertFalse("Script content extracted: " + text, text.contains("var x"));
+		assertFalse("Style content extracted: " + text, text.contains("color"));
+		assertFalse("Comment extracted: " + text, text.contains("comment"));
+		assertFalse("Tags not removed: " + text, text.contains("<"));
+		assertTrue("Trailing text not extracted: " + text, text.endsWith("end"));
+		assertEquals("Incorrect headings", "First & Second\nThird", extractor.getHeadings());
+	}
+}
@@ -0,0 +1,140 @@
+/**
+ * Licensed under the GNU LESSER GENERAL PUBLIC LICENSE, version 2.1, dated February 1999.
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the latest version of the GNU Lesser General
+ * Public License as published by the Free Software Foundation;
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program (LICENSE.txt); if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.jamwiki.servlets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.jamwiki.Environment;
+import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.WikiBase;
+import org.jamwiki.WikiException;
+import org.jamwiki.model.Role;
+import org.jamwiki.model.Topic;
+import org.jamwiki.parser.ParserOutput;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
+import static org.junit.Assert.*;
+
+public class PageCacheFilterTest extends JAMWikiUnitTest {
+
+	private static final String PAGE_CONTENT = "<html><body>Page cache test</body></html>";
+	private static final String TOPIC_NAME = "Page Cache Test";
+
+	/**
+	 *
+	 */
+	private MockHttpServletRequest buildRequest(boolean gzip) {
+		MockHttpServletRequest request = new MockHttpServletRequest("GET", "/wiki/en/Page_Cache_Test");
+		if (gzip) {
+			request.addHeader("Accept-Encoding", "gzip, deflate");
+		}
+		return request;
+	}
+
+	/**
+	 *
+	 */
+	private String gunzip(byte[] content) throws IOException {
+		GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(content));
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[1024];
+		int count;
+		while ((count = gzip.read(buffer)) != -1) {
+			bytes.write(buffer, 0, count);
+		}
+		return bytes.toString("UTF-8");
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testPageCache() throws Throwable {
+		final int[] renderCount = new int[1];
+		FilterChain chain = new FilterChain() {
+			public void doFilter(ServletRequest request, ServletResponse response) throws IOException, ServletException {
+				renderCount[0]++;
+				try {
+					Topic topic = WikiBase.getDataHandler().lookupTopic("en", TOPIC_NAME, false);
+					ServletUtil.setTopicValidators((HttpServletRequest)request, (HttpServletResponse)response, "en", topic, new ParserOutput());
+				} catch (WikiException e) {
+					throw new ServletException(e);
+				}
+				response.setContentType("text/html;charset=UTF-8");
+				response.getWriter().write(PAGE_CONTENT);
+			}
+		};
+		PageCacheFilter filter = new PageCacheFilter();
+		this.setupTopic(null, TOPIC_NAME, "Page cache test content");
+		SecurityContextHolder.getContext().setAuthentication(new AnonymousAuthenticationToken("key", "anonymousUser", AuthorityUtils.createAuthorityList(Role.ROLE_ANONYMOUS.getAuthority())));
+		Environment.setBooleanValue(Environment.PROP_TOPIC_PAGE_CACHE, true);
+		try {
+			MockHttpServletResponse response = new MockHttpServletResponse();
+			filter.doFilter(this.buildRequest(false), response, chain);
+			assertEquals("Page not rendered", 1, renderCount[0]);
+			assertEquals("Incorrect rendered content", PAGE_CONTENT, response.getContentAsString());
+			assertEquals("Incorrect Vary header", "Accept-Encoding, Cookie, Accept-Language", response.getHeader("Vary"));
+			// the rendered page is served from the cache to clients that accept gzip
+			response = new MockHttpServletResponse();
+			filter.doFilter(this.buildRequest(true), response, chain);
+			assertEquals("Cached page rendered", 1, renderCount[0]);
+			assertEquals("Cached page not compressed", "gzip", response.getHeader("Content-Encoding"));
+			assertEquals("Incorrect cached content", PAGE_CONTENT, this.gunzip(response.getContentAsByteArray()));
+			Object etag = response.getHeader("ETag");
+			assertNotNull("Entity tag not set for cached page", etag);
+			assertEquals("Incorrect Vary header for cached page", "Accept-Encoding, Cookie, Accept-Language", response.getHeader("Vary"));
+			// clients that do not accept gzip are served normally
+			response = new MockHttpServletResponse();
+			filter.doFilter(this.buildRequest(false), response, chain);
+			assertEquals("Uncompressed page not rendered", 2, renderCount[0]);
+			// conditional requests are answered from the cache
+			MockHttpServletRequest request = this.buildRequest(true);
+			request.addHeader("If-None-Match", etag.toString());
+			response = new MockHttpServletResponse();
+			filter.doFilter(request, response, chain);
+			assertEquals("Incorrect status", HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+			assertEquals("Incorrect Vary header for unmodified page", "Accept-Encoding, Cookie, Accept-Language", response.getHeader("Vary"));
+			assertEquals("Unmodified page rendered", 2, renderCount[0]);
+			// updating the topic invalidates the cached page
+			this.setupTopic(null, TOPIC_NAME, "Updated page cache test content");
+			response = new MockHttpServletResponse();
+			filter.doFilter(this.buildRequest(true), response, chain);
+			assertEquals("Updated page not rendered", 3, renderCount[0]);
+			assertEquals("Incorrect rendered content", PAGE_CONTENT, response.getContentAsString());
+			// nothing is cached when the page cache is disabled
+			Environment.setBooleanValue(Environment.PROP_TOPIC_PAGE_CACHE, false);
+			response = new MockHttpServletResponse();
+			filter.doFilter(this.buildRequest(true), response, chain);
+			assertEquals("Disabled cache used", 4, renderCount[0]);
+		} finally {
+			Environment.setBooleanValue(Environment.PROP_TOPIC_PAGE_CACHE, false);
+			SecurityContextHolder.clearContext();
+		}
+	}
+}
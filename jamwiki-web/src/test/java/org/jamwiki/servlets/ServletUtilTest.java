@@ -19,7 +19,90 @@
 package org.jamwiki.servlets;
 
 import org.jamwiki.JAMWikiUnitTest;
+import org.jamwiki.model.Role;
+import org.jamwiki.model.Topic;
+import org.jamwiki.parser.ParserOutput;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.authority.AuthorityUtils;
+import org.springframework.security.core.context.SecurityContextHolder;
 import static org.junit.Assert.*;
 
 public class ServletUtilTest extends JAMWikiUnitTest {
+
+	/**
+	 *
+	 */
+	@Test
+	public void testIsNotModified() throws Throwable {
+		long lastModified = 1300000000000L;
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		assertFalse("Unconditional request not modified", ServletUtil.isNotModified(request, "\"1-2\"", lastModified));
+		request.addHeader("If-Modified-Since", lastModified + 500);
+		assertTrue("Current date not matched", ServletUtil.isNotModified(request, "\"1-2\"", lastModified));
+		assertFalse("Newer content not modified", ServletUtil.isNotModified(request, "\"1-2\"", lastModified + 1000));
+		// If-None-Match takes precedence over If-Modified-Since
+		request.addHeader("If-None-Match", "\"1-1\", W/\"1-2\"");
+		assertTrue("Matching entity tag not matched", ServletUtil.isNotModified(request, "\"1-2\"", lastModified));
+		assertFalse("Different entity tag matched", ServletUtil.isNotModified(request, "\"1-3\"", lastModified));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testParseByteRange() throws Throwable {
+		assertArrayEquals("Incorrect range", new long[] {0, 499}, ServletUtil.parseByteRange("bytes=0-499", 1000));
+		assertArrayEquals("Incorrect open range", new long[] {500, 999}, ServletUtil.parseByteRange("bytes=500-", 1000));
+		assertArrayEquals("Incorrect suffix range", new long[] {900, 999}, ServletUtil.parseByteRange("bytes=-100", 1000));
+		assertArrayEquals("Range not truncated", new long[] {500, 999}, ServletUtil.parseByteRange("bytes=500-5000", 1000));
+		assertArrayEquals("Suffix range not truncated", new long[] {0, 999}, ServletUtil.parseByteRange("bytes=-5000", 1000));
+		// ranges starting beyond the end of the content cannot be satisfied
+		assertEquals("Unsatisfiable range accepted", 0, ServletUtil.parseByteRange("bytes=1000-", 1000).length);
+		assertEquals("Empty suffix range accepted", 0, ServletUtil.parseByteRange("bytes=-0", 1000).length);
+		// invalid and multiple ranges are ignored
+		assertNull("Missing range not ignored", ServletUtil.parseByteRange(null, 1000));
+		assertNull("Invalid range not ignored", ServletUtil.parseByteRange("bytes=500-400", 1000));
+		assertNull("Invalid unit not ignored", ServletUtil.parseByteRange("items=0-1", 1000));
+		assertNull("Non-numeric range not ignored", ServletUtil.parseByteRange("bytes=a-b", 1000));
+		assertNull("Multiple ranges not ignored", ServletUtil.parseByteRange("bytes=0-1,5-6", 1000));
+	}
+
+	/**
+	 *
+	 */
+	@Test
+	public void testTopicValidators() throws Throwable {
+		SecurityContextHolder.getContext().setAuthentication(new AnonymousAuthenticationToken("key", "anonymousUser", AuthorityUtils.createAuthorityList(Role.ROLE_ANONYMOUS.getAuthority())));
+		try {
+			Topic topic = this.setupTopic(null, "Validator Test", "Validator content [[Validator Test Link]]");
+			ParserOutput parserOutput = new ParserOutput();
+			parserOutput.addLink("Validator Test Link");
+			MockHttpServletRequest request = new MockHttpServletRequest("GET", "/wiki/en/Validator_Test");
+			MockHttpServletResponse response = new MockHttpServletResponse();
+			assertFalse("Unrendered topic not modified", ServletUtil.isTopicNotModified(request, response, "en", topic));
+			ServletUtil.setTopicValidators(request, response, "en", topic, parserOutput);
+			Object etag = response.getHeader("ETag");
+			assertNotNull("Entity tag not set", etag);
+			assertNotNull("Last-Modified not set for anonymous user", response.getHeader("Last-Modified"));
+			assertEquals("Incorrect Vary header", ServletUtil.TOPIC_VARY_HEADERS, response.getHeader("Vary"));
+			request.addHeader("If-None-Match", etag.toString());
+			response = new MockHttpServletResponse();
+			assertTrue("Matching entity tag not matched", ServletUtil.isTopicNotModified(request, response, "en", topic));
+			assertEquals("Incorrect status", 304, response.getStatus());
+			// creating a linked topic changes the rendered link, so the page is modified
+			this.setupTopic(null, "Validator Test Link", "Validator link content");
+			response = new MockHttpServletResponse();
+			assertFalse("Linked topic creation not detected", ServletUtil.isTopicNotModified(request, response, "en", topic));
+			// non-cacheable output is never validated
+			parserOutput.setCacheable(false);
+			response = new MockHttpServletResponse();
+			ServletUtil.setTopicValidators(request, response, "en", topic, parserOutput);
+			assertNull("Entity tag set for uncacheable output", response.getHeader("ETag"));
+		} finally {
+			SecurityContextHolder.clearContext();
+		}
+	}
 }